@@ -229,6 +229,11 @@ dependencies {
     // Flow testing
     testImplementation("app.cash.turbine:turbine:1.0.0")
     
+    // HTTP client tests against a local server
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
+    // Real org.json for plain JVM tests (android.jar only ships stubs)
+    testImplementation("org.json:json:20231013")
+    
     // AndroidX testing
     testImplementation("androidx.arch.core:core-testing:2.2.0")
     testImplementation("androidx.test:core:1.5.0")
@@ -295,6 +300,12 @@ tasks.withType<Test>().configureEach {
             languageVersion.set(JavaLanguageVersion.of(17))
         }
     )
+    // 压测规模和计时基准开关透传给测试 JVM，例如：
+    // ./gradlew testDebugUnitTest --tests '*LoadHarnessTest' -Dloadtest.concurrency=32 -Dloadtest.operations=2000
+    // ./gradlew testDebugUnitTest -Dbenchmark=true
+    System.getProperties()
+        .filterKeys { it.toString().startsWith("loadtest.") || it == "benchmark" }
+        .forEach { (key, value) -> systemProperty(key.toString(), value) }
 }
 
 jacoco {
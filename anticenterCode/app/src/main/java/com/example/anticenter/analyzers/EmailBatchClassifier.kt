@@ -0,0 +1,90 @@
+package com.example.anticenter.analyzers
+
+import com.example.anticenter.data.PhishingData
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Classifies a burst of emails with one shared [EmailDetector] and a bounded number of
+ * workflow calls in flight.
+ *
+ * The Dify workflow takes a single `InputText`, so emails cannot be packed into one request.
+ * Instead each poll's emails are classified together: duplicates (same messageId) are sent
+ * once and at most [concurrency] calls run at a time across all callers. Results are mapped
+ * back by messageId. Emails already known to the optional [cache] skip the workflow entirely.
+ *
+ * @param concurrency Maximum number of workflow calls in flight
+ */
+class EmailBatchClassifier(
+    private val detector: EmailDetector,
+    val concurrency: Int = DEFAULT_CONCURRENCY,
+    private val cache: EmailVerdictCache? = null
+) {
+
+    companion object {
+        const val DEFAULT_CONCURRENCY = 4
+
+        /** Key used to map results back; emails without a messageId are keyed by content */
+        fun keyOf(email: PhishingData): String =
+            email.metadata["messageId"]?.takeIf { it.isNotEmpty() && it != "N/A" }
+                ?: "content:${email.content.hashCode()}"
+    }
+
+    /**
+     * Counters since creation
+     *
+     * @param emails Emails submitted, including duplicates
+     * @param calls Workflow calls made
+     * @param busyMs Sum of per-call latencies
+     */
+    data class Stats(val emails: Long, val calls: Long, val busyMs: Long)
+
+    private val permits = Semaphore(concurrency)
+    private val emails = AtomicLong()
+    private val calls = AtomicLong()
+    private val busyMs = AtomicLong()
+
+    init {
+        require(concurrency > 0) { "concurrency must be positive" }
+    }
+
+    /**
+     * Classify all emails and return (isPhishing, explanation) per [keyOf].
+     *
+     * @param onProvisional Called with the early decision ("phishing"/"safe") of each email
+     * @param onDebug Debug messages from the detector
+     */
+    suspend fun classifyAll(
+        batch: List<PhishingData>,
+        onProvisional: ((PhishingData, String) -> Unit)? = null,
+        onDebug: ((String) -> Unit)? = null
+    ): Map<String, Pair<Boolean, String?>> = coroutineScope {
+        emails.addAndGet(batch.size.toLong())
+        batch.distinctBy { keyOf(it) }
+            .map { email ->
+                async {
+                    cache?.get(email)?.let { return@async keyOf(email) to (it.isPhishing to it.explanation) }
+                    permits.withPermit {
+                        val start = System.currentTimeMillis()
+                        calls.incrementAndGet()
+                        val verdict = detector.classify(
+                            email,
+                            onProvisional = onProvisional?.let { callback -> { decision -> callback(email, decision) } },
+                            onDebug = onDebug
+                        )
+                        busyMs.addAndGet(System.currentTimeMillis() - start)
+                        cache?.put(email, verdict)
+                        keyOf(email) to (verdict.isPhishing to verdict.explanation)
+                    }
+                }
+            }
+            .awaitAll()
+            .toMap()
+    }
+
+    fun stats(): Stats = Stats(emails.get(), calls.get(), busyMs.get())
+}
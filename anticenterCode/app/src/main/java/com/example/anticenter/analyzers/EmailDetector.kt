@@ -2,27 +2,50 @@ package com.example.anticenter.analyzers
 
 import com.example.anticenter.BuildConfig
 import com.example.anticenter.data.PhishingData // Import for PhishingData
+import com.example.anticenter.network.BackendGuard
+import com.example.anticenter.network.DifyWorkflowStream
+import com.example.anticenter.network.HttpClients
+import com.example.anticenter.services.DetectionScheduler
+import com.example.anticenter.services.DifyVoiceDetector
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
-import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
-import okhttp3.Request
-import okhttp3.RequestBody.Companion.toRequestBody
 import org.json.JSONObject
 import java.io.IOException
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.RejectedExecutionException
+import kotlin.math.roundToInt
 import kotlin.text.get
 
-class EmailDetector(private val apiKey: String) {
+class EmailDetector(
+    private val apiKey: String,
+    private val apiUrl: String = DEFAULT_API_URL,
+    // Adaptive limit and circuit breaker shared with every other Dify caller; email waits behind live audio
+    private val guard: BackendGuard = BackendGuard.forBackend("dify", DifyVoiceDetector.BACKEND_MAX_CONCURRENCY)
+) {
 
-    private val client = OkHttpClient.Builder()
-        .connectTimeout(30, TimeUnit.SECONDS)
-        .readTimeout(30, TimeUnit.SECONDS)
-        .writeTimeout(30, TimeUnit.SECONDS)
-        .build()
+    companion object {
+        const val DEFAULT_API_URL = "https://api.dify.ai/v1/workflows/run"
+
+        private val PRIORITY = DetectionScheduler.Priority.EMAIL
+    }
+
+    /**
+     * Outcome of one classification.
+     *
+     * @param succeeded false when no decision could be obtained (network or parse error);
+     *                  such verdicts are reported as not phishing but must not be cached
+     * @param totalTokens LLM tokens the workflow run consumed (data.total_tokens), 0 if unknown
+     */
+    data class Verdict(
+        val isPhishing: Boolean,
+        val explanation: String?,
+        val totalTokens: Int,
+        val succeeded: Boolean
+    )
 
-    private val apiUrl = "https://api.dify.ai/v1/workflows/run"
-    private val jsonMediaType = "application/json".toMediaType()
+    private val client: OkHttpClient = HttpClients.client(HttpClients.Profile.WORKFLOW).newBuilder()
+        .addInterceptor(guard.interceptor)
+        .build()
 
     private fun cleanEmailText(text: String?): String {
         if (text.isNullOrBlank()) return ""
@@ -44,9 +67,12 @@ class EmailDetector(private val apiKey: String) {
 
     // Renamed from callPhishingApi to avoid confusion with the previous version if it's still around
     // and made internal as it's an implementation detail of this detector.
+    // The workflow runs in streaming mode; onProvisional gets the decision ("phishing"/"safe") as soon
+    // as the LLM has written it, and the returned JSON has the same shape as a blocking response.
     internal suspend fun fetchPhishingPredictionFromApi(
         emailText: String,
-        onDebug: ((String) -> Unit)? = null
+        onDebug: ((String) -> Unit)? = null,
+        onProvisional: ((String) -> Unit)? = null
     ): Pair<JSONObject?, Double> = withContext(Dispatchers.IO) {
         val cleanedText = cleanEmailText(emailText)
         if (cleanedText.isEmpty()) {
@@ -54,41 +80,45 @@ class EmailDetector(private val apiKey: String) {
             return@withContext Pair(null, 0.0)
         }
 
-        val payload = JSONObject().apply {
-            put("inputs", JSONObject().apply { put("InputText", cleanedText) })
-            put("response_mode", "blocking")
-            put("user", BuildConfig.DIFY_USER_EMAIL)
-        }
-        onDebug?.invoke("EmailDetector: Sending API request with payload: ${payload.toString().take(200)}")
+        val inputs = JSONObject().apply { put("InputText", cleanedText) }
+        onDebug?.invoke("EmailDetector: Sending API request with inputs: ${inputs.toString().take(200)}")
 
-        val requestBody = payload.toString().toRequestBody(jsonMediaType)
-        val request = Request.Builder()
-            .url(apiUrl)
-            .addHeader("Content-Type", "application/json")
-            .addHeader("Authorization", "Bearer $apiKey")
-            .post(requestBody)
-            .build()
+        val request = DifyWorkflowStream.newRequest(apiUrl, apiKey, inputs, BuildConfig.DIFY_USER_EMAIL)
+        val stream = DifyWorkflowStream { provisional ->
+            val decision = when (provisional.verdict.uppercase()) {
+                "TRUE" -> "phishing"
+                "FALSE" -> "safe"
+                else -> mapDecision(provisional.verdict.lowercase(), ((provisional.confidence ?: 0.0) * 10).roundToInt())
+            }
+            onDebug?.invoke("EmailDetector: Provisional decision after ${provisional.elapsedMs}ms: $decision")
+            onProvisional?.invoke(decision)
+        }
 
         val startTime = System.currentTimeMillis()
+        val dueAt = startTime + PRIORITY.defaultSoftDeadlineMs
         try {
-            client.newCall(request).execute().use { response -> // Use 'use' to ensure closure
-                val processingTime = (System.currentTimeMillis() - startTime) / 1000.0
-                onDebug?.invoke("EmailDetector: API Response code: ${response.code}")
-                val responseBodyString = response.body?.string() // Read body once
-
-                if (response.isSuccessful) {
-                    onDebug?.invoke("EmailDetector: API Response body: ${responseBodyString?.take(500)}")
-                    if (!responseBodyString.isNullOrEmpty()) {
-                        return@withContext Pair(JSONObject(responseBodyString), processingTime)
+            // Waits (without holding a thread) while Dify's circuit is open or its limit is reached
+            return@withContext guard.withPermit<Pair<JSONObject?, Double>>(PRIORITY.defaultSoftDeadlineMs, PRIORITY.ordinal, dueAt) {
+                client.newCall(request).execute().use { response -> // Use 'use' to ensure closure
+                    onDebug?.invoke("EmailDetector: API Response code: ${response.code}")
+
+                    if (response.isSuccessful) {
+                        val result = stream.read(response)
+                        val processingTime = (System.currentTimeMillis() - startTime) / 1000.0
+                        onDebug?.invoke("EmailDetector: API Response body: ${result.toString().take(500)}")
+                        Pair(result, processingTime)
                     } else {
-                        onDebug?.invoke("EmailDetector: API returned empty successful response body")
-                        return@withContext Pair(null, processingTime) // Or handle as error
+                        val processingTime = (System.currentTimeMillis() - startTime) / 1000.0
+                        val responseBodyString = response.body?.string()
+                        onDebug?.invoke("EmailDetector: API Error: HTTP ${response.code} - ${responseBodyString?.take(500)}")
+                        Pair(null, processingTime) // Return time even on error
                     }
-                } else {
-                    onDebug?.invoke("EmailDetector: API Error: HTTP ${response.code} - ${responseBodyString?.take(500)}")
-                    return@withContext Pair(null, processingTime) // Return time even on error
                 }
             }
+        } catch (e: RejectedExecutionException) {
+            val processingTime = (System.currentTimeMillis() - startTime) / 1000.0
+            onDebug?.invoke("EmailDetector: Dify is overloaded, skipped: ${e.message}")
+            return@withContext Pair(null, processingTime)
         } catch (e: IOException) {
             val processingTime = (System.currentTimeMillis() - startTime) / 1000.0
             onDebug?.invoke("EmailDetector: Network error during API call: ${e.message}")
@@ -181,13 +211,7 @@ class EmailDetector(private val apiKey: String) {
 
             // Standardize decision based on parsed JSON
             // This mapping is now effectively a fallback if TRUE:/FALSE: wasn't hit
-            val mappedDecision = when (decision) {
-                "benign" -> "safe"
-                "phishing" -> "phishing"
-                "spam" -> "safe"
-                else -> if (likelihood >= 5) "phishing" else "safe"
-            }
-            return Pair(mappedDecision, explanation)
+            return Pair(mapDecision(decision, likelihood), explanation)
 
         } catch (e: Exception) {
             onDebug?.invoke("EmailDetector: Error parsing LLM response: ${e.message}")
@@ -196,6 +220,13 @@ class EmailDetector(private val apiKey: String) {
         }
     }
 
+    private fun mapDecision(decision: String, likelihood: Int): String = when (decision) {
+        "benign" -> "safe"
+        "phishing" -> "phishing"
+        "spam" -> "safe"
+        else -> if (likelihood >= 5) "phishing" else "safe"
+    }
+
     /**
      * Normalize textual decision to binary values (0 for safe, 1 for phishing).
      * The groundTruth parameter is kept for consistency with original but not used in live analysis.
@@ -233,6 +264,7 @@ class EmailDetector(private val apiKey: String) {
      * Analyzes PhishingData (expected to be an email) to determine if it's phishing.
      *
      * @param phishingData The PhishingData object containing the email content.
+     * @param onProvisional Optional callback with the early decision ("phishing"/"safe"), before the explanation.
      * @param onDebug Optional callback for debug messages.
      * @return Pair<Boolean, String?>:
      *         - Boolean: true if classified as phishing, false otherwise or on error.
@@ -240,30 +272,42 @@ class EmailDetector(private val apiKey: String) {
      */
     suspend fun analyzeEmailForPhishing(
         phishingData: PhishingData,
+        onProvisional: ((String) -> Unit)? = null,
+        onDebug: ((String) -> Unit)? = null
+    ): Pair<Boolean, String?> = classify(phishingData, onProvisional, onDebug).let { it.isPhishing to it.explanation }
+
+    /**
+     * Same as [analyzeEmailForPhishing], additionally reporting token usage and whether a
+     * decision was actually obtained.
+     */
+    suspend fun classify(
+        phishingData: PhishingData,
+        onProvisional: ((String) -> Unit)? = null,
         onDebug: ((String) -> Unit)? = null
-    ): Pair<Boolean, String?> {
+    ): Verdict {
         if (phishingData.dataType != "Email") {
             onDebug?.invoke("EmailDetector: Warning: analyzeEmailForPhishing called with dataType '${phishingData.dataType}'. Processing content anyway.")
         }
 
         if (phishingData.content.isBlank()) {
             onDebug?.invoke("EmailDetector: Email content is blank. Cannot analyze.")
-            return Pair(false, "Email content is blank")
+            return Verdict(false, "Email content is blank", 0, succeeded = false)
         }
 
         onDebug?.invoke("EmailDetector: Analyzing email content for phishing (ID: ${phishingData.metadata["messageId"] ?: "Unknown"})...")
-        val (apiResponse, _) = fetchPhishingPredictionFromApi(phishingData.content, onDebug)
+        val (apiResponse, _) = fetchPhishingPredictionFromApi(phishingData.content, onDebug, onProvisional)
 
         if (apiResponse == null) {
             onDebug?.invoke("EmailDetector: API response was null. Cannot determine phishing status.")
-            return Pair(false, "API response was null")
+            return Verdict(false, "API response was null", 0, succeeded = false)
         }
+        val totalTokens = apiResponse.optJSONObject("data")?.optInt("total_tokens", 0) ?: 0
 
         val (decisionText, explanation) = parseLlmApiResponse(apiResponse, onDebug)
 
         if (decisionText == null) {
             onDebug?.invoke("EmailDetector: Failed to parse or get a decision text from API response. Explanation: $explanation")
-            return Pair(false, explanation ?: "Failed to get a decision from API response")
+            return Verdict(false, explanation ?: "Failed to get a decision from API response", totalTokens, succeeded = false)
         }
 
         // Use normalizeDecision to get a binary prediction
@@ -273,6 +317,6 @@ class EmailDetector(private val apiKey: String) {
         val isPhishing = predictedBinary == 1
         onDebug?.invoke("EmailDetector: Final phishing assessment: $isPhishing. (Text: '$decisionText', Binary: $predictedBinary). Explanation: $explanation")
 
-        return Pair(isPhishing, explanation)
+        return Verdict(isPhishing, explanation, totalTokens, succeeded = predictedBinary != null)
     }
 }
@@ -0,0 +1,234 @@
+package com.example.anticenter.analyzers
+
+import android.util.Log
+import com.example.anticenter.data.PhishingData
+import com.example.anticenter.utils.XxHash64
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Remembers email verdicts so the same email is never sent to the LLM twice.
+ *
+ * Gmail polling can return an email again (the `after:` query is second-granular and the
+ * last-query timestamp is reset on a fresh install), and forwarded or duplicated emails carry
+ * the same body under a new messageId. Entries are looked up by Gmail messageId first, then by
+ * a hash of the normalized body (see [normalize]).
+ *
+ * - Persistence is delegated to a [Store] (SQLite in the app, see EmailVerdictStore; [MemoryStore] in tests)
+ * - Entries older than [ttlMs] are ignored; beyond [maxEntries] the least recently used are evicted
+ * - Only successful verdicts are stored
+ */
+class EmailVerdictCache(
+    private val store: Store,
+    private val ttlMs: Long = DEFAULT_TTL_MS,
+    private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    companion object {
+        private const val TAG = "EmailVerdictCache"
+
+        const val DEFAULT_TTL_MS = 30L * 24 * 60 * 60 * 1000
+        const val DEFAULT_MAX_ENTRIES = 2_000
+
+        // Run TTL / size eviction every this many writes
+        private const val EVICT_EVERY = 32
+
+        private val FORWARD_MARKER = Regex("^-{2,}\\s*(forwarded|original) message\\s*-{2,}$", RegexOption.IGNORE_CASE)
+        private val FORWARD_HEADER = Regex("^(from|sent|date|to|cc|subject):.*", RegexOption.IGNORE_CASE)
+        private val QUOTE_PREFIX = Regex("^(>\\s*)+")
+        private val WHITESPACE = Regex("\\s+")
+
+        /**
+         * Body text reduced to what decides the verdict: forward banners and the header block
+         * right after them, quote markers and whitespace differences are dropped.
+         *
+         * Header-like lines elsewhere in the body ("To: accounts payable") and letter case are
+         * kept, so two emails differing only there (or in a case-sensitive URL) are not merged.
+         */
+        fun normalize(body: String): String {
+            val kept = ArrayList<String>()
+            var inForwardHeader = false
+            for (raw in body.lineSequence()) {
+                val line = raw.trim().replace(QUOTE_PREFIX, "")
+                when {
+                    FORWARD_MARKER.matches(line) -> inForwardHeader = true
+                    inForwardHeader && FORWARD_HEADER.matches(line) -> Unit
+                    else -> {
+                        inForwardHeader = false
+                        kept += line
+                    }
+                }
+            }
+            return kept.joinToString(" ").replace(WHITESPACE, " ").trim()
+        }
+
+        fun contentHash(body: String): String =
+            XxHash64.toHex(XxHash64.hash(normalize(body).toByteArray(Charsets.UTF_8)))
+
+        /** Gmail messageId of the email, or null when it has none */
+        fun messageIdOf(email: PhishingData): String? =
+            email.metadata["messageId"]?.takeIf { it.isNotEmpty() && it != "N/A" }
+    }
+
+    /**
+     * A cached verdict
+     *
+     * @param totalTokens LLM tokens the original classification consumed
+     */
+    data class Entry(
+        val contentHash: String,
+        val messageId: String?,
+        val isPhishing: Boolean,
+        val explanation: String?,
+        val totalTokens: Int,
+        val createdAt: Long,
+        val lastAccess: Long
+    )
+
+    /**
+     * Persistence for the cache
+     */
+    interface Store {
+        fun findByMessageId(messageId: String): Entry?
+        fun findByContentHash(contentHash: String): Entry?
+        fun put(entry: Entry)
+        fun touch(contentHash: String, accessedAt: Long)
+        fun remove(contentHash: String)
+
+        /**
+         * Delete entries created before [expiredBefore], then keep the [maxEntries] most recently used
+         *
+         * @return Number of entries deleted
+         */
+        fun evict(expiredBefore: Long, maxEntries: Int): Int
+    }
+
+    /**
+     * In-process store (tests, or fallback when the database is unavailable)
+     */
+    class MemoryStore : Store {
+        private val entries = LinkedHashMap<String, Entry>()
+
+        @Synchronized
+        override fun findByMessageId(messageId: String): Entry? = entries.values.find { it.messageId == messageId }
+
+        @Synchronized
+        override fun findByContentHash(contentHash: String): Entry? = entries[contentHash]
+
+        @Synchronized
+        override fun put(entry: Entry) {
+            entries[entry.contentHash] = entry
+        }
+
+        @Synchronized
+        override fun touch(contentHash: String, accessedAt: Long) {
+            entries[contentHash]?.let { entries[contentHash] = it.copy(lastAccess = accessedAt) }
+        }
+
+        @Synchronized
+        override fun remove(contentHash: String) {
+            entries.remove(contentHash)
+        }
+
+        @Synchronized
+        override fun evict(expiredBefore: Long, maxEntries: Int): Int {
+            val before = entries.size
+            entries.values.removeAll { it.createdAt < expiredBefore }
+            if (entries.size > maxEntries) {
+                entries.values.sortedBy { it.lastAccess }
+                    .take(entries.size - maxEntries)
+                    .forEach { entries.remove(it.contentHash) }
+            }
+            return before - entries.size
+        }
+
+        @get:Synchronized
+        val size: Int
+            get() = entries.size
+    }
+
+    /**
+     * Hit statistics
+     *
+     * @param avoidedTokens LLM tokens not spent thanks to hits
+     */
+    data class Stats(
+        val lookups: Long,
+        val messageIdHits: Long,
+        val contentHits: Long,
+        val avoidedTokens: Long
+    ) {
+        val hitRatio: Double
+            get() = if (lookups > 0) (messageIdHits + contentHits).toDouble() / lookups else 0.0
+
+        override fun toString(): String =
+            "lookups=$lookups, messageIdHits=$messageIdHits, contentHits=$contentHits, " +
+                "hitRatio=${"%.1f".format(hitRatio * 100)}%, avoidedTokens=$avoidedTokens"
+    }
+
+    private val lookups = AtomicLong()
+    private val messageIdHits = AtomicLong()
+    private val contentHits = AtomicLong()
+    private val avoidedTokens = AtomicLong()
+    private val writes = AtomicLong()
+
+    /**
+     * Cached verdict for [email], or null on a miss
+     */
+    fun get(email: PhishingData): Entry? {
+        lookups.incrementAndGet()
+        val now = clock()
+        val messageId = messageIdOf(email)
+        try {
+            val byId = messageId?.let { store.findByMessageId(it) }?.takeIf { fresh(it, now) }
+            if (byId != null) {
+                messageIdHits.incrementAndGet()
+                return hit(byId, now)
+            }
+            val hash = contentHash(email.content)
+            val byContent = store.findByContentHash(hash) ?: return null
+            if (!fresh(byContent, now)) {
+                store.remove(hash)
+                return null
+            }
+            contentHits.incrementAndGet()
+            Log.i(TAG, "♻️ Same content as message ${byContent.messageId}, reusing verdict for $messageId")
+            return hit(byContent, now)
+        } catch (e: Exception) {
+            Log.w(TAG, "Verdict cache read failed: ${e.message}")
+            return null
+        }
+    }
+
+    /**
+     * Store a verdict; failed classifications are ignored
+     */
+    fun put(email: PhishingData, verdict: EmailDetector.Verdict) {
+        if (!verdict.succeeded) return
+        try {
+            val now = clock()
+            store.put(
+                Entry(
+                    contentHash(email.content), messageIdOf(email), verdict.isPhishing,
+                    verdict.explanation, verdict.totalTokens, now, now
+                )
+            )
+            if (writes.incrementAndGet() % EVICT_EVERY == 0L) {
+                val evicted = store.evict(now - ttlMs, maxEntries)
+                if (evicted > 0) Log.d(TAG, "Evicted $evicted verdicts")
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Verdict cache write failed: ${e.message}")
+        }
+    }
+
+    fun stats(): Stats = Stats(lookups.get(), messageIdHits.get(), contentHits.get(), avoidedTokens.get())
+
+    private fun fresh(entry: Entry, now: Long) = now - entry.createdAt <= ttlMs
+
+    private fun hit(entry: Entry, now: Long): Entry {
+        avoidedTokens.addAndGet(entry.totalTokens.toLong())
+        store.touch(entry.contentHash, now)
+        return entry
+    }
+}
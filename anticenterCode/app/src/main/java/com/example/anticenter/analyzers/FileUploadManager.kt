@@ -4,17 +4,27 @@ import android.content.Context
 import android.net.Uri
 import android.util.Log
 import com.example.anticenter.BuildConfig
+import com.example.anticenter.audio.AudioFingerprint
+import com.example.anticenter.network.BackendGuard
+import com.example.anticenter.network.HedgedCall
+import com.example.anticenter.network.HttpClients
+import com.example.anticenter.network.UploadRunPipeline
+import com.example.anticenter.network.UriRequestBody
+import com.example.anticenter.services.DetectionResultCache
+import com.example.anticenter.services.DetectionScheduler
+import com.example.anticenter.services.DifyVoiceDetector
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.future.future
 import kotlinx.coroutines.withContext
 import okhttp3.*
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.RequestBody.Companion.asRequestBody
 import org.json.JSONObject
 import java.io.File
-import java.io.FileOutputStream
 import java.io.IOException
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.RejectedExecutionException
 
 /**
  * Data class for file test results
@@ -30,32 +40,104 @@ data class FileTestResult(
     val totalSteps: Int,
     val match: Boolean,
     val uploadTime: Double
-)
+) {
+    /**
+     * Serialize for the detection result cache
+     */
+    fun toJson(): String = JSONObject()
+        .put("fileName", fileName)
+        .put("groundTruth", groundTruth)
+        .put("llmDecision", llmDecision)
+        .put("confidence", confidence)
+        .put("llmExplanation", llmExplanation)
+        .put("processingTime", processingTime)
+        .put("totalTokens", totalTokens)
+        .put("totalSteps", totalSteps)
+        .put("match", match)
+        .put("uploadTime", uploadTime)
+        .toString()
+
+    companion object {
+        /** Result cache namespace for call-recording uploads, separate from the Zoom detectors' */
+        const val CACHE_NAME = "dify-call"
+
+        fun fromJson(json: String): FileTestResult {
+            val obj = JSONObject(json)
+            return FileTestResult(
+                fileName = obj.getString("fileName"),
+                groundTruth = obj.getString("groundTruth"),
+                llmDecision = obj.getString("llmDecision"),
+                confidence = obj.getDouble("confidence"),
+                llmExplanation = obj.getString("llmExplanation"),
+                processingTime = obj.optDouble("processingTime", 0.0),
+                totalTokens = obj.optInt("totalTokens", 0),
+                totalSteps = obj.optInt("totalSteps", 0),
+                match = obj.optBoolean("match", false),
+                uploadTime = obj.optDouble("uploadTime", 0.0)
+            )
+        }
+    }
+}
+
+/**
+ * Look an upload up in the content-hash cache and run [upload] only on a miss
+ *
+ * Concurrent uploads of the same content share one request. A cached or shared result
+ * was recorded for another file, so it is rebound to [fileName]; failures (null) are not cached.
+ */
+internal suspend fun DetectionResultCache.getOrUpload(
+    hash: Long,
+    fileName: String,
+    sizeBytes: Long,
+    upload: suspend () -> FileTestResult?
+): FileTestResult? = coroutineScope {
+    getOrCompute<FileTestResult?>(
+        FileTestResult.CACHE_NAME, hash, sizeBytes,
+        encode = { it!!.toJson() },
+        decode = { FileTestResult.fromJson(it) },
+        compute = { future { upload() } }
+    ).await()?.let { if (it.fileName == fileName) it else it.copy(fileName = fileName) }
+}
 
 /**
  * Enhanced File Upload Manager with file size validation
+ *
+ * @param baseUrl Dify API root (without a trailing slash); tests point it at a local fake server
+ * @param resultCache Content-hash cache; snapshots whose audio was already analyzed are not uploaded again
  */
-class FileUploadManager(private val context: Context, private val apiKey: String) {
+class FileUploadManager(
+    private val context: Context,
+    private val apiKey: String,
+    baseUrl: String = DEFAULT_BASE_URL,
+    private val resultCache: DetectionResultCache? = null
+) {
 
     companion object {
         private const val TAG = "FileUploadManager"
-        private const val UPLOAD_URL = "https://api.dify.ai/v1/files/upload"
-        private const val WORKFLOW_URL = "https://api.dify.ai/v1/workflows/run"
+        const val DEFAULT_BASE_URL = "https://api.dify.ai/v1"
         private val USER_EMAIL = BuildConfig.DIFY_USER_EMAIL
 
-        // Timeout settings
-        private const val CONNECT_TIMEOUT = 90L
-        private const val READ_TIMEOUT = 90L
-        private const val WRITE_TIMEOUT = 90L
-
         // Minimum valid file size (100 bytes)
         private const val MIN_FILE_SIZE = 100L
+
+        // Upload → run state machine shared by all instances, so its phase histograms cover every file
+        val pipeline = UploadRunPipeline(TAG)
+
+        // Dify slots shared with the Zoom detectors, so call snapshots are not queued behind meeting audio
+        private val scheduler = DetectionScheduler.forBackend("dify")
+
+        // Adaptive limit and circuit breaker shared with every other Dify caller
+        private val guard = BackendGuard.forBackend("dify", DifyVoiceDetector.BACKEND_MAX_CONCURRENCY)
+
+        // Workflow runs stuck in Dify's slow tail are sent a second time, within a shared 10% budget
+        private val workflowHedge = HedgedCall.forEndpoint("dify-workflow")
     }
 
-    private val client = OkHttpClient.Builder()
-        .connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
-        .readTimeout(READ_TIMEOUT, TimeUnit.SECONDS)
-        .writeTimeout(WRITE_TIMEOUT, TimeUnit.SECONDS)
+    private val uploadUrl = "$baseUrl/files/upload"
+    private val workflowUrl = "$baseUrl/workflows/run"
+
+    // Derived from the shared client so the logging interceptor doesn't cost a separate connection pool
+    private val client = HttpClients.client(HttpClients.Profile.LARGE_UPLOAD).newBuilder()
         .addInterceptor { chain ->
             val request = chain.request()
             Log.d(TAG, "=== REQUEST ===")
@@ -73,21 +155,96 @@ class FileUploadManager(private val context: Context, private val apiKey: String
                 throw e
             }
         }
+        .addInterceptor(guard.interceptor)
         .build()
 
     /**
      * Upload a file and immediately test it for phishing
+     *
+     * The content is streamed straight from the URI into the request; nothing is
+     * copied into cacheDir first.
+     *
+     * @param priority Queueing class on the shared Dify scheduler; callers upload snapshots of a call in progress
      */
     suspend fun uploadAndTestFile(
         uri: Uri,
         fileName: String,
         groundTruth: String,
+        priority: DetectionScheduler.Priority = DetectionScheduler.Priority.LIVE_CALL,
         onProgress: ((String) -> Unit)? = null
     ): FileTestResult? = withContext(Dispatchers.IO) {
 
+        Log.d(TAG, "URI: $uri")
+
+        // Check if URI is accessible
+        val accessible = try {
+            context.contentResolver.openInputStream(uri)?.use { true } ?: false
+        } catch (e: Exception) {
+            Log.e(TAG, "ERROR: Cannot open input stream from URI", e)
+            false
+        }
+        if (!accessible) {
+            Log.e(TAG, "ERROR: Cannot open input stream from URI")
+            onProgress?.invoke("Error: Cannot access file")
+            return@withContext null
+        }
+
+        val mimeType = getMimeType(fileName.substringAfterLast('.', ""))
+        val body = UriRequestBody(context.contentResolver, uri, mimeType.toMediaType())
+        uploadAndTestBody(body, fileName, groundTruth, priority, contentHashOf(uri), onProgress)
+    }
+
+    /**
+     * Audio fingerprint of a local file URI, or null when there is no cache or the content is not a plain file
+     */
+    private fun contentHashOf(uri: Uri): Long? {
+        if (resultCache == null || uri.scheme != "file") return null
+        val path = uri.path ?: return null
+        return try {
+            AudioFingerprint.ofFile(File(path))
+        } catch (e: IOException) {
+            Log.w(TAG, "Fingerprint failed for $path, bypassing cache: ${e.message}")
+            null
+        }
+    }
+
+    /**
+     * Upload an in-memory or streamed request body (e.g. [com.example.anticenter.network.WavRequestBody]) and test it for phishing
+     *
+     * Lets recorders upload PCM as WAV without writing a WAV file to disk.
+     * Returns null without uploading if the Dify queue is too far behind, or Dify too overloaded,
+     * to answer within the priority's soft deadline.
+     *
+     * @param contentHash Audio fingerprint of the body ([AudioFingerprint]); with a result cache,
+     *        content that was already analyzed returns the cached verdict without uploading
+     */
+    suspend fun uploadAndTestBody(
+        body: RequestBody,
+        fileName: String,
+        groundTruth: String,
+        priority: DetectionScheduler.Priority = DetectionScheduler.Priority.LIVE_CALL,
+        contentHash: Long? = null,
+        onProgress: ((String) -> Unit)? = null
+    ): FileTestResult? {
+        val cache = resultCache
+        if (cache == null || contentHash == null) {
+            return uploadAndTest(body, fileName, groundTruth, priority, onProgress)
+        }
+        return cache.getOrUpload(contentHash, fileName, maxOf(0L, body.contentLength())) {
+            uploadAndTest(body, fileName, groundTruth, priority, onProgress)
+        }
+    }
+
+    private suspend fun uploadAndTest(
+        body: RequestBody,
+        fileName: String,
+        groundTruth: String,
+        priority: DetectionScheduler.Priority,
+        onProgress: ((String) -> Unit)?
+    ): FileTestResult? = withContext(Dispatchers.IO) {
+
         Log.d(TAG, "========================================")
         Log.d(TAG, "Starting upload and test for: $fileName")
-        Log.d(TAG, "URI: $uri")
         Log.d(TAG, "========================================")
 
         onProgress?.invoke("Preparing $fileName...")
@@ -100,33 +257,46 @@ class FileUploadManager(private val context: Context, private val apiKey: String
                 return@withContext null
             }
 
-            // Step 1: Upload file
-            Log.d(TAG, "STEP 1: Starting file upload...")
-            val uploadStartTime = System.currentTimeMillis()
-            val uploadId = uploadFile(uri, fileName, onProgress)
-            val uploadTime = (System.currentTimeMillis() - uploadStartTime) / 1000.0
+            // Step 1 + 2: Upload, then run the workflow right away; the run is retried
+            // with short backoff only while Dify reports the file as not ready yet.
+            // The slot orders callers by priority, the guard backs off while Dify is overloaded
+            val dueAt = System.currentTimeMillis() + priority.defaultSoftDeadlineMs
+            val outcome = scheduler.withSlot(fileName, priority) {
+                guard.withPermit(dueAt - System.currentTimeMillis(), priority.ordinal, dueAt) {
+                    pipeline.execute(
+                        tag = fileName,
+                        upload = {
+                            Log.d(TAG, "STEP 1: Starting file upload...")
+                            uploadBody(body, fileName, onProgress)
+                        },
+                        run = { uploadId ->
+                            Log.d(TAG, "STEP 2: Starting phishing detection...")
+                            callPhishingApiWithFile(uploadId, onProgress).takeIf { it.first != null }
+                        },
+                        onState = { state ->
+                            when (state) {
+                                UploadRunPipeline.State.RUNNING -> onProgress?.invoke("File uploaded. Testing...")
+                                UploadRunPipeline.State.WAITING_FOR_FILE -> onProgress?.invoke("Waiting for Dify to process the file...")
+                                else -> Unit
+                            }
+                        }
+                    )
+                }
+            }
+            val uploadTime = outcome.uploadMs / 1000.0
 
-            if (uploadId == null) {
+            if (outcome.uploadId == null) {
                 Log.e(TAG, "ERROR: Upload failed - uploadId is null")
                 onProgress?.invoke("❌ Failed to upload $fileName")
                 return@withContext null
             }
 
             Log.d(TAG, "✓ File uploaded successfully")
-            Log.d(TAG, "Upload ID: $uploadId")
-            Log.d(TAG, "Upload time: ${uploadTime}s")
-
-            // CRITICAL: Wait for Dify to process the file
-            Log.d(TAG, "Waiting for file to be processed by Dify...")
-            delay(2000) // Wait 2 seconds for Dify to process
-
-            onProgress?.invoke("File uploaded. Testing...")
-
-            // Step 2: Test the uploaded file
-            Log.d(TAG, "STEP 2: Starting phishing detection...")
-            val testStartTime = System.currentTimeMillis()
-            val (response, testTime) = callPhishingApiWithFile(uploadId, onProgress)
+            Log.d(TAG, "Upload ID: ${outcome.uploadId}")
+            Log.d(TAG, "Upload time: ${uploadTime}s, waited ${outcome.readyWaitMs}ms for readiness " +
+                    "(${outcome.notReadyRetries} retries)")
 
+            val (response, testTime) = outcome.result ?: Pair(null, 0.0)
             if (response == null) {
                 Log.e(TAG, "ERROR: API call failed - response is null")
                 onProgress?.invoke("❌ Failed to analyze $fileName")
@@ -135,6 +305,7 @@ class FileUploadManager(private val context: Context, private val apiKey: String
 
             Log.d(TAG, "✓ API response received")
             Log.d(TAG, "Test time: ${testTime}s")
+            Log.d(TAG, "Pipeline latency: ${pipeline.summary()}")
 
             // Step 3: Parse response
             Log.d(TAG, "STEP 3: Parsing response...")
@@ -173,6 +344,11 @@ class FileUploadManager(private val context: Context, private val apiKey: String
                 match = match,
                 uploadTime = uploadTime
             )
+        } catch (e: RejectedExecutionException) {
+            // Shed or dropped by the scheduler; the next snapshot covers the same call
+            Log.w(TAG, "Skipped $fileName: ${e.message}")
+            onProgress?.invoke("Skipped $fileName: detection queue is behind")
+            return@withContext null
         } catch (e: Exception) {
             Log.e(TAG, "========================================")
             Log.e(TAG, "CRITICAL ERROR in uploadAndTestFile", e)
@@ -183,113 +359,52 @@ class FileUploadManager(private val context: Context, private val apiKey: String
     }
 
     /**
-     * Upload a file to Dify and return the upload ID
-     * FIXED: Ensures file is fully written and flushed before upload
+     * Upload a request body to Dify and return the upload ID
+     *
+     * The body is written straight into the socket; there is no temp copy to
+     * flush or wait for.
      */
-    private suspend fun uploadFile(
-        uri: Uri,
+    private suspend fun uploadBody(
+        body: RequestBody,
         fileName: String,
         onProgress: ((String) -> Unit)? = null
     ): String? = withContext(Dispatchers.IO) {
 
-        var tempFile: File? = null
-
         try {
             Log.d(TAG, "--- UPLOAD FILE START ---")
-            Log.d(TAG, "URI: $uri")
             Log.d(TAG, "File name: $fileName")
 
-            // Check if URI is accessible
-            val inputStream = context.contentResolver.openInputStream(uri)
-            if (inputStream == null) {
-                Log.e(TAG, "ERROR: Cannot open input stream from URI")
-                onProgress?.invoke("Error: Cannot access file")
-                return@withContext null
-            }
-
-            Log.d(TAG, "✓ URI is accessible")
-
-            // Create temp file with unique name
-            val timestamp = System.currentTimeMillis()
-            tempFile = File(context.cacheDir, "upload_${timestamp}_$fileName")
-
-            Log.d(TAG, "Copying file to: ${tempFile.absolutePath}")
-
-            // Copy with proper buffer and flush
-            var totalBytesWritten = 0L
-            inputStream.use { input ->
-                FileOutputStream(tempFile).use { output ->
-                    val buffer = ByteArray(8192) // 8KB buffer
-                    var bytesRead: Int
+            // Validate file size (unknown length is streamed chunked and checked by the server)
+            val fileSize = body.contentLength()
+            Log.d(TAG, "File size: $fileSize bytes (${fileSize / 1024.0} KB)")
 
-                    while (input.read(buffer).also { bytesRead = it } != -1) {
-                        output.write(buffer, 0, bytesRead)
-                        totalBytesWritten += bytesRead
-                    }
-
-                    // CRITICAL: Ensure all data is written to disk
-                    output.flush()
-                    output.fd.sync() // Force sync to disk
-                }
-            }
-
-            Log.d(TAG, "✓ Copied $totalBytesWritten bytes")
-
-            // CRITICAL: Wait briefly to ensure file system has flushed
-            delay(500)
-
-            // Verify file exists and has content
-            if (!tempFile.exists()) {
-                Log.e(TAG, "ERROR: Temp file does not exist after copy!")
-                return@withContext null
-            }
-
-            val fileSize = tempFile.length()
-            Log.d(TAG, "✓ File verified")
-            Log.d(TAG, "Final file size: $fileSize bytes (${fileSize / 1024.0} KB)")
-
-            // Validate file size
-            if (fileSize < MIN_FILE_SIZE) {
+            if (fileSize in 0 until MIN_FILE_SIZE) {
                 Log.e(TAG, "ERROR: File is too small or empty (${fileSize} bytes)")
                 Log.e(TAG, "Minimum required: $MIN_FILE_SIZE bytes")
-                tempFile.delete()
                 onProgress?.invoke("Error: File is too small or empty")
                 return@withContext null
             }
 
-            // Determine MIME type
-            val mimeType = getMimeType(tempFile.extension.lowercase())
-            Log.d(TAG, "MIME type: $mimeType")
+            Log.d(TAG, "MIME type: ${body.contentType()}")
 
             // Build multipart request
             Log.d(TAG, "Building multipart request...")
             val requestBody = MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
                 .addFormDataPart("user", USER_EMAIL)
-                .addFormDataPart(
-                    "file",
-                    fileName,
-                    tempFile.asRequestBody(mimeType.toMediaType())
-                )
+                .addFormDataPart("file", fileName, body)
                 .build()
 
-            val contentLength = requestBody.contentLength()
-            Log.d(TAG, "Request body size: $contentLength bytes")
-
-            if (contentLength <= 0) {
-                Log.e(TAG, "ERROR: Request body is empty!")
-                tempFile.delete()
-                return@withContext null
-            }
+            Log.d(TAG, "Request body size: ${requestBody.contentLength()} bytes")
 
             val request = Request.Builder()
-                .url(UPLOAD_URL)
+                .url(uploadUrl)
                 .addHeader("Authorization", "Bearer $apiKey")
                 .post(requestBody)
                 .build()
 
-            Log.d(TAG, "Sending upload request to: $UPLOAD_URL")
-            onProgress?.invoke("Uploading ${fileSize / 1024}KB...")
+            Log.d(TAG, "Sending upload request to: $uploadUrl")
+            onProgress?.invoke(if (fileSize >= 0) "Uploading ${fileSize / 1024}KB..." else "Uploading...")
 
             val response = client.newCall(request).execute()
 
@@ -319,7 +434,6 @@ class FileUploadManager(private val context: Context, private val apiKey: String
                         }
 
                         onProgress?.invoke("✓ Uploaded successfully")
-                        tempFile.delete()
                         Log.d(TAG, "--- UPLOAD FILE END (SUCCESS) ---")
                         return@withContext uploadId
                     } else {
@@ -337,17 +451,14 @@ class FileUploadManager(private val context: Context, private val apiKey: String
                 response.close()
             }
 
-            tempFile?.delete()
             Log.d(TAG, "--- UPLOAD FILE END (FAILED) ---")
 
         } catch (e: IOException) {
             Log.e(TAG, "ERROR: IOException", e)
             onProgress?.invoke("Network error: ${e.message}")
-            tempFile?.delete()
         } catch (e: Exception) {
             Log.e(TAG, "ERROR: Unexpected error", e)
             onProgress?.invoke("Error: ${e.message}")
-            tempFile?.delete()
         }
 
         return@withContext null
@@ -385,7 +496,7 @@ class FileUploadManager(private val context: Context, private val apiKey: String
                 .build()
 
             val request = Request.Builder()
-                .url(UPLOAD_URL)
+                .url(uploadUrl)
                 .addHeader("Authorization", "Bearer $apiKey")
                 .post(requestBody)
                 .build()
@@ -426,6 +537,10 @@ class FileUploadManager(private val context: Context, private val apiKey: String
 
     /**
      * Call phishing detection API with uploaded file ID
+     *
+     * A run still going past the hedge threshold is sent a second time; the first to finish wins.
+     *
+     * @throws UploadRunPipeline.FileNotReadyException if Dify has not finished processing the upload yet
      */
     private suspend fun callPhishingApiWithFile(
         uploadId: String,
@@ -456,7 +571,7 @@ class FileUploadManager(private val context: Context, private val apiKey: String
             )
 
             val request = Request.Builder()
-                .url(WORKFLOW_URL)
+                .url(workflowUrl)
                 .addHeader("Content-Type", "application/json")
                 .addHeader("Authorization", "Bearer $apiKey")
                 .post(requestBody)
@@ -466,34 +581,36 @@ class FileUploadManager(private val context: Context, private val apiKey: String
             onProgress?.invoke("Analyzing...")
 
             val startTime = System.currentTimeMillis()
-            val response = client.newCall(request).execute()
+            val responseBody = workflowHedge.submit(client, request) { response ->
+                Log.d(TAG, "Response code: ${response.code}")
+                val body = response.body?.string()
+                if (!response.isSuccessful) {
+                    if (UploadRunPipeline.isFileNotReady(response.code, body)) {
+                        throw UploadRunPipeline.FileNotReadyException("HTTP ${response.code}: $body")
+                    }
+                    Log.e(TAG, "API call failed: HTTP ${response.code}")
+                    Log.e(TAG, "Error: $body")
+                    throw IOException("API error: HTTP ${response.code}")
+                }
+                body
+            }.await()
             val processingTime = (System.currentTimeMillis() - startTime) / 1000.0
 
-            Log.d(TAG, "Response code: ${response.code}")
             Log.d(TAG, "Processing time: ${processingTime}s")
-
-            if (response.isSuccessful) {
-                val responseBody = response.body?.string()
-                response.close()
-
-                Log.d(TAG, "✓ API call successful")
-                Log.d(TAG, "Response (first 1000 chars): ${responseBody?.take(1000)}")
-
-                if (!responseBody.isNullOrEmpty()) {
-                    val jsonResponse = JSONObject(responseBody)
-                    Log.d(TAG, "--- API CALL END (SUCCESS) ---")
-                    return@withContext Pair(jsonResponse, processingTime)
-                }
-            } else {
-                val errorBody = response.body?.string()
-                Log.e(TAG, "API call failed: HTTP ${response.code}")
-                Log.e(TAG, "Error: $errorBody")
-                onProgress?.invoke("API error: HTTP ${response.code}")
-                response.close()
+            Log.d(TAG, "✓ API call successful")
+            Log.d(TAG, "Response (first 1000 chars): ${responseBody?.take(1000)}")
+
+            if (!responseBody.isNullOrEmpty()) {
+                val jsonResponse = JSONObject(responseBody)
+                UploadRunPipeline.checkWorkflowReady(jsonResponse)
+                Log.d(TAG, "--- API CALL END (SUCCESS) ---")
+                return@withContext Pair(jsonResponse, processingTime)
             }
 
             Log.d(TAG, "--- API CALL END (FAILED) ---")
 
+        } catch (e: UploadRunPipeline.FileNotReadyException) {
+            throw e
         } catch (e: Exception) {
             Log.e(TAG, "ERROR in API call", e)
             onProgress?.invoke("Error: ${e.message}")
@@ -519,9 +636,17 @@ class FileUploadManager(private val context: Context, private val apiKey: String
             return Pair(null, 0.0)
         }
 
-        return callPhishingApiWithFile(uploadId) { msg ->
-            Log.d(TAG, "Workflow: $msg")
-        }
+        // Already uploaded: the pipeline only handles waiting for the file to become ready
+        val outcome = pipeline.execute(
+            tag = fileName,
+            upload = { uploadId },
+            run = { id ->
+                callPhishingApiWithFile(id) { msg ->
+                    Log.d(TAG, "Workflow: $msg")
+                }.takeIf { it.first != null }
+            }
+        )
+        return outcome.result ?: Pair(null, 0.0)
     }
 
     /**
@@ -0,0 +1,81 @@
+package com.example.anticenter.audio
+
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStream
+
+/**
+ * 上传给检测后端的音频编码
+ *
+ * 各检测后端接受的格式不同，按后端选择：
+ * - [WAV]：16-bit PCM，所有后端都接受，体积最大
+ * - [FLAC]：无损，语音约为 PCM 的 50%~60%，后端需要支持 .flac（Reality Defender）
+ * - [IMA_ADPCM]：有损 4 bit，约为 PCM 的 1/4，仍然是 .wav 容器（Dify 只认 wav/mp3/m4a 等扩展名）；
+ *   Dify 工作流能否解码还没验证，各检测器默认用 [WAV]，需要省流量时再显式选择
+ *
+ * 输入统一为交错的 16-bit 样本。
+ */
+enum class AudioCodec(val extension: String, val mimeType: String) {
+    WAV("wav", "audio/wav"),
+    FLAC("flac", FlacEncoder.MIME_TYPE),
+    IMA_ADPCM("wav", "audio/wav");
+
+    /**
+     * 编码后写入 out（不关闭 out）
+     */
+    fun encode(samples: ShortArray, offset: Int, count: Int, sampleRate: Int, channels: Int, out: OutputStream) {
+        when (this) {
+            WAV -> {
+                out.write(WavWriter.header(count * 2, sampleRate, channels))
+                WavWriter.writeSamples(out, samples, offset, count)
+            }
+            FLAC -> {
+                val encoder = FlacEncoder(out, sampleRate, channels, totalFrames = (count / channels).toLong())
+                encoder.write(samples, offset, count)
+                encoder.finish()
+            }
+            IMA_ADPCM -> ImaAdpcmEncoder(sampleRate, channels).encode(samples, offset, count, out)
+        }
+    }
+
+    /**
+     * 编码到内存（用于已知长度的上传请求体）
+     */
+    fun encodeToBytes(samples: ShortArray, offset: Int, count: Int, sampleRate: Int, channels: Int): ByteArray =
+        when (this) {
+            // FLAC 走 encode()，回填 STREAMINFO 里的 MD5 和帧长
+            FLAC -> FlacEncoder.encode(samples, offset, count, sampleRate, channels)
+            else -> ByteArrayOutputStream(count * 2 / 3 + 64).also {
+                encode(samples, offset, count, sampleRate, channels, it)
+            }.toByteArray()
+        }
+
+    /**
+     * 编码到文件
+     *
+     * @return 文件字节数
+     */
+    fun encodeToFile(file: File, samples: ShortArray, offset: Int, count: Int, sampleRate: Int, channels: Int): Long {
+        when (this) {
+            WAV -> WavWriter.write(file, samples, offset, count, sampleRate, channels)
+            FLAC -> FlacEncoder.encodeToFile(file, samples, offset, count, sampleRate, channels)
+            IMA_ADPCM -> BufferedOutputStream(FileOutputStream(file), 64 * 1024).use {
+                encode(samples, offset, count, sampleRate, channels, it)
+            }
+        }
+        return file.length()
+    }
+
+    /**
+     * 把 16-bit 单声道 WAV 文件转码到本编码，写入 target（原文件保留）
+     *
+     * @return false 表示 WAV 格式读不懂，调用方应直接使用原文件
+     */
+    fun transcodeWav(wavFile: File, target: File): Boolean {
+        val (sampleRate, samples) = WavWriter.readMono(wavFile) ?: return false
+        encodeToFile(target, samples, 0, samples.size, sampleRate, 1)
+        return true
+    }
+}
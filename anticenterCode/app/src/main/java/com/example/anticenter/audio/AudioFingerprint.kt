@@ -0,0 +1,131 @@
+package com.example.anticenter.audio
+
+import com.example.anticenter.utils.XxHash64
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * 音频内容指纹（xxHash64），作为检测结果缓存的键
+ *
+ * 只对"声音本身"取哈希，与文件名、写入时间、容器里的可变字段无关：
+ * - WAV（PCM / ADPCM）：fmt 块 + data 块的内容，跳过 LIST/fact 等其它块
+ * - FLAC：STREAMINFO 里的采样参数 + 原始 PCM 的 MD5（编码器已经算好，不用解码）
+ * - 其它格式：整个文件
+ *
+ * 同一段 PCM 用同一种编码写出时指纹相同；不同编码（WAV 和 FLAC）指纹不同，
+ * 这是有意的——不同后端收到的本来就是不同格式。
+ */
+object AudioFingerprint {
+
+    private const val BUFFER_SIZE = 64 * 1024
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun ofFile(file: File): Long = RandomAccessFile(file, "r").use { raf ->
+        val head = ByteArray(minOf(raf.length(), 12L).toInt())
+        raf.readFully(head)
+        when {
+            isTag(head, 0, "RIFF") && isTag(head, 8, "WAVE") -> wavFingerprint(raf) ?: wholeFile(raf)
+            isTag(head, 0, "fLaC") -> flacFingerprint(raf) ?: wholeFile(raf)
+            else -> wholeFile(raf)
+        }
+    }
+
+    /**
+     * 原始 16-bit PCM 文件的指纹，与把它写成 WAV（[WavWriter] / WavRequestBody）后的指纹相同
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun ofPcmFile(file: File, sampleRate: Int, channels: Int): Long = RandomAccessFile(file, "r").use { raf ->
+        val hasher = XxHash64()
+        // fmt 块 + "data" 标记，与 wavFingerprint 覆盖的字节一致
+        hasher.update(WavWriter.header(raf.length().toInt(), sampleRate, channels), 12, 28)
+        hashRange(raf, 0, raf.length(), hasher)
+        hasher.digest()
+    }
+
+    /**
+     * 内存中 16-bit 样本的指纹，与同样的样本写成 WAV / PCM 文件后的指纹相同
+     */
+    @JvmStatic
+    fun ofSamples(samples: ShortArray, offset: Int, count: Int, sampleRate: Int, channels: Int): Long {
+        val hasher = XxHash64()
+        hasher.update(WavWriter.header(count * 2, sampleRate, channels), 12, 28)
+        val buffer = ByteBuffer.allocate(minOf(count * 2, BUFFER_SIZE)).order(ByteOrder.LITTLE_ENDIAN)
+        var index = offset
+        val end = offset + count
+        while (index < end) {
+            val n = minOf(buffer.capacity() / 2, end - index)
+            buffer.clear()
+            buffer.asShortBuffer().put(samples, index, n)
+            hasher.update(buffer.array(), 0, n * 2)
+            index += n
+        }
+        return hasher.digest()
+    }
+
+    private fun wavFingerprint(raf: RandomAccessFile): Long? {
+        val hasher = XxHash64()
+        val chunkHeader = ByteArray(8)
+        var pos = 12L
+        var sawFmt = false
+        while (pos + 8 <= raf.length()) {
+            raf.seek(pos)
+            raf.readFully(chunkHeader)
+            val size = ByteBuffer.wrap(chunkHeader, 4, 4).order(ByteOrder.LITTLE_ENDIAN).int.toLong() and 0xFFFFFFFFL
+            val dataStart = pos + 8
+            when {
+                isTag(chunkHeader, 0, "fmt ") -> {
+                    hasher.update(chunkHeader)
+                    hashRange(raf, dataStart, size, hasher)
+                    sawFmt = true
+                }
+                isTag(chunkHeader, 0, "data") -> {
+                    if (!sawFmt) return null
+                    // 流式写出的 WAV 可能还没回填长度，以文件实际长度为准
+                    val length = minOf(size, raf.length() - dataStart)
+                    hasher.update(chunkHeader, 0, 4)
+                    hashRange(raf, dataStart, length, hasher)
+                    return hasher.digest()
+                }
+            }
+            pos = dataStart + size + (size and 1)
+        }
+        return null
+    }
+
+    private fun flacFingerprint(raf: RandomAccessFile): Long? {
+        // fLaC + 元数据块头(4) + STREAMINFO(34)，STREAMINFO 必须是第一个块
+        if (raf.length() < 42) return null
+        val block = ByteArray(38)
+        raf.seek(4)
+        raf.readFully(block)
+        if (block[0].toInt() and 0x7F != 0) return null
+        // 跳过每帧的最小/最大块长和帧长（依赖编码参数），只取采样率/声道/位深/总样本数 + MD5
+        return XxHash64.hash(block, 4 + 10, 24)
+    }
+
+    private fun wholeFile(raf: RandomAccessFile): Long {
+        val hasher = XxHash64()
+        hashRange(raf, 0, raf.length(), hasher)
+        return hasher.digest()
+    }
+
+    private fun hashRange(raf: RandomAccessFile, start: Long, length: Long, hasher: XxHash64) {
+        val buffer = ByteArray(BUFFER_SIZE)
+        raf.seek(start)
+        var remaining = length
+        while (remaining > 0) {
+            val n = raf.read(buffer, 0, minOf(remaining, BUFFER_SIZE.toLong()).toInt())
+            if (n < 0) break
+            hasher.update(buffer, 0, n)
+            remaining -= n
+        }
+    }
+
+    private fun isTag(bytes: ByteArray, offset: Int, tag: String): Boolean =
+        bytes.size >= offset + 4 && (0 until 4).all { bytes[offset + it] == tag[it].code.toByte() }
+}
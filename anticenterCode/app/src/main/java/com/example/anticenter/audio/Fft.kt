@@ -0,0 +1,109 @@
+package com.example.anticenter.audio
+
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+
+/**
+ * 定长实数 FFT（原地计算）
+ *
+ * 输入是实信号，所以把 size 个实数两两打包成 size/2 个复数，做一次 size/2 点的复数 FFT，
+ * 再拆分出前 size/2 + 1 个频点，计算量约为直接做 size 点复数 FFT 的一半。
+ *
+ * 旋转因子和位反转表在构造时算好，同一尺寸的实例可以反复使用，计算过程不分配内存。
+ * 非线程安全：每个线程/每条音频流各用一个实例。
+ *
+ * @param size FFT 点数，必须是 2 的幂
+ */
+class Fft(val size: Int) {
+
+    private val half = size / 2
+
+    // cos/sin(2πk/size)，k < size/2；half 点复数 FFT 的旋转因子取其中的偶数下标
+    private val cosTable: FloatArray
+    private val sinTable: FloatArray
+    private val bitReverse: IntArray
+
+    private val re = FloatArray(half)
+    private val im = FloatArray(half)
+
+    init {
+        require(size >= 2 && size and (size - 1) == 0) { "FFT size must be a power of two: $size" }
+
+        cosTable = FloatArray(half) { cos(2 * PI * it / size).toFloat() }
+        sinTable = FloatArray(half) { sin(2 * PI * it / size).toFloat() }
+
+        val bits = Integer.numberOfTrailingZeros(half)
+        bitReverse = IntArray(half) { if (bits == 0) 0 else Integer.reverse(it) ushr (32 - bits) }
+    }
+
+    /**
+     * 计算实信号的功率谱 |X(k)|²，k = 0..size/2
+     *
+     * @param input 时域样本（已加窗），不足 size 的部分补零
+     * @param length input 中有效样本数
+     * @param power 输出，长度至少为 size/2 + 1
+     */
+    fun powerSpectrum(input: FloatArray, length: Int, power: FloatArray) {
+        val n = minOf(length, size)
+        // z[m] = x[2m] + i·x[2m+1]
+        for (m in 0 until half) {
+            val j = bitReverse[m]
+            val even = 2 * m
+            re[j] = if (even < n) input[even] else 0f
+            im[j] = if (even + 1 < n) input[even + 1] else 0f
+        }
+
+        transform()
+
+        // X[0] 和 X[size/2] 都是实数
+        val dc = re[0] + im[0]
+        val nyquist = re[0] - im[0]
+        power[0] = dc * dc
+        power[half] = nyquist * nyquist
+
+        for (k in 1 until half) {
+            // E = (Z[k] + conj(Z[half-k])) / 2, O = (Z[k] - conj(Z[half-k])) / 2i
+            val a = re[k]
+            val b = im[k]
+            val c = re[half - k]
+            val d = im[half - k]
+            val er = (a + c) * 0.5f
+            val ei = (b - d) * 0.5f
+            val or = (b + d) * 0.5f
+            val oi = (c - a) * 0.5f
+            // X[k] = E + W^k·O, W = e^(-2πi/size)
+            val wr = cosTable[k]
+            val wi = -sinTable[k]
+            val xr = er + wr * or - wi * oi
+            val xi = ei + wr * oi + wi * or
+            power[k] = xr * xr + xi * xi
+        }
+    }
+
+    private fun transform() {
+        var span = 1
+        while (span < half) {
+            // half 点 FFT 的旋转因子 e^(-2πi·t/(2·span)) = cosTable[t · size/(2·span)]
+            val step = size / (span * 2)
+            var start = 0
+            while (start < half) {
+                var t = 0
+                for (k in start until start + span) {
+                    val wr = cosTable[t]
+                    val wi = -sinTable[t]
+                    val m = k + span
+                    val xr = re[m] * wr - im[m] * wi
+                    val xi = re[m] * wi + im[m] * wr
+                    re[m] = re[k] - xr
+                    im[m] = im[k] - xi
+                    re[k] += xr
+                    im[k] += xi
+                    t += step
+                }
+                start += span * 2
+            }
+            span *= 2
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package com.example.anticenter.audio
+
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.security.MessageDigest
+import kotlin.math.abs
+import kotlin.math.min
+
+/**
+ * 纯 JVM 的 FLAC 无损编码器（16-bit PCM）
+ *
+ * 只用 FLAC 的固定预测器（0~4 阶）加分区 Rice 编码，不做 LPC：
+ * 语音上的压缩率和 LPC 相差不多，但编码只有整数加减和移位，在手机上很便宜。
+ * 每个声道独立编码；全静音块用 CONSTANT 子帧，预测无收益时退回 VERBATIM。
+ *
+ * 流式：[write] 攒满一个块就编码输出一帧，内存只占一个块。
+ * STREAMINFO 里的 MD5、帧长范围要到结束才知道，[finish] 返回这些信息，
+ * 可定位的输出（内存数组、文件）用 [encode] / [encodeToFile] 回填；纯流式输出时保持“未知”，同样是合法的 FLAC。
+ *
+ * @param out 输出流
+ * @param sampleRate 采样率
+ * @param channels 声道数（1~8，交错输入）
+ * @param blockSize 每帧样本数
+ * @param totalFrames 总帧数（每声道样本数），未知时为 0
+ */
+class FlacEncoder(
+    private val out: OutputStream,
+    val sampleRate: Int,
+    val channels: Int = 1,
+    val blockSize: Int = DEFAULT_BLOCK_SIZE,
+    totalFrames: Long = 0L
+) {
+
+    /**
+     * 编码结束后的流信息（对应 STREAMINFO 中编码前未知的字段）
+     */
+    data class StreamInfo(
+        val totalFrames: Long,
+        val minFrameSize: Int,
+        val maxFrameSize: Int,
+        val md5: ByteArray
+    )
+
+    companion object {
+        const val DEFAULT_BLOCK_SIZE = 4096
+        const val MIME_TYPE = "audio/flac"
+
+        /** "fLaC" + 元数据块头（4 字节）之后就是 34 字节的 STREAMINFO */
+        private const val STREAMINFO_OFFSET = 8
+        private const val STREAMINFO_SIZE = 34
+
+        private const val BITS_PER_SAMPLE = 16
+        private const val MAX_FIXED_ORDER = 4
+        private const val MAX_PARTITION_ORDER = 8
+        private const val MAX_RICE_PARAMETER = 14
+
+        private val CRC8_TABLE = IntArray(256) { i ->
+            var crc = i
+            repeat(8) { crc = if (crc and 0x80 != 0) (crc shl 1) xor 0x07 else crc shl 1 }
+            crc and 0xFF
+        }
+
+        private val CRC16_TABLE = IntArray(256) { i ->
+            var crc = i shl 8
+            repeat(8) { crc = if (crc and 0x8000 != 0) (crc shl 1) xor 0x8005 else crc shl 1 }
+            crc and 0xFFFF
+        }
+
+        /**
+         * 把内存中的样本编码为完整的 FLAC（含 MD5）
+         */
+        fun encode(samples: ShortArray, offset: Int, count: Int, sampleRate: Int, channels: Int = 1): ByteArray {
+            val buffer = ByteArrayOutputStream(count / 2 + 1024)
+            val encoder = FlacEncoder(buffer, sampleRate, channels, totalFrames = (count / channels).toLong())
+            encoder.write(samples, offset, count)
+            val info = encoder.finish()
+            return buffer.toByteArray().also { bytes ->
+                encoder.streamInfo(info).copyInto(bytes, STREAMINFO_OFFSET)
+            }
+        }
+
+        /**
+         * 把内存中的样本编码写入文件，结束后回填 STREAMINFO
+         *
+         * @return 文件字节数
+         */
+        fun encodeToFile(file: File, samples: ShortArray, offset: Int, count: Int, sampleRate: Int, channels: Int = 1): Long {
+            val encoder: FlacEncoder
+            val info: StreamInfo
+            FileOutputStream(file).buffered(64 * 1024).use { stream ->
+                encoder = FlacEncoder(stream, sampleRate, channels, totalFrames = (count / channels).toLong())
+                encoder.write(samples, offset, count)
+                info = encoder.finish()
+            }
+            RandomAccessFile(file, "rw").use { raf ->
+                raf.seek(STREAMINFO_OFFSET.toLong())
+                raf.write(encoder.streamInfo(info))
+            }
+            return file.length()
+        }
+    }
+
+    private val blockSizeCode: Int
+    private val sampleRateCode: Int
+
+    // 当前块，按声道拆开
+    private val block = Array(channels) { IntArray(blockSize) }
+    private var blockFill = 0
+
+    private val residual = IntArray(blockSize)
+    private val partitionSums = LongArray(1 shl MAX_PARTITION_ORDER)
+    private val bits = BitWriter(blockSize * channels * 2 + 64)
+
+    private val md5 = MessageDigest.getInstance("MD5")
+    private val md5Scratch = ByteArray(4096)
+    private var md5Fill = 0
+    private var digest: ByteArray? = null
+
+    private var frameNumber = 0L
+    private var framesWritten = 0L
+    private var minFrameSize = Int.MAX_VALUE
+    private var maxFrameSize = 0
+    private var finished = false
+
+    init {
+        require(channels in 1..8) { "FLAC supports 1..8 channels: $channels" }
+        require(blockSize in 16..65535) { "Invalid block size: $blockSize" }
+        blockSizeCode = blockSizeCode(blockSize)
+        sampleRateCode = sampleRateCode(sampleRate)
+
+        out.write(byteArrayOf('f'.code.toByte(), 'L'.code.toByte(), 'a'.code.toByte(), 'C'.code.toByte()))
+        // 最后一个元数据块，类型 0 (STREAMINFO)，长度 34
+        out.write(byteArrayOf(0x80.toByte(), 0, 0, STREAMINFO_SIZE.toByte()))
+        out.write(streamInfo(StreamInfo(totalFrames, 0, 0, ByteArray(16))))
+    }
+
+    /**
+     * 追加交错的 16-bit 样本
+     */
+    fun write(samples: ShortArray, offset: Int, count: Int) {
+        check(!finished) { "Encoder already finished" }
+        var src = offset
+        val end = offset + count - count % channels
+        while (src < end) {
+            for (c in 0 until channels) {
+                val sample = samples[src++].toInt()
+                block[c][blockFill] = sample
+                updateMd5(sample)
+            }
+            if (++blockFill == blockSize) {
+                encodeFrame(blockFill)
+                blockFill = 0
+            }
+        }
+    }
+
+    /**
+     * 编码剩余的样本并冲刷输出（不关闭 out）
+     */
+    fun finish(): StreamInfo {
+        if (!finished) {
+            if (blockFill > 0) encodeFrame(blockFill)
+            blockFill = 0
+            md5.update(md5Scratch, 0, md5Fill)
+            md5Fill = 0
+            digest = md5.digest()
+            out.flush()
+            finished = true
+        }
+        return StreamInfo(
+            framesWritten,
+            if (minFrameSize == Int.MAX_VALUE) 0 else minFrameSize,
+            maxFrameSize,
+            digest ?: ByteArray(16)
+        )
+    }
+
+    /**
+     * 生成 34 字节 STREAMINFO
+     */
+    fun streamInfo(info: StreamInfo): ByteArray {
+        val w = BitWriter(STREAMINFO_SIZE)
+        w.write(blockSize, 16)
+        w.write(blockSize, 16)
+        w.write(info.minFrameSize, 24)
+        w.write(info.maxFrameSize, 24)
+        w.write(sampleRate, 20)
+        w.write(channels - 1, 3)
+        w.write(BITS_PER_SAMPLE - 1, 5)
+        w.write((info.totalFrames ushr 32).toInt(), 4)
+        w.write(info.totalFrames.toInt(), 32)
+        for (b in info.md5) w.write(b.toInt(), 8)
+        return w.toByteArray()
+    }
+
+    private fun updateMd5(sample: Int) {
+        if (md5Fill + 2 > md5Scratch.size) {
+            md5.update(md5Scratch, 0, md5Fill)
+            md5Fill = 0
+        }
+        md5Scratch[md5Fill++] = sample.toByte()
+        md5Scratch[md5Fill++] = (sample shr 8).toByte()
+    }
+
+    // ==================== 帧 ====================
+
+    private fun encodeFrame(n: Int) {
+        val w = bits
+        w.reset()
+
+        // 帧头：同步码 + 固定块长策略
+        w.write(0xFFF8, 16)
+        val bsCode = if (n == blockSize) blockSizeCode else blockSizeCode(n)
+        w.write(bsCode, 4)
+        w.write(sampleRateCode, 4)
+        w.write(channels - 1, 4) // 各声道独立
+        w.write(0b100, 3) // 16 bit
+        w.write(0, 1)
+        writeUtf8(w, frameNumber)
+        when (bsCode) {
+            6 -> w.write(n - 1, 8)
+            7 -> w.write(n - 1, 16)
+        }
+        w.write(crc8(w.buffer, w.size), 8)
+
+        for (c in 0 until channels) encodeSubframe(w, block[c], n)
+
+        w.alignToByte()
+        w.write(crc16(w.buffer, w.size), 16)
+
+        out.write(w.buffer, 0, w.size)
+        minFrameSize = min(minFrameSize, w.size)
+        maxFrameSize = maxOf(maxFrameSize, w.size)
+        frameNumber++
+        framesWritten += n
+    }
+
+    private fun encodeSubframe(w: BitWriter, x: IntArray, n: Int) {
+        // 全部相同 → CONSTANT
+        val first = x[0]
+        var constant = true
+        for (i in 1 until n) {
+            if (x[i] != first) {
+                constant = false
+                break
+            }
+        }
+        if (constant) {
+            w.write(0b0_000000_0, 8)
+            w.write(first, BITS_PER_SAMPLE)
+            return
+        }
+
+        val verbatimBits = n.toLong() * BITS_PER_SAMPLE
+        if (n <= MAX_FIXED_ORDER) {
+            writeVerbatim(w, x, n)
+            return
+        }
+
+        val order = bestFixedOrder(x, n)
+        computeResidual(x, n, order)
+        val partitionOrder = bestPartitionOrder(n, order)
+        val partitions = 1 shl partitionOrder
+        val fixedBits = 8L + order * BITS_PER_SAMPLE + 6 + estimateResidualBits(partitions, n, order)
+
+        if (fixedBits >= verbatimBits) {
+            writeVerbatim(w, x, n)
+            return
+        }
+
+        w.write((0b001000 or order) shl 1, 8)
+        for (i in 0 until order) w.write(x[i], BITS_PER_SAMPLE)
+
+        // 残差：4-bit Rice 参数的分区编码
+        w.write(0, 2)
+        w.write(partitionOrder, 4)
+        val partitionSize = n shr partitionOrder
+        var index = order
+        for (p in 0 until partitions) {
+            val count = if (p == 0) partitionSize - order else partitionSize
+            val k = riceParameter(partitionSums[p], count)
+            w.write(k, 4)
+            val end = index + count
+            while (index < end) {
+                val r = residual[index++]
+                val u = (r shl 1) xor (r shr 31)
+                w.writeUnary(u ushr k)
+                if (k > 0) w.write(u, k)
+            }
+        }
+    }
+
+    private fun writeVerbatim(w: BitWriter, x: IntArray, n: Int) {
+        w.write(0b000001 shl 1, 8)
+        for (i in 0 until n) w.write(x[i], BITS_PER_SAMPLE)
+    }
+
+    /**
+     * 按各阶预测误差的绝对值之和选阶数
+     */
+    private fun bestFixedOrder(x: IntArray, n: Int): Int {
+        var e0 = 0L
+        var e1 = 0L
+        var e2 = 0L
+        var e3 = 0L
+        var e4 = 0L
+        for (i in MAX_FIXED_ORDER until n) {
+            val d0 = x[i]
+            val d1 = d0 - x[i - 1]
+            val d2 = d1 - (x[i - 1] - x[i - 2])
+            val d3 = d2 - (x[i - 1] - 2 * x[i - 2] + x[i - 3])
+            val d4 = d3 - (x[i - 1] - 3 * x[i - 2] + 3 * x[i - 3] - x[i - 4])
+            e0 += abs(d0)
+            e1 += abs(d1)
+            e2 += abs(d2)
+            e3 += abs(d3)
+            e4 += abs(d4)
+        }
+        var order = 0
+        var best = e0
+        if (e1 < best) { best = e1; order = 1 }
+        if (e2 < best) { best = e2; order = 2 }
+        if (e3 < best) { best = e3; order = 3 }
+        if (e4 < best) { order = 4 }
+        return order
+    }
+
+    private fun computeResidual(x: IntArray, n: Int, order: Int) {
+        when (order) {
+            0 -> for (i in 0 until n) residual[i] = x[i]
+            1 -> for (i in 1 until n) residual[i] = x[i] - x[i - 1]
+            2 -> for (i in 2 until n) residual[i] = x[i] - 2 * x[i - 1] + x[i - 2]
+            3 -> for (i in 3 until n) residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3]
+            else -> for (i in 4 until n) residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4]
+        }
+    }
+
+    /**
+     * 从最细的分区开始逐级合并，挑估算位数最少的分区阶数；选中阶数的各分区和留在 partitionSums 里
+     */
+    private fun bestPartitionOrder(n: Int, order: Int): Int {
+        var maxOrder = 0
+        while (maxOrder < MAX_PARTITION_ORDER && n % (2 shl maxOrder) == 0 && (n shr (maxOrder + 1)) > order) {
+            maxOrder++
+        }
+
+        var bestOrder = 0
+        var bestBits = Long.MAX_VALUE
+        var sums = LongArray(1 shl maxOrder)
+        val partitionSize = n shr maxOrder
+        for (p in sums.indices) {
+            val start = if (p == 0) order else p * partitionSize
+            val end = (p + 1) * partitionSize
+            var sum = 0L
+            for (i in start until end) {
+                val r = residual[i]
+                sum += ((r shl 1) xor (r shr 31)).toLong() and 0xFFFFFFFFL
+            }
+            sums[p] = sum
+        }
+
+        var po = maxOrder
+        while (true) {
+            val partitions = 1 shl po
+            val size = n shr po
+            var total = 0L
+            for (p in 0 until partitions) {
+                val count = if (p == 0) size - order else size
+                total += 4 + riceBits(sums[p], count, riceParameter(sums[p], count))
+            }
+            if (total <= bestBits) {
+                bestBits = total
+                bestOrder = po
+                sums.copyInto(partitionSums, 0, 0, partitions)
+            }
+            if (po == 0) break
+            sums = LongArray(partitions / 2) { sums[2 * it] + sums[2 * it + 1] }
+            po--
+        }
+
+        return bestOrder
+    }
+
+    private fun estimateResidualBits(partitions: Int, n: Int, order: Int): Long {
+        val size = n / partitions
+        var total = 0L
+        for (p in 0 until partitions) {
+            val count = if (p == 0) size - order else size
+            total += 4 + riceBits(partitionSums[p], count, riceParameter(partitionSums[p], count))
+        }
+        return total
+    }
+
+    /** Rice 参数取 log2(均值) */
+    private fun riceParameter(sum: Long, count: Int): Int {
+        if (count <= 0 || sum <= count) return 0
+        val mean = sum / count
+        return min(MAX_RICE_PARAMETER, 63 - java.lang.Long.numberOfLeadingZeros(mean))
+    }
+
+    private fun riceBits(sum: Long, count: Int, k: Int): Long = count.toLong() * (k + 1) + (sum ushr k)
+
+    private fun writeUtf8(w: BitWriter, value: Long) {
+        when {
+            value < 0x80 -> w.write(value.toInt(), 8)
+            value < 0x800 -> {
+                w.write(0xC0 or (value ushr 6).toInt(), 8)
+                w.write(0x80 or (value and 0x3F).toInt(), 8)
+            }
+            else -> {
+                val extra = when {
+                    value < 0x10000 -> 2
+                    value < 0x200000 -> 3
+                    value < 0x4000000 -> 4
+                    else -> 5
+                }
+                val lead = (0xFF shl (7 - extra)) and 0xFF
+                w.write(lead or (value ushr (6 * extra)).toInt(), 8)
+                for (i in extra - 1 downTo 0) {
+                    w.write(0x80 or ((value ushr (6 * i)) and 0x3F).toInt(), 8)
+                }
+            }
+        }
+    }
+
+    private fun blockSizeCode(n: Int): Int = when (n) {
+        192 -> 1
+        576 -> 2
+        1152 -> 3
+        2304 -> 4
+        4608 -> 5
+        256 -> 8
+        512 -> 9
+        1024 -> 10
+        2048 -> 11
+        4096 -> 12
+        8192 -> 13
+        16384 -> 14
+        32768 -> 15
+        else -> if (n <= 256) 6 else 7
+    }
+
+    private fun sampleRateCode(rate: Int): Int = when (rate) {
+        88200 -> 1
+        176400 -> 2
+        192000 -> 3
+        8000 -> 4
+        16000 -> 5
+        22050 -> 6
+        24000 -> 7
+        32000 -> 8
+        44100 -> 9
+        48000 -> 10
+        96000 -> 11
+        else -> 0 // 从 STREAMINFO 读取
+    }
+
+    private fun crc8(data: ByteArray, length: Int): Int {
+        var crc = 0
+        for (i in 0 until length) crc = CRC8_TABLE[(crc xor data[i].toInt()) and 0xFF]
+        return crc
+    }
+
+    private fun crc16(data: ByteArray, length: Int): Int {
+        var crc = 0
+        for (i in 0 until length) {
+            crc = ((crc shl 8) xor CRC16_TABLE[((crc ushr 8) xor data[i].toInt()) and 0xFF]) and 0xFFFF
+        }
+        return crc
+    }
+
+    /**
+     * MSB 优先的位写入器
+     */
+    private class BitWriter(initialCapacity: Int) {
+        var buffer = ByteArray(initialCapacity)
+            private set
+        var size = 0
+            private set
+
+        private var acc = 0L
+        private var accBits = 0
+
+        fun reset() {
+            size = 0
+            acc = 0L
+            accBits = 0
+        }
+
+        /** 写 value 的低 n 位（n ≤ 32） */
+        fun write(value: Int, n: Int) {
+            acc = (acc shl n) or (value.toLong() and ((1L shl n) - 1))
+            accBits += n
+            while (accBits >= 8) {
+                accBits -= 8
+                put((acc ushr accBits).toInt())
+            }
+            acc = acc and ((1L shl accBits) - 1)
+        }
+
+        /** q 个 0 后跟一个 1 */
+        fun writeUnary(q: Int) {
+            var zeros = q
+            while (zeros >= 32) {
+                write(0, 32)
+                zeros -= 32
+            }
+            write(1, zeros + 1)
+        }
+
+        fun alignToByte() {
+            if (accBits > 0) write(0, 8 - accBits)
+        }
+
+        fun toByteArray(): ByteArray = buffer.copyOf(size)
+
+        private fun put(byte: Int) {
+            if (size == buffer.size) buffer = buffer.copyOf(buffer.size * 2)
+            buffer[size++] = byte.toByte()
+        }
+    }
+}
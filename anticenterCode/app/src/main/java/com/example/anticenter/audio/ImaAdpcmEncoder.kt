@@ -0,0 +1,175 @@
+package com.example.anticenter.audio
+
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * IMA ADPCM（WAV 格式码 0x0011）编码器
+ *
+ * 每个样本 4 bit，体积固定为 16-bit PCM 的约 1/4，有损但对语音识别/话术分析影响很小。
+ * 容器仍是 .wav，只接受 wav 的后端（Dify 文件上传）也能直接用。
+ *
+ * 按 Microsoft IMA ADPCM 的块结构输出：每块以各声道的 4 字节头（首样本 + 步长索引）开始，
+ * 之后每声道 8 个样本一组、4 字节交错排列。最后一块用 0 补齐，真实长度写在 fact 块里。
+ *
+ * @param sampleRate 采样率
+ * @param channels 声道数（交错输入）
+ * @param blockAlign 块字节数，默认按采样率取 256 × 声道数 × max(1, rate / 11025)
+ */
+class ImaAdpcmEncoder(
+    val sampleRate: Int,
+    val channels: Int = 1,
+    val blockAlign: Int = defaultBlockAlign(sampleRate, channels)
+) {
+
+    companion object {
+        const val FORMAT_IMA_ADPCM = 0x0011
+
+        /** RIFF + fmt(20) + fact + data 头 */
+        const val HEADER_SIZE = 60
+
+        private val STEP_TABLE = intArrayOf(
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+            253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+            1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+            3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+            12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+        )
+
+        private val INDEX_TABLE = intArrayOf(-1, -1, -1, -1, 2, 4, 6, 8)
+
+        fun defaultBlockAlign(sampleRate: Int, channels: Int): Int =
+            256 * channels * maxOf(1, sampleRate / 11025)
+    }
+
+    /** 每块每声道的样本数（含块头里的首样本） */
+    val samplesPerBlock: Int = (blockAlign - 4 * channels) * 8 / (4 * channels) + 1
+
+    private val predictor = IntArray(channels)
+    private val stepIndex = IntArray(channels)
+
+    init {
+        require(channels in 1..2) { "IMA ADPCM supports mono or stereo: $channels" }
+        require((blockAlign - 4 * channels) % (4 * channels) == 0) { "Invalid blockAlign: $blockAlign" }
+    }
+
+    /**
+     * frames 帧 PCM 编码后的总字节数（含头）
+     */
+    fun encodedSize(frames: Int): Long = HEADER_SIZE + dataSize(frames)
+
+    /**
+     * 把交错的 16-bit 样本编码为完整的 ADPCM WAV，逐块写入 out
+     */
+    fun encode(samples: ShortArray, offset: Int, count: Int, out: OutputStream) {
+        val frames = count / channels
+        out.write(header(frames))
+
+        stepIndex.fill(0)
+        val block = ByteArray(blockAlign)
+        var frame = 0
+        while (frame < frames) {
+            encodeBlock(samples, offset, frames, frame, block)
+            out.write(block)
+            frame += samplesPerBlock
+        }
+    }
+
+    /**
+     * 生成 WAV 头（fmt 扩展字段带 samplesPerBlock，fact 块记录真实帧数）
+     */
+    fun header(frames: Int): ByteArray {
+        val dataSize = dataSize(frames)
+        val byteRate = (sampleRate.toLong() * blockAlign / samplesPerBlock).toInt()
+        return ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).apply {
+            put("RIFF".toByteArray(Charsets.US_ASCII))
+            putInt((HEADER_SIZE - 8 + dataSize).toInt())
+            put("WAVE".toByteArray(Charsets.US_ASCII))
+            put("fmt ".toByteArray(Charsets.US_ASCII))
+            putInt(20)
+            putShort(FORMAT_IMA_ADPCM.toShort())
+            putShort(channels.toShort())
+            putInt(sampleRate)
+            putInt(byteRate)
+            putShort(blockAlign.toShort())
+            putShort(4) // 位深度
+            putShort(2) // 扩展字段长度
+            putShort(samplesPerBlock.toShort())
+            put("fact".toByteArray(Charsets.US_ASCII))
+            putInt(4)
+            putInt(frames)
+            put("data".toByteArray(Charsets.US_ASCII))
+            putInt(dataSize.toInt())
+        }.array()
+    }
+
+    private fun dataSize(frames: Int): Long =
+        ((frames + samplesPerBlock - 1) / samplesPerBlock).toLong() * blockAlign
+
+    private fun encodeBlock(samples: ShortArray, offset: Int, frames: Int, startFrame: Int, block: ByteArray) {
+        // 超出末尾的样本按 0 处理
+        fun sample(frame: Int, channel: Int): Int =
+            if (frame < frames) samples[offset + frame * channels + channel].toInt() else 0
+
+        // 块头：首样本原样保存，作为本块的预测初值
+        for (c in 0 until channels) {
+            val first = sample(startFrame, c)
+            predictor[c] = first
+            val base = 4 * c
+            block[base] = first.toByte()
+            block[base + 1] = (first shr 8).toByte()
+            block[base + 2] = stepIndex[c].toByte()
+            block[base + 3] = 0
+        }
+
+        var pos = 4 * channels
+        var frame = startFrame + 1
+        val end = startFrame + samplesPerBlock
+        while (frame < end) {
+            for (c in 0 until channels) {
+                // 每声道 8 个样本打成 4 字节，低半字节在前
+                for (pair in 0 until 4) {
+                    val lo = encodeSample(c, sample(frame + 2 * pair, c))
+                    val hi = encodeSample(c, sample(frame + 2 * pair + 1, c))
+                    block[pos++] = (lo or (hi shl 4)).toByte()
+                }
+            }
+            frame += 8
+        }
+    }
+
+    private fun encodeSample(channel: Int, sample: Int): Int {
+        var step = STEP_TABLE[stepIndex[channel]]
+        var diff = sample - predictor[channel]
+        var nibble = 0
+        if (diff < 0) {
+            nibble = 8
+            diff = -diff
+        }
+
+        var delta = step shr 3
+        if (diff >= step) {
+            nibble = nibble or 4
+            diff -= step
+            delta += step
+        }
+        step = step shr 1
+        if (diff >= step) {
+            nibble = nibble or 2
+            diff -= step
+            delta += step
+        }
+        step = step shr 1
+        if (diff >= step) {
+            nibble = nibble or 1
+            delta += step
+        }
+
+        val predicted = if (nibble and 8 != 0) predictor[channel] - delta else predictor[channel] + delta
+        predictor[channel] = predicted.coerceIn(Short.MIN_VALUE.toInt(), Short.MAX_VALUE.toInt())
+        stepIndex[channel] = (stepIndex[channel] + INDEX_TABLE[nibble and 7]).coerceIn(0, STEP_TABLE.size - 1)
+        return nibble
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.anticenter.audio
+
+import kotlin.math.PI
+import kotlin.math.ceil
+import kotlin.math.cos
+import kotlin.math.exp
+import kotlin.math.floor
+import kotlin.math.ln
+import kotlin.math.max
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * 流式 log-mel / MFCC 特征提取，纯 JVM 实现，作为本地预筛的基础
+ *
+ * 处理流程（每帧）：预加重 → 分帧加窗（Hamming）→ 实数 FFT 功率谱 → mel 三角滤波器组
+ * → 对数能量 → DCT-II 得到 MFCC（倒谱提升）→ 一阶差分（delta）。
+ *
+ * - 输入是任意长度的 16-bit [ShortArray] 片段，可以一块一块喂，帧跨越片段边界也能正确拼接
+ * - delta 需要前后各 [Config.deltaWindow] 帧，所以输出比输入晚这么多帧；流结束时调用 [flush] 输出剩余帧
+ * - 所有缓冲区在构造时分配，处理过程不分配内存；回调里拿到的 [Frame] 和数组都会被复用，
+ *   需要保存时请自行复制
+ *
+ * 默认参数与常见语音识别前端一致：25ms 帧、10ms 帧移、40 个 mel 带、13 维 MFCC。
+ * 非线程安全：每条音频流各用一个实例。
+ */
+class MelFeatureExtractor(
+    val sampleRate: Int = WavWriter.TARGET_SAMPLE_RATE,
+    val config: Config = Config()
+) {
+
+    /**
+     * 特征参数
+     *
+     * @param frameMs 帧长（毫秒）
+     * @param hopMs 帧移（毫秒）
+     * @param melBands mel 滤波器个数
+     * @param mfccCount MFCC 维数（含 c0）
+     * @param minHz 滤波器组最低频率
+     * @param maxHz 滤波器组最高频率，0 表示奈奎斯特频率
+     * @param preEmphasis 预加重系数，0 表示不做
+     * @param cepstralLifter 倒谱提升系数，0 表示不做
+     * @param deltaWindow 计算 delta 时前后各取的帧数
+     */
+    data class Config(
+        val frameMs: Int = 25,
+        val hopMs: Int = 10,
+        val melBands: Int = 40,
+        val mfccCount: Int = 13,
+        val minHz: Double = 20.0,
+        val maxHz: Double = 0.0,
+        val preEmphasis: Float = 0.97f,
+        val cepstralLifter: Int = 22,
+        val deltaWindow: Int = 2
+    )
+
+    /**
+     * 一帧的特征（实例和数组在帧之间复用）
+     *
+     * @param index 帧序号，从 0 开始；第 i 帧覆盖样本 [i·hop, i·hop + frameSize)
+     * @param logEnergy 帧能量（预加重后、加窗前）的自然对数
+     * @param logMel 每个 mel 带的对数能量
+     * @param mfcc MFCC 系数
+     * @param delta MFCC 的一阶差分
+     */
+    class Frame(melBands: Int, mfccCount: Int) {
+        var index: Long = 0
+            internal set
+        var logEnergy: Float = 0f
+            internal set
+        val logMel = FloatArray(melBands)
+        val mfcc = FloatArray(mfccCount)
+        val delta = FloatArray(mfccCount)
+    }
+
+    /**
+     * 特征回调
+     */
+    fun interface FrameSink {
+        fun onFrame(frame: Frame)
+    }
+
+    companion object {
+        private const val LOG_FLOOR = 1e-10f
+
+        fun hzToMel(hz: Double): Double = 1127.0 * ln(1.0 + hz / 700.0)
+
+        fun melToHz(mel: Double): Double = 700.0 * (exp(mel / 1127.0) - 1.0)
+    }
+
+    val frameSize = sampleRate * config.frameMs / 1000
+    val hopSize = sampleRate * config.hopMs / 1000
+
+    private val fft = Fft(Integer.highestOneBit(max(frameSize - 1, 1)) shl 1)
+    private val window = FloatArray(frameSize) { (0.54 - 0.46 * cos(2 * PI * it / (frameSize - 1))).toFloat() }
+
+    // mel 滤波器以稀疏形式存储：第 b 个带覆盖功率谱 [filterStart[b], filterStart[b] + filterWeights[b].size)
+    private val filterStart = IntArray(config.melBands)
+    private val filterWeights: Array<FloatArray>
+
+    // DCT-II（正交归一化）矩阵，已乘上倒谱提升系数
+    private val dct = Array(config.mfccCount) { FloatArray(config.melBands) }
+
+    // 分帧缓冲：已预加重的样本
+    private val pending = FloatArray(frameSize)
+    private var pendingSize = 0
+    private var previousSample = 0f
+
+    private val windowed = FloatArray(frameSize)
+    private val power = FloatArray(fft.size / 2 + 1)
+
+    // 最近 2N+1 帧的特征环形缓冲，用于 delta
+    private val historySize = 2 * config.deltaWindow + 1
+    private val historyMel = Array(historySize) { FloatArray(config.melBands) }
+    private val historyMfcc = Array(historySize) { FloatArray(config.mfccCount) }
+    private val historyEnergy = FloatArray(historySize)
+    private var computedFrames = 0L
+    private var emittedFrames = 0L
+
+    private val deltaNorm: Float
+    private val output = Frame(config.melBands, config.mfccCount)
+
+    init {
+        require(frameSize >= 2 && hopSize in 1..frameSize) { "Invalid frame/hop: $frameSize/$hopSize" }
+        require(config.mfccCount in 1..config.melBands) { "mfccCount must be in 1..melBands" }
+
+        val maxHz = if (config.maxHz > 0) minOf(config.maxHz, sampleRate / 2.0) else sampleRate / 2.0
+        val minMel = hzToMel(config.minHz)
+        val maxMel = hzToMel(maxHz)
+        val melStep = (maxMel - minMel) / (config.melBands + 1)
+        val binHz = sampleRate.toDouble() / fft.size
+
+        filterWeights = Array(config.melBands) { b ->
+            val left = melToHz(minMel + b * melStep)
+            val center = melToHz(minMel + (b + 1) * melStep)
+            val right = melToHz(minMel + (b + 2) * melStep)
+            val first = maxOf(1, ceil(left / binHz).toInt())
+            val last = minOf(fft.size / 2, floor(right / binHz).toInt())
+            filterStart[b] = first
+            FloatArray(maxOf(0, last - first + 1)) { i ->
+                val hz = (first + i) * binHz
+                val w = if (hz <= center) (hz - left) / (center - left) else (right - hz) / (right - center)
+                w.coerceAtLeast(0.0).toFloat()
+            }
+        }
+
+        val lifter = config.cepstralLifter
+        for (k in 0 until config.mfccCount) {
+            val scale = sqrt((if (k == 0) 1.0 else 2.0) / config.melBands)
+            val lift = if (lifter > 0) 1.0 + lifter / 2.0 * sin(PI * k / lifter) else 1.0
+            for (b in 0 until config.melBands) {
+                dct[k][b] = (scale * lift * cos(PI * k * (b + 0.5) / config.melBands)).toFloat()
+            }
+        }
+
+        var norm = 0
+        for (n in 1..config.deltaWindow) norm += n * n
+        deltaNorm = if (norm > 0) 1f / (2 * norm) else 0f
+    }
+
+    /** 已输出的帧数 */
+    val frameCount: Long
+        get() = emittedFrames
+
+    /**
+     * 喂入一段 16-bit 单声道样本，每凑够一帧（并且后面有足够的帧计算 delta）就回调一次
+     */
+    fun process(samples: ShortArray, offset: Int, count: Int, sink: FrameSink) {
+        val end = offset + count
+        val emphasis = config.preEmphasis
+        var i = offset
+        while (i < end) {
+            val n = minOf(end - i, frameSize - pendingSize)
+            for (j in 0 until n) {
+                val x = samples[i + j] / 32768f
+                pending[pendingSize + j] = x - emphasis * previousSample
+                previousSample = x
+            }
+            pendingSize += n
+            i += n
+
+            if (pendingSize == frameSize) {
+                computeFrame()
+                System.arraycopy(pending, hopSize, pending, 0, frameSize - hopSize)
+                pendingSize = frameSize - hopSize
+                // 第 t 帧的 delta 需要第 t+N 帧
+                if (computedFrames - emittedFrames > config.deltaWindow) emit(sink)
+            }
+        }
+    }
+
+    /**
+     * 流结束：输出还在等待后续帧的最后几帧（delta 用最后一帧补齐）
+     *
+     * 不足一帧的尾部样本被丢弃。之后可以继续 [process] 新的流。
+     */
+    fun flush(sink: FrameSink) {
+        while (emittedFrames < computedFrames) emit(sink)
+        reset()
+    }
+
+    /**
+     * 丢弃所有状态，开始新的流
+     */
+    fun reset() {
+        pendingSize = 0
+        previousSample = 0f
+        computedFrames = 0
+        emittedFrames = 0
+    }
+
+    /**
+     * 一次性提取整段音频的 MFCC + delta（每帧 2 × mfccCount 维）
+     */
+    fun extract(samples: ShortArray, offset: Int = 0, count: Int = samples.size): Array<FloatArray> {
+        val frames = ArrayList<FloatArray>(count / hopSize + 1)
+        val sink = FrameSink { f -> frames.add(f.mfcc + f.delta) }
+        reset()
+        process(samples, offset, count, sink)
+        flush(sink)
+        return frames.toTypedArray()
+    }
+
+    private fun computeFrame() {
+        val slot = (computedFrames % historySize).toInt()
+
+        var energy = 0f
+        for (i in 0 until frameSize) {
+            val x = pending[i]
+            energy += x * x
+            windowed[i] = x * window[i]
+        }
+        historyEnergy[slot] = ln(max(energy, LOG_FLOOR))
+
+        fft.powerSpectrum(windowed, frameSize, power)
+
+        val mel = historyMel[slot]
+        for (b in 0 until config.melBands) {
+            val weights = filterWeights[b]
+            val start = filterStart[b]
+            var sum = 0f
+            for (i in weights.indices) sum += weights[i] * power[start + i]
+            mel[b] = ln(max(sum, LOG_FLOOR))
+        }
+
+        val mfcc = historyMfcc[slot]
+        for (k in 0 until config.mfccCount) {
+            val row = dct[k]
+            var sum = 0f
+            for (b in 0 until config.melBands) sum += row[b] * mel[b]
+            mfcc[k] = sum
+        }
+
+        computedFrames++
+    }
+
+    private fun emit(sink: FrameSink) {
+        val t = emittedFrames
+        val slot = (t % historySize).toInt()
+        val last = computedFrames - 1
+
+        output.index = t
+        output.logEnergy = historyEnergy[slot]
+        historyMel[slot].copyInto(output.logMel)
+        historyMfcc[slot].copyInto(output.mfcc)
+
+        // 边界帧用首/末帧补齐
+        output.delta.fill(0f)
+        for (n in 1..config.deltaWindow) {
+            val next = historyMfcc[(minOf(t + n, last) % historySize).toInt()]
+            val prev = historyMfcc[(maxOf(t - n, 0L) % historySize).toInt()]
+            for (k in 0 until config.mfccCount) output.delta[k] += n * (next[k] - prev[k])
+        }
+        for (k in 0 until config.mfccCount) output.delta[k] *= deltaNorm
+
+        emittedFrames++
+        sink.onFrame(output)
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.anticenter.audio
+
+/**
+ * 重叠窗口的检测结果复用
+ *
+ * 滑动窗口的相邻两个窗口有大段内容相同：
+ * - 新增部分没有语音时，新窗口和上一个窗口几乎是同一段话，直接复用上一个窗口的结果，不再上传；
+ * - 重叠的两个窗口都判为钓鱼时通常是同一句话术，只需要提醒一次。
+ *
+ * 结果按窗口覆盖的样本区间保存，只保留最近 [capacity] 个窗口。线程安全（上传在协程里并发完成）。
+ *
+ * @param R 检测结果类型；null 表示窗口已经提交、结果还没回来
+ */
+class OverlapResultCache<R : Any>(private val capacity: Int = 16) {
+
+    /**
+     * 一个已提交窗口
+     */
+    class Entry<R : Any>(
+        val index: Int,
+        val startSample: Long,
+        val endSample: Long
+    ) {
+        @Volatile
+        var result: R? = null
+            internal set
+
+        /** 是否已经对这个窗口发过提醒 */
+        @Volatile
+        var alerted: Boolean = false
+            internal set
+
+        fun overlaps(startSample: Long, endSample: Long): Boolean =
+            this.startSample < endSample && startSample < this.endSample
+
+        fun covers(startSample: Long, endSample: Long): Boolean =
+            this.startSample <= startSample && endSample <= this.endSample
+    }
+
+    private val entries = ArrayDeque<Entry<R>>()
+
+    /** 复用结果而跳过上传的窗口数 */
+    @Volatile
+    var reusedWindows = 0
+        private set
+
+    /**
+     * 登记一个即将上传的窗口
+     */
+    fun submit(window: SlidingWindowScheduler.Window): Entry<R> = synchronized(entries) {
+        val entry = Entry<R>(window.index, window.startSample, window.endSample)
+        entries.addLast(entry)
+        while (entries.size > capacity) entries.removeFirst()
+        entry
+    }
+
+    /**
+     * 记录窗口的检测结果
+     */
+    fun complete(entry: Entry<R>, result: R) {
+        entry.result = result
+    }
+
+    /**
+     * 新窗口可以复用的已提交窗口（包括仍在上传中的）；没有则返回 null
+     *
+     * 只在新增部分没有语音时调用：这时新窗口里的语音都在与上一个窗口重叠的样本中，
+     * 只有完整覆盖这段重叠样本的窗口才算分析过同样的内容，仅仅部分重叠的窗口不复用。
+     * 返回非 null 时计入 [reusedWindows]，调用方应跳过本窗口的上传。
+     */
+    fun reuseFor(window: SlidingWindowScheduler.Window): Entry<R>? = synchronized(entries) {
+        // 没有重叠样本的窗口（第一个窗口、间隔过长的尾部）没有可复用的内容
+        if (window.overlapSamples == 0) return@synchronized null
+        val seenEnd = window.startSample + window.overlapSamples
+        entries.lastOrNull { it.covers(window.startSample, seenEnd) }?.also { reusedWindows++ }
+    }
+
+    /**
+     * 判断这个窗口的阳性结果是否需要提醒：与它重叠的窗口已经提醒过就不再重复提醒
+     *
+     * @return true 表示应该提醒（同时把窗口标记为已提醒）
+     */
+    fun markAlert(entry: Entry<R>): Boolean = synchronized(entries) {
+        val duplicate = entries.any {
+            it !== entry && it.alerted && it.overlaps(entry.startSample, entry.endSample)
+        }
+        entry.alerted = true
+        !duplicate
+    }
+
+    fun clear() = synchronized(entries) {
+        entries.clear()
+        reusedWindows = 0
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.anticenter.audio
+
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
+
+/**
+ * 可复用、可增长的 PCM 字节缓冲区（16-bit little-endian）
+ *
+ * 解码器输出直接拷贝进底层 ByteArray，不产生装箱对象，也不需要再 toByteArray() 一次。
+ * 同一个实例在多次快照之间复用：clear() 只重置写指针，已分配的容量保留下来，
+ * 稳定运行后每次快照的额外分配接近 0。
+ */
+class PcmBuffer(initialCapacity: Int = DEFAULT_CAPACITY) : PcmSink {
+
+    companion object {
+        // 10 秒 48kHz 立体声 16-bit ≈ 1.9MB，初始给 2MB 避免前几次快照反复扩容
+        const val DEFAULT_CAPACITY = 2 * 1024 * 1024
+
+        // 超过这个容量时，clear() 会把缓冲区缩回默认大小，防止一次超长解码长期占用内存
+        private const val MAX_RETAINED_CAPACITY = 8 * 1024 * 1024
+    }
+
+    /** 底层数组，有效数据范围为 [0, size) */
+    var array: ByteArray = ByteArray(initialCapacity)
+        private set
+
+    /** 当前有效字节数 */
+    var size: Int = 0
+        private set
+
+    val isEmpty: Boolean
+        get() = size == 0
+
+    /**
+     * 重置写指针（保留容量供下次复用）
+     */
+    fun clear() {
+        size = 0
+        if (array.size > MAX_RETAINED_CAPACITY) {
+            array = ByteArray(DEFAULT_CAPACITY)
+        }
+    }
+
+    /**
+     * 从 ByteBuffer 当前位置读取 length 个字节追加到末尾
+     * （MediaCodec 的输出缓冲区通常是 direct buffer，这里直接 get 到数组中）
+     */
+    override fun append(src: ByteBuffer, length: Int) {
+        if (length <= 0) return
+        ensureCapacity(size + length)
+        src.get(array, size, length)
+        size += length
+    }
+
+    fun append(src: ByteArray, offset: Int = 0, length: Int = src.size - offset) {
+        if (length <= 0) return
+        ensureCapacity(size + length)
+        System.arraycopy(src, offset, array, size, length)
+        size += length
+    }
+
+    /**
+     * 以 16-bit 采样视图访问有效数据（不拷贝）
+     */
+    fun asShortBuffer(): ShortBuffer =
+        ByteBuffer.wrap(array, 0, size).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer()
+
+    fun writeTo(out: OutputStream) {
+        out.write(array, 0, size)
+    }
+
+    private fun ensureCapacity(required: Int) {
+        if (required <= array.size) return
+        var newCapacity = array.size + (array.size shr 1)
+        if (newCapacity < required) newCapacity = required
+        array = array.copyOf(newCapacity)
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.anticenter.audio
+
+import java.nio.ByteBuffer
+
+/**
+ * 解码输出的接收端（16-bit little-endian PCM）
+ *
+ * 解码器每拿到一块输出就调用一次 append，实现方必须在返回前把数据消费掉，
+ * 因为调用方随后会把 buffer 归还给 MediaCodec。
+ */
+fun interface PcmSink {
+    fun append(src: ByteBuffer, length: Int)
+}
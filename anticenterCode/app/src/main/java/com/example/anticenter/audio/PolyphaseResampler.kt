@@ -0,0 +1,284 @@
+package com.example.anticenter.audio
+
+import java.nio.ShortBuffer
+import kotlin.math.PI
+import kotlin.math.ceil
+import kotlin.math.cos
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.math.sin
+
+/**
+ * 多相 FIR 重采样器（16-bit PCM，输出单声道）
+ *
+ * - 采样率比按最大公约数约成 L/M（48k→16k 为 1/3，44.1k→16k 为 160/441），
+ *   每个相位的 Blackman 窗 sinc 核在构造时一次性算好
+ * - 截止频率取输入/输出 Nyquist 中较低的一个，48k→16k 时 8kHz 以上的成分被滤掉，不再混叠
+ * - 下混（多声道取平均）和重采样在同一遍循环里完成，不产生中间数组
+ * - 流式：保留上一块末尾的历史样本和相位，可以逐块喂数据，块边界不会产生咔哒声
+ * - 补偿滤波器的群延迟：第一个输出样本对齐输入的第一个样本，[flush] 补齐末尾，输出和输入在时间上对齐
+ *
+ * 同一个实例只能服务一条音频流，非线程安全。纯 JVM 实现，不依赖 Android API。
+ *
+ * @param inputRate 输入采样率
+ * @param outputRate 输出采样率
+ * @param inputChannels 输入声道数（交错存储）
+ * @param zeroCrossings 每侧保留的 sinc 零点个数，越大过渡带越窄、开销越高
+ */
+class PolyphaseResampler(
+    val inputRate: Int,
+    val outputRate: Int,
+    val inputChannels: Int = 1,
+    zeroCrossings: Int = DEFAULT_ZERO_CROSSINGS
+) {
+
+    companion object {
+        const val DEFAULT_ZERO_CROSSINGS = 16
+
+        // 截止频率相对于较低 Nyquist 的比例，留出过渡带
+        private const val CUTOFF_RATIO = 0.9
+
+        private fun gcd(a: Int, b: Int): Int = if (b == 0) a else gcd(b, a % b)
+    }
+
+    /** 上采样倍数 L */
+    val upFactor: Int
+
+    /** 下采样倍数 M */
+    val downFactor: Int
+
+    /** 每个相位的抽头数 */
+    val tapsPerPhase: Int
+
+    /** 采样率相同：只做下混，不滤波 */
+    val isPassThrough: Boolean
+        get() = upFactor == downFactor
+
+    // kernels[phase * tapsPerPhase + k] 对应 h[phase + k * L]，k 按输入样本由新到旧排列
+    private val kernels: FloatArray
+
+    // [历史样本 (tapsPerPhase - 1) | 本块下混后的样本]
+    private var work: FloatArray
+
+    // 下一个输出样本对齐的输入位置（work 坐标）和相位
+    private var position: Int
+    private var phase = 0
+
+    private var outputScratch = ShortArray(0)
+
+    init {
+        require(inputRate > 0 && outputRate > 0) { "Sample rates must be positive" }
+        require(inputChannels > 0) { "inputChannels must be positive" }
+
+        val g = gcd(inputRate, outputRate)
+        upFactor = outputRate / g
+        downFactor = inputRate / g
+
+        if (isPassThrough) {
+            tapsPerPhase = 1
+            kernels = floatArrayOf(1f)
+        } else {
+            // 滤波器运行在 L * inputRate 上，截止频率归一化到该速率
+            val cutoff = CUTOFF_RATIO * 0.5 / max(upFactor, downFactor)
+            tapsPerPhase = 2 * ceil(zeroCrossings * max(1.0, downFactor.toDouble() / upFactor)).toInt()
+            val length = tapsPerPhase * upFactor
+            val center = (length - 1) / 2.0
+
+            val prototype = DoubleArray(length) { n ->
+                val x = n - center
+                val sinc = if (x == 0.0) 2 * cutoff else sin(2 * PI * cutoff * x) / (PI * x)
+                val window = 0.42 - 0.5 * cos(2 * PI * n / (length - 1)) + 0.08 * cos(4 * PI * n / (length - 1))
+                sinc * window
+            }
+
+            // 每个相位单独归一化为单位直流增益（同时补偿插零带来的 1/L 衰减）
+            kernels = FloatArray(length)
+            for (p in 0 until upFactor) {
+                var sum = 0.0
+                for (k in 0 until tapsPerPhase) sum += prototype[p + k * upFactor]
+                for (k in 0 until tapsPerPhase) {
+                    kernels[p * tapsPerPhase + k] = (prototype[p + k * upFactor] / sum).toFloat()
+                }
+            }
+        }
+
+        position = startPosition()
+        work = FloatArray(tapsPerPhase - 1 + 4096)
+    }
+
+    /**
+     * inputFrames 帧输入最多产生多少输出样本（用于预分配输出缓冲区）
+     */
+    fun maxOutputSamples(inputFrames: Int): Int =
+        ((inputFrames.toLong() * upFactor) / downFactor).toInt() + 2
+
+    /**
+     * 处理一块交错 PCM
+     *
+     * @param input 输入样本（交错，长度为 frames * inputChannels）
+     * @param offset 输入起始下标
+     * @param length 输入样本数（不足一帧的尾部会被忽略）
+     * @param output 输出数组（单声道），容量至少为 [maxOutputSamples]
+     * @param outputOffset 输出起始下标
+     * @return 写入的输出样本数
+     */
+    fun process(input: ShortArray, offset: Int, length: Int, output: ShortArray, outputOffset: Int): Int {
+        val frames = length / inputChannels
+        val history = tapsPerPhase - 1
+        ensureWorkCapacity(history + frames)
+
+        var src = offset
+        if (inputChannels == 1) {
+            for (i in 0 until frames) work[history + i] = input[src + i].toFloat()
+        } else {
+            val scale = 1f / inputChannels
+            for (i in 0 until frames) {
+                var sum = 0
+                for (c in 0 until inputChannels) sum += input[src++]
+                work[history + i] = sum * scale
+            }
+        }
+
+        return filter(history + frames, output, outputOffset)
+    }
+
+    /**
+     * 直接处理 16-bit little-endian 字节（解码器/AudioRecord 的原始输出），字节到样本的转换与下混在同一遍完成
+     *
+     * @param length 字节数
+     */
+    fun processPcm16(input: ByteArray, offset: Int, length: Int, output: ShortArray, outputOffset: Int): Int {
+        val frames = length / (2 * inputChannels)
+        val history = tapsPerPhase - 1
+        ensureWorkCapacity(history + frames)
+
+        var src = offset
+        val scale = 1f / inputChannels
+        for (i in 0 until frames) {
+            var sum = 0
+            for (c in 0 until inputChannels) {
+                sum += (input[src].toInt() and 0xFF) or (input[src + 1].toInt() shl 8)
+                src += 2
+            }
+            work[history + i] = sum * scale
+        }
+
+        return filter(history + frames, output, outputOffset)
+    }
+
+    /**
+     * 处理 ShortBuffer 中剩余的全部样本，结果写入 output 的当前位置
+     *
+     * heap buffer 直接访问底层数组；view/direct buffer 逐个读取输入，输出经复用的中转数组写回。
+     *
+     * @return 写入的输出样本数
+     */
+    fun process(input: ShortBuffer, output: ShortBuffer): Int {
+        val length = input.remaining() - input.remaining() % inputChannels
+        val frames = length / inputChannels
+        val written: Int
+
+        if (input.hasArray() && output.hasArray()) {
+            written = process(
+                input.array(), input.arrayOffset() + input.position(), length,
+                output.array(), output.arrayOffset() + output.position()
+            )
+        } else {
+            val history = tapsPerPhase - 1
+            ensureWorkCapacity(history + frames)
+            val scale = 1f / inputChannels
+            var src = input.position()
+            for (i in 0 until frames) {
+                var sum = 0
+                for (c in 0 until inputChannels) sum += input.get(src++)
+                work[history + i] = sum * scale
+            }
+            val needed = maxOutputSamples(frames)
+            if (outputScratch.size < needed) outputScratch = ShortArray(needed)
+            written = filter(history + frames, outputScratch, 0)
+            output.duplicate().put(outputScratch, 0, written)
+        }
+
+        input.position(input.position() + length)
+        output.position(output.position() + written)
+        return written
+    }
+
+    /**
+     * 冲刷滤波器延迟线中剩余的样本（流结束时调用一次）
+     */
+    fun flush(output: ShortArray, outputOffset: Int): Int {
+        if (isPassThrough) return 0
+        // 直接在 work 里补半个核长的零，不分配临时数组
+        val history = tapsPerPhase - 1
+        val frames = tapsPerPhase / 2
+        ensureWorkCapacity(history + frames)
+        work.fill(0f, history, history + frames)
+        return filter(history + frames, output, outputOffset)
+    }
+
+    /**
+     * 清空历史样本和相位，开始一条新的流
+     */
+    fun reset() {
+        work.fill(0f, 0, tapsPerPhase - 1)
+        position = startPosition()
+        phase = 0
+    }
+
+    /**
+     * 第一个输出样本在 work 里的位置：跳过原型滤波器的群延迟（半个核长 = tapsPerPhase / 2 个输入样本），
+     * 否则输出整体滞后这么多样本，末尾还多出同样长的一段
+     */
+    private fun startPosition(): Int = tapsPerPhase - 1 + tapsPerPhase / 2
+
+    /**
+     * 对 work[0, available) 做多相滤波，并把末尾的历史样本移到 work 开头
+     */
+    private fun filter(available: Int, output: ShortArray, outputOffset: Int): Int {
+        val taps = tapsPerPhase
+        val l = upFactor
+        val m = downFactor
+        val buf = work
+        val h = kernels
+        var pos = position
+        var ph = phase
+        var out = outputOffset
+
+        while (pos < available) {
+            val base = ph * taps
+            var acc = 0f
+            var idx = pos
+            for (k in 0 until taps) {
+                acc += h[base + k] * buf[idx--]
+            }
+            val sample = acc.roundToInt()
+            output[out++] = when {
+                sample > Short.MAX_VALUE -> Short.MAX_VALUE
+                sample < Short.MIN_VALUE -> Short.MIN_VALUE
+                else -> sample.toShort()
+            }
+
+            ph += m
+            pos += ph / l
+            ph %= l
+        }
+
+        // 保留最后 taps - 1 个样本作为下一块的历史
+        val history = taps - 1
+        val shift = available - history
+        if (shift > 0 && history > 0) {
+            System.arraycopy(buf, shift, buf, 0, history)
+        }
+        position = pos - max(shift, 0)
+        phase = ph
+        return out - outputOffset
+    }
+
+    private fun ensureWorkCapacity(required: Int) {
+        if (required > work.size) {
+            work = work.copyOf(max(required, min(work.size * 2, Int.MAX_VALUE / 2)))
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.anticenter.audio
+
+import kotlin.math.min
+
+/**
+ * 实时通话的滑动窗口切分
+ *
+ * 以前按 20 秒硬切、互不重叠：跨边界的诈骗话术被切成两半，各自缺少上下文，
+ * 第一次出结果也要等满 20 秒再加一次往返。这里在内存环形缓冲里累积样本，
+ * 按“窗口长度 / 步长”输出相互重叠的窗口：通话开头用短窗口、短步长尽快出第一个判定，
+ * 之后逐步加宽，让重叠带来的额外上传量随通话时长下降。
+ *
+ * 每个窗口都是独立拷贝，可以异步上传；[Window.newSamples] 标出相对上一个窗口新增的尾部，
+ * 调用方可以只对新增部分做 VAD，没有新语音时复用上一个窗口的结果（见 [OverlapResultCache]）。
+ *
+ * 非线程安全：由录音循环单线程调用。
+ *
+ * @param sampleRate 输入采样率（单声道 16-bit）
+ * @param stages 窗口阶段，按 [Stage.untilSeconds] 升序排列，最后一个阶段一直生效
+ */
+class SlidingWindowScheduler(
+    val sampleRate: Int = WavWriter.TARGET_SAMPLE_RATE,
+    private val stages: List<Stage> = DEFAULT_STAGES
+) {
+
+    /**
+     * 一个窗口阶段：上一个窗口结束于 untilSeconds 之前时使用这组参数
+     *
+     * @param untilSeconds 阶段结束时间（相对通话开始）
+     * @param windowSeconds 窗口长度
+     * @param hopSeconds 步长，小于窗口长度时相邻窗口重叠 window - hop 秒
+     */
+    data class Stage(
+        val untilSeconds: Double,
+        val windowSeconds: Double,
+        val hopSeconds: Double
+    ) {
+        init {
+            require(windowSeconds > 0 && hopSeconds > 0) { "window and hop must be positive" }
+            require(hopSeconds <= windowSeconds) { "hop must not exceed window" }
+        }
+    }
+
+    /**
+     * 一个待分析的窗口
+     *
+     * @param index 窗口序号（从 0 开始）
+     * @param startSample 窗口起点在整条流中的样本位置
+     * @param samples 窗口样本（独立拷贝）
+     * @param newSamples 尾部有多少样本是上一个窗口没有覆盖的
+     */
+    class Window(
+        val index: Int,
+        val startSample: Long,
+        val samples: ShortArray,
+        val newSamples: Int
+    ) {
+        val endSample: Long
+            get() = startSample + samples.size
+
+        /** 新增部分在 [samples] 中的起点 */
+        val newOffset: Int
+            get() = samples.size - newSamples
+
+        /** 与上一个窗口重叠的样本数 */
+        val overlapSamples: Int
+            get() = newOffset
+    }
+
+    companion object {
+        /** 第一分钟 8s/4s，三分钟内 12s/8s，之后 20s/16s */
+        val DEFAULT_STAGES = listOf(
+            Stage(untilSeconds = 60.0, windowSeconds = 8.0, hopSeconds = 4.0),
+            Stage(untilSeconds = 180.0, windowSeconds = 12.0, hopSeconds = 8.0),
+            Stage(untilSeconds = Double.MAX_VALUE, windowSeconds = 20.0, hopSeconds = 16.0)
+        )
+
+        /** flush 时尾部不足该秒数就不再单独成窗 */
+        const val MIN_TAIL_SECONDS = 1.0
+    }
+
+    private val ring: ShortArray
+    private var totalSamples = 0L
+    private var lastWindowEnd = 0L
+    private var nextWindowEnd: Long
+    private var windowCount = 0
+    private var carryByte = -1
+
+    init {
+        require(stages.isNotEmpty()) { "At least one stage is required" }
+        ring = ShortArray(stages.maxOf { toSamples(it.windowSeconds) })
+        nextWindowEnd = toSamples(stageAt(0L).windowSeconds).toLong()
+    }
+
+    /** 已接收的样本总数 */
+    val receivedSamples: Long
+        get() = totalSamples
+
+    /** 已输出的窗口数 */
+    val emittedWindows: Int
+        get() = windowCount
+
+    /**
+     * 追加 16-bit little-endian PCM 字节（AudioRecord 的原始输出），每凑齐一个窗口回调一次
+     */
+    fun appendPcm16(pcm: ByteArray, offset: Int, length: Int, onWindow: (Window) -> Unit) {
+        var src = offset
+        val end = offset + length
+
+        // 上一块留下的半个样本
+        if (carryByte >= 0 && src < end) {
+            appendSample((carryByte or (pcm[src].toInt() shl 8)).toShort(), onWindow)
+            carryByte = -1
+            src++
+        }
+        while (src + 1 < end) {
+            appendSample(((pcm[src].toInt() and 0xFF) or (pcm[src + 1].toInt() shl 8)).toShort(), onWindow)
+            src += 2
+        }
+        if (src < end) carryByte = pcm[src].toInt() and 0xFF
+    }
+
+    /**
+     * 追加 16-bit 样本
+     */
+    fun append(samples: ShortArray, offset: Int, length: Int, onWindow: (Window) -> Unit) {
+        var src = offset
+        var remaining = length
+        while (remaining > 0) {
+            // 一次拷贝到下一个窗口边界为止
+            val n = min(remaining.toLong(), nextWindowEnd - totalSamples).toInt()
+            val pos = (totalSamples % ring.size).toInt()
+            val first = min(n, ring.size - pos)
+            System.arraycopy(samples, src, ring, pos, first)
+            if (n > first) System.arraycopy(samples, src + first, ring, 0, n - first)
+            totalSamples += n
+            src += n
+            remaining -= n
+            if (totalSamples == nextWindowEnd) emit(onWindow)
+        }
+    }
+
+    /**
+     * 流结束时把还没有被任何窗口覆盖的尾部作为最后一个窗口输出
+     *
+     * @return 最后一个窗口；尾部太短（< [MIN_TAIL_SECONDS]）时返回 null
+     */
+    fun flush(): Window? {
+        val pending = totalSamples - lastWindowEnd
+        if (pending < toSamples(MIN_TAIL_SECONDS)) return null
+        var window: Window? = null
+        emit { window = it }
+        return window
+    }
+
+    /**
+     * 丢弃缓冲，开始一条新的流
+     */
+    fun reset() {
+        totalSamples = 0L
+        lastWindowEnd = 0L
+        windowCount = 0
+        carryByte = -1
+        nextWindowEnd = toSamples(stageAt(0L).windowSeconds).toLong()
+    }
+
+    private fun appendSample(sample: Short, onWindow: (Window) -> Unit) {
+        ring[(totalSamples % ring.size).toInt()] = sample
+        totalSamples++
+        if (totalSamples == nextWindowEnd) emit(onWindow)
+    }
+
+    private fun emit(onWindow: (Window) -> Unit) {
+        val end = totalSamples
+        val stage = stageAt(lastWindowEnd)
+        val length = min(toSamples(stage.windowSeconds).toLong(), end).toInt()
+        val start = end - length
+
+        val samples = ShortArray(length)
+        val pos = (start % ring.size).toInt()
+        val first = min(length, ring.size - pos)
+        System.arraycopy(ring, pos, samples, 0, first)
+        if (length > first) System.arraycopy(ring, 0, samples, first, length - first)
+
+        val window = Window(windowCount++, start, samples, min(end - lastWindowEnd, length.toLong()).toInt())
+        lastWindowEnd = end
+        nextWindowEnd = end + toSamples(stageAt(end).hopSeconds)
+        onWindow(window)
+    }
+
+    private fun stageAt(sample: Long): Stage {
+        val seconds = sample.toDouble() / sampleRate
+        return stages.firstOrNull { seconds < it.untilSeconds } ?: stages.last()
+    }
+
+    private fun toSamples(seconds: Double): Int = (seconds * sampleRate).toInt()
+}
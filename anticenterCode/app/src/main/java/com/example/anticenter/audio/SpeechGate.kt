@@ -0,0 +1,169 @@
+package com.example.anticenter.audio
+
+import android.util.Log
+import java.io.File
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * 上传前的语音闸门
+ *
+ * 每个采集会话（通话录音 / BCR / Zoom）持有一个实例：先用 [VoiceActivityDetector] 判断这段音频
+ * 有没有足够的人声，没有就跳过上传（等待音乐、静音、按键音），有就裁掉首尾静音再上传。
+ * 累计跳过/上传的秒数用于评估节省的带宽和 API 调用。
+ *
+ * evaluate 系列方法内部复用 VAD 缓冲区，需在同一线程或加锁调用（这里统一加锁）。
+ */
+class SpeechGate(
+    private val sessionName: String,
+    private val vad: VoiceActivityDetector = VoiceActivityDetector()
+) {
+
+    companion object {
+        private const val TAG = "SpeechGate"
+    }
+
+    /**
+     * 判定结果
+     *
+     * @param upload 是否上传
+     * @param start 保留区间起点（样本下标）
+     * @param end 保留区间终点（样本下标，不含）
+     */
+    data class Decision(
+        val upload: Boolean,
+        val start: Int,
+        val end: Int,
+        val analysis: VoiceActivityDetector.Analysis
+    )
+
+    /**
+     * 会话累计统计
+     */
+    data class Stats(
+        val uploadedChunks: Int = 0,
+        val skippedChunks: Int = 0,
+        val uploadedSeconds: Double = 0.0,
+        val skippedSeconds: Double = 0.0,
+        val trimmedSeconds: Double = 0.0
+    ) {
+        /** 未上传的音频占比（整段跳过 + 首尾裁剪） */
+        val savedRatio: Double
+            get() {
+                val total = uploadedSeconds + skippedSeconds + trimmedSeconds
+                return if (total == 0.0) 0.0 else (skippedSeconds + trimmedSeconds) / total
+            }
+    }
+
+    private val lock = Any()
+
+    @Volatile
+    var stats = Stats()
+        private set
+
+    /**
+     * 评估一段 16-bit 单声道样本
+     */
+    fun evaluate(samples: ShortArray, offset: Int = 0, length: Int = samples.size - offset): Decision =
+        synchronized(lock) {
+            val analysis = vad.analyze(samples, offset, length)
+            val upload = vad.isSpeech(analysis)
+            record(analysis, upload)
+            Decision(upload, analysis.speechStart, analysis.speechEnd, analysis)
+        }
+
+    /**
+     * 评估一个滑动窗口：只对 newOffset 之后新增的尾部判断有没有新语音，
+     * 有语音时再对整个窗口求保留区间，调用方上传 [Decision.start] 到 [Decision.end] 这一段
+     *
+     * 重叠部分已经随上一个窗口判断过；尾部没有语音时返回 upload = false，由调用方决定是否复用上一个窗口的结果。
+     */
+    fun evaluateWindow(samples: ShortArray, newOffset: Int): Decision = synchronized(lock) {
+        val tail = vad.analyze(samples, newOffset, samples.size - newOffset)
+        val upload = vad.isSpeech(tail)
+        if (!upload || newOffset == 0) {
+            record(tail, upload)
+            return@synchronized Decision(upload, tail.speechStart, tail.speechEnd, tail)
+        }
+
+        // 整窗的噪声底与尾部不同，取并集，保证尾部的语音一定在上传区间内
+        val whole = vad.analyze(samples)
+        val kept = if (whole.speechFrames == 0) {
+            whole.copy(speechStart = tail.speechStart, speechEnd = tail.speechEnd)
+        } else {
+            whole.copy(speechStart = min(whole.speechStart, tail.speechStart), speechEnd = max(whole.speechEnd, tail.speechEnd))
+        }
+        record(kept, true)
+        Decision(true, kept.speechStart, kept.speechEnd, kept)
+    }
+
+    /** [Decision.start] / [Decision.end] 所在的采样率 */
+    val sampleRate: Int
+        get() = vad.sampleRate
+
+    /**
+     * 评估一个 16-bit 单声道 WAV 文件；需要上传时把文件原地裁剪到语音区间
+     *
+     * 采样率与 VAD 不一致或者不是单声道时不做判断，直接放行。
+     *
+     * @return true 表示应该上传（文件可能已被裁剪），false 表示应该跳过
+     */
+    fun gateWavFile(wavFile: File): Boolean = gateWavFileDecision(wavFile)?.upload ?: true
+
+    /**
+     * 同 [gateWavFile]，返回判定结果，调用方可以把保留区间套用到同一段音频的其他版本（例如原始采样率的 PCM）上
+     *
+     * @return 没有做判断（放行）时返回 null
+     */
+    fun gateWavFileDecision(wavFile: File): Decision? {
+        val pcm = WavWriter.readMono(wavFile) ?: return null
+        val (sampleRate, samples) = pcm
+        if (sampleRate != vad.sampleRate) {
+            Log.w(TAG, "[$sessionName] ⚠️ ${wavFile.name}: ${sampleRate}Hz, VAD expects ${vad.sampleRate}Hz, passing through")
+            return null
+        }
+
+        val decision = evaluate(samples)
+        if (decision.upload && (decision.start > 0 || decision.end < samples.size)) {
+            WavWriter.write(wavFile, samples, decision.start, decision.end - decision.start, sampleRate, 1)
+        }
+        return decision
+    }
+
+    /**
+     * 清零统计（新会话开始时调用）
+     */
+    fun reset() {
+        stats = Stats()
+    }
+
+    fun summary(): String {
+        val s = stats
+        return "[$sessionName] uploaded ${s.uploadedChunks} chunks (${"%.1f".format(s.uploadedSeconds)}s), " +
+            "skipped ${s.skippedChunks} chunks (${"%.1f".format(s.skippedSeconds)}s), " +
+            "trimmed ${"%.1f".format(s.trimmedSeconds)}s, saved ${"%.0f".format(s.savedRatio * 100)}%"
+    }
+
+    private fun record(analysis: VoiceActivityDetector.Analysis, upload: Boolean) {
+        val s = stats
+        stats = if (upload) {
+            s.copy(
+                uploadedChunks = s.uploadedChunks + 1,
+                uploadedSeconds = s.uploadedSeconds + analysis.keptSeconds,
+                trimmedSeconds = s.trimmedSeconds + (analysis.durationSeconds - analysis.keptSeconds)
+            )
+        } else {
+            s.copy(
+                skippedChunks = s.skippedChunks + 1,
+                skippedSeconds = s.skippedSeconds + analysis.durationSeconds
+            )
+        }
+
+        Log.d(
+            TAG,
+            "[$sessionName] ${if (upload) "🗣️ speech" else "🔇 no speech"}: " +
+                "ratio ${"%.2f".format(analysis.speechRatio)}, " +
+                "kept ${"%.1f".format(analysis.keptSeconds)}s / ${"%.1f".format(analysis.durationSeconds)}s"
+        )
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.anticenter.audio
+
+import android.media.MediaCodec
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import android.util.Log
+
+/**
+ * MediaCodec 流式解码器
+ *
+ * 解码输出直接写入 [PcmSink]（通常是复用的 [PcmBuffer]，也可以是下游的重采样器），
+ * 整个循环不分配中间 ByteArray。BufferInfo 在实例内复用。
+ *
+ * 非线程安全：一个实例同一时间只服务一次解码。
+ */
+class StreamingPcmDecoder {
+
+    companion object {
+        private const val TAG = "StreamingPcmDecoder"
+        private const val TIMEOUT_US = 10_000L // 10ms
+    }
+
+    /**
+     * 解码器实际输出的 PCM 格式
+     *
+     * 部分编码（如 HE-AAC）解码后的采样率/声道数与轨道格式不一致，
+     * 以 INFO_OUTPUT_FORMAT_CHANGED 报告的值为准。
+     */
+    data class OutputFormat(val sampleRate: Int, val channelCount: Int)
+
+    private val bufferInfo = MediaCodec.BufferInfo()
+
+    /**
+     * 从 extractor 当前位置解码到 endTimeUs
+     *
+     * @param extractor 已 selectTrack 并定位到起始位置的 MediaExtractor
+     * @param format 轨道格式
+     * @param endTimeUs 结束时间(微秒)，达到后送 EOS
+     * @param sink PCM 接收端
+     * @return 实际输出格式；mime 缺失时返回 null
+     */
+    fun decode(
+        extractor: MediaExtractor,
+        format: MediaFormat,
+        endTimeUs: Long,
+        sink: PcmSink
+    ): OutputFormat? {
+        val mime = format.getString(MediaFormat.KEY_MIME) ?: return null
+        var outputFormat = OutputFormat(
+            format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+            format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+        )
+
+        val codec = MediaCodec.createDecoderByType(mime)
+        codec.configure(format, null, null, 0)
+        codec.start()
+
+        var inputDone = false
+        var isDecoding = true
+
+        try {
+            while (isDecoding) {
+                if (!inputDone) {
+                    val inputBufferIndex = codec.dequeueInputBuffer(TIMEOUT_US)
+                    if (inputBufferIndex >= 0) {
+                        val inputBuffer = codec.getInputBuffer(inputBufferIndex)!!
+                        inputBuffer.clear()
+
+                        val sampleSize = extractor.readSampleData(inputBuffer, 0)
+                        val presentationTimeUs = extractor.sampleTime
+                        if (sampleSize < 0 || presentationTimeUs >= endTimeUs) {
+                            codec.queueInputBuffer(
+                                inputBufferIndex, 0, 0, 0,
+                                MediaCodec.BUFFER_FLAG_END_OF_STREAM
+                            )
+                            inputDone = true
+                        } else {
+                            codec.queueInputBuffer(
+                                inputBufferIndex, 0, sampleSize, presentationTimeUs, 0
+                            )
+                            extractor.advance()
+                        }
+                    }
+                }
+
+                val outputBufferIndex = codec.dequeueOutputBuffer(bufferInfo, TIMEOUT_US)
+                when {
+                    outputBufferIndex >= 0 -> {
+                        val outputBuffer = codec.getOutputBuffer(outputBufferIndex)
+                        if (bufferInfo.size > 0 && outputBuffer != null) {
+                            outputBuffer.position(bufferInfo.offset)
+                            outputBuffer.limit(bufferInfo.offset + bufferInfo.size)
+                            sink.append(outputBuffer, bufferInfo.size)
+                        }
+
+                        codec.releaseOutputBuffer(outputBufferIndex, false)
+
+                        if ((bufferInfo.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            isDecoding = false
+                        }
+                    }
+
+                    outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED -> {
+                        val newFormat = codec.outputFormat
+                        outputFormat = OutputFormat(
+                            newFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                            newFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                        )
+                        Log.d(TAG, "Output format changed: $newFormat")
+                    }
+                }
+            }
+        } finally {
+            codec.stop()
+            codec.release()
+        }
+
+        return outputFormat
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.anticenter.audio
+
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.exp
+import kotlin.math.ln
+import kotlin.math.log10
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.pow
+
+/**
+ * 轻量级语音活动检测（VAD），纯 JVM 实现
+ *
+ * 按 30ms 帧计算三个特征：
+ * - 能量（dBFS），与自适应噪声底比较
+ * - 过零率：人声大致落在 0.02~0.35 之间，静音底噪和嘶声会超出这个范围
+ * - 语音频带（300~4000Hz）内的谱平坦度：白噪声/嘶声接近 1，带谐波的人声明显更低
+ *
+ * 三者同时满足的帧还要看周围约 1 秒内的能量起伏：人声按 3~8Hz 的音节节奏起伏，窗口里总有相当一部分帧
+ * 低于平均能量的一半；等待音乐这类持续的音调能量平稳，而谱平坦度和人声一样低，只靠前三个特征会被当成语音。
+ *
+ * 最终判为语音的帧再做拖尾（hangover）平滑，避免把词间停顿判成静音。
+ * 非线程安全：内部缓冲区在调用之间复用。
+ */
+class VoiceActivityDetector(
+    val sampleRate: Int = WavWriter.TARGET_SAMPLE_RATE,
+    val config: Config = Config()
+) {
+
+    /**
+     * VAD 参数
+     *
+     * @param frameMs 帧长（毫秒）
+     * @param minEnergyDbfs 绝对能量下限，低于此值一定不是语音
+     * @param noiseMarginDb 高于噪声底多少 dB 才算有声
+     * @param maxFlatness 语音频带谱平坦度上限
+     * @param modulationWindowMs 统计能量起伏的窗口长度
+     * @param minLowEnergyFraction 窗口内低于平均能量一半的帧的最小占比，低于此值视为持续音（音乐）
+     * @param minZeroCrossingRate 过零率下限（每样本）
+     * @param maxZeroCrossingRate 过零率上限（每样本）
+     * @param hangoverFrames 语音结束后仍按语音处理的帧数
+     * @param minSpeechRatio 语音帧占比低于此值时跳过上传
+     * @param paddingMs 裁剪首尾静音时两侧保留的余量
+     */
+    data class Config(
+        val frameMs: Int = 30,
+        val minEnergyDbfs: Double = -50.0,
+        val noiseMarginDb: Double = 9.0,
+        val maxFlatness: Double = 0.45,
+        val modulationWindowMs: Int = 1000,
+        val minLowEnergyFraction: Double = 0.2,
+        val minZeroCrossingRate: Double = 0.01,
+        val maxZeroCrossingRate: Double = 0.35,
+        val hangoverFrames: Int = 8,
+        val minSpeechRatio: Double = 0.15,
+        val paddingMs: Int = 300
+    )
+
+    /**
+     * 一段音频的分析结果
+     *
+     * @param speechStart 裁剪后保留区间的起点（样本下标，含）
+     * @param speechEnd 裁剪后保留区间的终点（样本下标，不含）；没有语音时 speechStart == speechEnd
+     */
+    data class Analysis(
+        val totalFrames: Int,
+        val speechFrames: Int,
+        val speechStart: Int,
+        val speechEnd: Int,
+        val sampleCount: Int,
+        val sampleRate: Int
+    ) {
+        val speechRatio: Double
+            get() = if (totalFrames == 0) 0.0 else speechFrames.toDouble() / totalFrames
+
+        val durationSeconds: Double
+            get() = sampleCount.toDouble() / sampleRate
+
+        val keptSeconds: Double
+            get() = (speechEnd - speechStart).toDouble() / sampleRate
+    }
+
+    private val frameSize = sampleRate * config.frameMs / 1000
+    private val fft = Fft(Integer.highestOneBit(max(frameSize - 1, 1)) shl 1)
+    private val window = FloatArray(frameSize) { (0.5 - 0.5 * cos(2 * PI * it / (frameSize - 1))).toFloat() }
+    private val frame = FloatArray(frameSize)
+    private val power = FloatArray(fft.size / 2 + 1)
+    private val bandLow = max(1, 300 * fft.size / sampleRate)
+    private val bandHigh = min(fft.size / 2, 4000 * fft.size / sampleRate)
+    private val modulationHalfWindow = max(1, config.modulationWindowMs / config.frameMs / 2)
+
+    private var frameFlags = BooleanArray(0)
+    private var frameEnergies = DoubleArray(0)
+
+    /**
+     * 分析 16-bit 单声道样本
+     */
+    fun analyze(samples: ShortArray, offset: Int = 0, length: Int = samples.size - offset): Analysis {
+        val frameCount = length / frameSize
+        if (frameFlags.size < frameCount) {
+            frameFlags = BooleanArray(frameCount)
+            frameEnergies = DoubleArray(frameCount)
+        }
+
+        // 1. 逐帧计算能量，噪声底取能量的低分位（10%）
+        for (f in 0 until frameCount) {
+            val base = offset + f * frameSize
+            var sum = 0.0
+            for (i in 0 until frameSize) {
+                val s = samples[base + i].toDouble()
+                sum += s * s
+            }
+            frameEnergies[f] = 10 * log10(sum / frameSize / (32768.0 * 32768.0) + 1e-12)
+        }
+        val noiseFloor = lowPercentile(frameEnergies, frameCount, 0.1)
+        val energyThreshold = max(config.minEnergyDbfs, noiseFloor + config.noiseMarginDb)
+
+        // 2. 对过了能量门限的帧再看过零率和谱平坦度
+        var hangover = 0
+        var speechFrames = 0
+        var firstSpeech = -1
+        var lastSpeech = -1
+        for (f in 0 until frameCount) {
+            val base = offset + f * frameSize
+            var voiced = false
+            if (frameEnergies[f] >= energyThreshold) {
+                val zcr = zeroCrossingRate(samples, base)
+                voiced = zcr in config.minZeroCrossingRate..config.maxZeroCrossingRate &&
+                    spectralFlatness(samples, base) <= config.maxFlatness &&
+                    lowEnergyFraction(f, frameCount) >= config.minLowEnergyFraction
+            }
+
+            if (voiced) {
+                hangover = config.hangoverFrames
+                if (firstSpeech < 0) firstSpeech = f
+                lastSpeech = f
+            } else if (hangover > 0) {
+                hangover--
+                voiced = firstSpeech >= 0
+            }
+            frameFlags[f] = voiced
+            if (voiced) speechFrames++
+        }
+
+        if (firstSpeech < 0) {
+            return Analysis(frameCount, 0, offset, offset, length, sampleRate)
+        }
+
+        val padding = sampleRate * config.paddingMs / 1000
+        val start = max(offset, offset + firstSpeech * frameSize - padding)
+        val end = min(offset + length, offset + (lastSpeech + 1) * frameSize + padding)
+        return Analysis(frameCount, speechFrames, start, end, length, sampleRate)
+    }
+
+    /**
+     * 是否值得上传：语音占比达到阈值
+     */
+    fun isSpeech(analysis: Analysis): Boolean =
+        analysis.speechFrames > 0 && analysis.speechRatio >= config.minSpeechRatio
+
+    private fun zeroCrossingRate(samples: ShortArray, base: Int): Double {
+        var crossings = 0
+        var previous = samples[base] >= 0
+        for (i in 1 until frameSize) {
+            val current = samples[base + i] >= 0
+            if (current != previous) crossings++
+            previous = current
+        }
+        return crossings.toDouble() / frameSize
+    }
+
+    /**
+     * 几何平均 / 算术平均（只看语音频带）
+     */
+    private fun spectralFlatness(samples: ShortArray, base: Int): Double {
+        for (i in 0 until frameSize) frame[i] = samples[base + i] * window[i]
+        fft.powerSpectrum(frame, frameSize, power)
+
+        var logSum = 0.0
+        var sum = 0.0
+        val bins = bandHigh - bandLow + 1
+        for (k in bandLow..bandHigh) {
+            val p = power[k].toDouble() + 1e-6
+            logSum += ln(p)
+            sum += p
+        }
+        return exp(logSum / bins) / (sum / bins)
+    }
+
+    /**
+     * 以第 f 帧为中心的窗口内，能量低于窗口平均能量（线性）一半的帧占比
+     */
+    private fun lowEnergyFraction(f: Int, frameCount: Int): Double {
+        val from = max(0, f - modulationHalfWindow)
+        val to = min(frameCount - 1, f + modulationHalfWindow)
+        var sum = 0.0
+        for (i in from..to) sum += 10.0.pow(frameEnergies[i] / 10)
+        val halfMean = sum / (to - from + 1) / 2
+        var low = 0
+        for (i in from..to) if (10.0.pow(frameEnergies[i] / 10) < halfMean) low++
+        return low.toDouble() / (to - from + 1)
+    }
+
+    private fun lowPercentile(values: DoubleArray, count: Int, fraction: Double): Double {
+        if (count == 0) return config.minEnergyDbfs
+        val sorted = values.copyOf(count).also { it.sort() }
+        return sorted[((count - 1) * fraction).toInt()]
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.anticenter.audio
+
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.min
+
+/**
+ * 16-bit PCM WAV 文件写入工具
+ *
+ * 各个音频路径（BCR 快照、通话录音切片、Zoom 音频）以前各自手写 44 字节头，
+ * 这里统一成一份，并在需要时经过 [PolyphaseResampler] 转成检测用的 16kHz 单声道。
+ */
+object WavWriter {
+
+    const val HEADER_SIZE = 44
+
+    /** 检测接口使用的目标格式：16kHz 单声道 */
+    const val TARGET_SAMPLE_RATE = 16000
+
+    private const val IO_CHUNK_BYTES = 64 * 1024
+
+    /**
+     * 生成标准 44 字节 WAV 头
+     */
+    fun header(dataSize: Int, sampleRate: Int, channels: Int): ByteArray {
+        val byteRate = sampleRate * channels * 2 // 16-bit = 2 bytes
+        return ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).apply {
+            put("RIFF".toByteArray(Charsets.US_ASCII))
+            putInt(36 + dataSize) // 文件大小 - 8
+            put("WAVE".toByteArray(Charsets.US_ASCII))
+            put("fmt ".toByteArray(Charsets.US_ASCII))
+            putInt(16) // fmt 子块大小
+            putShort(1) // 音频格式 (PCM)
+            putShort(channels.toShort())
+            putInt(sampleRate)
+            putInt(byteRate)
+            putShort((channels * 2).toShort()) // 块对齐
+            putShort(16) // 位深度
+            put("data".toByteArray(Charsets.US_ASCII))
+            putInt(dataSize)
+        }.array()
+    }
+
+    /**
+     * 把内存中的 16-bit 样本写成 WAV
+     */
+    fun write(outputFile: File, samples: ShortArray, offset: Int, count: Int, sampleRate: Int, channels: Int) {
+        BufferedOutputStream(FileOutputStream(outputFile), IO_CHUNK_BYTES).use { out ->
+            out.write(header(count * 2, sampleRate, channels))
+            writeSamples(out, samples, offset, count, ByteBuffer.allocate(IO_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN))
+        }
+    }
+
+    /**
+     * 把原始 PCM 文件流式转换为 WAV，必要时重采样并下混到 targetSampleRate 单声道
+     *
+     * 采样率和声道数都已满足要求时直接拷贝；否则分块读取、逐块重采样，内存占用与文件长度无关。
+     *
+     * @param startFrame 从第几帧开始转换（用于只转换 VAD 保留的区间）
+     * @param frameCount 最多转换多少帧，默认到文件末尾
+     * @return 写入的 PCM 数据字节数
+     */
+    fun convertPcmFile(
+        pcmFile: File,
+        wavFile: File,
+        inputSampleRate: Int,
+        inputChannels: Int,
+        targetSampleRate: Int = TARGET_SAMPLE_RATE,
+        startFrame: Long = 0,
+        frameCount: Long = Long.MAX_VALUE
+    ): Long {
+        val frameBytes = 2 * inputChannels
+        val startByte = (startFrame.coerceAtLeast(0) * frameBytes).coerceAtMost(pcmFile.length())
+        val spanBytes = minOf(pcmFile.length() - startByte, frameCount.coerceAtMost(Long.MAX_VALUE / frameBytes) * frameBytes)
+
+        if (inputSampleRate == targetSampleRate && inputChannels == 1) {
+            BufferedOutputStream(FileOutputStream(wavFile), IO_CHUNK_BYTES).use { out ->
+                out.write(header(spanBytes.toInt(), targetSampleRate, 1))
+                FileInputStream(pcmFile).use { pcm ->
+                    pcm.channel.position(startByte)
+                    val buffer = ByteArray(IO_CHUNK_BYTES)
+                    var remaining = spanBytes
+                    while (remaining > 0) {
+                        val read = pcm.read(buffer, 0, min(buffer.size.toLong(), remaining).toInt())
+                        if (read <= 0) break
+                        out.write(buffer, 0, read)
+                        remaining -= read
+                    }
+                }
+            }
+            return spanBytes
+        }
+
+        val resampler = PolyphaseResampler(inputSampleRate, targetSampleRate, inputChannels)
+        val input = ByteArray(IO_CHUNK_BYTES)
+        val output = ShortArray(resampler.maxOutputSamples(IO_CHUNK_BYTES / 2) + resampler.tapsPerPhase)
+        val byteBuffer = ByteBuffer.allocate(IO_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+        var dataSize = 0L
+
+        FileOutputStream(wavFile).use { fileOut ->
+            val out = BufferedOutputStream(fileOut, IO_CHUNK_BYTES)
+            out.write(header(0, targetSampleRate, 1))
+
+            FileInputStream(pcmFile).use { pcm ->
+                pcm.channel.position(startByte)
+                var remaining = spanBytes
+                var carried = 0
+                while (remaining > 0) {
+                    val read = pcm.read(input, carried, min((input.size - carried).toLong(), remaining).toInt())
+                    if (read <= 0) break
+                    remaining -= read
+                    val available = carried + read
+                    val usable = available - available % frameBytes
+                    val produced = resampler.processPcm16(input, 0, usable, output, 0)
+                    writeSamples(out, output, 0, produced, byteBuffer)
+                    dataSize += produced * 2L
+                    // 不足一帧的尾部留到下一块
+                    carried = available - usable
+                    if (carried > 0) System.arraycopy(input, usable, input, 0, carried)
+                }
+            }
+
+            val tail = resampler.flush(output, 0)
+            writeSamples(out, output, 0, tail, byteBuffer)
+            dataSize += tail * 2L
+            out.flush()
+        }
+
+        // 回填 RIFF/data 长度
+        RandomAccessFile(wavFile, "rw").use { raf ->
+            val sizes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+            raf.seek(4)
+            raf.write(sizes.putInt(0, (36 + dataSize).toInt()).array())
+            raf.seek(40)
+            raf.write(sizes.putInt(0, dataSize.toInt()).array())
+        }
+        return dataSize
+    }
+
+    /**
+     * 读取 16-bit PCM 单声道 WAV（按 chunk 查找 fmt/data，不假设固定 44 字节头）
+     *
+     * @return (采样率, 样本)；格式不符时返回 null
+     */
+    fun readMono(file: File): Pair<Int, ShortArray>? {
+        RandomAccessFile(file, "r").use { raf ->
+            val header = ByteArray(12)
+            if (raf.length() < 44) return null
+            raf.readFully(header)
+            if (String(header, 0, 4, Charsets.US_ASCII) != "RIFF" ||
+                String(header, 8, 4, Charsets.US_ASCII) != "WAVE"
+            ) return null
+
+            var sampleRate = 0
+            var channels = 0
+            var bits = 0
+            val chunkHeader = ByteArray(8)
+            while (raf.filePointer + 8 <= raf.length()) {
+                raf.readFully(chunkHeader)
+                val id = String(chunkHeader, 0, 4, Charsets.US_ASCII)
+                val size = ByteBuffer.wrap(chunkHeader, 4, 4).order(ByteOrder.LITTLE_ENDIAN).int.toLong() and 0xFFFFFFFFL
+                when (id) {
+                    "fmt " -> {
+                        val fmt = ByteArray(size.toInt()).also { raf.readFully(it) }
+                        val buf = ByteBuffer.wrap(fmt).order(ByteOrder.LITTLE_ENDIAN)
+                        channels = buf.getShort(2).toInt()
+                        sampleRate = buf.getInt(4)
+                        bits = buf.getShort(14).toInt()
+                    }
+                    "data" -> {
+                        if (channels != 1 || bits != 16) return null
+                        val dataSize = min(size, raf.length() - raf.filePointer).toInt()
+                        val bytes = ByteArray(dataSize).also { raf.readFully(it) }
+                        val samples = ShortArray(dataSize / 2)
+                        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples)
+                        return sampleRate to samples
+                    }
+                    else -> raf.seek(raf.filePointer + size + (size and 1))
+                }
+            }
+        }
+        return null
+    }
+
+    /**
+     * 把 16-bit 样本按 little-endian 分块写出
+     */
+    fun writeSamples(out: OutputStream, samples: ShortArray, offset: Int, count: Int) {
+        writeSamples(out, samples, offset, count, ByteBuffer.allocate(IO_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN))
+    }
+
+    private fun writeSamples(out: OutputStream, samples: ShortArray, offset: Int, count: Int, scratch: ByteBuffer) {
+        var index = offset
+        val end = offset + count
+        val perChunk = scratch.capacity() / 2
+        while (index < end) {
+            val n = minOf(perChunk, end - index)
+            scratch.clear()
+            scratch.asShortBuffer().put(samples, index, n)
+            out.write(scratch.array(), 0, n * 2)
+            index += n
+        }
+    }
+}
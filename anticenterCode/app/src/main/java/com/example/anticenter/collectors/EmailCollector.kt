@@ -8,10 +8,13 @@ import com.example.anticenter.BuildConfig
 import com.example.anticenter.data.PhishingData
 import com.example.anticenter.data.PhishingDataHub
 import com.google.api.services.gmail.model.Message
+import com.example.anticenter.analyzers.EmailBatchClassifier
 import com.example.anticenter.analyzers.EmailDetector
+import com.example.anticenter.analyzers.EmailVerdictCache
+import com.example.anticenter.database.EmailVerdictStore
 
 class EmailCollector(
-    @Suppress("UNUSED_PARAMETER") private val context: Context,
+    private val context: Context,
     @Suppress("UNUSED_PARAMETER") private val phishingDataHubUnused: PhishingDataHub
 ) {
 
@@ -20,6 +23,24 @@ class EmailCollector(
         private val DIFY_API_KEY = BuildConfig.DIFY_API_KEY
     }
 
+    // One detector for all emails instead of a new one (and a new HTTP client) per message
+    private val emailDetector by lazy { EmailDetector(DIFY_API_KEY) }
+
+    // Verdicts by messageId / normalized body, so re-polled and forwarded emails skip the LLM
+    private val verdictCache by lazy {
+        try {
+            EmailVerdictCache(EmailVerdictStore(context))
+        } catch (e: Exception) {
+            Log.w(TAG, "Email verdict database unavailable, using memory: ${e.message}")
+            EmailVerdictCache(EmailVerdictCache.MemoryStore())
+        }
+    }
+
+    // Bounded number of workflow calls in flight when a poll returns a burst of emails
+    private val classifier by lazy {
+        EmailBatchClassifier(emailDetector, EmailBatchClassifier.DEFAULT_CONCURRENCY, verdictCache)
+    }
+
     private fun parseEmailToPhishingData(gmailMessage: Message): PhishingData? {
         try {
             val subject = gmailMessage.payload?.headers?.find { it.name == "Subject" }?.value ?: "No Subject"
@@ -108,24 +129,45 @@ class EmailCollector(
     }
 
     suspend fun processRetrievedEmail(gmailMessage: Message) {
-        try {
-            Log.d(TAG, "Starting to process email with ID: ${gmailMessage.id ?: "Unknown ID"}")
-            val parsedData = parseEmailToPhishingData(gmailMessage)
-
-            if (parsedData != null) {
-                Log.i(TAG, "Email (Subject: ${parsedData.metadata["subject"]}) parsed. Proceeding to phishing analysis.")
+        processRetrievedEmails(listOf(gmailMessage))
+    }
 
-                val apiKey = DIFY_API_KEY
-                if (apiKey == "YOUR_API_KEY_HERE" || apiKey.isBlank()) { // Ensure you've replaced this
-                    Log.e(TAG, "API Key is not set or is invalid in EmailCollector.kt. Please replace 'YOUR_API_KEY_HERE'. Email (Subject: ${parsedData.metadata["subject"]}) will not be analyzed or stored.")
-                    return
+    /**
+     * Parse and classify all emails of one poll together, storing the phishing ones.
+     */
+    suspend fun processRetrievedEmails(gmailMessages: List<Message>) {
+        try {
+            val parsed = gmailMessages.mapNotNull { gmailMessage ->
+                Log.d(TAG, "Starting to process email with ID: ${gmailMessage.id ?: "Unknown ID"}")
+                parseEmailToPhishingData(gmailMessage).also {
+                    if (it == null) {
+                        Log.w(TAG, "Email parsing failed or content was blank. Not storing. Message ID: ${gmailMessage.id ?: "Unknown ID"}")
+                    }
                 }
+            }
+            if (parsed.isEmpty()) return
 
-                val emailDetector = EmailDetector(apiKey)
-                val (isPhishing, explanation) = emailDetector.analyzeEmailForPhishing(parsedData) { debugMessage ->
-                    Log.d(TAG, "[EmailDetector] $debugMessage")
+            val apiKey = DIFY_API_KEY
+            if (apiKey == "YOUR_API_KEY_HERE" || apiKey.isBlank()) { // Ensure you've replaced this
+                Log.e(TAG, "API Key is not set or is invalid in EmailCollector.kt. Please replace 'YOUR_API_KEY_HERE'. ${parsed.size} email(s) will not be analyzed or stored.")
+                return
+            }
+
+            Log.i(TAG, "${parsed.size} email(s) parsed. Proceeding to phishing analysis.")
+            val start = System.currentTimeMillis()
+            val results = classifier.classifyAll(
+                parsed,
+                onProvisional = { email, decision ->
+                    Log.i(TAG, "Provisional decision '$decision' for email (Subject: ${email.metadata["subject"]}), waiting for explanation")
                 }
+            ) { debugMessage ->
+                Log.d(TAG, "[EmailDetector] $debugMessage")
+            }
+            Log.i(TAG, "Classified ${parsed.size} email(s) in ${System.currentTimeMillis() - start}ms (${classifier.stats()})")
+            Log.i(TAG, "Email verdict cache: ${verdictCache.stats()}")
 
+            for (parsedData in parsed) {
+                val (isPhishing, explanation) = results[EmailBatchClassifier.keyOf(parsedData)] ?: continue
                 if (isPhishing) {
                     Log.i(TAG, "Phishing email DETECTED by EmailDetector. Storing it. Subject: ${parsedData.metadata["subject"]}")
                     val phishingEmailData = parsedData.copy(
@@ -138,12 +180,9 @@ class EmailCollector(
                 } else {
                     Log.i(TAG, "Email (Subject: ${parsedData.metadata["subject"]}) NOT classified as phishing by EmailDetector. Explanation: $explanation. Not storing.")
                 }
-
-            } else {
-                Log.w(TAG, "Email parsing failed or content was blank. Not storing. Message ID: ${gmailMessage.id ?: "Unknown ID"}")
             }
         } catch (e: Exception) {
-            Log.e(TAG, "Outer error processing email: ${gmailMessage.id ?: "Unknown ID"}", e)
+            Log.e(TAG, "Outer error processing ${gmailMessages.size} email(s): ${gmailMessages.map { it.id }}", e)
         }
     }
 }
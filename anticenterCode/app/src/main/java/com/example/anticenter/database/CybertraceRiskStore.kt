@@ -0,0 +1,34 @@
+package com.example.anticenter.database
+
+import android.content.Context
+import com.example.anticenter.services.CybertraceRiskCache
+
+/**
+ * SQLite-backed store for [CybertraceRiskCache], persisted in the cybertrace_risk_cache table
+ * so repeat callers are enriched without a network round trip after a service restart.
+ */
+class CybertraceRiskStore(private val databaseManager: DatabaseManager) : CybertraceRiskCache.Store {
+
+    constructor(context: Context) : this(DatabaseManager.getInstance(context))
+
+    override fun get(number: String): CybertraceRiskCache.Entry? =
+        databaseManager.getCybertraceRisk(number)
+
+    override fun put(entry: CybertraceRiskCache.Entry) {
+        databaseManager.putCybertraceRisk(entry)
+    }
+
+    override fun touch(number: String, accessedAt: Long) {
+        databaseManager.touchCybertraceRisk(number, accessedAt)
+    }
+
+    override fun remove(number: String) {
+        databaseManager.deleteCybertraceRisk(number)
+    }
+
+    override fun recent(limit: Int): List<CybertraceRiskCache.Entry> =
+        databaseManager.getRecentCybertraceRisks(limit)
+
+    override fun evict(expiredBefore: Long, maxEntries: Int): Int =
+        databaseManager.evictCybertraceRisks(expiredBefore, maxEntries)
+}
@@ -5,9 +5,13 @@ import android.content.Context
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
 import com.example.anticenter.SelectFeatures
+import com.example.anticenter.analyzers.EmailVerdictCache
 import com.example.anticenter.data.AllowlistItem
 import com.example.anticenter.data.AlertLogItem
 import com.example.anticenter.data.ContentLogItem
+import com.example.anticenter.services.CybertraceRiskCache
+import com.example.anticenter.services.CybertraceRiskClient
+import com.example.anticenter.services.DetectionResultCache
 
 /**
  * DatabaseManager handles creation, upgrade and CRUD operations
@@ -36,7 +40,7 @@ class DatabaseManager private constructor(context: Context) : SQLiteOpenHelper(
     
     companion object {
         private const val DATABASE_NAME = "anticenter.db"
-        private const val DATABASE_VERSION = 2 // Updated to version 2 for content table
+        private const val DATABASE_VERSION = 5 // Version 5 adds the cybertrace_risk_cache table
         
         // Allowlist Table
         private const val TABLE_ALLOWLIST = "allowlist"
@@ -65,6 +69,37 @@ class DatabaseManager private constructor(context: Context) : SQLiteOpenHelper(
         private const val CONTENT_LOG_TIMESTAMP = "timestamp"
         private const val CONTENT_LOG_CONTENT = "content"
         private const val CONTENT_LOG_CREATED_AT = "created_at"
+
+        // DetectionCache Table
+        private const val TABLE_DETECTION_CACHE = "detection_cache"
+        private const val CACHE_DETECTOR = "detector"
+        private const val CACHE_HASH = "hash"
+        private const val CACHE_PAYLOAD = "payload"
+        private const val CACHE_SIZE_BYTES = "size_bytes"
+        private const val CACHE_CREATED_AT = "created_at"
+        private const val CACHE_LAST_ACCESS = "last_access"
+
+        // EmailVerdictCache Table
+        private const val TABLE_EMAIL_VERDICT = "email_verdict_cache"
+        private const val VERDICT_CONTENT_HASH = "content_hash"
+        private const val VERDICT_MESSAGE_ID = "message_id"
+        private const val VERDICT_IS_PHISHING = "is_phishing"
+        private const val VERDICT_EXPLANATION = "explanation"
+        private const val VERDICT_TOTAL_TOKENS = "total_tokens"
+        private const val VERDICT_CREATED_AT = "created_at"
+        private const val VERDICT_LAST_ACCESS = "last_access"
+
+        // CybertraceRiskCache Table
+        private const val TABLE_CYBERTRACE_RISK = "cybertrace_risk_cache"
+        private const val RISK_NUMBER = "number"
+        private const val RISK_FOUND = "found"
+        private const val RISK_PERCENT = "risk_percent"
+        private const val RISK_STATEMENT = "risk_statement"
+        private const val RISK_SEARCHED_COUNT = "searched_count"
+        private const val RISK_REPORTED_COUNT = "reported_count"
+        private const val RISK_RAW_SNIPPET = "raw_snippet"
+        private const val RISK_FETCHED_AT = "fetched_at"
+        private const val RISK_LAST_ACCESS = "last_access"
         
         @Volatile
         private var INSTANCE: DatabaseManager? = null
@@ -134,6 +169,9 @@ class DatabaseManager private constructor(context: Context) : SQLiteOpenHelper(
         db.execSQL(createAllowlistTable)
         db.execSQL(createAlertLogTable)
         db.execSQL(createContentLogTable)
+        createDetectionCacheTable(db)
+        createEmailVerdictTable(db)
+        createCybertraceRiskTable(db)
 
         // Create indexes for better performance
         db.execSQL("CREATE INDEX idx_allowlist_feature_type ON $TABLE_ALLOWLIST($ALLOWLIST_FEATURE_TYPE)")
@@ -143,36 +181,95 @@ class DatabaseManager private constructor(context: Context) : SQLiteOpenHelper(
     }
     
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
-        // Upgrade database schema based on version
-        when (oldVersion) {
-            1 -> {
-                // Upgrade from version 1 to 2: Add content_log table
-                val createContentLogTable = """
-                    CREATE TABLE $TABLE_CONTENT_LOG (
-                        $CONTENT_LOG_ID INTEGER PRIMARY KEY AUTOINCREMENT,
-                        $CONTENT_LOG_TYPE TEXT NOT NULL,
-                        $CONTENT_LOG_TIMESTAMP INTEGER NOT NULL,
-                        $CONTENT_LOG_CONTENT TEXT NOT NULL,
-                        $CONTENT_LOG_CREATED_AT INTEGER NOT NULL
-                    )
-                """.trimIndent()
-                
-                db.execSQL(createContentLogTable)
-                db.execSQL("CREATE INDEX idx_content_log_type ON $TABLE_CONTENT_LOG($CONTENT_LOG_TYPE)")
-                db.execSQL("CREATE INDEX idx_content_log_timestamp ON $TABLE_CONTENT_LOG($CONTENT_LOG_TIMESTAMP)")
-                
-                android.util.Log.d("DatabaseManager", "Upgraded database from version $oldVersion to $newVersion - Added content_log table")
-            }
-            else -> {
-                // For other version changes, recreate all tables
-                db.execSQL("DROP TABLE IF EXISTS $TABLE_ALLOWLIST")
-                db.execSQL("DROP TABLE IF EXISTS $TABLE_ALERT_LOG")
-                db.execSQL("DROP TABLE IF EXISTS $TABLE_CONTENT_LOG")
-                onCreate(db)
-                android.util.Log.d("DatabaseManager", "Database recreated for version upgrade from $oldVersion to $newVersion")
-            }
+        // Upgrade database schema step by step so any older version reaches the current one
+        if (oldVersion < 2) {
+            // Upgrade from version 1 to 2: Add content_log table
+            val createContentLogTable = """
+                CREATE TABLE $TABLE_CONTENT_LOG (
+                    $CONTENT_LOG_ID INTEGER PRIMARY KEY AUTOINCREMENT,
+                    $CONTENT_LOG_TYPE TEXT NOT NULL,
+                    $CONTENT_LOG_TIMESTAMP INTEGER NOT NULL,
+                    $CONTENT_LOG_CONTENT TEXT NOT NULL,
+                    $CONTENT_LOG_CREATED_AT INTEGER NOT NULL
+                )
+            """.trimIndent()
+            
+            db.execSQL(createContentLogTable)
+            db.execSQL("CREATE INDEX idx_content_log_type ON $TABLE_CONTENT_LOG($CONTENT_LOG_TYPE)")
+            db.execSQL("CREATE INDEX idx_content_log_timestamp ON $TABLE_CONTENT_LOG($CONTENT_LOG_TIMESTAMP)")
+            
+            android.util.Log.d("DatabaseManager", "Upgraded database from version $oldVersion - Added content_log table")
+        }
+        if (oldVersion < 3) {
+            // Upgrade from version 2 to 3: Add detection_cache table
+            createDetectionCacheTable(db)
+            android.util.Log.d("DatabaseManager", "Upgraded database to version $newVersion - Added detection_cache table")
+        }
+        if (oldVersion < 4) {
+            // Upgrade from version 3 to 4: Add email_verdict_cache table
+            createEmailVerdictTable(db)
+            android.util.Log.d("DatabaseManager", "Upgraded database to version $newVersion - Added email_verdict_cache table")
+        }
+        if (oldVersion < 5) {
+            // Upgrade from version 4 to 5: Add cybertrace_risk_cache table
+            createCybertraceRiskTable(db)
+            android.util.Log.d("DatabaseManager", "Upgraded database to version $newVersion - Added cybertrace_risk_cache table")
         }
     }
+
+    private fun createDetectionCacheTable(db: SQLiteDatabase) {
+        val createDetectionCacheTable = """
+            CREATE TABLE IF NOT EXISTS $TABLE_DETECTION_CACHE (
+                $CACHE_DETECTOR TEXT NOT NULL,
+                $CACHE_HASH TEXT NOT NULL,
+                $CACHE_PAYLOAD TEXT NOT NULL,
+                $CACHE_SIZE_BYTES INTEGER NOT NULL,
+                $CACHE_CREATED_AT INTEGER NOT NULL,
+                $CACHE_LAST_ACCESS INTEGER NOT NULL,
+                PRIMARY KEY ($CACHE_DETECTOR, $CACHE_HASH)
+            )
+        """.trimIndent()
+
+        db.execSQL(createDetectionCacheTable)
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_detection_cache_last_access ON $TABLE_DETECTION_CACHE($CACHE_LAST_ACCESS)")
+    }
+
+    private fun createEmailVerdictTable(db: SQLiteDatabase) {
+        val createEmailVerdictTable = """
+            CREATE TABLE IF NOT EXISTS $TABLE_EMAIL_VERDICT (
+                $VERDICT_CONTENT_HASH TEXT PRIMARY KEY,
+                $VERDICT_MESSAGE_ID TEXT,
+                $VERDICT_IS_PHISHING INTEGER NOT NULL,
+                $VERDICT_EXPLANATION TEXT,
+                $VERDICT_TOTAL_TOKENS INTEGER NOT NULL,
+                $VERDICT_CREATED_AT INTEGER NOT NULL,
+                $VERDICT_LAST_ACCESS INTEGER NOT NULL
+            )
+        """.trimIndent()
+
+        db.execSQL(createEmailVerdictTable)
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_email_verdict_message_id ON $TABLE_EMAIL_VERDICT($VERDICT_MESSAGE_ID)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_email_verdict_last_access ON $TABLE_EMAIL_VERDICT($VERDICT_LAST_ACCESS)")
+    }
+
+    private fun createCybertraceRiskTable(db: SQLiteDatabase) {
+        val createCybertraceRiskTable = """
+            CREATE TABLE IF NOT EXISTS $TABLE_CYBERTRACE_RISK (
+                $RISK_NUMBER TEXT PRIMARY KEY,
+                $RISK_FOUND INTEGER NOT NULL,
+                $RISK_PERCENT INTEGER,
+                $RISK_STATEMENT TEXT,
+                $RISK_SEARCHED_COUNT INTEGER,
+                $RISK_REPORTED_COUNT INTEGER,
+                $RISK_RAW_SNIPPET TEXT,
+                $RISK_FETCHED_AT INTEGER NOT NULL,
+                $RISK_LAST_ACCESS INTEGER NOT NULL
+            )
+        """.trimIndent()
+
+        db.execSQL(createCybertraceRiskTable)
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_cybertrace_risk_last_access ON $TABLE_CYBERTRACE_RISK($RISK_LAST_ACCESS)")
+    }
     
     // ==================== ALLOWLIST OPERATIONS ====================
     
@@ -707,6 +804,341 @@ class DatabaseManager private constructor(context: Context) : SQLiteOpenHelper(
         return items
     }
 
+    // ==================== DETECTION CACHE OPERATIONS ====================
+
+    /**
+     * Get a cached detection result by detector name and content hash
+     */
+    fun getDetectionCacheEntry(detector: String, hash: String): DetectionResultCache.Entry? {
+        val db = this.readableDatabase
+        val cursor = db.query(
+            TABLE_DETECTION_CACHE,
+            null,
+            "$CACHE_DETECTOR = ? AND $CACHE_HASH = ?",
+            arrayOf(detector, hash),
+            null,
+            null,
+            null
+        )
+
+        return cursor?.use { c ->
+            if (c.moveToFirst()) {
+                DetectionResultCache.Entry(
+                    detector = c.getString(c.getColumnIndexOrThrow(CACHE_DETECTOR)),
+                    hash = c.getString(c.getColumnIndexOrThrow(CACHE_HASH)),
+                    payload = c.getString(c.getColumnIndexOrThrow(CACHE_PAYLOAD)),
+                    sizeBytes = c.getLong(c.getColumnIndexOrThrow(CACHE_SIZE_BYTES)),
+                    createdAt = c.getLong(c.getColumnIndexOrThrow(CACHE_CREATED_AT)),
+                    lastAccess = c.getLong(c.getColumnIndexOrThrow(CACHE_LAST_ACCESS))
+                )
+            } else null
+        }
+    }
+
+    /**
+     * Insert or replace a cached detection result
+     */
+    fun putDetectionCacheEntry(entry: DetectionResultCache.Entry): Long {
+        val db = this.writableDatabase
+        val values = ContentValues().apply {
+            put(CACHE_DETECTOR, entry.detector)
+            put(CACHE_HASH, entry.hash)
+            put(CACHE_PAYLOAD, entry.payload)
+            put(CACHE_SIZE_BYTES, entry.sizeBytes)
+            put(CACHE_CREATED_AT, entry.createdAt)
+            put(CACHE_LAST_ACCESS, entry.lastAccess)
+        }
+        return db.insertWithOnConflict(TABLE_DETECTION_CACHE, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+    }
+
+    /**
+     * Update the last access time of a cached detection result (for LRU eviction)
+     */
+    fun touchDetectionCacheEntry(detector: String, hash: String, accessedAt: Long): Int {
+        val db = this.writableDatabase
+        val values = ContentValues().apply { put(CACHE_LAST_ACCESS, accessedAt) }
+        return db.update(
+            TABLE_DETECTION_CACHE,
+            values,
+            "$CACHE_DETECTOR = ? AND $CACHE_HASH = ?",
+            arrayOf(detector, hash)
+        )
+    }
+
+    /**
+     * Delete a cached detection result
+     */
+    fun deleteDetectionCacheEntry(detector: String, hash: String): Int {
+        val db = this.writableDatabase
+        return db.delete(
+            TABLE_DETECTION_CACHE,
+            "$CACHE_DETECTOR = ? AND $CACHE_HASH = ?",
+            arrayOf(detector, hash)
+        )
+    }
+
+    /**
+     * Delete expired cache entries, then keep only the [maxEntries] most recently used ones
+     */
+    fun evictDetectionCache(expiredBefore: Long, maxEntries: Int): Int {
+        val db = this.writableDatabase
+        val expired = db.delete(
+            TABLE_DETECTION_CACHE,
+            "$CACHE_CREATED_AT < ?",
+            arrayOf(expiredBefore.toString())
+        )
+        val overflow = db.delete(
+            TABLE_DETECTION_CACHE,
+            "rowid NOT IN (SELECT rowid FROM $TABLE_DETECTION_CACHE ORDER BY $CACHE_LAST_ACCESS DESC LIMIT ?)",
+            arrayOf(maxEntries.toString())
+        )
+        return expired + overflow
+    }
+
+    /**
+     * Get the number of cached detection results
+     */
+    fun getDetectionCacheCount(): Int {
+        val db = this.readableDatabase
+        val cursor = db.query(
+            TABLE_DETECTION_CACHE,
+            arrayOf("COUNT(*)"),
+            null,
+            null,
+            null,
+            null,
+            null
+        )
+
+        return cursor?.use { c ->
+            if (c.moveToFirst()) c.getInt(0) else 0
+        } ?: 0
+    }
+
+    // ==================== EMAIL VERDICT CACHE OPERATIONS ====================
+
+    /**
+     * Get a cached email verdict by Gmail message id
+     */
+    fun getEmailVerdictByMessageId(messageId: String): EmailVerdictCache.Entry? =
+        queryEmailVerdict("$VERDICT_MESSAGE_ID = ?", messageId)
+
+    /**
+     * Get a cached email verdict by normalized body hash
+     */
+    fun getEmailVerdictByContentHash(contentHash: String): EmailVerdictCache.Entry? =
+        queryEmailVerdict("$VERDICT_CONTENT_HASH = ?", contentHash)
+
+    private fun queryEmailVerdict(selection: String, arg: String): EmailVerdictCache.Entry? {
+        val db = this.readableDatabase
+        val cursor = db.query(
+            TABLE_EMAIL_VERDICT,
+            null,
+            selection,
+            arrayOf(arg),
+            null,
+            null,
+            "$VERDICT_CREATED_AT DESC",
+            "1"
+        )
+
+        return cursor?.use { c ->
+            if (c.moveToFirst()) {
+                val explanationIndex = c.getColumnIndexOrThrow(VERDICT_EXPLANATION)
+                val messageIdIndex = c.getColumnIndexOrThrow(VERDICT_MESSAGE_ID)
+                EmailVerdictCache.Entry(
+                    contentHash = c.getString(c.getColumnIndexOrThrow(VERDICT_CONTENT_HASH)),
+                    messageId = if (c.isNull(messageIdIndex)) null else c.getString(messageIdIndex),
+                    isPhishing = c.getInt(c.getColumnIndexOrThrow(VERDICT_IS_PHISHING)) != 0,
+                    explanation = if (c.isNull(explanationIndex)) null else c.getString(explanationIndex),
+                    totalTokens = c.getInt(c.getColumnIndexOrThrow(VERDICT_TOTAL_TOKENS)),
+                    createdAt = c.getLong(c.getColumnIndexOrThrow(VERDICT_CREATED_AT)),
+                    lastAccess = c.getLong(c.getColumnIndexOrThrow(VERDICT_LAST_ACCESS))
+                )
+            } else null
+        }
+    }
+
+    /**
+     * Insert or replace a cached email verdict
+     */
+    fun putEmailVerdict(entry: EmailVerdictCache.Entry): Long {
+        val db = this.writableDatabase
+        val values = ContentValues().apply {
+            put(VERDICT_CONTENT_HASH, entry.contentHash)
+            put(VERDICT_MESSAGE_ID, entry.messageId)
+            put(VERDICT_IS_PHISHING, if (entry.isPhishing) 1 else 0)
+            put(VERDICT_EXPLANATION, entry.explanation)
+            put(VERDICT_TOTAL_TOKENS, entry.totalTokens)
+            put(VERDICT_CREATED_AT, entry.createdAt)
+            put(VERDICT_LAST_ACCESS, entry.lastAccess)
+        }
+        return db.insertWithOnConflict(TABLE_EMAIL_VERDICT, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+    }
+
+    /**
+     * Update the last access time of a cached email verdict (for LRU eviction)
+     */
+    fun touchEmailVerdict(contentHash: String, accessedAt: Long): Int {
+        val db = this.writableDatabase
+        val values = ContentValues().apply { put(VERDICT_LAST_ACCESS, accessedAt) }
+        return db.update(TABLE_EMAIL_VERDICT, values, "$VERDICT_CONTENT_HASH = ?", arrayOf(contentHash))
+    }
+
+    /**
+     * Delete a cached email verdict
+     */
+    fun deleteEmailVerdict(contentHash: String): Int {
+        val db = this.writableDatabase
+        return db.delete(TABLE_EMAIL_VERDICT, "$VERDICT_CONTENT_HASH = ?", arrayOf(contentHash))
+    }
+
+    /**
+     * Delete expired email verdicts, then keep only the [maxEntries] most recently used ones
+     */
+    fun evictEmailVerdicts(expiredBefore: Long, maxEntries: Int): Int {
+        val db = this.writableDatabase
+        val expired = db.delete(
+            TABLE_EMAIL_VERDICT,
+            "$VERDICT_CREATED_AT < ?",
+            arrayOf(expiredBefore.toString())
+        )
+        val overflow = db.delete(
+            TABLE_EMAIL_VERDICT,
+            "rowid NOT IN (SELECT rowid FROM $TABLE_EMAIL_VERDICT ORDER BY $VERDICT_LAST_ACCESS DESC LIMIT ?)",
+            arrayOf(maxEntries.toString())
+        )
+        return expired + overflow
+    }
+
+    /**
+     * Get the number of cached email verdicts
+     */
+    fun getEmailVerdictCount(): Int {
+        val db = this.readableDatabase
+        val cursor = db.query(
+            TABLE_EMAIL_VERDICT,
+            arrayOf("COUNT(*)"),
+            null,
+            null,
+            null,
+            null,
+            null
+        )
+
+        return cursor?.use { c ->
+            if (c.moveToFirst()) c.getInt(0) else 0
+        } ?: 0
+    }
+
+    // ==================== CYBERTRACE RISK CACHE OPERATIONS ====================
+
+    /**
+     * Get the cached Cybertrace risk for a digits-only phone number
+     */
+    fun getCybertraceRisk(number: String): CybertraceRiskCache.Entry? =
+        queryCybertraceRisks("$RISK_NUMBER = ?", arrayOf(number), null, "1").firstOrNull()
+
+    /**
+     * Get the [limit] most recently looked-up numbers
+     */
+    fun getRecentCybertraceRisks(limit: Int): List<CybertraceRiskCache.Entry> =
+        queryCybertraceRisks(null, null, "$RISK_LAST_ACCESS DESC", limit.toString())
+
+    private fun queryCybertraceRisks(
+        selection: String?,
+        args: Array<String>?,
+        orderBy: String?,
+        limit: String?
+    ): List<CybertraceRiskCache.Entry> {
+        val db = this.readableDatabase
+        val cursor = db.query(TABLE_CYBERTRACE_RISK, null, selection, args, null, null, orderBy, limit)
+
+        return cursor?.use { c ->
+            val percentIndex = c.getColumnIndexOrThrow(RISK_PERCENT)
+            val statementIndex = c.getColumnIndexOrThrow(RISK_STATEMENT)
+            val searchedIndex = c.getColumnIndexOrThrow(RISK_SEARCHED_COUNT)
+            val reportedIndex = c.getColumnIndexOrThrow(RISK_REPORTED_COUNT)
+            val snippetIndex = c.getColumnIndexOrThrow(RISK_RAW_SNIPPET)
+            val entries = mutableListOf<CybertraceRiskCache.Entry>()
+            while (c.moveToNext()) {
+                val result = if (c.getInt(c.getColumnIndexOrThrow(RISK_FOUND)) != 0) {
+                    CybertraceRiskClient.Result(
+                        riskPercent = if (c.isNull(percentIndex)) null else c.getInt(percentIndex),
+                        riskStatement = if (c.isNull(statementIndex)) null else c.getString(statementIndex),
+                        searchedCount = if (c.isNull(searchedIndex)) null else c.getInt(searchedIndex),
+                        reportedCount = if (c.isNull(reportedIndex)) null else c.getInt(reportedIndex),
+                        rawSnippet = if (c.isNull(snippetIndex)) "" else c.getString(snippetIndex)
+                    )
+                } else null
+                entries.add(
+                    CybertraceRiskCache.Entry(
+                        number = c.getString(c.getColumnIndexOrThrow(RISK_NUMBER)),
+                        result = result,
+                        fetchedAt = c.getLong(c.getColumnIndexOrThrow(RISK_FETCHED_AT)),
+                        lastAccess = c.getLong(c.getColumnIndexOrThrow(RISK_LAST_ACCESS))
+                    )
+                )
+            }
+            entries
+        } ?: emptyList()
+    }
+
+    /**
+     * Insert or replace a cached Cybertrace risk
+     */
+    fun putCybertraceRisk(entry: CybertraceRiskCache.Entry): Long {
+        val db = this.writableDatabase
+        val result = entry.result
+        val values = ContentValues().apply {
+            put(RISK_NUMBER, entry.number)
+            put(RISK_FOUND, if (result != null) 1 else 0)
+            put(RISK_PERCENT, result?.riskPercent)
+            put(RISK_STATEMENT, result?.riskStatement)
+            put(RISK_SEARCHED_COUNT, result?.searchedCount)
+            put(RISK_REPORTED_COUNT, result?.reportedCount)
+            put(RISK_RAW_SNIPPET, result?.rawSnippet)
+            put(RISK_FETCHED_AT, entry.fetchedAt)
+            put(RISK_LAST_ACCESS, entry.lastAccess)
+        }
+        return db.insertWithOnConflict(TABLE_CYBERTRACE_RISK, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+    }
+
+    /**
+     * Update the last access time of a cached Cybertrace risk (for LRU eviction and warm-up)
+     */
+    fun touchCybertraceRisk(number: String, accessedAt: Long): Int {
+        val db = this.writableDatabase
+        val values = ContentValues().apply { put(RISK_LAST_ACCESS, accessedAt) }
+        return db.update(TABLE_CYBERTRACE_RISK, values, "$RISK_NUMBER = ?", arrayOf(number))
+    }
+
+    /**
+     * Delete a cached Cybertrace risk
+     */
+    fun deleteCybertraceRisk(number: String): Int {
+        val db = this.writableDatabase
+        return db.delete(TABLE_CYBERTRACE_RISK, "$RISK_NUMBER = ?", arrayOf(number))
+    }
+
+    /**
+     * Delete expired Cybertrace risks, then keep only the [maxEntries] most recently used ones
+     */
+    fun evictCybertraceRisks(expiredBefore: Long, maxEntries: Int): Int {
+        val db = this.writableDatabase
+        val expired = db.delete(
+            TABLE_CYBERTRACE_RISK,
+            "$RISK_FETCHED_AT < ?",
+            arrayOf(expiredBefore.toString())
+        )
+        val overflow = db.delete(
+            TABLE_CYBERTRACE_RISK,
+            "rowid NOT IN (SELECT rowid FROM $TABLE_CYBERTRACE_RISK ORDER BY $RISK_LAST_ACCESS DESC LIMIT ?)",
+            arrayOf(maxEntries.toString())
+        )
+        return expired + overflow
+    }
+
     /**
      * Clear all data (useful for testing or reset)
      */
@@ -715,6 +1147,9 @@ class DatabaseManager private constructor(context: Context) : SQLiteOpenHelper(
         db.execSQL("DELETE FROM $TABLE_ALLOWLIST")
         db.execSQL("DELETE FROM $TABLE_ALERT_LOG")
         db.execSQL("DELETE FROM $TABLE_CONTENT_LOG")
+        db.execSQL("DELETE FROM $TABLE_DETECTION_CACHE")
+        db.execSQL("DELETE FROM $TABLE_EMAIL_VERDICT")
+        db.execSQL("DELETE FROM $TABLE_CYBERTRACE_RISK")
     }
     
     /**
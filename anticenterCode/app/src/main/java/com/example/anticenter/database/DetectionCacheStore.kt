@@ -0,0 +1,31 @@
+package com.example.anticenter.database
+
+import android.content.Context
+import com.example.anticenter.services.DetectionResultCache
+
+/**
+ * SQLite-backed store for [DetectionResultCache], persisted in the detection_cache table
+ * so cached verdicts survive service and process restarts.
+ */
+class DetectionCacheStore(private val databaseManager: DatabaseManager) : DetectionResultCache.Store {
+
+    constructor(context: Context) : this(DatabaseManager.getInstance(context))
+
+    override fun get(detector: String, hash: String): DetectionResultCache.Entry? =
+        databaseManager.getDetectionCacheEntry(detector, hash)
+
+    override fun put(entry: DetectionResultCache.Entry) {
+        databaseManager.putDetectionCacheEntry(entry)
+    }
+
+    override fun touch(detector: String, hash: String, accessedAt: Long) {
+        databaseManager.touchDetectionCacheEntry(detector, hash, accessedAt)
+    }
+
+    override fun remove(detector: String, hash: String) {
+        databaseManager.deleteDetectionCacheEntry(detector, hash)
+    }
+
+    override fun evict(expiredBefore: Long, maxEntries: Int): Int =
+        databaseManager.evictDetectionCache(expiredBefore, maxEntries)
+}
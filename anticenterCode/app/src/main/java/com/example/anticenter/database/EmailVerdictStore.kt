@@ -0,0 +1,34 @@
+package com.example.anticenter.database
+
+import android.content.Context
+import com.example.anticenter.analyzers.EmailVerdictCache
+
+/**
+ * SQLite-backed store for [EmailVerdictCache], persisted in the email_verdict_cache table
+ * so emails are not re-analyzed after a service restart or a reset poll timestamp.
+ */
+class EmailVerdictStore(private val databaseManager: DatabaseManager) : EmailVerdictCache.Store {
+
+    constructor(context: Context) : this(DatabaseManager.getInstance(context))
+
+    override fun findByMessageId(messageId: String): EmailVerdictCache.Entry? =
+        databaseManager.getEmailVerdictByMessageId(messageId)
+
+    override fun findByContentHash(contentHash: String): EmailVerdictCache.Entry? =
+        databaseManager.getEmailVerdictByContentHash(contentHash)
+
+    override fun put(entry: EmailVerdictCache.Entry) {
+        databaseManager.putEmailVerdict(entry)
+    }
+
+    override fun touch(contentHash: String, accessedAt: Long) {
+        databaseManager.touchEmailVerdict(contentHash, accessedAt)
+    }
+
+    override fun remove(contentHash: String) {
+        databaseManager.deleteEmailVerdict(contentHash)
+    }
+
+    override fun evict(expiredBefore: Long, maxEntries: Int): Int =
+        databaseManager.evictEmailVerdicts(expiredBefore, maxEntries)
+}
@@ -0,0 +1,95 @@
+package com.example.anticenter.network
+
+/**
+ * AIMD 并发上限：按后端的响应自动调整同时在途的请求数
+ *
+ * - 每个正常响应把上限加 1/limit（约等于每轮往返 +1）
+ * - 过载信号（429、5xx、超时、连接失败）或延迟超过基线 [latencyTolerance] 倍时乘以 [backoffRatio]
+ * - 一次突发里的多个失败只降一次：两次下调至少间隔 [decreaseCooldownMs]
+ * - 延迟基线取最近 [RTT_WINDOW] 个样本的最小值，后端整体变慢后基线也会跟着抬高
+ *
+ * 本身不阻塞，等待由 [BackendGuard] 负责。
+ *
+ * @param maxLimit 上限的上限（通常等于执行器线程数）
+ */
+class AdaptiveLimiter(
+    val minLimit: Int = 1,
+    val maxLimit: Int,
+    initialLimit: Int = maxLimit,
+    private val backoffRatio: Double = 0.7,
+    private val latencyTolerance: Double = 2.5,
+    private val decreaseCooldownMs: Long = 1_000,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    companion object {
+        private const val RTT_WINDOW = 50
+    }
+
+    init {
+        require(minLimit in 1..maxLimit) { "minLimit must be in 1..maxLimit" }
+    }
+
+    private var limit = initialLimit.toDouble().coerceIn(minLimit.toDouble(), maxLimit.toDouble())
+    private var inFlight = 0
+    private var lastDecreaseAt = Long.MIN_VALUE / 2
+    private var minRttMs = Long.MAX_VALUE
+    private var windowMinMs = Long.MAX_VALUE
+    private var windowSamples = 0
+
+    /** 当前上限（取整） */
+    @get:Synchronized
+    val currentLimit: Int
+        get() = limit.toInt()
+
+    @get:Synchronized
+    val inFlightCount: Int
+        get() = inFlight
+
+    /** 延迟基线，还没有样本时为 -1 */
+    @get:Synchronized
+    val baselineRttMs: Long
+        get() = if (minRttMs == Long.MAX_VALUE) -1 else minRttMs
+
+    @Synchronized
+    fun tryAcquire(): Boolean {
+        if (inFlight >= limit.toInt()) return false
+        inFlight++
+        return true
+    }
+
+    @Synchronized
+    fun release() {
+        if (inFlight > 0) inFlight--
+    }
+
+    /** 一次正常响应及其延迟 */
+    @Synchronized
+    fun onSuccess(latencyMs: Long) {
+        windowMinMs = minOf(windowMinMs, latencyMs)
+        minRttMs = minOf(minRttMs, latencyMs)
+        if (++windowSamples >= RTT_WINDOW) {
+            minRttMs = windowMinMs
+            windowMinMs = Long.MAX_VALUE
+            windowSamples = 0
+        }
+        if (latencyMs > minRttMs * latencyTolerance) {
+            decrease()
+        } else {
+            limit = minOf(maxLimit.toDouble(), limit + 1.0 / limit)
+        }
+    }
+
+    /** 过载信号 */
+    @Synchronized
+    fun onDrop() {
+        decrease()
+    }
+
+    private fun decrease() {
+        val now = clock()
+        if (now - lastDecreaseAt < decreaseCooldownMs) return
+        lastDecreaseAt = now
+        limit = maxOf(minLimit.toDouble(), limit * backoffRatio)
+    }
+}
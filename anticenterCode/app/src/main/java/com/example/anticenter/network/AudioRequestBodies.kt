@@ -0,0 +1,28 @@
+package com.example.anticenter.network
+
+import com.example.anticenter.audio.AudioCodec
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okhttp3.RequestBody.Companion.toRequestBody
+
+/**
+ * 按 [AudioCodec] 生成音频上传请求体
+ *
+ * WAV 用 [WavRequestBody] 边写边传；FLAC / ADPCM 先编码到内存（体积只有 PCM 的 1/4~1/2），
+ * 这样 contentLength 已知，重试时也不用重新编码。
+ */
+object AudioRequestBodies {
+
+    fun fromSamples(
+        codec: AudioCodec,
+        samples: ShortArray,
+        offset: Int,
+        count: Int,
+        sampleRate: Int,
+        channels: Int
+    ): RequestBody = when (codec) {
+        AudioCodec.WAV -> WavRequestBody.fromSamples(samples, offset, count, sampleRate, channels)
+        else -> codec.encodeToBytes(samples, offset, count, sampleRate, channels)
+            .toRequestBody(codec.mimeType.toMediaType())
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.anticenter.network
+
+import android.util.Log
+import com.example.anticenter.utils.TimerWheel
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.future.await
+import okhttp3.Interceptor
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.SocketTimeoutException
+import java.util.PriorityQueue
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import java.util.function.Predicate
+import kotlin.concurrent.withLock
+
+/**
+ * 每个远端检测后端一份的保护：[AdaptiveLimiter] 控制在途请求数，[CircuitBreaker] 在后端故障时暂停请求
+ *
+ * 同一后端的所有检测器实例（通话录音、Zoom 各自 new 的检测器）通过 [forBackend] 拿到同一个实例，
+ * 上限和熔断状态是全局的。请求前 [acquire]（或不占线程的 [acquireAsync]），结束后 [release] 拿到的 [Permit]；
+ * 中间把每个响应报告给 [onSuccess] / [onOverload]（[com.example.anticenter.services.DetectionExecutor] 会自动做这件事）。
+ *
+ * @param overloadOn 没有 HTTP 状态码可看时（例如 SDK 抛出的异常），哪些异常算过载信号
+ * @param timer [acquireAsync] 的等待超时和熔断到点后的唤醒
+ */
+class BackendGuard @JvmOverloads constructor(
+    val name: String,
+    val limiter: AdaptiveLimiter,
+    val breaker: CircuitBreaker = CircuitBreaker(),
+    val overloadOn: Predicate<Throwable> = DEFAULT_OVERLOAD,
+    private val timer: TimerWheel = TimerWheel.shared
+) {
+
+    companion object {
+        private const val TAG = "BackendGuard"
+
+        /** 超时、连接失败等 IO 异常；取消不算 */
+        @JvmField
+        val DEFAULT_OVERLOAD: Predicate<Throwable> = Predicate { e ->
+            e is SocketTimeoutException || (e is IOException && e !is InterruptedIOException)
+        }
+
+        private val registry = ConcurrentHashMap<String, BackendGuard>()
+
+        /**
+         * 取某个后端的共享实例；第一次调用时创建，之后的参数被忽略
+         *
+         * @param maxConcurrency 并发上限的最大值
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forBackend(
+            name: String,
+            maxConcurrency: Int,
+            overloadOn: Predicate<Throwable> = DEFAULT_OVERLOAD
+        ): BackendGuard = registry.computeIfAbsent(name) {
+            BackendGuard(name, AdaptiveLimiter(maxLimit = maxConcurrency), CircuitBreaker(), overloadOn)
+        }
+
+        /** 所有后端的指标，按名称排序 */
+        @JvmStatic
+        fun allStats(): List<Stats> = registry.values.map { it.stats() }.sortedBy { it.name }
+    }
+
+    /**
+     * 指标快照
+     *
+     * @param limit 当前并发上限
+     * @param baselineRttMs 延迟基线，还没有样本时为 -1
+     * @param rejected 因熔断或超出上限而等待过的请求数
+     */
+    data class Stats(
+        val name: String,
+        val state: CircuitBreaker.State,
+        val limit: Int,
+        val inFlight: Int,
+        val baselineRttMs: Long,
+        val successes: Long,
+        val overloads: Long,
+        val rejected: Long,
+        val trips: Long
+    ) {
+        override fun toString(): String =
+            "$name: state=$state, limit=$limit, inFlight=$inFlight, baseline=${baselineRttMs}ms, " +
+                "ok=$successes, overload=$overloads, waited=$rejected, trips=$trips"
+    }
+
+    /**
+     * 一个在途名额
+     *
+     * @param probe 是否占用了熔断器 HALF_OPEN 时的探测名额
+     */
+    class Permit internal constructor(internal val probe: Boolean)
+
+    private val lock = ReentrantLock()
+    private val changed = lock.newCondition()
+    private val successes = AtomicLong()
+    private val overloads = AtomicLong()
+    private val rejected = AtomicLong()
+
+    /** [acquireAsync] 的排队者：rank 小的先，同 rank 按 dueAt、再按到达顺序 */
+    private class Waiter(val rank: Int, val dueAt: Long, val seq: Long, val future: CompletableFuture<Permit?>)
+
+    private val waiters = PriorityQueue<Waiter>(
+        compareBy<Waiter>({ it.rank }, { it.dueAt }, { it.seq })
+    )
+    private var nextSeq = 0L
+    private var wakeup: TimerWheel.Timeout? = null
+
+    /**
+     * 等到熔断器放行且并发上限有空位
+     *
+     * @param maxWaitMs 最多等待的毫秒数
+     * @return 拿到的名额，超时返回 null
+     * @throws InterruptedException 等待中线程被中断（任务被取消）
+     */
+    @Throws(InterruptedException::class)
+    fun acquire(maxWaitMs: Long): Permit? {
+        val deadline = System.currentTimeMillis() + maxWaitMs
+        var waited = false
+        lock.withLock {
+            while (true) {
+                tryGrant()?.let { return it }
+                if (!waited) {
+                    waited = true
+                    rejected.incrementAndGet()
+                }
+                val remaining = deadline - System.currentTimeMillis()
+                if (remaining <= 0) return null
+                // 熔断打开时睡到可以探测；否则等有人释放名额
+                val retryAfter = breaker.retryAfterMs()
+                changed.await(if (retryAfter > 0) minOf(remaining, retryAfter) else remaining, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    /**
+     * 不占线程地等待名额：立即能拿到时返回已完成的 Future；否则排队，有名额释放或熔断器到点可以探测时
+     * 按 [rank]、[dueAt] 的顺序交出（都相同时先来先得）
+     *
+     * @param maxWaitMs 最多等待的毫秒数，超时 Future 以 null 完成
+     * @param rank 优先级，越小越先
+     * @param dueAt 同一优先级里的截止时刻，越早越先
+     * @return cancel 这个 Future 即放弃等待；已经交出的名额由调用方 [release]
+     */
+    @JvmOverloads
+    fun acquireAsync(maxWaitMs: Long, rank: Int = 0, dueAt: Long = 0): CompletableFuture<Permit?> {
+        val waiter: Waiter
+        lock.withLock {
+            if (waiters.isEmpty()) tryGrant()?.let { return CompletableFuture.completedFuture(it) }
+            rejected.incrementAndGet()
+            if (maxWaitMs <= 0) return CompletableFuture.completedFuture(null)
+            waiter = Waiter(rank, dueAt, nextSeq++, CompletableFuture())
+            waiters.add(waiter)
+            scheduleWakeup()
+        }
+        val future = waiter.future
+        val timeout = timer.schedule(maxWaitMs) { future.complete(null) }
+        future.whenComplete { permit, _ ->
+            timeout.cancel()
+            if (permit == null) lock.withLock { waiters.remove(waiter) }
+        }
+        // 排队前后可能刚好有名额释放
+        grantWaiters()
+        return future
+    }
+
+    /**
+     * 协程里在一个名额内执行 [block]：排队不占线程，[block] 结束（包括异常、取消）后释放名额
+     *
+     * 给不经过 [com.example.anticenter.services.DetectionExecutor] 的调用方用，参数同 [acquireAsync]。
+     *
+     * @throws RejectedExecutionException maxWaitMs 内没有拿到名额（熔断打开或一直满载）
+     */
+    suspend fun <T> withPermit(maxWaitMs: Long, rank: Int = 0, dueAt: Long = 0, block: suspend () -> T): T {
+        val pending = acquireAsync(maxWaitMs, rank, dueAt)
+        val permit = try {
+            pending.await()
+        } catch (e: CancellationException) {
+            // 协程取消和名额授予同时发生时，名额已经给出，要还回去
+            if (!pending.cancel(false) && !pending.isCompletedExceptionally) pending.join()?.let { release(it) }
+            throw e
+        } ?: throw RejectedExecutionException("[$name] no permit within ${maxWaitMs}ms")
+        try {
+            return block()
+        } finally {
+            release(permit)
+        }
+    }
+
+    /**
+     * 把经过的每个响应报告给本后端（[onResponse]；IO 异常按 [overloadOn] 判断），加在直接发请求的客户端上
+     */
+    val interceptor = Interceptor { chain ->
+        val start = System.currentTimeMillis()
+        val response = try {
+            chain.proceed(chain.request())
+        } catch (e: IOException) {
+            if (!chain.call().isCanceled() && overloadOn.test(e)) onOverload()
+            throw e
+        }
+        onResponse(response.code, System.currentTimeMillis() - start)
+        response
+    }
+
+    fun release(permit: Permit) {
+        lock.withLock {
+            limiter.release()
+            if (permit.probe) breaker.release()
+            changed.signalAll()
+        }
+        grantWaiters()
+    }
+
+    /** 后端正常响应（包括 4xx 这类客户端错误） */
+    fun onSuccess(latencyMs: Long) {
+        successes.incrementAndGet()
+        lock.withLock {
+            limiter.onSuccess(latencyMs)
+            breaker.onSuccess()
+            changed.signalAll()
+        }
+        grantWaiters()
+    }
+
+    /** 429：后端还活着，只是要求慢一点，只降并发上限，不计入熔断 */
+    fun onThrottled() {
+        overloads.incrementAndGet()
+        lock.withLock { limiter.onDrop() }
+    }
+
+    /** 5xx、超时、连接失败 */
+    fun onOverload() {
+        overloads.incrementAndGet()
+        lock.withLock {
+            val before = breaker.trips
+            limiter.onDrop()
+            breaker.onFailure()
+            if (breaker.trips != before) {
+                Log.w(TAG, "[$name] Circuit opened for ${breaker.retryAfterMs()}ms (limit=${limiter.currentLimit})")
+            }
+        }
+    }
+
+    /** 按 HTTP 状态码反馈一次响应 */
+    fun onResponse(code: Int, latencyMs: Long) {
+        when {
+            code == 429 -> onThrottled()
+            code >= 500 -> onOverload()
+            else -> onSuccess(latencyMs)
+        }
+    }
+
+    /** 调用方持有 [lock] */
+    private fun tryGrant(): Permit? {
+        val probe = breaker.currentState == CircuitBreaker.State.HALF_OPEN
+        if (breaker.tryAcquire()) {
+            if (limiter.tryAcquire()) return Permit(probe)
+            if (probe) breaker.release()
+        }
+        return null
+    }
+
+    /** 把空出来的名额按顺序交给 [acquireAsync] 的排队者；Future 在锁外完成，回调里可以再调用本类 */
+    private fun grantWaiters() {
+        val granted = ArrayList<Pair<CompletableFuture<Permit?>, Permit>>()
+        lock.withLock {
+            while (waiters.isNotEmpty()) {
+                if (waiters.peek().future.isDone) {
+                    waiters.poll()
+                    continue
+                }
+                val permit = tryGrant() ?: break
+                granted += waiters.poll().future to permit
+            }
+            if (waiters.isNotEmpty()) scheduleWakeup()
+        }
+        // 等待方刚好超时或取消时把名额还回去
+        for ((future, permit) in granted) {
+            if (!future.complete(permit)) release(permit)
+        }
+    }
+
+    /** 熔断打开时没有人会释放名额，到点后主动再试一次；调用方持有 [lock] */
+    private fun scheduleWakeup() {
+        val retryAfter = breaker.retryAfterMs()
+        if (retryAfter <= 0 || wakeup != null) return
+        wakeup = timer.schedule(retryAfter) {
+            lock.withLock { wakeup = null }
+            grantWaiters()
+        }
+    }
+
+    fun stats(): Stats = Stats(
+        name, breaker.currentState, limiter.currentLimit, limiter.inFlightCount, limiter.baselineRttMs,
+        successes.get(), overloads.get(), rejected.get(), breaker.trips
+    )
+}
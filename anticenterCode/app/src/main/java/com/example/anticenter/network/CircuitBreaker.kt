@@ -0,0 +1,133 @@
+package com.example.anticenter.network
+
+/**
+ * 熔断器：后端连续出错时暂停请求，到时间后放少量探测请求，成功就恢复
+ *
+ * - CLOSED：统计最近 [windowSize] 次结果，至少 [minCalls] 次且失败比例达到 [failureRatio] 时打开
+ * - OPEN：拒绝所有请求；[openMs] 后进入 HALF_OPEN。连续打开时等待时间翻倍，最长 [maxOpenMs]
+ * - HALF_OPEN：最多 [halfOpenProbes] 个请求同时探测；累计这么多次成功就关闭，任何一次失败重新打开
+ */
+class CircuitBreaker(
+    private val windowSize: Int = 20,
+    private val minCalls: Int = 10,
+    private val failureRatio: Double = 0.5,
+    private val openMs: Long = 10_000,
+    private val maxOpenMs: Long = 120_000,
+    private val halfOpenProbes: Int = 2,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    enum class State { CLOSED, OPEN, HALF_OPEN }
+
+    private val outcomes = BooleanArray(windowSize)
+    private var recorded = 0
+    private var failures = 0
+    private var next = 0
+
+    private var state = State.CLOSED
+    private var openUntil = 0L
+    private var currentOpenMs = openMs
+    private var probesInFlight = 0
+    private var probeSuccesses = 0
+
+    /** 打开过的次数 */
+    @get:Synchronized
+    var trips = 0L
+        private set
+
+    /** 当前状态；OPEN 到期后读到的是 HALF_OPEN */
+    @get:Synchronized
+    val currentState: State
+        get() {
+            advance()
+            return state
+        }
+
+    /** 距离允许探测还要等多久（毫秒），非 OPEN 时为 0 */
+    @Synchronized
+    fun retryAfterMs(): Long {
+        advance()
+        return if (state == State.OPEN) openUntil - clock() else 0
+    }
+
+    /**
+     * 请求放行
+     *
+     * HALF_OPEN 时占用一个探测名额，探测请求结束后必须调用 [release]
+     */
+    @Synchronized
+    fun tryAcquire(): Boolean {
+        advance()
+        return when (state) {
+            State.CLOSED -> true
+            State.OPEN -> false
+            State.HALF_OPEN -> if (probesInFlight < halfOpenProbes) {
+                probesInFlight++
+                true
+            } else false
+        }
+    }
+
+    /** 归还 HALF_OPEN 时占用的探测名额 */
+    @Synchronized
+    fun release() {
+        if (state == State.HALF_OPEN && probesInFlight > 0) probesInFlight--
+    }
+
+    @Synchronized
+    fun onSuccess() {
+        advance()
+        when (state) {
+            State.CLOSED -> record(false)
+            State.HALF_OPEN -> if (++probeSuccesses >= halfOpenProbes) close()
+            State.OPEN -> Unit
+        }
+    }
+
+    @Synchronized
+    fun onFailure() {
+        advance()
+        when (state) {
+            State.CLOSED -> {
+                record(true)
+                if (recorded >= minCalls && failures >= recorded * failureRatio) open(openMs)
+            }
+            State.HALF_OPEN -> open(minOf(maxOpenMs, currentOpenMs * 2))
+            State.OPEN -> Unit
+        }
+    }
+
+    private fun record(failed: Boolean) {
+        if (recorded == windowSize) {
+            if (outcomes[next]) failures--
+        } else {
+            recorded++
+        }
+        outcomes[next] = failed
+        if (failed) failures++
+        next = (next + 1) % windowSize
+    }
+
+    private fun advance() {
+        if (state == State.OPEN && clock() >= openUntil) {
+            state = State.HALF_OPEN
+            probesInFlight = 0
+            probeSuccesses = 0
+        }
+    }
+
+    private fun open(durationMs: Long) {
+        state = State.OPEN
+        currentOpenMs = durationMs
+        openUntil = clock() + durationMs
+        trips++
+    }
+
+    private fun close() {
+        state = State.CLOSED
+        currentOpenMs = openMs
+        recorded = 0
+        failures = 0
+        next = 0
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.anticenter.network
+
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
+import org.json.JSONException
+import org.json.JSONObject
+import java.io.IOException
+
+/**
+ * Dify 工作流的 streaming 模式客户端
+ *
+ * blocking 模式要等 LLM 把理由、证据、解释全部生成完才返回，而判定和置信度通常在输出的最前面。
+ * streaming 模式下 Dify 以 server-sent events 推送：
+ * - `text_chunk`：LLM 输出的增量文本（data.text）
+ * - `workflow_finished`：和 blocking 响应里 data 相同的完整结果
+ * - `error`：工作流出错；`ping`：心跳
+ *
+ * 这里边收边用 [IncrementalJsonFields] 解析 LLM 文本，判定和置信度字段一完整就通过 [Listener]
+ * 发出临时结论；流结束后 [read] 返回与 blocking 响应同结构的 JSON（`workflow_run_id` + `data`），
+ * 调用方原有的解析逻辑不用改。
+ *
+ * 一个实例只对应一次请求，不要复用。
+ *
+ * @param listener 临时结论回调，在读取响应的线程上调用，最多一次
+ */
+class DifyWorkflowStream @JvmOverloads constructor(
+    private val listener: Listener? = null
+) {
+
+    companion object {
+        const val EVENT_TEXT_CHUNK = "text_chunk"
+        const val EVENT_WORKFLOW_FINISHED = "workflow_finished"
+        const val EVENT_ERROR = "error"
+
+        /** 判定字段，按优先级（与 blocking 解析一致） */
+        val VERDICT_KEYS = listOf("verdict", "decision", "result", "output", "classification")
+
+        /** 置信度字段，likelihood 是 0-10 分制 */
+        val CONFIDENCE_KEYS = listOf("confidence", "score", "likelihood")
+
+        /** 邮件工作流的 `TRUE: ...` / `FALSE: ...` 前缀格式 */
+        private val PREFIX_VERDICTS = listOf("TRUE", "FALSE")
+
+        private val JSON = "application/json".toMediaType()
+
+        /**
+         * 构造 streaming 模式的 `/workflows/run` 请求
+         */
+        @JvmStatic
+        fun newRequest(url: String, apiKey: String, inputs: JSONObject, user: String): Request {
+            val payload = JSONObject()
+                .put("inputs", inputs)
+                .put("response_mode", "streaming")
+                .put("user", user)
+            return Request.Builder()
+                .url(url)
+                .addHeader("Content-Type", "application/json")
+                .addHeader("Accept", "text/event-stream")
+                .addHeader("Authorization", "Bearer $apiKey")
+                .post(payload.toString().toRequestBody(JSON))
+                .build()
+        }
+    }
+
+    fun interface Listener {
+        fun onProvisionalVerdict(verdict: ProvisionalVerdict)
+    }
+
+    /**
+     * 临时结论：来自还没生成完的 LLM 输出，理由和证据要等最终结果
+     *
+     * @param verdict LLM 给出的原始判定文本（未归一化），前缀格式时为 TRUE / FALSE
+     * @param confidence 0-1，没有置信度字段时为 null
+     * @param elapsedMs 从 [read] 开始到得出临时结论的耗时
+     */
+    data class ProvisionalVerdict(val verdict: String, val confidence: Double?, val elapsedMs: Long)
+
+    private val text = StringBuilder()
+    private val fields = HashMap<String, Any?>()
+    private val scanner = IncrementalJsonFields(::onField) { emit() }
+    private var startedAt = 0L
+
+    /** 已发出的临时结论 */
+    var provisional: ProvisionalVerdict? = null
+        private set
+
+    /** 到目前为止收到的 LLM 文本 */
+    val llmText: String
+        get() = text.toString()
+
+    /**
+     * 读完整个事件流，返回 blocking 结构的结果；调用方负责先检查 HTTP 状态码并关闭 [response]
+     *
+     * @throws IOException 网络错误、`error` 事件，或流在 `workflow_finished` 之前结束
+     */
+    @Throws(IOException::class)
+    fun read(response: Response): JSONObject {
+        startedAt = System.currentTimeMillis()
+        val body = response.body ?: throw IOException("Empty workflow stream")
+        val reader = SseEventReader(body.source())
+
+        while (true) {
+            val event = reader.next() ?: throw IOException("Workflow stream ended before workflow_finished")
+            if (event.data.isEmpty()) continue // ping 等没有数据的事件
+
+            val json = try {
+                JSONObject(event.data)
+            } catch (e: JSONException) {
+                throw IOException("Malformed workflow event: ${event.data.take(200)}", e)
+            }
+
+            when (json.optString("event", event.type ?: "")) {
+                EVENT_TEXT_CHUNK -> onText(json.optJSONObject("data")?.optString("text", "") ?: "")
+                EVENT_WORKFLOW_FINISHED -> return JSONObject()
+                    .put("task_id", json.opt("task_id"))
+                    .put("workflow_run_id", json.opt("workflow_run_id"))
+                    .put("data", json.optJSONObject("data") ?: JSONObject())
+                EVENT_ERROR -> throw IOException(
+                    "Workflow error: ${json.optString("message", json.optString("code", "unknown"))}"
+                )
+            }
+        }
+    }
+
+    private fun onText(chunk: String) {
+        if (chunk.isEmpty()) return
+        text.append(chunk)
+        if (provisional != null) return
+
+        // 前缀格式：看到 "TRUE:" / "FALSE:" 就有结论了，后面全是解释
+        val head = text.trimStart()
+        for (prefix in PREFIX_VERDICTS) {
+            if (head.length > prefix.length && head.startsWith(prefix, ignoreCase = true) && head[prefix.length] == ':') {
+                publish(prefix, null)
+                return
+            }
+        }
+        scanner.append(chunk)
+    }
+
+    private fun onField(key: String, value: Any?) {
+        fields[key] = value
+        if (verdict() != null && confidence() != null) emit()
+    }
+
+    /** 有判定就发；在顶层对象结束时也会调用，此时置信度可能缺失 */
+    private fun emit() {
+        val verdict = verdict() ?: return
+        publish(verdict, confidence())
+    }
+
+    private fun publish(verdict: String, confidence: Double?) {
+        if (provisional != null) return
+        val result = ProvisionalVerdict(verdict, confidence, System.currentTimeMillis() - startedAt)
+        provisional = result
+        listener?.onProvisionalVerdict(result)
+    }
+
+    private fun verdict(): String? =
+        VERDICT_KEYS.firstNotNullOfOrNull { (fields[it] as? String)?.takeIf(String::isNotEmpty) }
+
+    private fun confidence(): Double? {
+        for (key in CONFIDENCE_KEYS) {
+            val value = (fields[key] as? Double) ?: (fields[key] as? String)?.toDoubleOrNull() ?: continue
+            return if (key == "likelihood") value / 10.0 else value
+        }
+        return null
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.anticenter.network
+
+import kotlin.math.roundToLong
+
+/**
+ * 对冲请求的额度：每个主请求存入 [ratio] 个令牌，每次对冲花掉 1 个，最多攒 [maxTokens] 个
+ *
+ * 长期看额外请求数不超过主请求数的 [ratio]；空闲一段时间后最多连续对冲 [maxTokens] 次。
+ * 多个 [HedgedCall] 共用一个实例时额度是合计的，默认都用 [shared]。
+ */
+class HedgeBudget @JvmOverloads constructor(
+    val ratio: Double = 0.1,
+    val maxTokens: Int = 5
+) {
+
+    companion object {
+        // 令牌按千分之一计，避免 10 × 0.1 < 1 这类浮点误差
+        private const val UNIT = 1_000L
+
+        /** 进程内共享的额度，额外请求合计不超过 10% */
+        @JvmStatic
+        val shared: HedgeBudget by lazy { HedgeBudget() }
+    }
+
+    init {
+        require(ratio in 0.0..1.0) { "ratio must be in 0..1" }
+        require(maxTokens > 0) { "maxTokens must be positive" }
+    }
+
+    private val deposit = (ratio * UNIT).roundToLong()
+    private var balance = 0L
+    private var denied = 0L
+
+    /** 当前可用的对冲次数 */
+    @get:Synchronized
+    val available: Int
+        get() = (balance / UNIT).toInt()
+
+    /** 因额度不足没有发出的对冲次数 */
+    @get:Synchronized
+    val deniedCount: Long
+        get() = denied
+
+    /** 发出一个主请求 */
+    @Synchronized
+    fun onRequest() {
+        balance = minOf(balance + deposit, maxTokens * UNIT)
+    }
+
+    /** 花掉一次对冲额度；不足时返回 false */
+    @Synchronized
+    fun tryWithdraw(): Boolean {
+        if (balance < UNIT) {
+            denied++
+            return false
+        }
+        balance -= UNIT
+        return true
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.anticenter.network
+
+import android.util.Log
+import com.example.anticenter.utils.TimerWheel
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.ceil
+
+/**
+ * 对冲请求：请求超过自适应阈值还没完成时，再发一个一模一样的请求，谁先成功用谁，另一个取消
+ *
+ * Dify `/workflows/run` 中位数约 3 秒，p99 却在 40 秒以上，慢的那部分重发一次通常很快就回来。
+ * 阈值取最近 [window] 次完成耗时的 [percentile] 分位（默认 p90），样本不足 [minSamples] 时用
+ * [initialDelayMs]，并限制在 [minDelayMs]..[maxDelayMs] 之间。
+ *
+ * - 额外请求受 [HedgeBudget] 限制（默认进程共享，合计不超过主请求的 10%），后端整体变慢时不会把负载翻倍
+ * - 只对慢做对冲：还没对冲时失败直接失败；对冲后两个都失败才算失败
+ * - "完成"指 [Handler] 处理完响应（流式响应要读到最后一个事件），不是收到响应头
+ * - 对冲赢了时，被取消的主请求按已经过去的时间记一个样本（它至少这么慢），免得阈值只看到快的样本越调越低
+ *
+ * 同一接口的所有调用方通过 [forEndpoint] 共用一个实例，延迟样本和指标是合计的。
+ */
+class HedgedCall @JvmOverloads constructor(
+    val name: String,
+    private val budget: HedgeBudget = HedgeBudget.shared,
+    private val percentile: Double = 0.9,
+    private val initialDelayMs: Long = 10_000,
+    private val minDelayMs: Long = 1_000,
+    private val maxDelayMs: Long = 30_000,
+    private val window: Int = 200,
+    private val minSamples: Int = 20,
+    private val timer: TimerWheel = TimerWheel.shared
+) {
+
+    companion object {
+        private const val TAG = "HedgedCall"
+
+        private val registry = ConcurrentHashMap<String, HedgedCall>()
+
+        /**
+         * 取某个接口的共享实例；第一次调用时创建
+         */
+        @JvmStatic
+        fun forEndpoint(name: String): HedgedCall = registry.computeIfAbsent(name) { HedgedCall(name) }
+
+        /** 所有接口的指标，按名称排序 */
+        @JvmStatic
+        fun allStats(): List<Stats> = registry.values.map { it.stats() }.sortedBy { it.name }
+    }
+
+    /**
+     * 处理一个响应（读取响应体），在 OkHttp 的回调线程上调用，返回后响应被关闭
+     *
+     * 抛出异常表示这一路失败；非 2xx 通常也应该抛出，否则一个很快的错误会赢过正在进行的正常请求。
+     * 两路各调用一次，有状态的解析器要在这里面创建。
+     */
+    fun interface Handler<T> {
+        @Throws(IOException::class)
+        fun handle(response: Response): T
+    }
+
+    /**
+     * 指标快照
+     *
+     * @param hedged 发出的对冲请求数
+     * @param hedgeWins 对冲请求先完成的次数
+     * @param denied 到了阈值但额度不足、没有对冲的次数
+     * @param thresholdMs 当前的对冲阈值
+     */
+    data class Stats(
+        val name: String,
+        val calls: Long,
+        val hedged: Long,
+        val hedgeWins: Long,
+        val denied: Long,
+        val failed: Long,
+        val thresholdMs: Long
+    ) {
+        /** 额外请求占主请求的比例 */
+        val hedgeRate: Double
+            get() = if (calls == 0L) 0.0 else hedged.toDouble() / calls
+
+        /** 对冲请求里先完成的比例 */
+        val winRate: Double
+            get() = if (hedged == 0L) 0.0 else hedgeWins.toDouble() / hedged
+
+        override fun toString(): String =
+            "$name: calls=$calls, hedged=$hedged (${"%.1f".format(hedgeRate * 100)}%), " +
+                "hedge wins=$hedgeWins (${"%.1f".format(winRate * 100)}%), denied=$denied, failed=$failed, " +
+                "threshold=${thresholdMs}ms"
+    }
+
+    private val calls = AtomicLong()
+    private val hedged = AtomicLong()
+    private val hedgeWins = AtomicLong()
+    private val denied = AtomicLong()
+    private val failed = AtomicLong()
+
+    private val samples = LongArray(window)
+    private var sampleCount = 0
+    private var nextSample = 0
+
+    init {
+        require(percentile > 0.0 && percentile < 1.0) { "percentile must be in (0, 1)" }
+        require(minDelayMs in 0..maxDelayMs) { "minDelayMs must be in 0..maxDelayMs" }
+        require(window >= minSamples && minSamples > 0) { "window must be >= minSamples > 0" }
+    }
+
+    /**
+     * 发出请求，立即返回 Future
+     *
+     * 取消 Future 会取消所有在途请求。
+     */
+    fun <T> submit(client: OkHttpClient, request: Request, handler: Handler<T>): CompletableFuture<T> {
+        calls.incrementAndGet()
+        budget.onRequest()
+        return Exchange(client, request, handler).start(thresholdMs())
+    }
+
+    /** 当前的对冲阈值 */
+    fun thresholdMs(): Long {
+        val sorted = synchronized(samples) {
+            if (sampleCount < minSamples) return initialDelayMs.coerceIn(minDelayMs, maxDelayMs)
+            samples.copyOf(sampleCount)
+        }
+        sorted.sort()
+        val index = (ceil(percentile * sorted.size).toInt() - 1).coerceIn(0, sorted.size - 1)
+        return sorted[index].coerceIn(minDelayMs, maxDelayMs)
+    }
+
+    fun stats(): Stats = Stats(
+        name, calls.get(), hedged.get(), hedgeWins.get(), denied.get(), failed.get(), thresholdMs()
+    )
+
+    private fun record(latencyMs: Long) {
+        synchronized(samples) {
+            samples[nextSample] = latencyMs
+            nextSample = (nextSample + 1) % window
+            if (sampleCount < window) sampleCount++
+        }
+    }
+
+    /** 一次逻辑请求：主请求，加上可能的一个对冲请求 */
+    private inner class Exchange<T>(
+        private val client: OkHttpClient,
+        private val request: Request,
+        private val handler: Handler<T>
+    ) {
+        val result = CompletableFuture<T>()
+        private val startedAt = System.currentTimeMillis()
+        private val inFlight = ArrayList<Call>()
+        private var launched = 0
+        private var failures = 0
+
+        fun start(delayMs: Long): CompletableFuture<T> {
+            launch(hedge = false)
+            val hedgeTimer = timer.schedule(delayMs) { hedge(delayMs) }
+            result.whenComplete { _, _ ->
+                hedgeTimer.cancel()
+                synchronized(this) { inFlight.toList() }.forEach { it.cancel() }
+            }
+            return result
+        }
+
+        private fun hedge(delayMs: Long) {
+            synchronized(this) {
+                if (result.isDone) return
+            }
+            if (!budget.tryWithdraw()) {
+                denied.incrementAndGet()
+                return
+            }
+            // 计数先于发出和完成：调用方拿到结果时指标已经更新
+            hedged.incrementAndGet()
+            if (launch(hedge = true)) {
+                Log.d(TAG, "[$name] No response after ${delayMs}ms, hedging ${request.url.encodedPath}")
+            } else {
+                hedged.decrementAndGet()
+            }
+        }
+
+        private fun launch(hedge: Boolean): Boolean {
+            val call = client.newCall(request)
+            val launchedAt = System.currentTimeMillis()
+            synchronized(this) {
+                if (result.isDone) return false
+                inFlight += call
+                launched++
+            }
+            call.enqueue(object : Callback {
+                override fun onFailure(call: Call, e: IOException) = fail(e)
+
+                override fun onResponse(call: Call, response: Response) {
+                    val value = try {
+                        response.use { handler.handle(it) }
+                    } catch (e: Exception) {
+                        fail(e)
+                        return
+                    }
+                    succeed(value, hedge, launchedAt)
+                }
+            })
+            return true
+        }
+
+        private fun succeed(value: T, hedge: Boolean, launchedAt: Long) {
+            if (result.isDone) return
+            if (hedge) hedgeWins.incrementAndGet()
+            if (!result.complete(value)) {
+                if (hedge) hedgeWins.decrementAndGet()
+                return
+            }
+            val now = System.currentTimeMillis()
+            record(now - launchedAt)
+            if (hedge) record(now - startedAt)
+        }
+
+        private fun fail(error: Exception) {
+            val last = synchronized(this) {
+                failures++
+                failures >= launched
+            }
+            if (!last) return
+            failed.incrementAndGet()
+            if (!result.completeExceptionally(error)) failed.decrementAndGet()
+        }
+    }
+}
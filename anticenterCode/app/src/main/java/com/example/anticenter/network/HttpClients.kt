@@ -0,0 +1,93 @@
+package com.example.anticenter.network
+
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import java.util.EnumMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * 进程内共享的 OkHttp 客户端工厂
+ *
+ * 所有检测器（Dify 语音/邮件/文件上传、Reality Defender 回调、Cybertrace 查询）都从这里取客户端，
+ * 它们由同一个基础客户端 [OkHttpClient.newBuilder] 派生，因此共用：
+ * - 连接池：同一主机的 TCP/TLS 连接（以及 HTTP/2 多路复用连接）跨服务复用，不再每个服务各握手一次
+ * - 调度器：异步调用共用一组线程，并发上限统一控制
+ * - 指标：[metrics] 按端点记录 DNS/建连/TLS/TTFB/总耗时
+ *
+ * 各服务只在 [Profile] 里声明自己的超时，不要再直接 `OkHttpClient.Builder()`。
+ * 需要加拦截器时在 [client] 返回的实例上再 newBuilder()，连接池和调度器仍然共享。
+ */
+object HttpClients {
+
+    /**
+     * 按服务区分的超时配置（秒）
+     */
+    enum class Profile(val connectSeconds: Long, val readSeconds: Long, val writeSeconds: Long) {
+        /** Cybertrace 号码查询：短请求，快速失败 */
+        LOOKUP(5, 7, 7),
+
+        /** Reality Defender 结果回调 */
+        CALLBACK(20, 30, 30),
+
+        /** 邮件文本分类（Dify workflow，blocking 模式） */
+        WORKFLOW(30, 30, 30),
+
+        /** 语音片段上传 + 检测 */
+        UPLOAD(60, 60, 60),
+
+        /** 用户选择的大文件上传 */
+        LARGE_UPLOAD(90, 90, 90)
+    }
+
+    private const val MAX_IDLE_CONNECTIONS = 8
+    private const val KEEP_ALIVE_MINUTES = 5L
+    private const val MAX_REQUESTS = 64
+    private const val MAX_REQUESTS_PER_HOST = 16
+
+    /** 共享客户端上所有调用的耗时指标 */
+    val metrics = HttpMetrics()
+
+    private val profiles = EnumMap<Profile, OkHttpClient>(Profile::class.java)
+
+    /**
+     * 基础客户端：持有共享的连接池、调度器和事件监听器
+     *
+     * 优先 HTTP/2（TLS ALPN 协商，服务端不支持时回落到 HTTP/1.1）。
+     */
+    val shared: OkHttpClient by lazy {
+        OkHttpClient.Builder()
+            .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .dispatcher(Dispatcher().apply {
+                maxRequests = MAX_REQUESTS
+                maxRequestsPerHost = MAX_REQUESTS_PER_HOST
+            })
+            .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .eventListenerFactory(metrics)
+            .retryOnConnectionFailure(true)
+            .build()
+    }
+
+    /**
+     * 指定超时配置的客户端（每个配置只构建一次）
+     */
+    @JvmStatic
+    fun client(profile: Profile): OkHttpClient = synchronized(profiles) {
+        profiles.getOrPut(profile) {
+            shared.newBuilder()
+                .connectTimeout(profile.connectSeconds, TimeUnit.SECONDS)
+                .readTimeout(profile.readSeconds, TimeUnit.SECONDS)
+                .writeTimeout(profile.writeSeconds, TimeUnit.SECONDS)
+                .build()
+        }
+    }
+
+    /**
+     * 关闭空闲连接（例如检测服务全部停止后）；连接池和调度器本身继续可用
+     */
+    @JvmStatic
+    fun evictIdleConnections() {
+        shared.connectionPool.evictAll()
+    }
+}
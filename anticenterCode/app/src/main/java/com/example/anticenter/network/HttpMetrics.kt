@@ -0,0 +1,237 @@
+package com.example.anticenter.network
+
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 按端点（host:port）统计 HTTP 调用耗时的指标注册表
+ *
+ * 作为 OkHttp 的 [EventListener.Factory] 挂在共享客户端上，每个调用一个监听器，记录：
+ * - DNS：dnsStart → dnsEnd
+ * - 建连：connectStart → connectEnd（含 TLS）
+ * - TLS：secureConnectStart → secureConnectEnd
+ * - TTFB：请求发送完（请求体写完，没有请求体时为请求头写完）→ 收到响应头，即服务端处理时间
+ * - 总耗时：callStart → callEnd / callFailed
+ *
+ * 复用已有连接的调用没有 DNS/建连阶段，只计入 [EndpointStats.reusedConnections]。
+ * 重试和重定向会在同一个调用里多次建连，各阶段耗时累加后算一次样本。
+ */
+class HttpMetrics(
+    private val clock: () -> Long = System::nanoTime
+) : EventListener.Factory {
+
+    /**
+     * 单个阶段的耗时统计（毫秒）
+     */
+    data class Timing(val count: Long, val avgMs: Double, val maxMs: Double) {
+        override fun toString() = "n=$count avg=${"%.1f".format(avgMs)}ms max=${"%.1f".format(maxMs)}ms"
+    }
+
+    /**
+     * 一个端点的指标快照
+     *
+     * @param calls 完成（成功或失败）的调用数
+     * @param failures 失败的调用数（IO 异常、超时、取消）
+     * @param newConnections 新建的连接数
+     * @param reusedConnections 复用连接池中已有连接的次数
+     * @param protocols 各协议（http/1.1、h2）上完成的调用数
+     */
+    data class EndpointStats(
+        val endpoint: String,
+        val calls: Long,
+        val failures: Long,
+        val newConnections: Long,
+        val reusedConnections: Long,
+        val protocols: Map<String, Long>,
+        val dns: Timing,
+        val connect: Timing,
+        val tls: Timing,
+        val ttfb: Timing,
+        val total: Timing
+    ) {
+        /** 连接复用率：复用次数 / 获取连接总次数 */
+        val reuseRatio: Double
+            get() = (newConnections + reusedConnections).let { if (it == 0L) 0.0 else reusedConnections.toDouble() / it }
+
+        override fun toString() =
+            "$endpoint calls=$calls failures=$failures new=$newConnections reused=$reusedConnections " +
+                "protocols=$protocols dns[$dns] connect[$connect] tls[$tls] ttfb[$ttfb] total[$total]"
+    }
+
+    private class TimingRecorder {
+        private var count = 0L
+        private var sumNs = 0L
+        private var maxNs = 0L
+
+        @Synchronized
+        fun record(ns: Long) {
+            count++
+            sumNs += ns
+            if (ns > maxNs) maxNs = ns
+        }
+
+        @Synchronized
+        fun snapshot() = Timing(
+            count,
+            if (count == 0L) 0.0 else sumNs / count / 1e6,
+            maxNs / 1e6
+        )
+    }
+
+    private class Endpoint(val name: String) {
+        val dns = TimingRecorder()
+        val connect = TimingRecorder()
+        val tls = TimingRecorder()
+        val ttfb = TimingRecorder()
+        val total = TimingRecorder()
+        var calls = 0L
+        var failures = 0L
+        var newConnections = 0L
+        var reusedConnections = 0L
+        val protocols = HashMap<String, Long>()
+
+        @Synchronized
+        fun snapshot() = EndpointStats(
+            name, calls, failures, newConnections, reusedConnections, HashMap(protocols),
+            dns.snapshot(), connect.snapshot(), tls.snapshot(), ttfb.snapshot(), total.snapshot()
+        )
+    }
+
+    private val endpoints = ConcurrentHashMap<String, Endpoint>()
+
+    override fun create(call: Call): EventListener = CallListener(endpoint(call))
+
+    /**
+     * 所有端点的指标快照
+     */
+    fun snapshot(): List<EndpointStats> = endpoints.values.map { it.snapshot() }.sortedBy { it.endpoint }
+
+    /**
+     * 单个端点的指标快照，没有记录时返回 null
+     *
+     * @param endpoint "host:port"
+     */
+    fun snapshot(endpoint: String): EndpointStats? = endpoints[endpoint]?.snapshot()
+
+    fun reset() {
+        endpoints.clear()
+    }
+
+    private fun endpoint(call: Call): Endpoint {
+        val url = call.request().url
+        val key = "${url.host}:${url.port}"
+        return endpoints.getOrPut(key) { Endpoint(key) }
+    }
+
+    /**
+     * 单个调用的监听器，OkHttp 在调用线程上按顺序回调，字段无需同步
+     */
+    private inner class CallListener(private val endpoint: Endpoint) : EventListener() {
+        private var callStart = 0L
+        private var dnsStart = 0L
+        private var connectStart = 0L
+        private var tlsStart = 0L
+        private var requestSent = 0L
+        private var sent = false
+
+        private var dnsNs = -1L
+        private var connectNs = -1L
+        private var tlsNs = -1L
+        private var ttfbNs = -1L
+        private var connected = false
+        private var protocol: Protocol? = null
+
+        override fun callStart(call: Call) {
+            callStart = clock()
+        }
+
+        override fun dnsStart(call: Call, domainName: String) {
+            dnsStart = clock()
+        }
+
+        override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+            dnsNs = dnsNs.coerceAtLeast(0) + clock() - dnsStart
+        }
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            connectStart = clock()
+            connected = true
+        }
+
+        override fun secureConnectStart(call: Call) {
+            tlsStart = clock()
+        }
+
+        override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+            tlsNs = tlsNs.coerceAtLeast(0) + clock() - tlsStart
+        }
+
+        override fun connectEnd(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy, protocol: Protocol?) {
+            connectNs = connectNs.coerceAtLeast(0) + clock() - connectStart
+        }
+
+        override fun connectFailed(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+            protocol: Protocol?,
+            ioe: IOException
+        ) {
+            connectNs = connectNs.coerceAtLeast(0) + clock() - connectStart
+        }
+
+        override fun connectionAcquired(call: Call, connection: Connection) {
+            protocol = connection.protocol()
+            synchronized(endpoint) {
+                // 本次获取之前没有建连 = 从连接池拿到了现成的连接
+                if (connected) endpoint.newConnections++ else endpoint.reusedConnections++
+            }
+            connected = false
+        }
+
+        override fun requestHeadersEnd(call: Call, request: Request) {
+            requestSent = clock()
+            sent = true
+        }
+
+        override fun requestBodyEnd(call: Call, byteCount: Long) {
+            requestSent = clock()
+        }
+
+        override fun responseHeadersStart(call: Call) {
+            if (sent) ttfbNs = clock() - requestSent
+        }
+
+        override fun responseHeadersEnd(call: Call, response: Response) {
+            protocol = response.protocol
+        }
+
+        override fun callEnd(call: Call) = finish(failed = false)
+
+        override fun callFailed(call: Call, ioe: IOException) = finish(failed = true)
+
+        private fun finish(failed: Boolean) {
+            val totalNs = clock() - callStart
+            if (dnsNs >= 0) endpoint.dns.record(dnsNs)
+            if (connectNs >= 0) endpoint.connect.record(connectNs)
+            if (tlsNs >= 0) endpoint.tls.record(tlsNs)
+            if (ttfbNs >= 0) endpoint.ttfb.record(ttfbNs)
+            endpoint.total.record(totalNs)
+            synchronized(endpoint) {
+                endpoint.calls++
+                if (failed) endpoint.failures++
+                protocol?.let { endpoint.protocols.merge(it.toString(), 1L, Long::plus) }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.anticenter.network
+
+/**
+ * 增量解析 LLM 逐字输出的 JSON，顶层标量字段一完整就回调
+ *
+ * LLM 的输出是一点一点流过来的（可能包在 ```json 代码块里），完整 JSON 要等到最后才能 parse。
+ * 这里逐字符扫描：跳过第一个 `{` 之前的内容，跟踪顶层对象的键值，字符串 / 数字 / true / false / null
+ * 值一结束就调用 [onField]；嵌套的对象和数组（reasons、evidence 之类）整体跳过不解析。
+ * 顶层对象的 `}` 到达时调用 [onObjectEnd]，之后的内容全部忽略。
+ *
+ * 只做"尽早拿到字段"，不校验 JSON 合法性；最终结果仍以完整 JSON 的解析为准。
+ */
+class IncrementalJsonFields(
+    private val onField: (key: String, value: Any?) -> Unit,
+    private val onObjectEnd: () -> Unit = {}
+) {
+
+    private enum class State {
+        BEFORE_OBJECT, EXPECT_KEY, IN_KEY, EXPECT_COLON, EXPECT_VALUE,
+        IN_STRING, IN_SCALAR, NESTED, AFTER_VALUE, DONE
+    }
+
+    private var state = State.BEFORE_OBJECT
+    private val buffer = StringBuilder()
+    private var key = ""
+
+    // 字符串转义
+    private var escape = false
+    private var unicode = -1
+    private var unicodeValue = 0
+
+    // 嵌套值
+    private var nestedDepth = 0
+    private var nestedInString = false
+    private var nestedEscape = false
+
+    /** 顶层对象是否已经结束 */
+    val isClosed: Boolean
+        get() = state == State.DONE
+
+    fun append(text: CharSequence) {
+        for (i in 0 until text.length) {
+            if (state == State.DONE) return
+            accept(text[i])
+        }
+    }
+
+    private fun accept(c: Char) {
+        when (state) {
+            State.BEFORE_OBJECT -> if (c == '{') state = State.EXPECT_KEY
+
+            State.EXPECT_KEY -> when (c) {
+                '"' -> { buffer.setLength(0); state = State.IN_KEY }
+                '}' -> close()
+            }
+
+            State.IN_KEY -> if (readStringChar(c)) {
+                key = buffer.toString()
+                state = State.EXPECT_COLON
+            }
+
+            State.EXPECT_COLON -> if (c == ':') state = State.EXPECT_VALUE
+
+            State.EXPECT_VALUE -> when {
+                c == '"' -> { buffer.setLength(0); state = State.IN_STRING }
+                c == '{' || c == '[' -> {
+                    nestedDepth = 1
+                    nestedInString = false
+                    state = State.NESTED
+                }
+                c.isWhitespace() -> Unit
+                else -> { buffer.setLength(0); buffer.append(c); state = State.IN_SCALAR }
+            }
+
+            State.IN_STRING -> if (readStringChar(c)) {
+                onField(key, buffer.toString())
+                state = State.AFTER_VALUE
+            }
+
+            State.IN_SCALAR -> when {
+                c == ',' || c == '}' || c.isWhitespace() -> {
+                    onField(key, scalar(buffer.toString()))
+                    state = State.AFTER_VALUE
+                    accept(c)
+                }
+                else -> buffer.append(c)
+            }
+
+            State.NESTED -> skipNested(c)
+
+            State.AFTER_VALUE -> when (c) {
+                ',' -> state = State.EXPECT_KEY
+                '}' -> close()
+            }
+
+            State.DONE -> Unit
+        }
+    }
+
+    /** 读字符串里的一个字符，遇到结束引号返回 true */
+    private fun readStringChar(c: Char): Boolean {
+        if (unicode >= 0) {
+            unicodeValue = unicodeValue * 16 + Character.digit(c, 16).coerceAtLeast(0)
+            if (++unicode == 4) {
+                buffer.append(unicodeValue.toChar())
+                unicode = -1
+            }
+            return false
+        }
+        if (escape) {
+            escape = false
+            when (c) {
+                'n' -> buffer.append('\n')
+                't' -> buffer.append('\t')
+                'r' -> buffer.append('\r')
+                'b' -> buffer.append('\b')
+                'f' -> buffer.append('\u000C')
+                'u' -> { unicode = 0; unicodeValue = 0 }
+                else -> buffer.append(c)
+            }
+            return false
+        }
+        when (c) {
+            '\\' -> escape = true
+            '"' -> return true
+            else -> buffer.append(c)
+        }
+        return false
+    }
+
+    private fun skipNested(c: Char) {
+        if (nestedInString) {
+            when {
+                nestedEscape -> nestedEscape = false
+                c == '\\' -> nestedEscape = true
+                c == '"' -> nestedInString = false
+            }
+            return
+        }
+        when (c) {
+            '"' -> nestedInString = true
+            '{', '[' -> nestedDepth++
+            '}', ']' -> if (--nestedDepth == 0) state = State.AFTER_VALUE
+        }
+    }
+
+    private fun scalar(token: String): Any? = when (token) {
+        "true" -> true
+        "false" -> false
+        "null" -> null
+        else -> token.toDoubleOrNull() ?: token
+    }
+
+    private fun close() {
+        state = State.DONE
+        onObjectEnd()
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.anticenter.network
+
+import okio.BufferedSource
+import java.io.IOException
+
+/**
+ * server-sent events（text/event-stream）解析器
+ *
+ * 按行读取：`event:` / `data:` / `id:` 字段累积到空行时组成一个事件；多行 data 用换行拼接，
+ * 以 `:` 开头的注释行（心跳）忽略。读到流末尾返回 null。
+ */
+class SseEventReader(private val source: BufferedSource) {
+
+    /**
+     * 一个事件
+     *
+     * @param type `event:` 字段，没有时为 null（Dify 的事件类型写在 data 的 JSON 里）
+     */
+    data class Event(val id: String?, val type: String?, val data: String)
+
+    /**
+     * 读取下一个事件，阻塞直到事件完整或流结束
+     */
+    @Throws(IOException::class)
+    fun next(): Event? {
+        var id: String? = null
+        var type: String? = null
+        val data = StringBuilder()
+        var hasData = false
+
+        while (true) {
+            val line = source.readUtf8Line()
+            if (line == null) {
+                // 流结束时没有空行收尾的事件也交出去
+                return if (hasData || type != null) Event(id, type, data.toString()) else null
+            }
+            if (line.isEmpty()) {
+                if (hasData || type != null) return Event(id, type, data.toString())
+                continue
+            }
+            if (line[0] == ':') continue
+
+            val colon = line.indexOf(':')
+            val field = if (colon < 0) line else line.substring(0, colon)
+            var value = if (colon < 0) "" else line.substring(colon + 1)
+            if (value.startsWith(' ')) value = value.substring(1)
+
+            when (field) {
+                "data" -> {
+                    if (hasData) data.append('\n')
+                    data.append(value)
+                    hasData = true
+                }
+                "event" -> type = value
+                "id" -> id = value
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.anticenter.network
+
+import android.util.Log
+import com.example.anticenter.utils.LatencyHistogram
+import kotlinx.coroutines.delay
+import org.json.JSONObject
+import kotlin.random.Random
+
+/**
+ * Dify "先上传、再运行工作流" 两阶段流程的状态机
+ *
+ * 原来上传完固定 `delay(2000)` 再调工作流，文件早就就绪时白等 2 秒。这里上传成功后立刻运行工作流，
+ * 只有运行阶段抛出 [FileNotReadyException]（服务端还没处理完刚上传的文件）时才退避重试运行阶段，
+ * 退避带抖动并指数增长，累计等待超过 [Backoff.maxWaitMs] 就放弃。其他错误不重试，交给调用方。
+ *
+ * 状态：UPLOADING → RUNNING ⇄ WAITING_FOR_FILE → SUCCEEDED / FAILED
+ *
+ * 每个阶段的耗时记录到直方图（[histogram]），一个上传管理器共用一个实例即可累计统计。
+ * 运行阶段判断"文件未就绪"可以用 [isFileNotReady] / [checkWorkflowReady]。
+ *
+ * @param name 日志标签
+ * @param clock 纳秒时钟，测试里可以换成虚拟时间
+ */
+class UploadRunPipeline @JvmOverloads constructor(
+    val name: String,
+    private val backoff: Backoff = Backoff(),
+    private val random: Random = Random.Default,
+    private val clock: () -> Long = System::nanoTime
+) {
+
+    companion object {
+        private const val TAG = "UploadRunPipeline"
+
+        /** Dify 对还没处理完的上传文件返回的错误码 */
+        private val NOT_READY_CODES = setOf(400, 404, 409, 422, 425)
+
+        /** 错误信息里表示"文件还没好"的关键词 */
+        private val NOT_READY_MARKERS = listOf(
+            "not ready", "not found", "does not exist", "still processing", "file_not_found", "upload_file_not_found"
+        )
+
+        /**
+         * HTTP 错误是否属于"文件未就绪"
+         */
+        @JvmStatic
+        fun isFileNotReady(code: Int, body: String?): Boolean = code in NOT_READY_CODES && isFileNotReady(body)
+
+        /**
+         * 错误信息是否属于"文件未就绪"
+         */
+        @JvmStatic
+        fun isFileNotReady(error: String?): Boolean {
+            val text = error?.lowercase() ?: return false
+            return "file" in text && NOT_READY_MARKERS.any { it in text }
+        }
+
+        /**
+         * 工作流结果（blocking 结构）失败且原因是文件未就绪时抛出 [FileNotReadyException]
+         */
+        @JvmStatic
+        @Throws(FileNotReadyException::class)
+        fun checkWorkflowReady(response: JSONObject) {
+            val data = response.optJSONObject("data") ?: return
+            val status = data.optString("status", "")
+            val error = data.optString("error", "")
+            if (status != "succeeded" && isFileNotReady(error)) throw FileNotReadyException(error)
+        }
+    }
+
+    enum class State { UPLOADING, RUNNING, WAITING_FOR_FILE, SUCCEEDED, FAILED }
+
+    enum class Phase {
+        /** 上传请求耗时 */
+        UPLOAD,
+        /** 上传完成到最后一次（成功的）工作流调用开始：未就绪的调用和退避等待都算在内 */
+        READY_WAIT,
+        /** 成功的那次工作流调用耗时 */
+        RUN,
+        /** 从开始上传到拿到结果 */
+        TOTAL
+    }
+
+    /**
+     * 运行阶段的重试退避：第 n 次等待 initialMs · 2^(n-1)（封顶 maxMs）的 50%–100%
+     *
+     * @param maxWaitMs 上传完成后等待文件就绪的总时长上限，超过后以 FAILED 结束
+     */
+    data class Backoff(
+        val initialMs: Long = 100,
+        val maxMs: Long = 1_000,
+        val maxWaitMs: Long = 8_000
+    ) {
+        internal fun delayMs(retry: Int, random: Random): Long {
+            val base = minOf(maxMs, initialMs shl (retry - 1).coerceIn(0, 20))
+            return base / 2 + random.nextLong(base / 2 + 1)
+        }
+    }
+
+    /**
+     * 运行阶段抛出此异常表示服务端还没处理完文件，状态机会退避后只重试运行阶段
+     */
+    class FileNotReadyException(message: String) : Exception(message)
+
+    /**
+     * 一次流程的结果
+     *
+     * @param result 运行阶段的返回值，失败时为 null
+     * @param notReadyRetries 因文件未就绪重试运行阶段的次数
+     */
+    data class Outcome<R>(
+        val state: State,
+        val result: R?,
+        val uploadId: String?,
+        val uploadMs: Long,
+        val readyWaitMs: Long,
+        val runMs: Long,
+        val notReadyRetries: Int
+    )
+
+    private val histograms = Phase.values().associateWith { LatencyHistogram() }
+
+    fun histogram(phase: Phase): LatencyHistogram.Snapshot = histograms.getValue(phase).snapshot()
+
+    /** 各阶段直方图的单行摘要，用于日志 */
+    fun summary(): String = Phase.values().joinToString(" | ") { "$it ${histogram(it)}" }
+
+    /**
+     * 执行一次上传 + 运行
+     *
+     * @param upload 上传文件，返回 upload id；返回 null 表示上传失败
+     * @param run 用 upload id 运行工作流；返回 null 表示失败，抛 [FileNotReadyException] 表示稍后重试
+     * @param onState 状态变化回调，在调用协程上执行
+     */
+    suspend fun <R> execute(
+        tag: String,
+        upload: suspend () -> String?,
+        run: suspend (uploadId: String) -> R?,
+        onState: ((State) -> Unit)? = null
+    ): Outcome<R> {
+        val start = clock()
+        onState?.invoke(State.UPLOADING)
+        val uploadId = upload()
+        val uploadMs = elapsedMs(start)
+        histograms.getValue(Phase.UPLOAD).record(uploadMs)
+        if (uploadId == null) {
+            onState?.invoke(State.FAILED)
+            return Outcome(State.FAILED, null, null, uploadMs, 0, 0, 0)
+        }
+
+        val readyStart = clock()
+        var retries = 0
+        while (true) {
+            onState?.invoke(State.RUNNING)
+            val runStart = clock()
+            val waitedMs = (runStart - readyStart) / 1_000_000
+            try {
+                val result = run(uploadId)
+                val runMs = elapsedMs(runStart)
+                val state = if (result != null) State.SUCCEEDED else State.FAILED
+                if (result != null) {
+                    histograms.getValue(Phase.RUN).record(runMs)
+                    histograms.getValue(Phase.READY_WAIT).record(waitedMs)
+                    histograms.getValue(Phase.TOTAL).record(elapsedMs(start))
+                }
+                onState?.invoke(state)
+                return Outcome(state, result, uploadId, uploadMs, waitedMs, runMs, retries)
+            } catch (e: FileNotReadyException) {
+                val wait = backoff.delayMs(retries + 1, random)
+                val notReadyMs = elapsedMs(readyStart)
+                if (notReadyMs + wait > backoff.maxWaitMs) {
+                    Log.w(TAG, "[$name][$tag] File $uploadId still not ready after ${notReadyMs}ms, giving up")
+                    onState?.invoke(State.FAILED)
+                    return Outcome(State.FAILED, null, uploadId, uploadMs, notReadyMs, elapsedMs(runStart), retries)
+                }
+                retries++
+                Log.d(TAG, "[$name][$tag] File $uploadId not ready (${e.message}), retry #$retries in ${wait}ms")
+                onState?.invoke(State.WAITING_FOR_FILE)
+                delay(wait)
+            }
+        }
+    }
+
+    private fun elapsedMs(sinceNanos: Long): Long = (clock() - sinceNanos) / 1_000_000
+}
@@ -0,0 +1,43 @@
+package com.example.anticenter.network
+
+import android.content.ContentResolver
+import android.content.res.AssetFileDescriptor
+import android.net.Uri
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import okio.source
+import java.io.FileNotFoundException
+
+/**
+ * 直接从 ContentResolver 读取的上传请求体
+ *
+ * 取代“先把 Uri 拷到 cacheDir 再 asRequestBody”的做法：上传时才打开输入流，
+ * 数据从 Uri 直接流进 OkHttp 的 sink。长度通过 AssetFileDescriptor 获取，
+ * 拿不到（管道等）时返回 -1，OkHttp 会改用 chunked 传输。
+ */
+class UriRequestBody(
+    private val contentResolver: ContentResolver,
+    private val uri: Uri,
+    private val mediaType: MediaType?
+) : RequestBody() {
+
+    private val length: Long by lazy {
+        try {
+            contentResolver.openAssetFileDescriptor(uri, "r")?.use { afd ->
+                afd.length.takeIf { it != AssetFileDescriptor.UNKNOWN_LENGTH } ?: -1L
+            } ?: -1L
+        } catch (e: Exception) {
+            -1L
+        }
+    }
+
+    override fun contentType(): MediaType? = mediaType
+
+    override fun contentLength(): Long = length
+
+    override fun writeTo(sink: BufferedSink) {
+        val input = contentResolver.openInputStream(uri) ?: throw FileNotFoundException("Cannot open $uri")
+        input.source().use { sink.writeAll(it) }
+    }
+}
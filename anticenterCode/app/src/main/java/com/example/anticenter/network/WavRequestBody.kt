@@ -0,0 +1,132 @@
+package com.example.anticenter.network
+
+import com.example.anticenter.audio.WavWriter
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+/**
+ * 边上传边生成 WAV 的请求体
+ *
+ * 先写 44 字节 RIFF 头，再把 PCM 数据从源头（文件通道或内存样本）直接写进 OkHttp 的 sink，
+ * 不落地任何中间 WAV / 临时文件。数据长度在构造时确定，contentLength 已知，
+ * multipart 请求不会退化成 chunked 传输。
+ *
+ * 可以被多次 writeTo（OkHttp 重试），每次都从源头重新读取；
+ * 文件源在上传完成前不能被删除或改写。
+ */
+class WavRequestBody private constructor(
+    private val sampleRate: Int,
+    private val channels: Int,
+    private val dataSize: Long,
+    private val source: PcmSource
+) : RequestBody() {
+
+    private fun interface PcmSource {
+        fun writeTo(sink: BufferedSink)
+    }
+
+    companion object {
+        val WAV_MEDIA_TYPE: MediaType = "audio/wav".toMediaType()
+
+        private const val IO_CHUNK_BYTES = 64 * 1024
+
+        /**
+         * 原始 16-bit little-endian PCM 文件中的一段
+         *
+         * @param offsetBytes 起始字节偏移
+         * @param lengthBytes 字节数，默认到文件末尾；会向下对齐到整帧
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun fromPcmFile(
+            pcmFile: File,
+            sampleRate: Int,
+            channels: Int,
+            offsetBytes: Long = 0L,
+            lengthBytes: Long = pcmFile.length() - offsetBytes
+        ): WavRequestBody {
+            require(offsetBytes >= 0 && lengthBytes >= 0) { "Invalid range: $offsetBytes+$lengthBytes" }
+            val frameBytes = 2L * channels
+            val length = lengthBytes - lengthBytes % frameBytes
+            return WavRequestBody(sampleRate, channels, length) { sink ->
+                FileChannel.open(pcmFile.toPath(), StandardOpenOption.READ).use { channel ->
+                    var position = offsetBytes
+                    val end = offsetBytes + length
+                    while (position < end) {
+                        val transferred = channel.transferTo(position, end - position, sink)
+                        if (transferred <= 0) throw IOException("PCM file truncated: ${pcmFile.name}")
+                        position += transferred
+                    }
+                }
+            }
+        }
+
+        /**
+         * 内存中的 16-bit 样本（交错存储），按块转换为 little-endian 写出
+         *
+         * 样本数组在上传完成前不能被复用。
+         */
+        @JvmStatic
+        fun fromSamples(
+            samples: ShortArray,
+            offset: Int,
+            count: Int,
+            sampleRate: Int,
+            channels: Int
+        ): WavRequestBody {
+            require(offset >= 0 && count >= 0 && offset + count <= samples.size) { "Invalid range: $offset+$count" }
+            return WavRequestBody(sampleRate, channels, count * 2L) { sink ->
+                val scratch = ByteBuffer.allocate(IO_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                val perChunk = IO_CHUNK_BYTES / 2
+                var index = offset
+                val end = offset + count
+                while (index < end) {
+                    val n = minOf(perChunk, end - index)
+                    scratch.clear()
+                    scratch.asShortBuffer().put(samples, index, n)
+                    sink.write(scratch.array(), 0, n * 2)
+                    index += n
+                }
+            }
+        }
+
+        /**
+         * 内存中已经是 16-bit little-endian 的 PCM 字节
+         */
+        @JvmStatic
+        fun fromPcmBytes(
+            pcm: ByteArray,
+            offset: Int,
+            length: Int,
+            sampleRate: Int,
+            channels: Int
+        ): WavRequestBody {
+            require(offset >= 0 && length >= 0 && offset + length <= pcm.size) { "Invalid range: $offset+$length" }
+            val usable = length - length % (2 * channels)
+            return WavRequestBody(sampleRate, channels, usable.toLong()) { sink ->
+                sink.write(pcm, offset, usable)
+            }
+        }
+    }
+
+    /** PCM 数据字节数（不含 44 字节头） */
+    val pcmLength: Long
+        get() = dataSize
+
+    override fun contentType(): MediaType = WAV_MEDIA_TYPE
+
+    override fun contentLength(): Long = WavWriter.HEADER_SIZE + dataSize
+
+    override fun writeTo(sink: BufferedSink) {
+        sink.write(WavWriter.header(dataSize.toInt(), sampleRate, channels))
+        source.writeTo(sink)
+    }
+}
@@ -1,22 +1,27 @@
 package com.example.anticenter.services
 
 import android.content.Context
-import android.media.MediaCodec
 import android.media.MediaExtractor
 import android.media.MediaFormat
 import android.os.FileObserver
 import android.util.Log
 import com.example.anticenter.analyzers.FileUploadManager
+import com.example.anticenter.audio.AudioCodec
+import com.example.anticenter.audio.PcmBuffer
+import com.example.anticenter.audio.PolyphaseResampler
+import com.example.anticenter.audio.SpeechGate
+import com.example.anticenter.audio.StreamingPcmDecoder
+import com.example.anticenter.audio.WavWriter
 import kotlinx.coroutines.*
 import java.io.File
+import java.io.FileInputStream
 import android.net.Uri
 import com.example.anticenter.analyzers.FileTestResult
 import com.example.anticenter.data.PhishingData
 import com.example.anticenter.data.PhishingDataHub
-import java.io.FileOutputStream
+import com.example.anticenter.database.DetectionCacheStore
+import com.example.anticenter.utils.RootShell
 import java.io.RandomAccessFile
-import java.nio.ByteBuffer
-import java.nio.ByteOrder
 
 class BCRMonitorCollector(private val context: Context) {
 
@@ -29,18 +34,32 @@ class BCRMonitorCollector(private val context: Context) {
         private const val SNAPSHOT_INTERVAL_MS = 10000L // 10秒快照间隔
         private const val AUDIO_CHUNK_DURATION_SECONDS = 10 // 保留最新10秒音频
         private const val DIFY_API_KEY = "app-j0J1Qt5SLk305PwR61Djy5fn"
+
+        // Dify 上传用 16-bit PCM WAV。IMA ADPCM（体积约 1/4）是有损的，Dify 工作流的转写节点
+        // 还没确认能解码，需要时再按检测器改成 AudioCodec.IMA_ADPCM
+        private val UPLOAD_CODEC = AudioCodec.WAV
     }
 
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
     private var fileObserver: FileObserver? = null
     private var monitorJob: Job? = null
     private lateinit var fileUploadManager: FileUploadManager
+    private var recordingMirror: BCRRecordingMirror? = null
 
     // 当前正在录音的文件路径
     private var currentRecordingFile: String? = null
     private var snapshotCount = 0
     private var lastFileSize = 0L
 
+    // 解码/重采样缓冲区在快照之间复用，避免每 10 秒分配几 MB 的临时数组
+    private val pcmDecoder = StreamingPcmDecoder()
+    private val decodedPcm = PcmBuffer()
+    private var resampler: PolyphaseResampler? = null
+    private var resampledSamples = ShortArray(WavWriter.TARGET_SAMPLE_RATE * AUDIO_CHUNK_DURATION_SECONDS)
+
+    // 本地 VAD：没有人声的快照不上传，有人声的裁掉首尾静音
+    private val speechGate = SpeechGate("BCR")
+
     /**
      * 开始监控BCR录音
      * 
@@ -53,7 +72,14 @@ class BCRMonitorCollector(private val context: Context) {
     suspend fun startCollection() {
         withContext(Dispatchers.IO) {
             try {
-                fileUploadManager = FileUploadManager(context, DIFY_API_KEY)
+                // 相同内容的快照（重复的提示音、等待音乐）直接复用上次的检测结果
+                val resultCache = try {
+                    DetectionResultCache(DetectionCacheStore(context))
+                } catch (e: Exception) {
+                    Log.w(TAG, "Detection cache database unavailable, using memory: ${e.message}")
+                    DetectionResultCache(DetectionResultCache.MemoryStore())
+                }
+                fileUploadManager = FileUploadManager(context, DIFY_API_KEY, resultCache = resultCache)
 
                 // 验证 Root 权限并找到 BCR 录音目录
                 val recordingsPath = verifyBCRAccessWithRoot()
@@ -70,6 +96,7 @@ class BCRMonitorCollector(private val context: Context) {
                     listFiles()?.forEach { it.delete() }
                 }
                 Log.d(TAG, "📂 Local snapshot directory: ${snapshotDir.absolutePath}")
+                recordingMirror = BCRRecordingMirror(snapshotDir)
 
                 // 启动监控任务（定期检查并复制快照）
                 startMonitoringLoop(recordingsPath, snapshotDir)
@@ -92,13 +119,14 @@ class BCRMonitorCollector(private val context: Context) {
         try {
             Log.i(TAG, "🔍 Checking BCR directory with Root: $path")
             
-            // 1. 检查目录是否存在
+            // 检查目录、修改权限、列出文件，一次往返完成
             val testCmd = "test -d \"$path\" && echo 'exists' || echo 'notfound'"
-            val testProcess = Runtime.getRuntime().exec(arrayOf("su", "-c", testCmd))
-            val testResult = testProcess.inputStream.bufferedReader().readText().trim()
-            testProcess.waitFor()
+            val chmodCmd = "chmod -R 755 \"$path\""
+            val lsCmd = "ls -1 \"$path\" 2>/dev/null | head -3"
+            val (testResult, _, lsResult) = RootShell.su.execBatch(listOf(testCmd, chmodCmd, lsCmd))
 
-            if (testResult != "exists") {
+            // 1. 检查目录是否存在
+            if (testResult.stdout.trim() != "exists") {
                 Log.e(TAG, "❌ BCR directory does not exist: $path")
                 Log.e(TAG, "   Please install BCR and make at least one recording")
                 return null
@@ -107,15 +135,10 @@ class BCRMonitorCollector(private val context: Context) {
             Log.i(TAG, "✅ BCR directory exists")
 
             // 2. 修改权限（尝试让普通访问也能工作，但主要还是用 Root）
-            val chmodCmd = "chmod -R 755 \"$path\""
-            Runtime.getRuntime().exec(arrayOf("su", "-c", chmodCmd)).waitFor()
             Log.d(TAG, "🔧 Changed permissions to 755")
 
             // 3. 验证可以列出文件
-            val lsCmd = "ls -1 \"$path\" 2>/dev/null | head -3"
-            val lsProcess = Runtime.getRuntime().exec(arrayOf("su", "-c", lsCmd))
-            val lsOutput = lsProcess.inputStream.bufferedReader().readText()
-            lsProcess.waitFor()
+            val lsOutput = lsResult.stdout
 
             Log.i(TAG, "✅ Root access verified (can list directory)")
             if (lsOutput.isNotBlank()) {
@@ -136,10 +159,11 @@ class BCRMonitorCollector(private val context: Context) {
      * 
      * 每隔一定时间：
      * 1. 用 Root 找到正在录音的文件
-     * 2. 用 Root 复制快照到本地目录
-     * 3. 在本地处理快照（MediaCodec + 上传）
+     * 2. 用 Root 把新增的字节追加到本地镜像
+     * 3. 在本地处理镜像（MediaCodec + 上传）
      */
     private fun startMonitoringLoop(bcrPath: String, snapshotDir: File) {
+        val mirror = recordingMirror ?: BCRRecordingMirror(snapshotDir).also { recordingMirror = it }
         Log.i(TAG, "🎧 Starting monitoring loop (check interval: ${SNAPSHOT_INTERVAL_MS}ms)")
 
         monitorJob = scope.launch {
@@ -151,11 +175,11 @@ class BCRMonitorCollector(private val context: Context) {
                     if (activeFile != null) {
                         Log.d(TAG, "🎵 Active recording: ${activeFile.name}")
                         
-                        // 2. 用 Root 复制快照到本地
-                        val snapshot = copySnapshotToLocal(activeFile, snapshotDir)
+                        // 2. 用 Root 只复制新增的字节到本地镜像
+                        val snapshot = syncSnapshotToLocal(activeFile, mirror)
                         
-                        if (snapshot != null && snapshot.exists()) {
-                            // 3. 在本地处理快照（Java API 可用！）
+                        if (snapshot != null) {
+                            // 3. 在本地处理镜像（Java API 可用！）
                             processLocalSnapshot(snapshot)
                         }
                     } else {
@@ -204,9 +228,7 @@ class BCRMonitorCollector(private val context: Context) {
                     -exec stat -c '%n|%s|%Y' {} \; 2>/dev/null
             """.trimIndent()
             
-            val process = Runtime.getRuntime().exec(arrayOf("su", "-c", findCmd))
-            val output = process.inputStream.bufferedReader().readText()
-            process.waitFor()
+            val output = RootShell.su.exec(findCmd).stdout
 
             if (output.isBlank()) {
                 return null
@@ -273,50 +295,33 @@ class BCRMonitorCollector(private val context: Context) {
     }
 
     /**
-     * 使用 Root 复制文件快照到本地目录
+     * 使用 Root 把录音文件新增的部分追加到本地镜像
      * 
-     * 学习 Zoom 的策略：cp + chmod，确保文件可访问
+     * 以前每次都 cp 整个文件，30 分钟的通话每 10 秒要复制几十 MB；
+     * 现在只复制上次同步之后追加的字节，镜像文件在整个录音期间保留。
      * 
      * @param fileInfo BCR 文件信息
-     * @param destDir 本地目标目录
-     * @return 本地快照文件，失败返回 null
+     * @param mirror 本地增量镜像
+     * @return 可解码的快照，失败或暂无完整数据返回 null
      */
-    private fun copySnapshotToLocal(fileInfo: FileInfo, destDir: File): File? {
+    private fun syncSnapshotToLocal(fileInfo: FileInfo, mirror: BCRRecordingMirror): BCRRecordingMirror.Snapshot? {
         try {
             snapshotCount++
-            val timestamp = System.currentTimeMillis()
-            val destFile = File(destDir, "snapshot_${timestamp}_${snapshotCount}.${fileInfo.name.substringAfterLast(".")}")
-
-            Log.d(TAG, "📋 Copying snapshot #$snapshotCount...")
-            Log.d(TAG, "   From: ${fileInfo.path}")
-            Log.d(TAG, "   To: ${destFile.absolutePath}")
 
-            // 使用 Root 复制文件并设置权限（学习 Zoom）
-            val cpCmd = """
-                cp "${fileInfo.path}" "${destFile.absolutePath}" && \
-                chmod 666 "${destFile.absolutePath}"
-            """.trimIndent()
-            
-            val process = Runtime.getRuntime().exec(arrayOf("su", "-c", cpCmd))
-            val exitCode = process.waitFor()
+            Log.d(TAG, "📋 Syncing snapshot #$snapshotCount...")
+            Log.d(TAG, "   From: ${fileInfo.path} (${fileInfo.size} bytes)")
 
-            if (exitCode != 0) {
-                val error = process.errorStream.bufferedReader().readText()
-                Log.e(TAG, "❌ Copy failed with exit code $exitCode: $error")
+            val snapshot = mirror.sync(fileInfo.path, fileInfo.size)
+            if (snapshot == null) {
+                Log.d(TAG, "⏳ Snapshot not decodable yet")
                 return null
             }
 
-            // 验证文件是否成功复制
-            if (destFile.exists() && destFile.length() > 0) {
-                Log.i(TAG, "✅ Snapshot copied: ${destFile.length()} bytes")
-                return destFile
-            } else {
-                Log.e(TAG, "❌ Copied file does not exist or is empty")
-                return null
-            }
+            Log.i(TAG, "✅ Snapshot synced: +${snapshot.appendedBytes} bytes, decodable ${snapshot.validLength} bytes")
+            return snapshot
 
         } catch (e: Exception) {
-            Log.e(TAG, "❌ Error copying snapshot", e)
+            Log.e(TAG, "❌ Error syncing snapshot", e)
             return null
         }
     }
@@ -326,16 +331,16 @@ class BCRMonitorCollector(private val context: Context) {
      * 
      * 现在文件在我们自己的 cacheDir，可以直接使用 Java API！
      * 
-     * @param snapshot 本地快照文件
+     * @param snapshot 本地镜像快照（镜像文件由 BCRRecordingMirror 持有，这里不删除）
      */
-    private suspend fun processLocalSnapshot(snapshot: File) {
+    private suspend fun processLocalSnapshot(snapshot: BCRRecordingMirror.Snapshot) {
         withContext(Dispatchers.IO) {
             try {
-                Log.i(TAG, "🎬 Processing local snapshot: ${snapshot.name}")
+                Log.i(TAG, "🎬 Processing local snapshot: ${snapshot.file.name} (${snapshot.validLength} bytes)")
 
                 // ✅ 现在可以直接使用 MediaCodec/MediaExtractor 了！
                 // 文件在我们自己的目录，不受 SELinux 限制
-                val wavFile = extractLast10SecondsAsWav(snapshot, snapshot.extension)
+                val wavFile = extractLast10SecondsAsWav(snapshot.file, snapshot.file.extension, snapshot.validLength)
 
                 if (wavFile != null && wavFile.exists()) {
                     Log.i(TAG, "✅ WAV extracted: ${wavFile.length()} bytes")
@@ -346,13 +351,9 @@ class BCRMonitorCollector(private val context: Context) {
                     // 清理临时文件
                     wavFile.delete()
                 } else {
-                    Log.w(TAG, "⚠️ Failed to extract WAV from snapshot")
+                    Log.w(TAG, "⚠️ No WAV to analyze (no speech or extraction failed)")
                 }
 
-                // 清理快照文件
-                snapshot.delete()
-                Log.d(TAG, "🗑️ Snapshot deleted: ${snapshot.name}")
-
             } catch (e: Exception) {
                 Log.e(TAG, "❌ Error processing snapshot", e)
             }
@@ -477,9 +478,7 @@ class BCRMonitorCollector(private val context: Context) {
         return try {
             // 使用 Root 检查目录是否存在
             val testCmd = "test -d $privatePath && echo 'exists' || echo 'notfound'"
-            val testProcess = Runtime.getRuntime().exec(arrayOf("su", "-c", testCmd))
-            val testResult = testProcess.inputStream.bufferedReader().readText().trim()
-            testProcess.waitFor()
+            val testResult = RootShell.su.exec(testCmd).stdout.trim()
 
             if (testResult != "exists") {
                 Log.e(TAG, "❌ BCR directory does not exist: $privatePath")
@@ -492,8 +491,7 @@ class BCRMonitorCollector(private val context: Context) {
             // 修改目录权限，让我们的 App 可以访问
             Log.i(TAG, "🔧 Changing permissions: chmod -R 755 $privatePath")
             val chmodCmd = "chmod -R 755 $privatePath"
-            val chmodProcess = Runtime.getRuntime().exec(arrayOf("su", "-c", chmodCmd))
-            val chmodResult = chmodProcess.waitFor()
+            val chmodResult = RootShell.su.exec(chmodCmd).exitCode
 
             if (chmodResult != 0) {
                 Log.e(TAG, "❌ chmod failed with exit code: $chmodResult")
@@ -505,9 +503,7 @@ class BCRMonitorCollector(private val context: Context) {
             // Android 11+ SELinux 仍然可能阻止访问，使用 Root 验证
             Log.i(TAG, "🔍 Verifying directory access with root...")
             val lsCmd = "ls -la $privatePath | head -5"
-            val lsProcess = Runtime.getRuntime().exec(arrayOf("su", "-c", lsCmd))
-            val lsOutput = lsProcess.inputStream.bufferedReader().readText()
-            lsProcess.waitFor()
+            val lsOutput = RootShell.su.exec(lsCmd).stdout
 
             if (lsOutput.isNotEmpty()) {
                 Log.i(TAG, "✅ BCR directory accessible via root")
@@ -676,9 +672,24 @@ class BCRMonitorCollector(private val context: Context) {
      *
      * @param sourceFile 源音频文件（opus/m4a/ogg等）
      * @param sourceExtension 源文件扩展名
+     * @param validLength 只解码文件的前 validLength 字节（镜像末尾可能有未写完的页）
      * @return WAV 格式的音频片段文件
      */
-    private fun extractLast10SecondsAsWav(sourceFile: File, sourceExtension: String): File? {
+    private fun extractLast10SecondsAsWav(
+        sourceFile: File,
+        sourceExtension: String,
+        validLength: Long = sourceFile.length()
+    ): File? {
+        // decodedPcm / resampledSamples 是复用的缓冲区，同一时间只能有一个快照在解码
+        return synchronized(decodedPcm) {
+            decodeLastSecondsToFile(sourceFile, validLength)
+        }
+    }
+
+    /**
+     * [extractLast10SecondsAsWav] 的实际工作，调用方持有 decodedPcm 的锁
+     */
+    private fun decodeLastSecondsToFile(sourceFile: File, validLength: Long): File? {
         return try {
             val outputDir = File(context.cacheDir, "bcr_wav_chunks")
             if (!outputDir.exists()) {
@@ -686,11 +697,13 @@ class BCRMonitorCollector(private val context: Context) {
             }
 
             val timestamp = System.currentTimeMillis()
-            val outputFile = File(outputDir, "chunk_${timestamp}_${snapshotCount}.wav")
+            val outputFile = File(outputDir, "chunk_${timestamp}_${snapshotCount}.${UPLOAD_CODEC.extension}")
 
             // 使用 MediaExtractor + MediaCodec 解码音频
             val extractor = MediaExtractor()
-            extractor.setDataSource(sourceFile.absolutePath)
+            FileInputStream(sourceFile).use { input ->
+                extractor.setDataSource(input.fd, 0, validLength)
+            }
 
             // 找到音频轨道
             var audioTrackIndex = -1
@@ -728,38 +741,47 @@ class BCRMonitorCollector(private val context: Context) {
             extractor.seekTo(startTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC)
 
             // 解码音频数据 (限制解码时长为 AUDIO_CHUNK_DURATION_SECONDS 秒)
-            val pcmData = decodeAudioToPcm(extractor, audioTrackIndex, format, durationUs)
+            decodedPcm.clear()
+            val decodedFormat = pcmDecoder.decode(extractor, format, durationUs, decodedPcm)
             extractor.release()
 
-            if (pcmData.isEmpty()) {
+            if (decodedFormat == null || decodedPcm.isEmpty) {
                 Log.e(TAG, "❌ Failed to decode audio")
                 return null
             }
 
-            // 获取实际采样率和声道数
-            val originalSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE)
-            val originalChannelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+            // 获取实际采样率和声道数（以解码器输出格式为准）
+            val originalSampleRate = decodedFormat.sampleRate
+            val originalChannelCount = decodedFormat.channelCount
             
             Log.d(TAG, "🎵 Original format: ${originalSampleRate}Hz, ${originalChannelCount} channel(s)")
 
             // 目标格式: 16kHz 单声道 (减小文件大小,适合语音识别)
-            val targetSampleRate = 16000
+            val targetSampleRate = WavWriter.TARGET_SAMPLE_RATE
             val targetChannelCount = 1
             
             // 重采样和转换为目标格式
-            val resampledPcm = resamplePcm(
-                pcmData, 
-                originalSampleRate, 
-                targetSampleRate,
-                originalChannelCount,
-                targetChannelCount
-            )
+            val sampleCount = resamplePcm(decodedPcm, originalSampleRate, originalChannelCount)
             
             Log.d(TAG, "🔄 Resampled: ${originalSampleRate}Hz → ${targetSampleRate}Hz, ${originalChannelCount}ch → ${targetChannelCount}ch")
-            Log.d(TAG, "📊 Size: ${pcmData.size} → ${resampledPcm.size} bytes")
+            Log.d(TAG, "📊 Size: ${decodedPcm.size} → ${sampleCount * 2} bytes")
 
-            // 转换 PCM 为 WAV
-            writePcmToWav(resampledPcm, outputFile, targetSampleRate, targetChannelCount)
+            // 语音检测：静音/等待音乐直接跳过，不上传
+            val decision = speechGate.evaluate(resampledSamples, 0, sampleCount)
+            if (!decision.upload) {
+                Log.i(TAG, "🔇 No speech in snapshot (ratio ${"%.2f".format(decision.analysis.speechRatio)}), skipping upload")
+                return null
+            }
+
+            // 编码为上传格式（只保留语音区间）
+            UPLOAD_CODEC.encodeToFile(
+                outputFile,
+                resampledSamples,
+                decision.start,
+                decision.end - decision.start,
+                targetSampleRate,
+                targetChannelCount
+            )
 
             if (outputFile.exists() && outputFile.length() > 0) {
                 Log.i(
@@ -779,245 +801,35 @@ class BCRMonitorCollector(private val context: Context) {
     }
 
     /**
-     * 使用 MediaCodec 解码音频为 PCM 数据
+     * PCM 重采样和声道转换（多相 FIR，输出 16kHz 单声道到 resampledSamples）
      * 
-     * @param extractor MediaExtractor 实例 (已定位到起始位置)
-     * @param trackIndex 音频轨道索引
-     * @param format 音频格式
-     * @param endTimeUs 结束时间(微秒), 用于限制解码时长
-     */
-    private fun decodeAudioToPcm(
-        extractor: MediaExtractor,
-        trackIndex: Int,
-        format: MediaFormat,
-        endTimeUs: Long
-    ): ByteArray {
-        val mime = format.getString(MediaFormat.KEY_MIME) ?: return ByteArray(0)
-        val codec = MediaCodec.createDecoderByType(mime)
-
-        codec.configure(format, null, null, 0)
-        codec.start()
-
-        val pcmBuffer = mutableListOf<Byte>()
-        val bufferInfo = MediaCodec.BufferInfo()
-        var isDecoding = true
-        val timeoutUs = 10000L // 10ms
-        
-        // 记录起始时间,用于限制解码时长
-        val startTimeUs = extractor.sampleTime
-
-        try {
-            while (isDecoding) {
-                // 输入数据到解码器
-                val inputBufferIndex = codec.dequeueInputBuffer(timeoutUs)
-                if (inputBufferIndex >= 0) {
-                    val inputBuffer = codec.getInputBuffer(inputBufferIndex)
-                    inputBuffer?.clear()
-
-                    val sampleSize = extractor.readSampleData(inputBuffer!!, 0)
-                    if (sampleSize < 0) {
-                        // 输入结束
-                        codec.queueInputBuffer(
-                            inputBufferIndex,
-                            0,
-                            0,
-                            0,
-                            MediaCodec.BUFFER_FLAG_END_OF_STREAM
-                        )
-                    } else {
-                        val presentationTimeUs = extractor.sampleTime
-                        
-                        // ✅ 检查是否已超过目标结束时间
-                        if (presentationTimeUs >= endTimeUs) {
-                            Log.d(TAG, "⏹️ Reached target duration at ${presentationTimeUs / 1_000_000.0}s")
-                            codec.queueInputBuffer(
-                                inputBufferIndex,
-                                0,
-                                0,
-                                0,
-                                MediaCodec.BUFFER_FLAG_END_OF_STREAM
-                            )
-                        } else {
-                            codec.queueInputBuffer(
-                                inputBufferIndex,
-                                0,
-                                sampleSize,
-                                presentationTimeUs,
-                                0
-                            )
-                            extractor.advance()
-                        }
-                    }
-                }
-
-                // 从解码器获取输出
-                val outputBufferIndex = codec.dequeueOutputBuffer(bufferInfo, timeoutUs)
-                when {
-                    outputBufferIndex >= 0 -> {
-                        val outputBuffer = codec.getOutputBuffer(outputBufferIndex)
-                        if (bufferInfo.size > 0 && outputBuffer != null) {
-                            // 读取 PCM 数据
-                            val chunk = ByteArray(bufferInfo.size)
-                            outputBuffer.position(bufferInfo.offset)
-                            outputBuffer.get(chunk, 0, bufferInfo.size)
-                            pcmBuffer.addAll(chunk.toList())
-                        }
-
-                        codec.releaseOutputBuffer(outputBufferIndex, false)
-
-                        if ((bufferInfo.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                            isDecoding = false
-                        }
-                    }
-
-                    outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED -> {
-                        Log.d(TAG, "Output format changed: ${codec.outputFormat}")
-                    }
-                }
-            }
-        } finally {
-            codec.stop()
-            codec.release()
-        }
-
-        return pcmBuffer.toByteArray()
-    }
-
-    /**
-     * PCM 重采样和声道转换
+     * 每个快照都是独立的一段音频，所以复用同一个重采样器时先 reset()；
+     * 源格式变化时才重新计算滤波器核。
      * 
-     * @param pcmData 原始 PCM 数据 (16-bit little-endian)
+     * @param source 原始 PCM 数据 (16-bit little-endian)
      * @param sourceSampleRate 源采样率
-     * @param targetSampleRate 目标采样率
      * @param sourceChannels 源声道数
-     * @param targetChannels 目标声道数
-     * @return 重采样后的 PCM 数据
+     * @return 输出样本数
      */
-    private fun resamplePcm(
-        pcmData: ByteArray,
-        sourceSampleRate: Int,
-        targetSampleRate: Int,
-        sourceChannels: Int,
-        targetChannels: Int
-    ): ByteArray {
-        // 如果采样率和声道数都相同,直接返回
-        if (sourceSampleRate == targetSampleRate && sourceChannels == targetChannels) {
-            return pcmData
-        }
-
-        // 将字节数组转换为 16-bit 采样点
-        val sourceSamples = pcmData.size / 2 / sourceChannels
-        val sourcePcm16 = ShortArray(sourceSamples * sourceChannels)
-        
-        for (i in sourcePcm16.indices) {
-            val byteIndex = i * 2
-            sourcePcm16[i] = (
-                (pcmData[byteIndex].toInt() and 0xFF) or
-                (pcmData[byteIndex + 1].toInt() shl 8)
-            ).toShort()
-        }
-
-        // 1️⃣ 先进行声道转换 (立体声→单声道: 取平均值)
-        val monoSourcePcm = if (sourceChannels > 1 && targetChannels == 1) {
-            ShortArray(sourceSamples) { i ->
-                var sum = 0
-                for (ch in 0 until sourceChannels) {
-                    sum += sourcePcm16[i * sourceChannels + ch]
-                }
-                (sum / sourceChannels).toShort()
-            }
-        } else if (sourceChannels == 1 && targetChannels > 1) {
-            // 单声道→立体声: 复制到所有声道
-            ShortArray(sourceSamples * targetChannels) { i ->
-                sourcePcm16[i / targetChannels]
-            }
+    private fun resamplePcm(source: PcmBuffer, sourceSampleRate: Int, sourceChannels: Int): Int {
+        val current = resampler
+        val active = if (current != null &&
+            current.inputRate == sourceSampleRate &&
+            current.inputChannels == sourceChannels
+        ) {
+            current.apply { reset() }
         } else {
-            sourcePcm16
-        }
-
-        // 2️⃣ 重采样 (使用线性插值)
-        val resampleRatio = targetSampleRate.toDouble() / sourceSampleRate
-        val targetSamples = (sourceSamples * resampleRatio).toInt()
-        val targetPcm16 = ShortArray(targetSamples * targetChannels)
-
-        for (i in 0 until targetSamples) {
-            // 计算源采样点位置
-            val sourcePos = i / resampleRatio
-            val sourceIndex = sourcePos.toInt()
-            val fraction = sourcePos - sourceIndex
-
-            for (ch in 0 until targetChannels) {
-                val sample = if (sourceIndex + 1 < sourceSamples) {
-                    // 线性插值
-                    val s1 = monoSourcePcm[sourceIndex * targetChannels + ch % sourceChannels].toDouble()
-                    val s2 = monoSourcePcm[(sourceIndex + 1) * targetChannels + ch % sourceChannels].toDouble()
-                    (s1 + (s2 - s1) * fraction).toInt().toShort()
-                } else {
-                    // 边界处理
-                    monoSourcePcm[sourceIndex * targetChannels + ch % sourceChannels]
-                }
-                targetPcm16[i * targetChannels + ch] = sample
-            }
+            PolyphaseResampler(sourceSampleRate, WavWriter.TARGET_SAMPLE_RATE, sourceChannels).also { resampler = it }
         }
 
-        // 转换回字节数组
-        val output = ByteArray(targetPcm16.size * 2)
-        for (i in targetPcm16.indices) {
-            val sample = targetPcm16[i].toInt()
-            output[i * 2] = (sample and 0xFF).toByte()
-            output[i * 2 + 1] = (sample shr 8).toByte()
-        }
-
-        return output
-    }
-
-    /**
-     * 将 PCM 数据写入 WAV 文件
-     */
-    private fun writePcmToWav(
-        pcmData: ByteArray,
-        outputFile: File,
-        sampleRate: Int,
-        channels: Int
-    ) {
-        FileOutputStream(outputFile).use { out ->
-            val dataSize = pcmData.size
-            val byteRate = sampleRate * channels * 2 // 16-bit = 2 bytes
-
-            // WAV 文件头（44 字节）
-            out.write("RIFF".toByteArray())
-            out.write(intToBytes(36 + dataSize)) // 文件大小 - 8
-            out.write("WAVE".toByteArray())
-
-            // fmt 子块
-            out.write("fmt ".toByteArray())
-            out.write(intToBytes(16)) // fmt 子块大小
-            out.write(shortToBytes(1)) // 音频格式 (PCM)
-            out.write(shortToBytes(channels.toShort())) // 声道数
-            out.write(intToBytes(sampleRate)) // 采样率
-            out.write(intToBytes(byteRate)) // 字节率
-            out.write(shortToBytes((channels * 2).toShort())) // 块对齐
-            out.write(shortToBytes(16)) // 位深度
-
-            // data 子块
-            out.write("data".toByteArray())
-            out.write(intToBytes(dataSize))
-            out.write(pcmData)
+        val frames = source.size / (2 * sourceChannels)
+        val needed = active.maxOutputSamples(frames) + active.tapsPerPhase
+        if (resampledSamples.size < needed) {
+            resampledSamples = ShortArray(needed)
         }
-    }
 
-    /**
-     * Int 转小端字节数组
-     */
-    private fun intToBytes(value: Int): ByteArray {
-        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array()
-    }
-
-    /**
-     * Short 转小端字节数组
-     */
-    private fun shortToBytes(value: Short): ByteArray {
-        return ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort(value).array()
+        val produced = active.processPcm16(source.array, 0, source.size, resampledSamples, 0)
+        return produced + active.flush(resampledSamples, produced)
     }
 
     /**
@@ -1082,9 +894,7 @@ class BCRMonitorCollector(private val context: Context) {
             val path = dir.absolutePath
             // 使用 ls 命令列出文件，只显示文件名（不含路径）
             val lsCmd = "ls -1 $path 2>/dev/null"
-            val process = Runtime.getRuntime().exec(arrayOf("su", "-c", lsCmd))
-            val output = process.inputStream.bufferedReader().readText()
-            process.waitFor()
+            val output = RootShell.su.exec(lsCmd).stdout
 
             if (output.isBlank()) {
                 Log.d(TAG, "📭 Directory is empty or inaccessible: $path")
@@ -1112,9 +922,7 @@ class BCRMonitorCollector(private val context: Context) {
         return try {
             val path = file.absolutePath
             val statCmd = "stat -c '%s' \"$path\" 2>/dev/null"
-            val process = Runtime.getRuntime().exec(arrayOf("su", "-c", statCmd))
-            val output = process.inputStream.bufferedReader().readText().trim()
-            process.waitFor()
+            val output = RootShell.su.exec(statCmd).stdout.trim()
             
             output.toLongOrNull() ?: 0L
         } catch (e: Exception) {
@@ -1131,9 +939,7 @@ class BCRMonitorCollector(private val context: Context) {
             val path = file.absolutePath
             // %Y = 修改时间戳（秒）
             val statCmd = "stat -c '%Y' \"$path\" 2>/dev/null"
-            val process = Runtime.getRuntime().exec(arrayOf("su", "-c", statCmd))
-            val output = process.inputStream.bufferedReader().readText().trim()
-            process.waitFor()
+            val output = RootShell.su.exec(statCmd).stdout.trim()
             
             (output.toLongOrNull() ?: 0L) * 1000 // 转换为毫秒
         } catch (e: Exception) {
@@ -1159,6 +965,15 @@ class BCRMonitorCollector(private val context: Context) {
             snapshotCount = 0
             lastFileSize = 0L
 
+            Log.i(TAG, "📊 VAD: ${speechGate.summary()}")
+            speechGate.reset()
+
+            recordingMirror?.let {
+                Log.d(TAG, "📊 Total bytes copied from BCR: ${it.totalCopiedBytes}")
+                it.clear()
+            }
+            recordingMirror = null
+
             // 清理临时文件夹
             cleanupTempFiles()
 
@@ -0,0 +1,239 @@
+package com.example.anticenter.services
+
+import android.util.Log
+import com.example.anticenter.utils.RootShell
+import java.io.File
+import java.io.RandomAccessFile
+
+/**
+ * BCR 录音文件的本地增量镜像
+ *
+ * BCR 录音时只会在文件末尾追加数据，所以不需要每次都把整个文件 cp 一遍：
+ * 记住已经镜像到的字节偏移，每次只把新增的部分追加到本地镜像文件，
+ * 复制量与新产生的音频成正比，而不是与通话时长成正比。
+ *
+ * 镜像文件里可能带着半个 Ogg 页/MP4 box，所以同时维护一个容器边界：
+ * 解码时只把 [0, validLength) 交给 MediaExtractor。
+ *
+ * - Ogg (.oga/.ogg/.opus)：按 Ogg 页头解析，边界为最后一个完整页的结尾；
+ *   页头损坏时在下一个 "OggS" 处重新同步
+ * - MP4 (.m4a)：按顶层 box 解析，边界为最后一个完整 box 的结尾；
+ *   MediaMuxer 只在录音结束时写 moov，在此之前的 m4a 无法解码，返回 null
+ * - 其他格式：直接使用已镜像的字节数
+ *
+ * 非线程安全，只在监控循环中使用。
+ */
+internal class BCRRecordingMirror(
+    private val mirrorDir: File,
+    private val copier: RangeCopier = RangeCopier.ROOT
+) {
+
+    companion object {
+        private const val TAG = "BCRRecordingMirror"
+
+        private const val OGG_HEADER_SIZE = 27
+        private const val OGG_RESYNC_CHUNK = 64 * 1024
+        private const val MP4_BOX_HEADER_SIZE = 8
+    }
+
+    /**
+     * 把源文件 [offset, offset + length) 这段追加到 dest 末尾
+     */
+    fun interface RangeCopier {
+        fun appendRange(sourcePath: String, offset: Long, length: Long, dest: File): Boolean
+
+        companion object {
+            /**
+             * 通过 Root 读取 BCR 私有目录（tail -c +N 的偏移从 1 开始）
+             */
+            val ROOT = RangeCopier { sourcePath, offset, length, dest ->
+                val cmd = "tail -c +${offset + 1} \"$sourcePath\" | head -c $length >> \"${dest.absolutePath}\""
+                val result = RootShell.su.exec(cmd)
+                if (!result.isSuccess) {
+                    Log.e(TAG, "❌ Append failed with exit code ${result.exitCode}: ${result.stderr}")
+                }
+                result.isSuccess
+            }
+        }
+    }
+
+    /**
+     * 一次同步后的可解码快照
+     *
+     * @param file 本地镜像文件（由 mirror 持有，调用方不要删除）
+     * @param validLength 可解码的前缀长度
+     * @param appendedBytes 本次同步新复制的字节数
+     */
+    data class Snapshot(val file: File, val validLength: Long, val appendedBytes: Long)
+
+    private var sourcePath: String? = null
+    private var mirrorFile: File? = null
+    private var mirroredBytes = 0L
+    private var boundary = 0L
+    private var containerReady = false
+
+    /** 本次监控累计复制的字节数 */
+    var totalCopiedBytes = 0L
+        private set
+
+    /**
+     * 把源文件新增的字节同步到镜像
+     *
+     * @param sourcePath 源文件路径（BCR 私有目录）
+     * @param sourceSize 源文件当前大小（来自 stat）
+     * @return 可解码的快照；还没有完整的容器单元时返回 null
+     */
+    fun sync(sourcePath: String, sourceSize: Long): Snapshot? {
+        if (sourcePath != this.sourcePath || sourceSize < mirroredBytes) {
+            // 新录音，或者文件被截断/重写，从头开始镜像
+            reset(sourcePath)
+        }
+        val mirror = mirrorFile ?: return null
+
+        val newBytes = sourceSize - mirroredBytes
+        if (newBytes > 0) {
+            val ok = try {
+                copier.appendRange(sourcePath, mirroredBytes, newBytes, mirror)
+            } catch (e: Exception) {
+                truncate(mirror, mirroredBytes)
+                throw e
+            }
+            val actualLength = mirror.length()
+            if (!ok || actualLength < mirroredBytes) {
+                // 追加失败：把镜像截回上次已知的长度，下次重试
+                truncate(mirror, mirroredBytes)
+                return null
+            }
+            val copied = minOf(actualLength, sourceSize) - mirroredBytes
+            if (actualLength > sourceSize) truncate(mirror, sourceSize)
+            mirroredBytes += copied
+            totalCopiedBytes += copied
+            Log.d(TAG, "📋 Appended $copied bytes (mirror: $mirroredBytes / total copied: $totalCopiedBytes)")
+        }
+
+        advanceBoundary(mirror)
+
+        if (!containerReady || boundary == 0L) {
+            Log.d(TAG, "⏳ No decodable container data yet for ${mirror.name}")
+            return null
+        }
+        return Snapshot(mirror, boundary, maxOf(newBytes, 0L))
+    }
+
+    /**
+     * 删除镜像文件并清空状态
+     */
+    fun clear() {
+        mirrorFile?.delete()
+        mirrorFile = null
+        sourcePath = null
+        mirroredBytes = 0L
+        boundary = 0L
+        containerReady = false
+    }
+
+    private fun reset(newSourcePath: String) {
+        clear()
+        mirrorDir.mkdirs()
+        val mirror = File(mirrorDir, "mirror_${File(newSourcePath).name}")
+        mirror.delete()
+        mirror.createNewFile()
+        mirror.setReadable(true, false)
+        mirror.setWritable(true, false)
+        sourcePath = newSourcePath
+        mirrorFile = mirror
+        Log.i(TAG, "🪞 Mirroring ${File(newSourcePath).name} → ${mirror.name}")
+    }
+
+    private fun truncate(file: File, length: Long) {
+        RandomAccessFile(file, "rw").use { it.setLength(length) }
+    }
+
+    private fun advanceBoundary(mirror: File) {
+        when (mirror.name.substringAfterLast('.', "").lowercase()) {
+            "oga", "ogg", "opus" -> advanceOggBoundary(mirror)
+            "m4a", "mp4" -> advanceMp4Boundary(mirror)
+            else -> {
+                boundary = mirroredBytes
+                containerReady = true
+            }
+        }
+    }
+
+    /**
+     * Ogg 页头：capture_pattern(4) version(1) type(1) granule(8) serial(4) seq(4) crc(4) segments(1)，
+     * 之后是 segments 字节的 lacing 表，页数据长度为 lacing 值之和
+     */
+    private fun advanceOggBoundary(mirror: File) {
+        RandomAccessFile(mirror, "r").use { raf ->
+            val header = ByteArray(OGG_HEADER_SIZE)
+            val lacing = ByteArray(255)
+            while (boundary + OGG_HEADER_SIZE <= mirroredBytes) {
+                raf.seek(boundary)
+                raf.readFully(header)
+                if (!isCapturePattern(header, 0)) {
+                    // 不是合法的页头：跳到下一个 "OggS" 重新同步，中间的字节留在前缀里，解复用器自己会跳过；
+                    // 已镜像部分还找不到时边界不动，等更多数据
+                    val next = findCapturePattern(raf, boundary + 1)
+                    if (next < 0) break
+                    Log.w(TAG, "⚠️ Lost Ogg page sync at $boundary, resynced at $next")
+                    boundary = next
+                    continue
+                }
+                val segments = header[26].toInt() and 0xFF
+                if (boundary + OGG_HEADER_SIZE + segments > mirroredBytes) break
+                raf.readFully(lacing, 0, segments)
+                var bodySize = 0L
+                for (i in 0 until segments) bodySize += lacing[i].toInt() and 0xFF
+                val pageEnd = boundary + OGG_HEADER_SIZE + segments + bodySize
+                if (pageEnd > mirroredBytes) break
+                boundary = pageEnd
+            }
+        }
+        containerReady = true
+    }
+
+    private fun isCapturePattern(bytes: ByteArray, offset: Int): Boolean =
+        bytes[offset] == 'O'.code.toByte() && bytes[offset + 1] == 'g'.code.toByte() &&
+            bytes[offset + 2] == 'g'.code.toByte() && bytes[offset + 3] == 'S'.code.toByte()
+
+    /**
+     * 从 [from] 开始在已镜像的部分里找下一个 "OggS"，找不到返回 -1
+     */
+    private fun findCapturePattern(raf: RandomAccessFile, from: Long): Long {
+        val buffer = ByteArray(OGG_RESYNC_CHUNK)
+        var start = from
+        while (start + 4 <= mirroredBytes) {
+            val length = minOf(buffer.size.toLong(), mirroredBytes - start).toInt()
+            raf.seek(start)
+            raf.readFully(buffer, 0, length)
+            for (i in 0..length - 4) {
+                if (isCapturePattern(buffer, i)) return start + i
+            }
+            // 相邻两块重叠 3 个字节，避免漏掉跨块的 "OggS"
+            start += length - 3
+        }
+        return -1
+    }
+
+    /**
+     * MP4 顶层 box：size(4, 大端) type(4)；size == 1 时后跟 64 位 largesize，size == 0 表示延伸到文件末尾
+     */
+    private fun advanceMp4Boundary(mirror: File) {
+        RandomAccessFile(mirror, "r").use { raf ->
+            while (boundary + MP4_BOX_HEADER_SIZE <= mirroredBytes) {
+                raf.seek(boundary)
+                var size = raf.readInt().toLong() and 0xFFFFFFFFL
+                val type = ByteArray(4).also { raf.readFully(it) }.toString(Charsets.US_ASCII)
+                if (size == 1L) {
+                    if (boundary + 16 > mirroredBytes) break
+                    size = raf.readLong()
+                }
+                // size == 0（写入中的 mdat）或者越界：还没写完
+                if (size < MP4_BOX_HEADER_SIZE || boundary + size > mirroredBytes) break
+                if (type == "moov") containerReady = true
+                boundary += size
+            }
+        }
+    }
+}
@@ -36,8 +36,10 @@ import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.future.await
 import kotlinx.coroutines.withTimeoutOrNull
 import com.example.anticenter.database.AntiCenterRepository
+import com.example.anticenter.database.CybertraceRiskStore
 import com.example.anticenter.SelectFeatures
 import com.example.anticenter.data.PhishingDataHub
 import com.example.anticenter.data.PhishingData
@@ -48,6 +50,7 @@ import com.example.anticenter.collectors.ZoomCollector
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
+import java.util.concurrent.Executors
 import kotlinx.coroutines.flow.collect
 
 /**
@@ -83,6 +86,13 @@ class CoreProtectionService : Service() {
     private var telephonyCallback: TelephonyCallback? = null
     private var currentIncomingNumber: String? = null
     private val cybertraceRiskClient = CybertraceRiskClient()
+    // Risk lookups and cache writes run here so repeat callers are served from memory
+    private val cybertraceExecutor = Executors.newFixedThreadPool(2)
+    private val cybertraceRiskCache by lazy {
+        CybertraceRiskCache(CybertraceRiskStore(applicationContext), cybertraceExecutor) {
+            cybertraceRiskClient.lookup(it)
+        }
+    }
     private var currentIncomingRisk: CybertraceRiskClient.Result? = null
     private var isCallProtectionActive: Boolean = false
     private var callProtectionState: CallProtectionState = CallProtectionState.INACTIVE
@@ -141,6 +151,15 @@ class CoreProtectionService : Service() {
         // Register phone state listener
         registerPhoneStateListener()
 
+        // Warm the Cybertrace risk cache with recent callers and refresh entries close to expiry
+        serviceScope.launch {
+            try {
+                cybertraceRiskCache.refreshRecent()
+            } catch (e: Exception) {
+                android.util.Log.w("CoreProtectionService", "[CYBERTRACE] Cache warm-up failed", e)
+            }
+        }
+
         // Take a snapshot log at startup (full snapshot)
         checkAndLogPermissionStates(reason = "service_onCreate")
     }
@@ -305,6 +324,9 @@ class CoreProtectionService : Service() {
         try { notificationChannel.close() } catch (_: Exception) {}
         // Cancel coroutine scope
         try { serviceScope.cancel() } catch (_: Exception) {}
+        // Stop background risk lookups
+        android.util.Log.d("CoreProtectionService", "[CYBERTRACE] Cache stats: ${cybertraceRiskCache.stats()}")
+        cybertraceExecutor.shutdownNow()
     }
 
     private fun buildPersistentNotification(): Notification {
@@ -1396,14 +1418,20 @@ class CoreProtectionService : Service() {
 
             // 3. Both protection enabled and number not in allowlist - enrich with external risk data
             currentIncomingRisk = null
+            val lookupStart = System.nanoTime()
             val riskResult = try {
+                // Cached numbers complete immediately; on timeout the fetch keeps running and fills the cache
                 withTimeoutOrNull(CYBERTRACE_TIMEOUT_MS) {
-                    cybertraceRiskClient.lookup(phoneNumber)
+                    cybertraceRiskCache.lookup(phoneNumber).await()
                 }
             } catch (e: Exception) {
                 android.util.Log.w("CoreProtectionService", "[CYBERTRACE] Lookup failed for $phoneNumber", e)
                 null
             }
+            android.util.Log.d(
+                "CoreProtectionService",
+                "[CYBERTRACE] Enrichment took ${(System.nanoTime() - lookupStart) / 1000}us (${cybertraceRiskCache.stats()})"
+            )
 
             riskResult?.let {
                 currentIncomingRisk = it
@@ -0,0 +1,182 @@
+package com.example.anticenter.services
+
+import okio.Buffer
+import okio.ForwardingSource
+import okio.Source
+import okio.buffer
+
+/**
+ * 流式提取 Cybertrace 查询页里的风险字段
+ *
+ * 查询页大部分是头部样式脚本、导航和评论区，风险块只占中间一小段。扫描器边读边匹配，
+ * 不把整页读成字符串。从页面开头起每块（连同前一块末尾 [OVERLAP_CHARS] 的重叠）都匹配四个字段：
+ *
+ * - 四个字段都拿到就停止读取
+ * - 取到第一个字段后再读 [blockSpanChars] 个字符仍未凑齐，也停止
+ * - 最多读 [maxBytes] 字节
+ *
+ * 停止条件以字段本身（"Risk Score : 82%" 这类带数值的文本）为锚点，而不是 "Risk Score" 字样：
+ * 页头、导航里出现这几个词不会让扫描器在真正的风险块之前就停下。
+ *
+ * 提前停止时 [Scan.complete] 为 false，调用方应取消请求，避免 OkHttp 关闭响应体时把剩余内容读完。
+ *
+ * @param maxBytes 最多读取的字节数
+ * @param blockSpanChars 取到第一个字段之后最多再读的字符数
+ */
+class CybertracePageScanner(
+    private val maxBytes: Long = DEFAULT_MAX_BYTES,
+    private val blockSpanChars: Int = DEFAULT_BLOCK_SPAN_CHARS
+) {
+
+    companion object {
+        const val DEFAULT_MAX_BYTES = 256L * 1024
+        const val DEFAULT_BLOCK_SPAN_CHARS = 8 * 1024
+
+        private const val CHUNK_CHARS = 4 * 1024
+        // 相邻两块之间保留的重叠，跨块的字段也能匹配到
+        private const val OVERLAP_CHARS = 1024
+        private const val MAX_LINE_CHARS = 2 * 1024
+        private const val MAX_SNIPPET_CHARS = 4 * 1024
+        private const val FALLBACK_SNIPPET_CHARS = 600
+
+        private val RISK_PERCENT = Regex("Risk\\s*Score\\s*:\\s*(\\d{1,3})%", RegexOption.IGNORE_CASE)
+        private val RISK_STATEMENT = Regex("This phone number is considered\\s+([^.<]+)", RegexOption.IGNORE_CASE)
+        private val SEARCHED_COUNT = Regex("Searched\\s+(\\d+)\\s+times", RegexOption.IGNORE_CASE)
+        private val REPORTED_COUNT = Regex("Reported\\s+(\\d+)\\s+times", RegexOption.IGNORE_CASE)
+
+        private val SNIPPET_KEYWORDS = listOf("Risk Score", "Phone Number Details", "Searched")
+    }
+
+    /**
+     * 扫描结果
+     *
+     * @param bytesRead 实际从响应体读取的字节数
+     * @param complete 是否读到了末尾（false 表示提前停止或达到上限）
+     */
+    data class Scan(
+        val result: CybertraceRiskClient.Result,
+        val bytesRead: Long,
+        val complete: Boolean
+    ) {
+        /** 四个字段都没有取到 */
+        val isEmpty: Boolean
+            get() = result.riskPercent == null && result.riskStatement == null &&
+                result.searchedCount == null && result.reportedCount == null
+    }
+
+    fun scan(html: String): Scan = scan(Buffer().writeUtf8(html))
+
+    fun scan(source: Source): Scan {
+        var bytesRead = 0L
+        val limited = object : ForwardingSource(source) {
+            override fun read(sink: Buffer, byteCount: Long): Long {
+                val remaining = maxBytes - bytesRead
+                if (remaining <= 0) return -1
+                val read = super.read(sink, minOf(byteCount, remaining))
+                if (read > 0) bytesRead += read
+                return read
+            }
+        }
+        val reader = limited.buffer().inputStream().reader(Charsets.UTF_8)
+
+        val fields = Fields()
+        val window = StringBuilder()
+        val line = StringBuilder()
+        val snippet = StringBuilder()
+        val head = StringBuilder()
+        val chars = CharArray(CHUNK_CHARS)
+        var windowStart = 0L
+        var totalChars = 0L
+        var blockAt = -1L
+        var eof = false
+
+        while (true) {
+            val n = reader.read(chars)
+            if (n < 0) {
+                eof = true
+                break
+            }
+            window.append(chars, 0, n)
+            totalChars += n
+            if (head.length < FALLBACK_SNIPPET_CHARS) head.append(chars, 0, minOf(n, FALLBACK_SNIPPET_CHARS - head.length))
+            var lineStart = 0
+            for (i in 0 until n) {
+                if (chars[i] != '\n') continue
+                appendLine(line, chars, lineStart, i)
+                addSnippetLine(line, snippet)
+                lineStart = i + 1
+            }
+            appendLine(line, chars, lineStart, n)
+
+            val foundAt = fields.extract(window, atEnd = false)
+            if (blockAt < 0 && foundAt >= 0) blockAt = windowStart + foundAt
+            if (fields.allFound) break
+            if (blockAt >= 0 && totalChars - blockAt > blockSpanChars) break
+
+            if (window.length > OVERLAP_CHARS) {
+                val drop = window.length - OVERLAP_CHARS
+                window.delete(0, drop)
+                windowStart += drop
+            }
+        }
+
+        if (eof) fields.extract(window, atEnd = true)
+        addSnippetLine(line, snippet)
+
+        val result = CybertraceRiskClient.Result(
+            fields.riskPercent,
+            fields.riskStatement,
+            fields.searchedCount,
+            fields.reportedCount,
+            snippet.toString().ifBlank { head.toString() }
+        )
+        return Scan(result, bytesRead, eof && bytesRead < maxBytes)
+    }
+
+    private fun appendLine(line: StringBuilder, chars: CharArray, from: Int, to: Int) {
+        val count = minOf(to - from, MAX_LINE_CHARS - line.length)
+        if (count > 0) line.append(chars, from, count)
+    }
+
+    private fun addSnippetLine(line: StringBuilder, snippet: StringBuilder) {
+        if (snippet.length < MAX_SNIPPET_CHARS && SNIPPET_KEYWORDS.any { line.contains(it, ignoreCase = true) }) {
+            snippet.append(line.trim()).append('\n')
+        }
+        line.setLength(0)
+    }
+
+    /** 已取到的字段；每个字段只取第一次出现 */
+    private class Fields {
+        var riskPercent: Int? = null
+        var riskStatement: String? = null
+        var searchedCount: Int? = null
+        var reportedCount: Int? = null
+
+        val allFound: Boolean
+            get() = riskPercent != null && riskStatement != null && searchedCount != null && reportedCount != null
+
+        /**
+         * @return 本次新取到的字段在 text 中最靠前的位置；没有新字段时返回 -1
+         */
+        fun extract(text: CharSequence, atEnd: Boolean): Int {
+            var first = -1
+            fun found(match: MatchResult) {
+                if (first < 0 || match.range.first < first) first = match.range.first
+            }
+
+            if (riskPercent == null) RISK_PERCENT.find(text)?.let { found(it); riskPercent = it.groupValues[1].toIntOrNull() }
+            if (riskStatement == null) {
+                // 陈述以 '.' 或 '<' 结尾；匹配到当前块末尾说明可能被截断，等下一块再取
+                RISK_STATEMENT.find(text)
+                    ?.takeIf { atEnd || it.range.last + 1 < text.length }
+                    ?.let { match ->
+                        found(match)
+                        riskStatement = match.groupValues[1].trim().replace("\n", " ").replace("  ", " ")
+                    }
+            }
+            if (searchedCount == null) SEARCHED_COUNT.find(text)?.let { found(it); searchedCount = it.groupValues[1].toIntOrNull() }
+            if (reportedCount == null) REPORTED_COUNT.find(text)?.let { found(it); reportedCount = it.groupValues[1].toIntOrNull() }
+            return first
+        }
+    }
+}
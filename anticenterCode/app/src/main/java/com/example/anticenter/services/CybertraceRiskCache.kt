@@ -0,0 +1,326 @@
+package com.example.anticenter.services
+
+import android.util.Log
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Cybertrace 风险查询的两级缓存（内存 LRU + SQLite）
+ *
+ * 来电时同步查 Cybertrace 要几百毫秒到几秒，而同一个号码常常几分钟内反复打来。
+ * 查询前先看内存，再看数据库，都没有才发网络请求：
+ *
+ * - 有风险数据的结果保存 [positiveTtlMs]；查不到数据（null 或页面没有任何指标）只保存 [negativeTtlMs]
+ * - 查询失败（超时、HTTP 异常）不缓存，下一通电话重新查
+ * - 同一号码的并发查询共用一个 Future，只发一次请求
+ * - 命中时如果条目已用掉 [REFRESH_AHEAD_FRACTION] 的寿命，照常返回并在后台刷新（refresh-ahead）
+ * - [refreshRecent] 把最近来电号码预热进内存、提前刷新快过期的条目，服务启动时调用
+ *
+ * 网络请求和数据库写入都在 [executor] 上执行，命中内存时调用方线程不碰磁盘。
+ *
+ * @param memoryEntries 内存 LRU 容量
+ * @param maxEntries 数据库最多保留的号码数
+ * @param fetch 实际查询（通常是 [CybertraceRiskClient.lookup]）
+ */
+class CybertraceRiskCache(
+    private val store: Store,
+    private val executor: Executor,
+    private val positiveTtlMs: Long = DEFAULT_POSITIVE_TTL_MS,
+    private val negativeTtlMs: Long = DEFAULT_NEGATIVE_TTL_MS,
+    private val memoryEntries: Int = DEFAULT_MEMORY_ENTRIES,
+    private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val fetch: (String) -> CybertraceRiskClient.Result?
+) {
+
+    companion object {
+        private const val TAG = "CybertraceRiskCache"
+
+        const val DEFAULT_POSITIVE_TTL_MS = 24L * 60 * 60 * 1000
+        const val DEFAULT_NEGATIVE_TTL_MS = 60L * 60 * 1000
+        const val DEFAULT_MEMORY_ENTRIES = 128
+        const val DEFAULT_MAX_ENTRIES = 1_000
+
+        // 条目用掉这么多寿命后，命中时顺便后台刷新
+        const val REFRESH_AHEAD_FRACTION = 0.75
+
+        // 每写入这么多条做一次过期/容量清理
+        private const val EVICT_EVERY = 16
+
+        /** 缓存键：只保留数字，和 [CybertraceRiskClient.lookup] 发出的查询一致 */
+        fun keyOf(phoneNumber: String): String = phoneNumber.filter { it.isDigit() }
+
+        /** 页面上没有任何风险指标 */
+        fun isNegative(result: CybertraceRiskClient.Result?): Boolean =
+            result == null || (result.riskPercent == null && result.riskStatement == null &&
+                result.searchedCount == null && result.reportedCount == null)
+    }
+
+    /**
+     * 缓存条目
+     *
+     * @param number 只含数字的号码
+     * @param result 查询结果；null 表示 Cybertrace 没有返回可用页面
+     * @param fetchedAt 网络查询完成的时间，TTL 从这里算起
+     */
+    data class Entry(
+        val number: String,
+        val result: CybertraceRiskClient.Result?,
+        val fetchedAt: Long,
+        val lastAccess: Long
+    )
+
+    /**
+     * 缓存持久化接口
+     */
+    interface Store {
+        fun get(number: String): Entry?
+        fun put(entry: Entry)
+        fun touch(number: String, accessedAt: Long)
+        fun remove(number: String)
+
+        /** 按 lastAccess 倒序取最近查询过的 [limit] 个号码 */
+        fun recent(limit: Int): List<Entry>
+
+        /**
+         * 删除 fetchedAt 早于 expiredBefore 的条目，再按 lastAccess 淘汰到 maxEntries 条
+         *
+         * @return 删除的条数
+         */
+        fun evict(expiredBefore: Long, maxEntries: Int): Int
+    }
+
+    /**
+     * 进程内存储（测试用，或数据库不可用时的退路）
+     */
+    class MemoryStore : Store {
+        private val entries = LinkedHashMap<String, Entry>()
+
+        @Synchronized
+        override fun get(number: String): Entry? = entries[number]
+
+        @Synchronized
+        override fun put(entry: Entry) {
+            entries[entry.number] = entry
+        }
+
+        @Synchronized
+        override fun touch(number: String, accessedAt: Long) {
+            entries[number]?.let { entries[number] = it.copy(lastAccess = accessedAt) }
+        }
+
+        @Synchronized
+        override fun remove(number: String) {
+            entries.remove(number)
+        }
+
+        @Synchronized
+        override fun recent(limit: Int): List<Entry> =
+            entries.values.sortedByDescending { it.lastAccess }.take(limit)
+
+        @Synchronized
+        override fun evict(expiredBefore: Long, maxEntries: Int): Int {
+            val before = entries.size
+            entries.values.removeAll { it.fetchedAt < expiredBefore }
+            if (entries.size > maxEntries) {
+                entries.values.sortedBy { it.lastAccess }
+                    .take(entries.size - maxEntries)
+                    .forEach { entries.remove(it.number) }
+            }
+            return before - entries.size
+        }
+
+        @get:Synchronized
+        val size: Int
+            get() = entries.size
+    }
+
+    /**
+     * 命中率统计
+     *
+     * @param memoryHits 内存命中
+     * @param diskHits 数据库命中
+     * @param joined 复用了正在进行的同号码查询
+     * @param fetches 实际发出的网络查询（含后台刷新）
+     * @param refreshes 其中由 refresh-ahead / 预热触发的次数
+     */
+    data class Stats(
+        val lookups: Long,
+        val memoryHits: Long,
+        val diskHits: Long,
+        val joined: Long,
+        val fetches: Long,
+        val refreshes: Long
+    ) {
+        val hitRatio: Double
+            get() = if (lookups > 0) (memoryHits + diskHits + joined).toDouble() / lookups else 0.0
+
+        override fun toString(): String =
+            "lookups=$lookups, memoryHits=$memoryHits, diskHits=$diskHits, joined=$joined, " +
+                "hitRatio=${"%.1f".format(hitRatio * 100)}%, fetches=$fetches, refreshes=$refreshes"
+    }
+
+    private val memory = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>): Boolean =
+            size > memoryEntries
+    }
+    private val inFlight = ConcurrentHashMap<String, CompletableFuture<CybertraceRiskClient.Result?>>()
+    private val lookups = AtomicLong()
+    private val memoryHits = AtomicLong()
+    private val diskHits = AtomicLong()
+    private val joined = AtomicLong()
+    private val fetches = AtomicLong()
+    private val refreshes = AtomicLong()
+    private val writes = AtomicLong()
+
+    /**
+     * 查询号码风险；命中缓存时返回已完成的 Future
+     *
+     * Future 以查询异常结束时不会写入缓存。每个调用方拿到各自的 Future，
+     * 取消（例如来电处理超时）只影响自己，后台查询照常完成并写入缓存。
+     */
+    fun lookup(phoneNumber: String): CompletableFuture<CybertraceRiskClient.Result?> {
+        val number = keyOf(phoneNumber)
+        if (number.isEmpty()) return CompletableFuture.completedFuture(null)
+        lookups.incrementAndGet()
+        val now = clock()
+
+        fromMemory(number, now)?.let {
+            memoryHits.incrementAndGet()
+            onHit(it, now)
+            return CompletableFuture.completedFuture(it.result)
+        }
+
+        inFlight[number]?.let {
+            joined.incrementAndGet()
+            return it.thenApply { result -> result }
+        }
+
+        fromStore(number, now)?.let {
+            diskHits.incrementAndGet()
+            onHit(it, now)
+            return CompletableFuture.completedFuture(it.result)
+        }
+
+        return fetchCoalesced(number).thenApply { it }
+    }
+
+    /**
+     * 预热并刷新最近查询过的号码
+     *
+     * 最近 [limit] 个号码载入内存；已过期或快过期的在后台重新查询。
+     *
+     * @return 发起的后台查询数
+     */
+    fun refreshRecent(limit: Int = DEFAULT_MEMORY_ENTRIES): Int {
+        val recent = try {
+            store.recent(limit)
+        } catch (e: Exception) {
+            Log.w(TAG, "Reading recent numbers failed: ${e.message}")
+            return 0
+        }
+        val now = clock()
+        var started = 0
+        // 倒序放入，让最近的号码排在 LRU 最新的位置
+        for (entry in recent.asReversed()) {
+            val age = now - entry.fetchedAt
+            if (age <= ttlOf(entry)) synchronized(memory) { memory[entry.number] = entry }
+            if (age > ttlOf(entry) * REFRESH_AHEAD_FRACTION && refresh(entry.number)) started++
+        }
+        Log.d(TAG, "Warmed ${recent.size} recent numbers, refreshing $started")
+        return started
+    }
+
+    fun stats(): Stats =
+        Stats(lookups.get(), memoryHits.get(), diskHits.get(), joined.get(), fetches.get(), refreshes.get())
+
+    private fun ttlOf(entry: Entry) = if (isNegative(entry.result)) negativeTtlMs else positiveTtlMs
+
+    private fun fromMemory(number: String, now: Long): Entry? = synchronized(memory) {
+        val entry = memory[number] ?: return null
+        if (now - entry.fetchedAt > ttlOf(entry)) {
+            memory.remove(number)
+            return null
+        }
+        entry
+    }
+
+    private fun fromStore(number: String, now: Long): Entry? {
+        val entry = try {
+            store.get(number)
+        } catch (e: Exception) {
+            Log.w(TAG, "Cache read failed: ${e.message}")
+            return null
+        } ?: return null
+
+        if (now - entry.fetchedAt > ttlOf(entry)) {
+            executor.execute { runCatching { store.remove(number) } }
+            return null
+        }
+        synchronized(memory) { memory[number] = entry }
+        return entry
+    }
+
+    private fun onHit(entry: Entry, now: Long) {
+        executor.execute {
+            try {
+                store.touch(entry.number, now)
+            } catch (e: Exception) {
+                Log.w(TAG, "Cache touch failed: ${e.message}")
+            }
+        }
+        if (now - entry.fetchedAt > ttlOf(entry) * REFRESH_AHEAD_FRACTION) refresh(entry.number)
+    }
+
+    /** 后台刷新；该号码已在查询中时不重复发起 */
+    private fun refresh(number: String): Boolean {
+        if (inFlight.containsKey(number)) return false
+        refreshes.incrementAndGet()
+        fetchCoalesced(number)
+        return true
+    }
+
+    private fun fetchCoalesced(number: String): CompletableFuture<CybertraceRiskClient.Result?> {
+        val future = CompletableFuture<CybertraceRiskClient.Result?>()
+        inFlight.putIfAbsent(number, future)?.let {
+            joined.incrementAndGet()
+            return it
+        }
+
+        fetches.incrementAndGet()
+        try {
+            executor.execute {
+                try {
+                    val result = fetch(number)
+                    save(number, result)
+                    inFlight.remove(number, future)
+                    future.complete(result)
+                } catch (e: Throwable) {
+                    inFlight.remove(number, future)
+                    future.completeExceptionally(e)
+                }
+            }
+        } catch (e: Exception) {
+            inFlight.remove(number, future)
+            future.completeExceptionally(e)
+        }
+        return future
+    }
+
+    private fun save(number: String, result: CybertraceRiskClient.Result?) {
+        val now = clock()
+        val entry = Entry(number, result, now, now)
+        synchronized(memory) { memory[number] = entry }
+        try {
+            store.put(entry)
+            if (writes.incrementAndGet() % EVICT_EVERY == 0L) {
+                val evicted = store.evict(now - maxOf(positiveTtlMs, negativeTtlMs), maxEntries)
+                if (evicted > 0) Log.d(TAG, "Evicted $evicted cache entries")
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Cache write failed for $number: ${e.message}")
+        }
+    }
+}
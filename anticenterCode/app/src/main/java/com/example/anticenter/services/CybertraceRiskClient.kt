@@ -1,5 +1,6 @@
 package com.example.anticenter.services
 
+import com.example.anticenter.network.HttpClients
 import java.io.IOException
 import java.util.concurrent.TimeUnit
 import okhttp3.OkHttpClient
@@ -10,10 +11,13 @@ import okhttp3.Request
  *
  * The public page renders the risk score server side, so we can issue a GET request against
  * https://www.cybertrace.com.au/scam-phone-number-lookup/?search=<digits> and parse the HTML snippet.
- * This helper keeps the parsing logic encapsulated and resilient to minor markup changes.
+ * The page is scanned as it streams in (see [CybertracePageScanner]); reading stops once the risk
+ * block has been parsed, so the rest of the page is never downloaded.
  */
 class CybertraceRiskClient(
-    private val httpClient: OkHttpClient = defaultHttpClient
+    private val httpClient: OkHttpClient = defaultHttpClient,
+    private val scanner: CybertracePageScanner = CybertracePageScanner(),
+    private val baseUrl: String = BASE_URL
 ) {
 
     data class Result(
@@ -39,7 +43,7 @@ class CybertraceRiskClient(
         val digitsOnly = phoneNumber.filter { it.isDigit() }
         if (digitsOnly.isEmpty()) return null
 
-        val url = "$BASE_URL?search=$digitsOnly"
+        val url = "$baseUrl?search=$digitsOnly"
         val request = Request.Builder()
             .url(url)
             .get()
@@ -62,35 +66,23 @@ class CybertraceRiskClient(
                 return null
             }
             val body = response.body ?: return null
-            val html = body.string()
-            return parseHtml(html)
+            val scan = scanner.scan(body.source())
+            if (!scan.complete) {
+                // Skip the rest of the page: closing an unread body would otherwise drain it first
+                call.cancel()
+            }
+            android.util.Log.d(TAG, "[CYBERTRACE] Read ${scan.bytesRead} bytes (complete=${scan.complete})")
+            return report(scan)
         }
     }
 
-    private fun parseHtml(html: String): Result? {
-        val riskPercent = RISK_PERCENT.find(html)?.groupValues?.getOrNull(1)?.toIntOrNull()
-        val riskStatement = RISK_STATEMENT.find(html)?.groupValues?.getOrNull(1)?.trim()?.let {
-            it.replace("\n", " ").replace("  ", " ")
-        }
-        val searchedCount = SEARCHED_COUNT.find(html)?.groupValues?.getOrNull(1)?.toIntOrNull()
-        val reportedCount = REPORTED_COUNT.find(html)?.groupValues?.getOrNull(1)?.toIntOrNull()
+    private fun parseHtml(html: String): Result? = report(scanner.scan(html))
 
-        val snippetBuilder = StringBuilder()
-        val lines = html.lines()
-        for (line in lines) {
-            if (line.contains("Risk Score", ignoreCase = true) ||
-                line.contains("Phone Number Details", ignoreCase = true) ||
-                line.contains("Searched", ignoreCase = true)
-            ) {
-                snippetBuilder.append(line.trim()).append('\n')
-            }
+    private fun report(scan: CybertracePageScanner.Scan): Result {
+        if (scan.isEmpty) {
+            android.util.Log.w(TAG, "[CYBERTRACE] Could not extract risk metadata from response snippet=${scan.result.rawSnippet}")
         }
-
-        val snippet = snippetBuilder.toString().ifBlank { html.take(600) }
-        if (riskPercent == null && riskStatement == null && searchedCount == null && reportedCount == null) {
-            android.util.Log.w(TAG, "[CYBERTRACE] Could not extract risk metadata from response snippet=${'$'}snippet")
-        }
-        return Result(riskPercent, riskStatement, searchedCount, reportedCount, snippet)
+        return scan.result
     }
 
     companion object {
@@ -98,18 +90,7 @@ class CybertraceRiskClient(
         private const val BASE_URL = "https://www.cybertrace.com.au/scam-phone-number-lookup/"
     private const val CALL_TIMEOUT_MS = 4_000L
 
-    private val RISK_PERCENT = Regex("Risk\\s*Score\\s*:\\s*(\\d{1,3})%", RegexOption.IGNORE_CASE)
-        private val RISK_STATEMENT = Regex("This phone number is considered\\s+([^.<]+)", RegexOption.IGNORE_CASE)
-        private val SEARCHED_COUNT = Regex("Searched\\s+(\\d+)\\s+times", RegexOption.IGNORE_CASE)
-        private val REPORTED_COUNT = Regex("Reported\\s+(\\d+)\\s+times", RegexOption.IGNORE_CASE)
-
-        private val defaultHttpClient: OkHttpClient by lazy {
-            OkHttpClient.Builder()
-                .connectTimeout(5, TimeUnit.SECONDS)
-                .readTimeout(7, TimeUnit.SECONDS)
-                .writeTimeout(7, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build()
-        }
+        private val defaultHttpClient: OkHttpClient
+            get() = HttpClients.client(HttpClients.Profile.LOOKUP)
     }
 }
@@ -0,0 +1,430 @@
+package com.example.anticenter.services
+
+import android.util.Log
+import com.example.anticenter.network.BackendGuard
+import com.example.anticenter.utils.TimerWheel
+import okhttp3.Call
+import okhttp3.Response
+import java.io.Closeable
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.Predicate
+
+/**
+ * 检测任务执行器：按优先级排队 + 覆盖全部重试的截止时间
+ *
+ * 替代检测器里原来的"每个任务新建一个单线程 Executor 来计时、池线程阻塞在 future.get 上"的做法：
+ * - 任务先向 [scheduler] 申请执行名额，按优先级类别和软截止时间排队（见 [DetectionScheduler]），
+ *   拿到名额后在 [concurrency] 个工作线程上执行；计时统一由一个 [TimerWheel] 负责
+ * - 截止时间从任务第一次开始执行算起，覆盖所有尝试和中间的退避等待；到期时 Future 以 [TimeoutException] 结束
+ * - 取消（超时、调用方 cancel、[close]）会取消通过 [Context.execute] 发出的 OkHttp 请求，
+ *   并中断正在执行的线程（用于 SDK 内部的阻塞调用）
+ * - 重试的退避等待不占名额，到点后重新排队；软截止时间不变，所以排在同类的新任务前面
+ * - 排队超过软截止时间的任务以 [DetectionScheduler.ShedException] 结束，队列满被丢弃的以
+ *   [RejectedExecutionException] 结束
+ * - 配了 [guard] 时，每次尝试拿到执行名额后再等后端的并发名额和熔断器放行：等的时候不占工作线程，
+ *   排队顺序和 [scheduler] 一样按优先级类别和软截止时间；软截止时间前没等到的任务归还执行名额，
+ *   以 [DetectionScheduler.ShedException] 结束。后端名额只在真正执行时占用，不会把排队的任务算进在途请求。
+ *   通过 [Context.execute] 发出的请求按状态码和延迟反馈给它；没有经过 [Context.execute] 的尝试
+ *   （例如 SDK 调用）按整次尝试的耗时和异常反馈
+ * - 一次尝试结束后先归还后端名额和执行名额，再结束 Future 或安排重试
+ *
+ * @param name 线程名前缀和日志标签
+ * @param concurrency 同时执行的任务数
+ * @param queueCapacity 最多排队的任务数（只用于默认的独占调度器）
+ * @param guard 后端的自适应并发上限和熔断器，通常多个执行器共享同一个
+ * @param scheduler 执行名额和排队顺序；和其他执行器、上传管理器共享时 [concurrency] 应等于它的 slots，
+ *        否则拿到名额的任务还要等工作线程
+ */
+class DetectionExecutor @JvmOverloads constructor(
+    val name: String,
+    val concurrency: Int,
+    queueCapacity: Int = DEFAULT_QUEUE_CAPACITY,
+    private val timer: TimerWheel = TimerWheel.shared,
+    private val guard: BackendGuard? = null,
+    private val scheduler: DetectionScheduler = DetectionScheduler(name, concurrency, queueCapacity, timer)
+) : Closeable {
+
+    companion object {
+        private const val TAG = "DetectionExecutor"
+        const val DEFAULT_QUEUE_CAPACITY = 200
+    }
+
+    /**
+     * 一次尝试，失败时抛异常，由 [RetryPolicy] 决定是否重试
+     */
+    fun interface Attempt<T> {
+        @Throws(Exception::class)
+        fun run(context: Context): T
+    }
+
+    /**
+     * 重试策略：第 n 次失败后等待 baseBackoffMs · 2^(n-1)
+     *
+     * @param maxAttempts 最多尝试次数（含第一次）
+     * @param retryOn 哪些异常值得重试
+     */
+    class RetryPolicy @JvmOverloads constructor(
+        val maxAttempts: Int,
+        val baseBackoffMs: Long,
+        val retryOn: Predicate<Throwable> = Predicate { true }
+    ) {
+        fun backoffMs(failedAttempt: Int): Long = baseBackoffMs shl (failedAttempt - 1).coerceIn(0, 20)
+    }
+
+    /**
+     * 执行器指标快照
+     */
+    data class Stats(
+        val submitted: Long,
+        val succeeded: Long,
+        val failed: Long,
+        val timedOut: Long,
+        val cancelled: Long,
+        val dropped: Long,
+        val shed: Long,
+        val retries: Long,
+        val queued: Int,
+        val active: Int
+    )
+
+    /**
+     * 传给每次尝试的上下文
+     */
+    inner class Context internal constructor(private val task: Task<*>) {
+        val tag: String
+            get() = task.tag
+
+        /** 当前是第几次尝试（从 1 开始） */
+        val attempt: Int
+            get() = task.attempt
+
+        /** 距截止时间的剩余毫秒数 */
+        val remainingMs: Long
+            get() = task.remainingMs()
+
+        val isCancelled: Boolean
+            get() = task.cancelled
+
+        /**
+         * 同步执行 OkHttp 请求；任务被取消时请求会被 cancel，这里抛出 IOException
+         */
+        @Throws(IOException::class)
+        fun execute(call: Call): Response {
+            task.register(call)
+            val start = System.currentTimeMillis()
+            try {
+                val response = call.execute()
+                guard?.let {
+                    task.reported++
+                    it.onResponse(response.code, System.currentTimeMillis() - start)
+                }
+                return response
+            } catch (e: IOException) {
+                if (guard != null && !task.cancelled) {
+                    task.reported++
+                    if (guard.overloadOn.test(e)) guard.onOverload()
+                }
+                throw e
+            } finally {
+                task.unregister(call)
+            }
+        }
+    }
+
+    internal inner class Task<T>(
+        val tag: String,
+        val priority: DetectionScheduler.Priority,
+        val softDeadlineAt: Long,
+        private val deadlineMs: Long,
+        private val policy: RetryPolicy,
+        private val body: Attempt<T>
+    ) {
+        val future = CompletableFuture<T>()
+
+        /** 正在等待的后端名额或执行名额 */
+        @Volatile
+        var pending: CompletableFuture<*>? = null
+
+        @Volatile
+        var attempt = 0
+            private set
+
+        @Volatile
+        var cancelled = false
+            private set
+
+        /** 本次尝试里已反馈给 [guard] 的请求数 */
+        @Volatile
+        var reported = 0
+
+        private var deadline: TimerWheel.Timeout? = null
+        @Volatile
+        private var deadlineAt = 0L
+        private var runner: Thread? = null
+        private val calls = ArrayList<Call>(2)
+
+        fun remainingMs(): Long = if (deadlineAt == 0L) deadlineMs else deadlineAt - System.currentTimeMillis()
+
+        fun run(slot: DetectionScheduler.Slot, permit: BackendGuard.Permit?) {
+            val finish = try {
+                runAttempt()
+            } finally {
+                permit?.let { guard?.release(it) }
+                slot.release()
+            }
+            // 名额还回去之后再结束 Future：回调里看到的指标已经不含这个任务，提交的新任务也能马上拿到名额
+            finish?.run()
+        }
+
+        /**
+         * @return 结束 Future 或安排重试的动作；任务已结束时返回 null
+         */
+        private fun runAttempt(): Runnable? {
+            synchronized(this) {
+                if (cancelled || future.isDone) return null
+                runner = Thread.currentThread()
+                if (deadline == null) {
+                    deadlineAt = System.currentTimeMillis() + deadlineMs
+                    deadline = timer.schedule(deadlineMs) { expire() }
+                }
+                attempt++
+            }
+            reported = 0
+            val start = System.currentTimeMillis()
+            active.incrementAndGet()
+            return try {
+                val result = body.run(Context(this))
+                if (guard != null && reported == 0) guard.onSuccess(System.currentTimeMillis() - start)
+                Runnable { future.complete(result) }
+            } catch (e: Throwable) {
+                if (cancelled) return null
+                if (guard != null && reported == 0 && guard.overloadOn.test(e)) guard.onOverload()
+                Runnable { onFailure(e) }
+            } finally {
+                active.decrementAndGet()
+                synchronized(this) { runner = null }
+                // 清掉取消时可能留下的中断标记，不影响工作线程的下一个任务
+                Thread.interrupted()
+            }
+        }
+
+        private fun onFailure(e: Throwable) {
+            val backoff = policy.backoffMs(attempt)
+            if (attempt < policy.maxAttempts && policy.retryOn.test(e) && backoff < remainingMs()) {
+                retries.incrementAndGet()
+                Log.w(TAG, "[$name][$tag] Attempt $attempt failed, retrying in ${backoff}ms: ${e.message}")
+                timer.schedule(backoff) { if (!cancelled && !future.isDone) reschedule(this) }
+            } else {
+                Log.e(TAG, "[$name][$tag] Failed after $attempt attempt(s)", e)
+                future.completeExceptionally(e)
+            }
+        }
+
+        private fun expire() {
+            if (future.completeExceptionally(
+                    TimeoutException("$tag exceeded ${deadlineMs}ms deadline after $attempt attempt(s)")
+                )
+            ) {
+                Log.e(TAG, "[$name][$tag] Deadline exceeded")
+            }
+        }
+
+        /** Future 结束（任何原因）时调用：停掉计时器，并中止还在进行的请求 */
+        fun onDone() {
+            val timeout: TimerWheel.Timeout?
+            synchronized(this) {
+                cancelled = true
+                timeout = deadline
+                calls.forEach { it.cancel() }
+                if (future.isCompletedExceptionally) runner?.interrupt()
+            }
+            timeout?.cancel()
+            pending?.cancel(false)
+            live.remove(this)
+        }
+
+        @Synchronized
+        fun register(call: Call) {
+            if (cancelled) {
+                call.cancel()
+                throw InterruptedIOException("$tag cancelled")
+            }
+            calls.add(call)
+        }
+
+        @Synchronized
+        fun unregister(call: Call) {
+            calls.remove(call)
+        }
+    }
+
+    private val live = ConcurrentHashMap.newKeySet<Task<*>>()
+
+    private val submitted = AtomicLong()
+    private val succeeded = AtomicLong()
+    private val failed = AtomicLong()
+    private val timedOut = AtomicLong()
+    private val cancelledCount = AtomicLong()
+    private val dropped = AtomicLong()
+    private val shed = AtomicLong()
+    private val retries = AtomicLong()
+    private val waiting = AtomicInteger()
+    private val active = AtomicInteger()
+
+    // 排队在 scheduler 里；这里只放拿到名额的任务，长度不超过名额数
+    private val exec = ThreadPoolExecutor(
+        concurrency, concurrency, 60, TimeUnit.SECONDS, LinkedBlockingQueue(),
+        { r -> Thread(r, "$name-Detector").apply { isDaemon = true } }
+    )
+
+    init {
+        require(concurrency > 0) { "concurrency must be positive" }
+    }
+
+    /**
+     * 以 [DetectionScheduler.Priority.BATCH] 提交
+     */
+    fun <T> submit(tag: String, deadlineMs: Long, policy: RetryPolicy, attempt: Attempt<T>): CompletableFuture<T> =
+        submit(tag, DetectionScheduler.Priority.BATCH, deadlineMs, policy, attempt)
+
+    /**
+     * 以类别默认的软截止时间提交
+     */
+    fun <T> submit(
+        tag: String,
+        priority: DetectionScheduler.Priority,
+        deadlineMs: Long,
+        policy: RetryPolicy,
+        attempt: Attempt<T>
+    ): CompletableFuture<T> = submit(tag, priority, priority.defaultSoftDeadlineMs, deadlineMs, policy, attempt)
+
+    /**
+     * 提交一个检测任务，立即返回 Future
+     *
+     * @param tag 日志里的任务名（通常是文件名）
+     * @param priority 优先级类别
+     * @param softDeadlineMs 从提交算起最晚多久要开始执行（每次重试都要在此之前拿到名额），过了就丢弃
+     * @param deadlineMs 从开始执行算起、覆盖所有重试的总时限
+     */
+    fun <T> submit(
+        tag: String,
+        priority: DetectionScheduler.Priority,
+        softDeadlineMs: Long,
+        deadlineMs: Long,
+        policy: RetryPolicy,
+        attempt: Attempt<T>
+    ): CompletableFuture<T> {
+        val task = Task(tag, priority, System.currentTimeMillis() + softDeadlineMs, deadlineMs, policy, attempt)
+        submitted.incrementAndGet()
+        live.add(task)
+        task.future.whenComplete { _, error ->
+            when (unwrap(error)) {
+                null -> succeeded.incrementAndGet()
+                is TimeoutException -> timedOut.incrementAndGet()
+                is CancellationException -> cancelledCount.incrementAndGet()
+                is RejectedExecutionException -> Unit
+                else -> failed.incrementAndGet()
+            }
+            task.onDone()
+        }
+        schedule(task)
+        return task.future
+    }
+
+    /** 申请执行名额；配了 [guard] 时拿到名额后再等后端名额，都拿到后交给工作线程 */
+    private fun schedule(task: Task<*>) {
+        val pending = scheduler.acquire(task.tag, task.priority, task.softDeadlineAt - System.currentTimeMillis())
+        task.pending = pending
+        waiting.incrementAndGet()
+        pending.whenComplete { slot, error ->
+            when {
+                slot != null -> if (guard != null) {
+                    acquirePermit(task, slot, guard)
+                } else {
+                    waiting.decrementAndGet()
+                    start(task, slot, null)
+                }
+                // 任务已经结束，名额请求是 onDone 取消的
+                error is CancellationException -> waiting.decrementAndGet()
+                else -> {
+                    waiting.decrementAndGet()
+                    if (error is DetectionScheduler.ShedException) shed.incrementAndGet() else dropped.incrementAndGet()
+                    task.future.completeExceptionally(error)
+                }
+            }
+        }
+        // onDone 可能在 pending 赋值之前执行
+        if (task.cancelled) pending.cancel(false)
+    }
+
+    /**
+     * 拿着执行名额等后端名额：不占工作线程，按优先级类别和软截止时间排在同一后端的其他任务之间；
+     * 软截止时间前没等到时归还执行名额并丢弃任务
+     */
+    private fun acquirePermit(task: Task<*>, slot: DetectionScheduler.Slot, guard: BackendGuard) {
+        val pending = guard.acquireAsync(
+            task.softDeadlineAt - System.currentTimeMillis(), task.priority.ordinal, task.softDeadlineAt
+        )
+        task.pending = pending
+        pending.whenComplete { permit, error ->
+            waiting.decrementAndGet()
+            when {
+                permit != null -> start(task, slot, permit)
+                error is CancellationException -> slot.release()
+                else -> {
+                    slot.release()
+                    shed.incrementAndGet()
+                    task.future.completeExceptionally(
+                        DetectionScheduler.ShedException("${task.tag} missed its soft deadline waiting for ${guard.name}")
+                    )
+                }
+            }
+        }
+        if (task.cancelled) pending.cancel(false)
+    }
+
+    private fun start(task: Task<*>, slot: DetectionScheduler.Slot, permit: BackendGuard.Permit?) {
+        try {
+            exec.execute { task.run(slot, permit) }
+        } catch (e: RejectedExecutionException) {
+            permit?.let { guard?.release(it) }
+            slot.release()
+            task.future.completeExceptionally(RejectedExecutionException("$name closed"))
+        }
+    }
+
+    private fun reschedule(task: Task<*>) {
+        if (!exec.isShutdown) schedule(task)
+    }
+
+    fun stats(): Stats = Stats(
+        submitted.get(), succeeded.get(), failed.get(), timedOut.get(), cancelledCount.get(),
+        dropped.get(), shed.get(), retries.get(), waiting.get(), active.get()
+    )
+
+    /**
+     * 停止执行器：排队和执行中的任务都以 [CancellationException] 结束，进行中的请求被取消
+     */
+    override fun close() {
+        // 先取消排队的任务：否则执行中的任务被取消后，放出来的名额会先给到它们
+        val (queued, started) = live.toList().partition { it.pending?.isDone == false }
+        queued.forEach { it.future.cancel(true) }
+        started.forEach { it.future.cancel(true) }
+        exec.shutdownNow()
+    }
+
+    private fun unwrap(error: Throwable?): Throwable? =
+        if (error is CompletionException && error.cause != null) error.cause else error
+}
@@ -0,0 +1,180 @@
+package com.example.anticenter.services
+
+import android.util.Log
+import org.json.JSONException
+import org.json.JSONObject
+import java.io.File
+import java.io.IOException
+import java.util.UUID
+
+/**
+ * 检测任务的断点记录：上传得到的远端 ID 和过期时间
+ *
+ * 检测分两阶段：上传文件（拿到 Dify 的 upload_file_id / RD 的 requestId），再用这个 ID 取结果。
+ * 原来每次重试都从上传开始，第二阶段的一次偶发失败就要把整个文件重传一遍。现在每个任务持有一个
+ * [Checkpoint]：上传成功后记下远端 ID，重试时 ID 没过期就跳过上传，只重做失败的阶段。
+ *
+ * 断点同时写到磁盘（每个任务一个 JSON 文件，先写临时文件再改名），服务重启后用 [pending]
+ * 找回未完成的任务继续检测。任务成功或确定失败后调用 [Checkpoint.complete] 删除记录；
+ * 被取消（服务停止）的任务保留记录，等下次启动恢复。超过 [maxAgeMs] 的记录视为作废。
+ *
+ * @param dir 日志目录，不存在时自动创建；为 null 时只在内存里记断点，不落盘
+ */
+class DetectionJournal @JvmOverloads constructor(
+    private val dir: File?,
+    private val maxAgeMs: Long = DEFAULT_MAX_AGE_MS,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    companion object {
+        private const val TAG = "DetectionJournal"
+        private const val SUFFIX = ".json"
+
+        const val DEFAULT_MAX_AGE_MS = 6L * 60 * 60 * 1000
+
+        /** 只在内存里记断点的实例，没有配置日志目录的检测器用它 */
+        @JvmField
+        val IN_MEMORY = DetectionJournal(null)
+    }
+
+    /**
+     * 一条待完成任务的记录
+     *
+     * @param backend 检测后端（"dify"、"rd"）
+     * @param source 要检测的本地文件
+     * @param args 重建请求需要的额外参数（例如 PCM 的采样率）
+     * @param remoteId 已上传文件的远端 ID，还没上传时为 null
+     * @param remoteExpiresAt 远端 ID 的过期时间
+     */
+    data class Entry(
+        val id: String,
+        val backend: String,
+        val source: String,
+        val args: Map<String, String>,
+        val remoteId: String?,
+        val remoteExpiresAt: Long,
+        val createdAt: Long
+    ) {
+        fun toJson(): String = JSONObject()
+            .put("id", id)
+            .put("backend", backend)
+            .put("source", source)
+            .put("args", JSONObject(args))
+            .put("remoteId", remoteId ?: JSONObject.NULL)
+            .put("remoteExpiresAt", remoteExpiresAt)
+            .put("createdAt", createdAt)
+            .toString()
+    }
+
+    /**
+     * 单个任务的断点，线程安全
+     */
+    inner class Checkpoint internal constructor(@Volatile private var entry: Entry) {
+
+        val backend: String
+            get() = entry.backend
+
+        val source: File
+            get() = File(entry.source)
+
+        fun arg(name: String): String? = entry.args[name]
+
+        /** 没过期的远端 ID；没有或已过期时返回 null，调用方需要重新上传 */
+        @Synchronized
+        fun remoteId(): String? {
+            val current = entry
+            return if (current.remoteId != null && clock() < current.remoteExpiresAt) current.remoteId else null
+        }
+
+        /** 上传成功后记录远端 ID，[ttlMs] 后过期 */
+        @Synchronized
+        fun save(remoteId: String, ttlMs: Long) {
+            entry = entry.copy(remoteId = remoteId, remoteExpiresAt = clock() + ttlMs)
+            write(entry)
+        }
+
+        /** 远端说文件不存在或已过期：清掉 ID，下次重试重新上传 */
+        @Synchronized
+        fun invalidate() {
+            if (entry.remoteId == null) return
+            entry = entry.copy(remoteId = null, remoteExpiresAt = 0)
+            write(entry)
+        }
+
+        /** 任务结束（成功或确定失败），删除记录 */
+        fun complete() {
+            delete(entry.id)
+        }
+    }
+
+    init {
+        if (dir != null && !dir.isDirectory && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create journal dir $dir, checkpoints stay in memory")
+        }
+    }
+
+    /**
+     * 为新任务建断点并落盘
+     */
+    @JvmOverloads
+    fun begin(backend: String, source: File, args: Map<String, String> = emptyMap()): Checkpoint {
+        val entry = Entry(UUID.randomUUID().toString(), backend, source.absolutePath, args, null, 0, clock())
+        write(entry)
+        return Checkpoint(entry)
+    }
+
+    /**
+     * 上次运行留下的未完成任务；源文件已不存在或记录过旧的直接删除
+     */
+    fun pending(backend: String): List<Checkpoint> {
+        val files = dir?.listFiles { f -> f.name.endsWith(SUFFIX) } ?: return emptyList()
+        val now = clock()
+        val result = ArrayList<Checkpoint>()
+        for (file in files) {
+            val entry = read(file)
+            when {
+                entry == null || now - entry.createdAt > maxAgeMs || !File(entry.source).isFile -> file.delete()
+                entry.backend == backend -> result.add(Checkpoint(entry))
+            }
+        }
+        return result.sortedBy { it.source.lastModified() }
+    }
+
+    private fun fileOf(id: String): File? = dir?.let { File(it, id + SUFFIX) }
+
+    private fun write(entry: Entry) {
+        val target = fileOf(entry.id) ?: return
+        val tmp = File(target.parentFile, target.name + ".tmp")
+        try {
+            tmp.writeText(entry.toJson())
+            if (!tmp.renameTo(target)) throw IOException("rename failed")
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to write checkpoint ${entry.id}: ${e.message}")
+            tmp.delete()
+        }
+    }
+
+    private fun delete(id: String) {
+        fileOf(id)?.delete()
+    }
+
+    private fun read(file: File): Entry? = try {
+        val json = JSONObject(file.readText())
+        val args = json.optJSONObject("args")
+        Entry(
+            id = json.getString("id"),
+            backend = json.getString("backend"),
+            source = json.getString("source"),
+            args = args?.keys()?.asSequence()?.associateWith { args.getString(it) } ?: emptyMap(),
+            remoteId = if (json.isNull("remoteId")) null else json.getString("remoteId"),
+            remoteExpiresAt = json.optLong("remoteExpiresAt", 0),
+            createdAt = json.getLong("createdAt")
+        )
+    } catch (e: IOException) {
+        Log.w(TAG, "Unreadable checkpoint ${file.name}: ${e.message}")
+        null
+    } catch (e: JSONException) {
+        Log.w(TAG, "Corrupt checkpoint ${file.name}: ${e.message}")
+        null
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.anticenter.services
+
+import android.util.Log
+import com.example.anticenter.utils.XxHash64
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 按音频内容哈希缓存检测结果
+ *
+ * 同一段音频可能多次送检（等待音乐、IVR 提示音在多通电话里重复出现，重试时同一文件再次提交）。
+ * 提交前先算内容指纹（[com.example.anticenter.audio.AudioFingerprint]），命中缓存就直接返回结果、不再上传。
+ *
+ * - 持久化由 [Store] 负责（线上用 SQLite，见 DetectionCacheStore；测试用 [MemoryStore]）
+ * - 条目超过 [ttlMs] 视为过期；总数超过 [maxEntries] 时按最近访问时间淘汰（LRU）
+ * - 相同内容正在检测时，后来的提交直接复用同一个 Future，不会并发上传两次
+ * - 只缓存成功的结果，失败不缓存
+ *
+ * 结果以字符串形式存储，由调用方提供编解码（Dify 用 JSON，RD 用 Jackson）。
+ */
+class DetectionResultCache(
+    private val store: Store,
+    private val ttlMs: Long = DEFAULT_TTL_MS,
+    private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    companion object {
+        private const val TAG = "DetectionResultCache"
+
+        const val DEFAULT_TTL_MS = 3L * 24 * 60 * 60 * 1000
+        const val DEFAULT_MAX_ENTRIES = 500
+
+        // 每写入这么多条做一次过期/容量清理
+        private const val EVICT_EVERY = 16
+    }
+
+    /**
+     * 缓存条目
+     *
+     * @param sizeBytes 原本要上传的字节数，用于统计节省的流量
+     */
+    data class Entry(
+        val detector: String,
+        val hash: String,
+        val payload: String,
+        val sizeBytes: Long,
+        val createdAt: Long,
+        val lastAccess: Long
+    )
+
+    /**
+     * 缓存持久化接口
+     */
+    interface Store {
+        fun get(detector: String, hash: String): Entry?
+        fun put(entry: Entry)
+        fun touch(detector: String, hash: String, accessedAt: Long)
+        fun remove(detector: String, hash: String)
+
+        /**
+         * 删除 createdAt 早于 expiredBefore 的条目，再按 lastAccess 淘汰到 maxEntries 条
+         *
+         * @return 删除的条数
+         */
+        fun evict(expiredBefore: Long, maxEntries: Int): Int
+    }
+
+    /**
+     * 进程内存储（测试用，或数据库不可用时的退路）
+     */
+    class MemoryStore : Store {
+        private val entries = LinkedHashMap<String, Entry>()
+
+        private fun key(detector: String, hash: String) = "$detector:$hash"
+
+        @Synchronized
+        override fun get(detector: String, hash: String): Entry? = entries[key(detector, hash)]
+
+        @Synchronized
+        override fun put(entry: Entry) {
+            entries[key(entry.detector, entry.hash)] = entry
+        }
+
+        @Synchronized
+        override fun touch(detector: String, hash: String, accessedAt: Long) {
+            val k = key(detector, hash)
+            entries[k]?.let { entries[k] = it.copy(lastAccess = accessedAt) }
+        }
+
+        @Synchronized
+        override fun remove(detector: String, hash: String) {
+            entries.remove(key(detector, hash))
+        }
+
+        @Synchronized
+        override fun evict(expiredBefore: Long, maxEntries: Int): Int {
+            val before = entries.size
+            entries.values.removeAll { it.createdAt < expiredBefore }
+            if (entries.size > maxEntries) {
+                entries.values.sortedBy { it.lastAccess }
+                    .take(entries.size - maxEntries)
+                    .forEach { entries.remove(key(it.detector, it.hash)) }
+            }
+            return before - entries.size
+        }
+
+        @get:Synchronized
+        val size: Int
+            get() = entries.size
+    }
+
+    /**
+     * 命中率统计
+     *
+     * @param joined 复用了正在进行的同内容检测
+     * @param savedBytes 因命中而没有上传的字节数
+     */
+    data class Stats(
+        val lookups: Long,
+        val hits: Long,
+        val joined: Long,
+        val savedBytes: Long
+    ) {
+        val hitRatio: Double
+            get() = if (lookups > 0) (hits + joined).toDouble() / lookups else 0.0
+
+        override fun toString(): String =
+            "lookups=$lookups, hits=$hits, joined=$joined, " +
+                "hitRatio=${"%.1f".format(hitRatio * 100)}%, saved=${savedBytes / 1024} KB"
+    }
+
+    private val inFlight = ConcurrentHashMap<String, CompletableFuture<*>>()
+    private val lookups = AtomicLong()
+    private val hits = AtomicLong()
+    private val joined = AtomicLong()
+    private val savedBytes = AtomicLong()
+    private val writes = AtomicLong()
+
+    /**
+     * 查缓存；未命中时调用 compute 发起检测，成功后写入缓存
+     *
+     * @param detector 检测器名称（不同检测器的结果分开存）
+     * @param hash 内容指纹
+     * @param sizeBytes 本次要上传的字节数
+     * @param encode 结果 → 字符串
+     * @param decode 字符串 → 结果；抛异常时视为未命中并删除该条目
+     * @param compute 实际检测
+     */
+    fun <T> getOrCompute(
+        detector: String,
+        hash: Long,
+        sizeBytes: Long,
+        encode: (T) -> String,
+        decode: (String) -> T,
+        compute: () -> CompletableFuture<T>
+    ): CompletableFuture<T> {
+        lookups.incrementAndGet()
+        val hex = XxHash64.toHex(hash)
+        val key = "$detector:$hex"
+
+        @Suppress("UNCHECKED_CAST")
+        (inFlight[key] as CompletableFuture<T>?)?.let {
+            joined.incrementAndGet()
+            savedBytes.addAndGet(sizeBytes)
+            Log.i(TAG, "🔗 [$detector] $hex already in flight, joining")
+            return it
+        }
+
+        cached(detector, hex, decode)?.let {
+            hits.incrementAndGet()
+            savedBytes.addAndGet(sizeBytes)
+            Log.i(TAG, "♻️ [$detector] cache hit $hex, skipped ${sizeBytes / 1024} KB upload")
+            return CompletableFuture.completedFuture(it)
+        }
+
+        val future = CompletableFuture<T>()
+        @Suppress("UNCHECKED_CAST")
+        val existing = inFlight.putIfAbsent(key, future) as CompletableFuture<T>?
+        if (existing != null) {
+            joined.incrementAndGet()
+            savedBytes.addAndGet(sizeBytes)
+            return existing
+        }
+
+        val source = try {
+            compute()
+        } catch (e: Exception) {
+            inFlight.remove(key, future)
+            future.completeExceptionally(e)
+            return future
+        }
+        source.whenComplete { result, error ->
+            inFlight.remove(key, future)
+            if (error == null && result != null) save(detector, hex, sizeBytes, result, encode)
+            if (error != null) future.completeExceptionally(error) else future.complete(result)
+        }
+        return future
+    }
+
+    fun stats(): Stats = Stats(lookups.get(), hits.get(), joined.get(), savedBytes.get())
+
+    private fun <T> cached(detector: String, hex: String, decode: (String) -> T): T? {
+        val now = clock()
+        val entry = try {
+            store.get(detector, hex)
+        } catch (e: Exception) {
+            Log.w(TAG, "Cache read failed: ${e.message}")
+            return null
+        } ?: return null
+
+        if (now - entry.createdAt > ttlMs) {
+            store.remove(detector, hex)
+            return null
+        }
+        return try {
+            decode(entry.payload).also { store.touch(detector, hex, now) }
+        } catch (e: Exception) {
+            Log.w(TAG, "Dropping undecodable cache entry $detector:$hex: ${e.message}")
+            store.remove(detector, hex)
+            null
+        }
+    }
+
+    private fun <T> save(detector: String, hex: String, sizeBytes: Long, result: T, encode: (T) -> String) {
+        try {
+            val now = clock()
+            store.put(Entry(detector, hex, encode(result), sizeBytes, now, now))
+            if (writes.incrementAndGet() % EVICT_EVERY == 0L) {
+                val evicted = store.evict(now - ttlMs, maxEntries)
+                if (evicted > 0) Log.d(TAG, "Evicted $evicted cache entries")
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Cache write failed for $detector:$hex: ${e.message}")
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.anticenter.services
+
+import android.util.Log
+import com.example.anticenter.utils.LatencyHistogram
+import com.example.anticenter.utils.TimerWheel
+import kotlinx.coroutines.future.await
+import java.util.TreeSet
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 检测任务的优先级调度：一个后端固定 [slots] 个执行名额，排队时先比优先级类别，同类里软截止时间早的先走
+ *
+ * 原来每个检测器一个 FIFO 队列，Zoom 的 10 秒视频片段可能排在通话中的语音片段前面，而后者的结论
+ * 必须在对方还没挂电话时给出。现在同一后端的所有使用者（检测器的 [DetectionExecutor]、上传管理器的协程）
+ * 都从 [forBackend] 拿到同一个调度器申请名额：
+ *
+ * - 类别见 [Priority]，靠前的类别永远先于靠后的
+ * - 同类里按软截止时间（提交时间 + softDeadlineMs）从早到晚（EDF），相同时按提交顺序
+ * - 排到软截止时间还没轮到的直接丢弃，Future 以 [ShedException] 结束：结论来得太晚已经没用
+ * - 队列满时丢掉最低类别里截止时间最早的一个，以 [RejectedExecutionException] 结束；
+ *   新任务的类别比排队的都低时丢新任务
+ * - 每个类别单独记录排队等待时间的直方图，见 [stats]
+ *
+ * 拿到的 [Slot] 用完必须 [Slot.release]。
+ *
+ * @param slots 同时执行的名额数
+ * @param capacity 最多排队数
+ */
+class DetectionScheduler @JvmOverloads constructor(
+    val name: String,
+    val slots: Int,
+    val capacity: Int = DEFAULT_CAPACITY,
+    private val timer: TimerWheel = TimerWheel.shared
+) {
+
+    companion object {
+        private const val TAG = "DetectionScheduler"
+        const val DEFAULT_SLOTS = 4
+        const val DEFAULT_CAPACITY = 200
+
+        private val registry = ConcurrentHashMap<String, DetectionScheduler>()
+
+        /**
+         * 取某个后端的共享调度器；第一次调用时创建，之后的参数被忽略
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forBackend(name: String, slots: Int = DEFAULT_SLOTS): DetectionScheduler =
+            registry.computeIfAbsent(name) { DetectionScheduler(name, slots) }
+
+        /** 所有后端调度器的指标，按名称排序 */
+        @JvmStatic
+        fun allStats(): List<Stats> = registry.values.map { it.stats() }.sortedBy { it.name }
+    }
+
+    /**
+     * 优先级类别，按声明顺序从高到低
+     *
+     * @param defaultSoftDeadlineMs 提交时没有指定软截止时间时使用
+     */
+    enum class Priority(val defaultSoftDeadlineMs: Long) {
+        /** 通话中的语音片段：结论要在通话结束前给出 */
+        LIVE_CALL(10_000),
+        MEETING_AUDIO(20_000),
+        MEETING_VIDEO(30_000),
+        EMAIL(2 * 60_000),
+        /** 离线批量、恢复上次没完成的检测 */
+        BATCH(10 * 60_000)
+    }
+
+    /** 排队超过软截止时间被丢弃 */
+    class ShedException(message: String) : RejectedExecutionException(message)
+
+    /** 一个执行名额；重复 release 无副作用 */
+    inner class Slot internal constructor() {
+        private val released = AtomicBoolean()
+
+        fun release() {
+            if (released.compareAndSet(false, true)) releaseSlot()
+        }
+    }
+
+    /**
+     * 单个类别的指标
+     *
+     * @param queued 当前排队数
+     * @param wait 拿到名额前的排队时间
+     */
+    data class ClassStats(
+        val priority: Priority,
+        val queued: Int,
+        val granted: Long,
+        val shed: Long,
+        val dropped: Long,
+        val wait: LatencyHistogram.Snapshot
+    ) {
+        override fun toString(): String =
+            "$priority queued=$queued ok=$granted shed=$shed dropped=$dropped wait[$wait]"
+    }
+
+    data class Stats(
+        val name: String,
+        val slots: Int,
+        val inUse: Int,
+        val classes: List<ClassStats>
+    ) {
+        /** 只列出有过任务的类别 */
+        override fun toString(): String =
+            "$name: inUse=$inUse/$slots" + classes
+                .filter { it.queued > 0 || it.granted > 0 || it.shed > 0 || it.dropped > 0 }
+                .joinToString("") { " | $it" }
+    }
+
+    private class Ticket(
+        val tag: String,
+        val priority: Priority,
+        val deadlineAt: Long,
+        val enqueuedAt: Long,
+        val seq: Long
+    ) {
+        val future = CompletableFuture<Slot>()
+
+        @Volatile
+        var timeout: TimerWheel.Timeout? = null
+    }
+
+    private val lock = Any()
+    private val queue = TreeSet(compareBy<Ticket>({ it.priority.ordinal }, { it.deadlineAt }, { it.seq }))
+    private var inUse = 0
+    private var seq = 0L
+
+    private val queued = IntArray(Priority.values().size)
+    private val granted = Array(Priority.values().size) { AtomicLong() }
+    private val shed = Array(Priority.values().size) { AtomicLong() }
+    private val dropped = Array(Priority.values().size) { AtomicLong() }
+    private val waits = Array(Priority.values().size) { LatencyHistogram() }
+
+    init {
+        require(slots > 0) { "slots must be positive" }
+        require(capacity > 0) { "capacity must be positive" }
+    }
+
+    /**
+     * 申请一个名额，立即返回 Future
+     *
+     * Future 在名额空出时完成（在释放名额的线程上），调用方不应在回调里做耗时工作。
+     * 取消 Future 会把请求移出队列。
+     *
+     * @param tag 日志里的任务名
+     * @param softDeadlineMs 从现在算起最晚多久要拿到名额，小于等于 0 时直接丢弃
+     */
+    @JvmOverloads
+    fun acquire(
+        tag: String,
+        priority: Priority,
+        softDeadlineMs: Long = priority.defaultSoftDeadlineMs
+    ): CompletableFuture<Slot> {
+        val now = System.currentTimeMillis()
+        var grantNow = false
+        var victim: Ticket? = null
+        val ticket = synchronized(lock) {
+            val ticket = Ticket(tag, priority, now + softDeadlineMs, now, seq++)
+            when {
+                softDeadlineMs <= 0 -> victim = ticket
+                inUse < slots && queue.isEmpty() -> {
+                    inUse++
+                    grantNow = true
+                }
+                else -> {
+                    if (queue.size >= capacity) {
+                        val lowest = queue.last().priority
+                        victim = if (priority > lowest) ticket
+                        else queue.ceiling(Ticket("", lowest, Long.MIN_VALUE, now, Long.MIN_VALUE))
+                        if (victim !== ticket) {
+                            queue.remove(victim)
+                            queued[lowest.ordinal]--
+                        }
+                    }
+                    if (victim !== ticket) {
+                        queue.add(ticket)
+                        queued[priority.ordinal]++
+                    }
+                }
+            }
+            ticket
+        }
+
+        if (grantNow) {
+            grant(ticket)
+            return ticket.future
+        }
+        victim?.let {
+            if (softDeadlineMs <= 0 && it === ticket) shed(it) else drop(it)
+        }
+        if (victim !== ticket) {
+            ticket.timeout = timer.schedule(softDeadlineMs) { expire(ticket) }
+            ticket.future.whenComplete { _, error -> if (error is CancellationException) remove(ticket) }
+        }
+        return ticket.future
+    }
+
+    /**
+     * 在协程里拿到名额后执行 [block]，结束后归还
+     *
+     * @throws ShedException 排队超过软截止时间
+     * @throws RejectedExecutionException 队列满被丢弃
+     */
+    suspend fun <T> withSlot(
+        tag: String,
+        priority: Priority,
+        softDeadlineMs: Long = priority.defaultSoftDeadlineMs,
+        block: suspend () -> T
+    ): T {
+        val pending = acquire(tag, priority, softDeadlineMs)
+        val slot = try {
+            pending.await()
+        } catch (e: CancellationException) {
+            // 协程取消和名额授予同时发生时，名额已经给出，要还回去
+            if (!pending.cancel(false) && !pending.isCompletedExceptionally) pending.join().release()
+            throw e
+        }
+        try {
+            return block()
+        } finally {
+            slot.release()
+        }
+    }
+
+    fun waitHistogram(priority: Priority): LatencyHistogram.Snapshot = waits[priority.ordinal].snapshot()
+
+    fun stats(): Stats {
+        val (queuedNow, used) = synchronized(lock) { queued.copyOf() to inUse }
+        return Stats(name, slots, used, Priority.values().map { p ->
+            val i = p.ordinal
+            ClassStats(p, queuedNow[i], granted[i].get(), shed[i].get(), dropped[i].get(), waits[i].snapshot())
+        })
+    }
+
+    /** 名额交给队首（跳过已过软截止时间的）；队列空时名额数减一 */
+    private fun releaseSlot() {
+        while (true) {
+            val expired = ArrayList<Ticket>()
+            val next = synchronized(lock) {
+                val now = System.currentTimeMillis()
+                var head = queue.pollFirst()
+                while (head != null && head.deadlineAt <= now) {
+                    queued[head.priority.ordinal]--
+                    expired += head
+                    head = queue.pollFirst()
+                }
+                if (head == null) inUse-- else queued[head.priority.ordinal]--
+                head
+            }
+            expired.forEach { shed(it) }
+            if (next == null || grant(next)) return
+            // 已被取消：名额继续给下一个
+        }
+    }
+
+    // 计数先于完成 Future：调用方拿到结果时指标已经更新
+    private fun grant(ticket: Ticket): Boolean {
+        ticket.timeout?.cancel()
+        val i = ticket.priority.ordinal
+        granted[i].incrementAndGet()
+        if (!ticket.future.isDone) waits[i].record(System.currentTimeMillis() - ticket.enqueuedAt)
+        if (ticket.future.complete(Slot())) return true
+        granted[i].decrementAndGet()
+        return false
+    }
+
+    private fun expire(ticket: Ticket) {
+        if (remove(ticket)) shed(ticket)
+    }
+
+    private fun remove(ticket: Ticket): Boolean {
+        ticket.timeout?.cancel()
+        synchronized(lock) {
+            if (!queue.remove(ticket)) return false
+            queued[ticket.priority.ordinal]--
+            return true
+        }
+    }
+
+    private fun shed(ticket: Ticket) {
+        ticket.timeout?.cancel()
+        val waited = System.currentTimeMillis() - ticket.enqueuedAt
+        val counter = shed[ticket.priority.ordinal]
+        counter.incrementAndGet()
+        if (ticket.future.completeExceptionally(
+                ShedException("${ticket.tag} shed: ${waited}ms in $name queue, past its ${ticket.priority} soft deadline")
+            )
+        ) {
+            Log.w(TAG, "[$name][${ticket.tag}] Shed after ${waited}ms in queue (${ticket.priority})")
+        } else {
+            counter.decrementAndGet()
+        }
+    }
+
+    private fun drop(ticket: Ticket) {
+        ticket.timeout?.cancel()
+        val counter = dropped[ticket.priority.ordinal]
+        counter.incrementAndGet()
+        if (ticket.future.completeExceptionally(RejectedExecutionException("${ticket.tag} dropped: $name queue full"))) {
+            Log.w(TAG, "[$name][${ticket.tag}] Dropped: queue full (${ticket.priority})")
+        } else {
+            counter.decrementAndGet()
+        }
+    }
+}
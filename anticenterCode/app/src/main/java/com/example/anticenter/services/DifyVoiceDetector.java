@@ -3,6 +3,13 @@ package com.example.anticenter.services;
 import android.util.Log;
 
 import com.example.anticenter.BuildConfig;
+import com.example.anticenter.audio.AudioFingerprint;
+import com.example.anticenter.network.BackendGuard;
+import com.example.anticenter.network.DifyWorkflowStream;
+import com.example.anticenter.network.HttpClients;
+import com.example.anticenter.network.UploadRunPipeline;
+import com.example.anticenter.network.WavRequestBody;
+import com.example.anticenter.utils.TimerWheel;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import okhttp3.Call;
@@ -22,15 +29,13 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Dify.ai Voice Phishing Detector
@@ -39,18 +44,20 @@ import java.util.concurrent.TimeoutException;
 public class DifyVoiceDetector implements Closeable {
 
     private static final String TAG = "DifyVoiceDetector";
+    private static final String CACHE_NAME = "dify";
+    private static final String JOURNAL_BACKEND = "dify";
+    private static final long UPLOAD_TTL_MS = 60 * 60 * 1000; // How long an upload_file_id is reused before re-uploading
 
     // ===== Configuration =====
-    private static final int CORE = 2;
-    private static final int MAX = 3;
+    private static final int DEFAULT_CONCURRENCY = 4;
+    public static final int BACKEND_MAX_CONCURRENCY = 6; // Upper bound of the adaptive limit shared by every Dify caller
     private static final int QUEUE_CAP = 200;
     private static final int MAX_RETRY = 3;
     private static final long BASE_BACKOFF_MS = 1500;
-    private static final long TASK_TIMEOUT_MS = 5 * 60 * 1000; // 5 minutes
+    private static final long TASK_TIMEOUT_MS = 5 * 60 * 1000; // 5 minutes, covering all attempts
 
     // ===== Dify API Endpoints (Official Dify.ai API) =====
-    private static final String UPLOAD_URL = "https://api.dify.ai/v1/files/upload";
-    private static final String WORKFLOW_URL = "https://api.dify.ai/v1/workflows/run";
+    public static final String DEFAULT_BASE_URL = "https://api.dify.ai/v1";
     private static final String USER_EMAIL = BuildConfig.DIFY_USER_EMAIL;
     
     // // ===== Hardcoded API Key for Auth-Voice workflow =====
@@ -61,33 +68,48 @@ public class DifyVoiceDetector implements Closeable {
     private static final String BACKEND_URL = "http://10.0.2.2:8080/dify/result";
 
     private final String apiKey;
-    private final LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<>(QUEUE_CAP);
-
-    private final ThreadPoolExecutor exec = new ThreadPoolExecutor(
-            CORE, MAX, 60, TimeUnit.SECONDS, queue,
-            r -> {
-                Thread t = new Thread(r, "Dify-Detector");
-                t.setDaemon(true);
-                return t;
-            },
-            (r, e) -> { queue.pollFirst(); e.execute(r); } // Drop oldest task when full
-    );
-
-    private final ScheduledExecutorService scheduler =
-            Executors.newSingleThreadScheduledExecutor(r -> {
-                Thread t = new Thread(r, "Dify-Retry");
-                t.setDaemon(true);
-                return t;
-            });
+    private final String uploadUrl;
+    private final String workflowUrl;
+
+    // Bounded queue (drops oldest when full); deadline, retries and the shared Dify guard handled by the executor
+    private final DetectionScheduler scheduler;
+    private final DetectionExecutor executor;
+    private final BackendGuard guard = BackendGuard.forBackend("dify", BACKEND_MAX_CONCURRENCY);
+    private final DetectionExecutor.RetryPolicy retryPolicy =
+            new DetectionExecutor.RetryPolicy(MAX_RETRY, BASE_BACKOFF_MS);
 
-    private final OkHttpClient httpClient = new OkHttpClient.Builder()
-            .connectTimeout(60, TimeUnit.SECONDS)
-            .readTimeout(60, TimeUnit.SECONDS)
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .build();
+    // Shared connection pool / dispatcher, see HttpClients
+    private final OkHttpClient httpClient = HttpClients.client(HttpClients.Profile.UPLOAD);
 
     private final ObjectMapper mapper = new ObjectMapper();
 
+    // Optional content-hash result cache; null means every submission is uploaded
+    private volatile DetectionResultCache resultCache;
+
+    // Optional early-verdict callback, fed from the streaming workflow response
+    private volatile ProvisionalListener provisionalListener;
+
+    // Checkpoints of uploaded file IDs, so a retry only re-runs the workflow; in memory by default
+    private volatile DetectionJournal journal = DetectionJournal.IN_MEMORY;
+
+    // Bytes actually sent to the upload endpoint, including failed uploads
+    private final AtomicLong bytesUploaded = new AtomicLong();
+
+    /**
+     * Receives the verdict as soon as the LLM has produced it, before reasons and evidence
+     *
+     * Called on the detector thread. The final {@link VoicePhishingResult} still completes
+     * the future later; a retried attempt may report a provisional verdict again.
+     */
+    public interface ProvisionalListener {
+        /**
+         * @param verdict Normalized "PHISHING" or "SAFE"
+         * @param confidence 0.0 to 1.0, or -1 if the LLM gave no confidence
+         * @param elapsedMs Time from the start of the workflow response to the verdict
+         */
+        void onProvisionalVerdict(String fileName, String verdict, double confidence, long elapsedMs);
+    }
+
     /**
      * Detection result data class
      */
@@ -112,6 +134,57 @@ public class DifyVoiceDetector implements Closeable {
             this.processingTimeMs = processingTimeMs;
         }
 
+        /**
+         * Serialize for the detection result cache
+         */
+        public String toJson() {
+            try {
+                return new JSONObject()
+                        .put("fileName", fileName)
+                        .put("verdict", verdict)
+                        .put("confidence", confidence)
+                        .put("reasons", new JSONArray(reasons))
+                        .put("evidence", new JSONArray(evidence))
+                        .put("uploadId", uploadId)
+                        .put("processingTimeMs", processingTimeMs)
+                        .toString();
+            } catch (JSONException e) {
+                throw new IllegalStateException("Failed to serialize result", e);
+            }
+        }
+
+        /**
+         * The same verdict reported for another file; cached results keep the name they were detected under
+         */
+        public VoicePhishingResult withFileName(String name) {
+            if (name.equals(fileName)) return this;
+            return new VoicePhishingResult(name, verdict, confidence, reasons, evidence, uploadId, processingTimeMs);
+        }
+
+        public static VoicePhishingResult fromJson(String json) {
+            try {
+                JSONObject obj = new JSONObject(json);
+                return new VoicePhishingResult(
+                        obj.getString("fileName"),
+                        obj.getString("verdict"),
+                        obj.getDouble("confidence"),
+                        toList(obj.getJSONArray("reasons")),
+                        toList(obj.getJSONArray("evidence")),
+                        obj.optString("uploadId", null),
+                        obj.optLong("processingTimeMs", 0L));
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Invalid cached result", e);
+            }
+        }
+
+        private static List<String> toList(JSONArray array) throws JSONException {
+            List<String> list = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                list.add(array.getString(i));
+            }
+            return list;
+        }
+
         @Override
         public String toString() {
             return "VoicePhishingResult{" +
@@ -124,11 +197,31 @@ public class DifyVoiceDetector implements Closeable {
         }
     }
 
-     public DifyVoiceDetector(String apiKey) {
+    public DifyVoiceDetector(String apiKey) {
+        this(apiKey, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * @param concurrency Number of detections (upload + workflow) run in parallel across every Dify
+     *        user (detectors and call-recording upload managers); only the first one to start sets it
+     */
+    public DifyVoiceDetector(String apiKey, int concurrency) {
+        this(apiKey, concurrency, DEFAULT_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl Dify API root without a trailing slash (tests point it at a local fake server)
+     */
+    public DifyVoiceDetector(String apiKey, int concurrency, String baseUrl) {
         if (apiKey == null || apiKey.isEmpty()) {
             throw new IllegalArgumentException("Dify API key is required");
         }
         this.apiKey = apiKey;
+        this.uploadUrl = baseUrl + "/files/upload";
+        this.workflowUrl = baseUrl + "/workflows/run";
+        this.scheduler = DetectionScheduler.forBackend("dify", concurrency);
+        this.executor = new DetectionExecutor("Dify", scheduler.getSlots(), QUEUE_CAP, TimerWheel.getShared(),
+                guard, scheduler);
 
         try {
             String masked = apiKey.length() > 4 ? "****" + apiKey.substring(apiKey.length() - 4) : "****";
@@ -137,73 +230,236 @@ public class DifyVoiceDetector implements Closeable {
     }
 
     /**
-     * Non-blocking voice phishing detection
+     * Enable the content-hash result cache
+     *
+     * Submissions whose audio content was already analyzed (within the cache TTL)
+     * complete immediately with the cached result instead of being uploaded again.
+     */
+    public void setResultCache(DetectionResultCache cache) {
+        this.resultCache = cache;
+    }
+
+    /**
+     * Get notified of the verdict before the full explanation arrives; null to disable
+     */
+    public void setProvisionalListener(ProvisionalListener listener) {
+        this.provisionalListener = listener;
+    }
+
+    /**
+     * Persist checkpoints so that pending detections survive a service restart
+     *
+     * @see #resumePending()
+     */
+    public void setJournal(DetectionJournal journal) {
+        this.journal = journal != null ? journal : DetectionJournal.IN_MEMORY;
+    }
+
+    /**
+     * Re-submit detections left unfinished by a previous run
+     *
+     * Entries whose upload_file_id is still valid go straight to the workflow.
+     *
+     * @return Source file to result future
+     */
+    public Map<File, CompletableFuture<VoicePhishingResult>> resumePending() {
+        Map<File, CompletableFuture<VoicePhishingResult>> resumed = new LinkedHashMap<>();
+        for (DetectionJournal.Checkpoint checkpoint : journal.pending(JOURNAL_BACKEND)) {
+            File file = checkpoint.getSource();
+            String sampleRate = checkpoint.arg("sampleRate");
+            String channels = checkpoint.arg("channels");
+            String name;
+            RequestBody body;
+            if (sampleRate != null && channels != null) {
+                name = stripExtension(file.getName()) + ".wav";
+                body = WavRequestBody.fromPcmFile(file, Integer.parseInt(sampleRate), Integer.parseInt(channels));
+            } else {
+                name = file.getName();
+                body = RequestBody.create(file, MediaType.parse(getMimeType(name)));
+            }
+            Log.i(TAG, "[" + name + "] Resuming " +
+                    (checkpoint.remoteId() != null ? "from upload " + checkpoint.remoteId() : "from upload step"));
+            resumed.put(file, enqueue(name, DetectionScheduler.Priority.BATCH, body, checkpoint));
+        }
+        return resumed;
+    }
+
+    /**
+     * Non-blocking voice phishing detection, queued as {@link DetectionScheduler.Priority#BATCH}
      */
     public CompletableFuture<VoicePhishingResult> submit(File file) {
+        return submit(file, DetectionScheduler.Priority.BATCH);
+    }
+
+    /**
+     * Non-blocking voice phishing detection
+     *
+     * @param priority Queueing class on the Dify scheduler, which live-call uploads share
+     */
+    public CompletableFuture<VoicePhishingResult> submit(File file, DetectionScheduler.Priority priority) {
         Objects.requireNonNull(file, "file == null");
-        final CompletableFuture<VoicePhishingResult> future = new CompletableFuture<>();
 
         if (!file.exists() || file.length() == 0L) {
+            final CompletableFuture<VoicePhishingResult> future = new CompletableFuture<>();
             future.completeExceptionally(new IllegalArgumentException("File not found or empty: " + file));
             return future;
         }
 
-        Runnable task = () -> detectWithRetry(file, 1, future);
-        exec.execute(wrapWithTimeout(task, future, file.getName()));
-        return future;
+        RequestBody body = RequestBody.create(file, MediaType.parse(getMimeType(file.getName())));
+        DetectionResultCache cache = resultCache;
+        if (cache == null) {
+            return enqueue(file.getName(), priority, body, journal.begin(JOURNAL_BACKEND, file));
+        }
+        long hash;
+        try {
+            hash = AudioFingerprint.ofFile(file);
+        } catch (IOException e) {
+            Log.w(TAG, "[" + file.getName() + "] Fingerprint failed, bypassing cache: " + e.getMessage());
+            return enqueue(file.getName(), priority, body, journal.begin(JOURNAL_BACKEND, file));
+        }
+        return cache.getOrCompute(CACHE_NAME, hash, file.length(),
+                VoicePhishingResult::toJson, VoicePhishingResult::fromJson,
+                () -> enqueue(file.getName(), priority, body, journal.begin(JOURNAL_BACKEND, file)))
+                .thenApply(result -> result.withFileName(file.getName()));
+    }
+
+    /**
+     * Non-blocking detection for a raw 16-bit PCM recording
+     *
+     * The PCM file is uploaded as WAV by streaming a RIFF header followed by the
+     * file contents, so no intermediate WAV file is written.
+     */
+    public CompletableFuture<VoicePhishingResult> submitPcm(File pcmFile, int sampleRate, int channels) {
+        return submitPcm(pcmFile, sampleRate, channels, DetectionScheduler.Priority.BATCH);
     }
 
     /**
-     * Detection with retry logic
+     * {@link #submitPcm(File, int, int)} with an explicit queueing class
      */
-    private void detectWithRetry(File file, int attempt, CompletableFuture<VoicePhishingResult> future) {
-        if (Thread.currentThread().isInterrupted()) {
-            future.completeExceptionally(new InterruptedException("Interrupted"));
-            return;
+    public CompletableFuture<VoicePhishingResult> submitPcm(File pcmFile, int sampleRate, int channels,
+                                                            DetectionScheduler.Priority priority) {
+        Objects.requireNonNull(pcmFile, "pcmFile == null");
+
+        if (!pcmFile.exists() || pcmFile.length() == 0L) {
+            final CompletableFuture<VoicePhishingResult> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalArgumentException("File not found or empty: " + pcmFile));
+            return future;
         }
 
+        String name = stripExtension(pcmFile.getName()) + ".wav";
+        WavRequestBody body = WavRequestBody.fromPcmFile(pcmFile, sampleRate, channels);
+        Map<String, String> args = new LinkedHashMap<>();
+        args.put("sampleRate", String.valueOf(sampleRate));
+        args.put("channels", String.valueOf(channels));
+        DetectionResultCache cache = resultCache;
+        if (cache == null) {
+            return enqueue(name, priority, body, journal.begin(JOURNAL_BACKEND, pcmFile, args));
+        }
+        long hash;
         try {
-            long startTime = System.currentTimeMillis();
+            hash = AudioFingerprint.ofPcmFile(pcmFile, sampleRate, channels);
+        } catch (IOException e) {
+            Log.w(TAG, "[" + name + "] Fingerprint failed, bypassing cache: " + e.getMessage());
+            return enqueue(name, priority, body, journal.begin(JOURNAL_BACKEND, pcmFile, args));
+        }
+        return cache.getOrCompute(CACHE_NAME, hash, body.contentLength(),
+                VoicePhishingResult::toJson, VoicePhishingResult::fromJson,
+                () -> enqueue(name, priority, body, journal.begin(JOURNAL_BACKEND, pcmFile, args)))
+                .thenApply(result -> result.withFileName(name));
+    }
 
-            // Step 1: Upload file to Dify
-            Log.i(TAG, "[" + file.getName() + "] Step 1/2: Uploading file (attempt " + attempt + ")...");
-            String uploadId = uploadFile(file);
+    private CompletableFuture<VoicePhishingResult> enqueue(String name, DetectionScheduler.Priority priority,
+                                                           RequestBody body, DetectionJournal.Checkpoint checkpoint) {
+        CompletableFuture<VoicePhishingResult> future = executor.submit(
+                name, priority, TASK_TIMEOUT_MS, retryPolicy, ctx -> detect(ctx, name, body, checkpoint));
+        // Cancelled tasks (service stopping) keep their checkpoint for resumePending()
+        future.whenComplete((result, error) -> {
+            if (!(error instanceof CancellationException)) checkpoint.complete();
+        });
+        return future;
+    }
+
+    /**
+     * One detection attempt; failures are retried by the executor with exponential backoff
+     *
+     * The upload ID is checkpointed, so a retry after a workflow failure skips the upload
+     * unless the ID has expired or Dify no longer knows it.
+     */
+    private VoicePhishingResult detect(DetectionExecutor.Context ctx, String name, RequestBody body,
+                                       DetectionJournal.Checkpoint checkpoint) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        // Step 1: Upload file to Dify, unless an earlier attempt already did
+        String uploadId = checkpoint.remoteId();
+        boolean reused = uploadId != null;
+        if (reused) {
+            Log.i(TAG, "[" + name + "] Step 1/2: Reusing upload " + uploadId + " (attempt " + ctx.getAttempt() + ")");
+        } else {
+            Log.i(TAG, "[" + name + "] Step 1/2: Uploading file (attempt " + ctx.getAttempt() + ")...");
+            bytesUploaded.addAndGet(Math.max(0L, body.contentLength()));
+            uploadId = uploadFile(ctx, name, body);
 
             if (uploadId == null || uploadId.isEmpty()) {
                 throw new IOException("Failed to upload file");
             }
 
-            Log.i(TAG, "[" + file.getName() + "] Upload successful. ID: " + uploadId);
+            checkpoint.save(uploadId, UPLOAD_TTL_MS);
+            Log.i(TAG, "[" + name + "] Upload successful. ID: " + uploadId);
+        }
 
-            // Step 2: Call workflow
-            Log.i(TAG, "[" + file.getName() + "] Step 2/2: Running phishing detection workflow...");
-            JSONObject response = callWorkflow(uploadId);
+        // Step 2: Call workflow
+        Log.i(TAG, "[" + name + "] Step 2/2: Running phishing detection workflow...");
+        VoicePhishingResult result;
+        try {
+            JSONObject response = callWorkflow(ctx, name, uploadId);
 
             if (response == null) {
                 throw new IOException("Failed to call workflow");
             }
 
             // Step 3: Parse result
-            VoicePhishingResult result = parseResult(file.getName(), uploadId, response,
+            result = parseResult(name, uploadId, response,
                     System.currentTimeMillis() - startTime);
+        } catch (IOException e) {
+            // A reused upload that Dify no longer has: upload again on the next attempt
+            if (reused && UploadRunPipeline.isFileNotReady(e.getMessage())) {
+                Log.w(TAG, "[" + name + "] Upload " + uploadId + " is gone, will re-upload");
+                checkpoint.invalidate();
+            }
+            throw e;
+        }
 
-            Log.i(TAG, "[" + file.getName() + "] ✅ Detection complete: " + result);
+        Log.i(TAG, "[" + name + "] ✅ Detection complete: " + result);
+        // notifyBackend(result);  // Disabled: No local backend server, data flows through ZoomCollector pipeline
+        return result;
+    }
 
-            future.complete(result);
-            // notifyBackend(result);  // Disabled: No local backend server, data flows through ZoomCollector pipeline
+    /**
+     * Total bytes sent to the upload endpoint
+     */
+    public long bytesUploaded() {
+        return bytesUploaded.get();
+    }
 
-        } catch (Exception ex) {
-            if (attempt < MAX_RETRY) {
-                long backoff = (long) (BASE_BACKOFF_MS * Math.pow(2, attempt - 1));
-                Log.w(TAG, "[" + file.getName() + "] Attempt " + attempt + " failed, retrying in " + backoff + "ms: " + ex.getMessage());
-                scheduler.schedule(
-                        () -> detectWithRetry(file, attempt + 1, future),
-                        backoff, TimeUnit.MILLISECONDS);
-            } else {
-                Log.e(TAG, "[" + file.getName() + "] Detection failed after " + MAX_RETRY + " attempts", ex);
-                future.completeExceptionally(ex);
-            }
-        }
+    /**
+     * Executor counters (queued, active, retries, timeouts, dropped)
+     */
+    public DetectionExecutor.Stats executorStats() {
+        return executor.stats();
+    }
+
+    /**
+     * Per-class queue depth, shed count and wait histogram of the Dify scheduler (shared by all instances)
+     */
+    public DetectionScheduler.Stats schedulerStats() {
+        return scheduler.stats();
+    }
+
+    /**
+     * Adaptive limit and circuit breaker state of the Dify backend (shared by all instances)
+     */
+    public BackendGuard.Stats backendStats() {
+        return guard.stats();
     }
 
     /**
@@ -213,52 +469,29 @@ public class DifyVoiceDetector implements Closeable {
      * 1. Upload file → get upload_file_id
      * 2. Call workflow with upload_file_id → get detection result
      *
-     * @param file Audio file to upload
+     * The body is streamed into the multipart request (from the file, or as WAV
+     * generated on the fly from PCM), so it can be re-sent on retry.
+     *
+     * @param ctx Task context; the call is cancelled when the task times out
+     * @param fileName File name reported to Dify
+     * @param body Audio content to upload
      * @return Upload ID string, or null if upload failed
      * @throws IOException if network error occurs
      */
-    private String uploadFile(File file) throws IOException {
-        // Determine MIME type (expanded to match reference implementation)
-        String mimeType = "audio/wav"; // Default
-        String extension = getFileExtension(file.getName()).toLowerCase();
-        switch (extension) {
-            case "mp3":
-                mimeType = "audio/mpeg";
-                break;
-            case "wav":
-                mimeType = "audio/wav";
-                break;
-            case "m4a":
-                mimeType = "audio/mp4";
-                break;
-            case "ogg":
-                mimeType = "audio/ogg";
-                break;
-            case "txt":
-                mimeType = "text/plain";
-                break;
-            case "eml":
-                mimeType = "message/rfc822";
-                break;
-            default:
-                mimeType = "application/octet-stream";
-                break;
-        }
-
+    private String uploadFile(DetectionExecutor.Context ctx, String fileName, RequestBody body) throws IOException {
         RequestBody requestBody = new MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
                 .addFormDataPart("user", USER_EMAIL)
-                .addFormDataPart("file", file.getName(),
-                        RequestBody.create(file, MediaType.parse(mimeType)))
+                .addFormDataPart("file", fileName, body)
                 .build();
 
         Request request = new Request.Builder()
-                .url(UPLOAD_URL)
+                .url(uploadUrl)
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .post(requestBody)
                 .build();
 
-        try (Response response = httpClient.newCall(request).execute()) {
+        try (Response response = ctx.execute(httpClient.newCall(request))) {
             if (!response.isSuccessful()) {
                 String errorBody = response.body() != null ? response.body().string() : "";
                 throw new IOException("Upload failed: HTTP " + response.code() + " - " + errorBody);
@@ -277,6 +510,9 @@ public class DifyVoiceDetector implements Closeable {
      *
      * This is Step 2 of the two-step Dify workflow.
      * Calls the phishing detection workflow using the file ID from Step 1.
+     * The workflow runs in streaming mode: the verdict is reported to the
+     * {@link ProvisionalListener} as soon as the LLM has written it, and the
+     * finished event is returned in the same shape as a blocking response.
      *
      * Request format:
      * {
@@ -287,17 +523,18 @@ public class DifyVoiceDetector implements Closeable {
      *       "type": "audio"
      *     }
      *   },
-     *   "response_mode": "blocking",
+     *   "response_mode": "streaming",
      *   "user": "{email}"
      * }
      *
+     * @param ctx Task context; the call is cancelled when the task times out
+     * @param fileName File name reported to the provisional listener
      * @param uploadId The file ID returned from uploadFile()
      * @return JSONObject with workflow response
      * @throws IOException if network error or workflow fails
      */
-    private JSONObject callWorkflow(String uploadId) throws IOException {
+    private JSONObject callWorkflow(DetectionExecutor.Context ctx, String fileName, String uploadId) throws IOException {
         try {
-            JSONObject payload = new JSONObject();
             JSONObject inputs = new JSONObject();
             JSONObject inputVoice = new JSONObject();
 
@@ -306,29 +543,26 @@ public class DifyVoiceDetector implements Closeable {
             inputVoice.put("type", "audio");
 
             inputs.put("InputVoice", inputVoice);
-            payload.put("inputs", inputs);
-            payload.put("response_mode", "blocking");
-            payload.put("user", USER_EMAIL);
-
-            RequestBody requestBody = RequestBody.create(
-                    payload.toString(),
-                    MediaType.parse("application/json"));
-
-            Request request = new Request.Builder()
-                    .url(WORKFLOW_URL)
-                    .addHeader("Content-Type", "application/json")
-                    .addHeader("Authorization", "Bearer " + apiKey)
-                    .post(requestBody)
-                    .build();
 
-            try (Response response = httpClient.newCall(request).execute()) {
+            Request request = DifyWorkflowStream.newRequest(workflowUrl, apiKey, inputs, USER_EMAIL);
+            DifyWorkflowStream stream = new DifyWorkflowStream(provisional -> {
+                ProvisionalListener listener = provisionalListener;
+                double confidence = provisional.getConfidence() != null ? provisional.getConfidence() : -1.0;
+                String verdict = normalizeVerdict(fileName, provisional.getVerdict().toUpperCase(), confidence);
+                Log.i(TAG, "[" + fileName + "] Provisional verdict after " + provisional.getElapsedMs() + "ms: " +
+                        verdict + " (confidence=" + confidence + ")");
+                if (listener != null) {
+                    listener.onProvisionalVerdict(fileName, verdict, confidence, provisional.getElapsedMs());
+                }
+            });
+
+            try (Response response = ctx.execute(httpClient.newCall(request))) {
                 if (!response.isSuccessful()) {
                     String errorBody = response.body() != null ? response.body().string() : "";
                     throw new IOException("Workflow failed: HTTP " + response.code() + " - " + errorBody);
                 }
 
-                String responseBody = response.body() != null ? response.body().string() : "";
-                return new JSONObject(responseBody);
+                return stream.read(response);
             }
         } catch (JSONException e) {
             throw new IOException("Failed to build workflow request", e);
@@ -513,25 +747,7 @@ public class DifyVoiceDetector implements Closeable {
                 Log.d(TAG, "[" + fileName + "] No evidence array found");
             }
 
-            // Normalize verdict (case-insensitive matching, expanded from reference implementation)
-            String normalizedVerdict;
-            if (verdictUpper.contains("PHISHING") || verdictUpper.contains("MALICIOUS") ||
-                    verdictUpper.contains("SUSPICIOUS") || verdictUpper.contains("FRAUD") ||
-                    verdictUpper.contains("SCAM") || verdictUpper.contains("THREAT")) {
-                normalizedVerdict = "PHISHING";
-                Log.i(TAG, "[" + fileName + "] Normalized verdict: PHISHING (matched: " + verdictUpper + ")");
-            } else if (verdictUpper.contains("SAFE") || verdictUpper.contains("LEGITIMATE") ||
-                    verdictUpper.contains("BENIGN") || verdictUpper.contains("CLEAN") ||
-                    verdictUpper.contains("NORMAL") || verdictUpper.contains("SPAM")) {
-                // Note: SPAM is treated as SAFE (not phishing) per reference implementation
-                normalizedVerdict = "SAFE";
-                Log.i(TAG, "[" + fileName + "] Normalized verdict: SAFE (matched: " + verdictUpper + ")");
-            } else {
-                // Use confidence as fallback (threshold: 0.5)
-                normalizedVerdict = confidence >= 0.5 ? "PHISHING" : "SAFE";
-                Log.w(TAG, "[" + fileName + "] Could not match verdict '" + verdictUpper +
-                        "', using confidence fallback: " + normalizedVerdict + " (confidence=" + confidence + ")");
-            }
+            String normalizedVerdict = normalizeVerdict(fileName, verdictUpper, confidence);
 
             VoicePhishingResult result = new VoicePhishingResult(
                     fileName, normalizedVerdict, confidence, reasons, evidence, uploadId, processingTimeMs);
@@ -548,30 +764,26 @@ public class DifyVoiceDetector implements Closeable {
     }
 
     /**
-     * Timeout wrapper
+     * Normalize verdict (case-insensitive matching, expanded from reference implementation)
      */
-    private Runnable wrapWithTimeout(Runnable task, CompletableFuture<VoicePhishingResult> future, String tag) {
-        return () -> {
-            var single = Executors.newSingleThreadExecutor(r -> {
-                Thread t = new Thread(r, "Dify-Single");
-                t.setDaemon(true);
-                return t;
-            });
-            try {
-                var taskFuture = single.submit(task);
-                try {
-                    taskFuture.get(TASK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                } catch (TimeoutException te) {
-                    taskFuture.cancel(true);
-                    future.completeExceptionally(te);
-                    Log.e(TAG, "Task timeout: " + tag, te);
-                }
-            } catch (Exception e) {
-                future.completeExceptionally(e);
-            } finally {
-                single.shutdownNow();
-            }
-        };
+    private static String normalizeVerdict(String fileName, String verdictUpper, double confidence) {
+        if (verdictUpper.contains("PHISHING") || verdictUpper.contains("MALICIOUS") ||
+                verdictUpper.contains("SUSPICIOUS") || verdictUpper.contains("FRAUD") ||
+                verdictUpper.contains("SCAM") || verdictUpper.contains("THREAT")) {
+            Log.i(TAG, "[" + fileName + "] Normalized verdict: PHISHING (matched: " + verdictUpper + ")");
+            return "PHISHING";
+        } else if (verdictUpper.contains("SAFE") || verdictUpper.contains("LEGITIMATE") ||
+                verdictUpper.contains("BENIGN") || verdictUpper.contains("CLEAN") ||
+                verdictUpper.contains("NORMAL") || verdictUpper.contains("SPAM")) {
+            // Note: SPAM is treated as SAFE (not phishing) per reference implementation
+            Log.i(TAG, "[" + fileName + "] Normalized verdict: SAFE (matched: " + verdictUpper + ")");
+            return "SAFE";
+        }
+        // Use confidence as fallback (threshold: 0.5)
+        String normalizedVerdict = confidence >= 0.5 ? "PHISHING" : "SAFE";
+        Log.w(TAG, "[" + fileName + "] Could not match verdict '" + verdictUpper +
+                "', using confidence fallback: " + normalizedVerdict + " (confidence=" + confidence + ")");
+        return normalizedVerdict;
     }
 
     /**
@@ -618,6 +830,38 @@ public class DifyVoiceDetector implements Closeable {
         }
     }
 
+    /**
+     * Get MIME type (expanded to match reference implementation)
+     */
+    private String getMimeType(String fileName) {
+        switch (getFileExtension(fileName).toLowerCase()) {
+            case "mp3":
+                return "audio/mpeg";
+            case "wav":
+                return "audio/wav";
+            case "m4a":
+                return "audio/mp4";
+            case "ogg":
+                return "audio/ogg";
+            case "flac":
+                return "audio/flac";
+            case "txt":
+                return "text/plain";
+            case "eml":
+                return "message/rfc822";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    /**
+     * Get file name without extension
+     */
+    private String stripExtension(String fileName) {
+        int lastDot = fileName.lastIndexOf('.');
+        return lastDot > 0 ? fileName.substring(0, lastDot) : fileName;
+    }
+
     /**
      * Get file extension
      */
@@ -632,7 +876,6 @@ public class DifyVoiceDetector implements Closeable {
 
     @Override
     public void close() {
-        exec.shutdownNow();
-        scheduler.shutdownNow();
+        executor.close();
     }
 }
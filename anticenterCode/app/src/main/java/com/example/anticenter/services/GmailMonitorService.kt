@@ -149,16 +149,16 @@ class GmailMonitorService : Service() {
             } else {
                 updateNotification("Found ${messages.size} new email(s), processing...")
                 Log.i(TAG, "Found ${messages.size} new message(s).")
-                messages.forEach { messageSummary ->
+                val fullMessages = messages.mapNotNull { messageSummary ->
                     try {
-                        val fullMessage = gmailService?.users()?.messages()?.get("me", messageSummary.id)?.execute()
-                        if (fullMessage != null) {
-                            emailCollector.processRetrievedEmail(fullMessage)
-                        }
+                        gmailService?.users()?.messages()?.get("me", messageSummary.id)?.execute()
                     } catch (e: Exception) {
                         Log.e(TAG, "Error fetching full message ${messageSummary.id}.", e)
+                        null
                     }
                 }
+                // Classified together so a burst doesn't wait on one LLM call after another
+                emailCollector.processRetrievedEmails(fullMessages)
             }
             lastQueryTimestampMs = System.currentTimeMillis()
             getSharedPreferences("GmailMonitorPrefs", MODE_PRIVATE).edit()
@@ -18,15 +18,30 @@ import android.util.Log
 import androidx.annotation.RequiresPermission
 import androidx.core.app.NotificationCompat
 import kotlinx.coroutines.*
+import kotlinx.coroutines.future.await
 import okhttp3.*
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.RequestBody.Companion.asRequestBody
 import org.json.JSONObject
 import java.io.*
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.RejectedExecutionException
 import java.util.concurrent.atomic.AtomicBoolean
 import com.example.anticenter.BuildConfig
 import com.example.anticenter.analyzers.FileTestResult
+import com.example.anticenter.analyzers.getOrUpload
+import com.example.anticenter.audio.AudioFingerprint
+import com.example.anticenter.audio.AudioCodec
+import com.example.anticenter.audio.OverlapResultCache
+import com.example.anticenter.audio.SlidingWindowScheduler
+import com.example.anticenter.audio.SpeechGate
+import com.example.anticenter.database.DetectionCacheStore
+import com.example.anticenter.network.AudioRequestBodies
+import com.example.anticenter.network.BackendGuard
+import com.example.anticenter.network.DifyWorkflowStream
+import com.example.anticenter.network.HedgedCall
+import com.example.anticenter.network.HttpClients
+import com.example.anticenter.network.UploadRunPipeline
+import com.example.anticenter.network.UriRequestBody
 
 // ==================== Data Models ====================
 
@@ -45,18 +60,32 @@ data class PhishingMetrics(
 
 // ==================== File Upload Manager ====================
 
+/**
+ * @param resultCache Content-hash cache; a window whose audio was already analyzed is not uploaded again
+ */
 class IntegratedFileUploadManager(
     private val context: Context,
-    private val apiKey: String
+    private val apiKey: String,
+    private val resultCache: DetectionResultCache? = null
 ) {
     companion object {
         private const val TAG = "FileUploadManager"
+
+        // Upload → run state machine; phase histograms cover every window of every call
+        val pipeline = UploadRunPipeline("CallRecord")
+
+        // Dify slots shared with the Zoom detectors; live-call windows are served first
+        private val scheduler = DetectionScheduler.forBackend("dify")
+
+        // Adaptive limit and circuit breaker shared with every other Dify caller
+        private val guard = BackendGuard.forBackend("dify", DifyVoiceDetector.BACKEND_MAX_CONCURRENCY)
+
+        // Re-sends a workflow run stuck in the slow tail; latency samples shared with FileUploadManager
+        private val workflowHedge = HedgedCall.forEndpoint("dify-workflow")
     }
 
-    private val client = OkHttpClient.Builder()
-        .connectTimeout(60, TimeUnit.SECONDS)
-        .readTimeout(60, TimeUnit.SECONDS)
-        .writeTimeout(60, TimeUnit.SECONDS)
+    private val client = HttpClients.client(HttpClients.Profile.UPLOAD).newBuilder()
+        .addInterceptor(guard.interceptor)
         .build()
 
     private val uploadUrl = "https://api.dify.ai/v1/files/upload"
@@ -71,29 +100,86 @@ class IntegratedFileUploadManager(
         fileName: String,
         groundTruth: String,
         onProgress: ((String) -> Unit)? = null
+    ): FileTestResult? {
+        val body = UriRequestBody(context.contentResolver, uri, mimeTypeOf(fileName).toMediaType())
+        return uploadAndTestBody(body, fileName, groundTruth, onProgress = onProgress)
+    }
+
+    /**
+     * Upload a streamed request body (e.g. [WavRequestBody] over a PCM chunk) and test it for phishing
+     *
+     * Returns null without uploading if the window is still queued for Dify (or Dify's circuit is
+     * still open) when its [DetectionScheduler.Priority.LIVE_CALL] soft deadline passes; the next
+     * window covers the same speech.
+     *
+     * @param contentHash Audio fingerprint of the body ([com.example.anticenter.audio.AudioFingerprint]);
+     *        with a result cache, audio that was already analyzed returns the cached verdict without uploading
+     * @param onProvisional Called with (decision, confidence) as soon as the LLM has written its
+     *        verdict, before reasons and evidence; the returned result follows when the workflow finishes.
+     *        Not called for cached results
+     */
+    suspend fun uploadAndTestBody(
+        body: RequestBody,
+        fileName: String,
+        groundTruth: String,
+        contentHash: Long? = null,
+        onProgress: ((String) -> Unit)? = null,
+        onProvisional: ((decision: String, confidence: Double) -> Unit)? = null
+    ): FileTestResult? {
+        val cache = resultCache
+        if (cache == null || contentHash == null) {
+            return uploadAndTest(body, fileName, groundTruth, onProgress, onProvisional)
+        }
+        return cache.getOrUpload(contentHash, fileName, maxOf(0L, body.contentLength())) {
+            uploadAndTest(body, fileName, groundTruth, onProgress, onProvisional)
+        }
+    }
+
+    private suspend fun uploadAndTest(
+        body: RequestBody,
+        fileName: String,
+        groundTruth: String,
+        onProgress: ((String) -> Unit)?,
+        onProvisional: ((decision: String, confidence: Double) -> Unit)?
     ): FileTestResult? = withContext(Dispatchers.IO) {
 
         Log.d(TAG, "Starting upload and test for: $fileName")
         onProgress?.invoke("Uploading $fileName...")
 
-        // Step 1: Upload file
-        val uploadStartTime = System.currentTimeMillis()
-        val uploadId = uploadFile(uri, fileName, onProgress)
-        val uploadTime = (System.currentTimeMillis() - uploadStartTime) / 1000.0
+        // Step 1 + 2: Upload, then test immediately; retried only while the file is not ready
+        val priority = DetectionScheduler.Priority.LIVE_CALL
+        val dueAt = System.currentTimeMillis() + priority.defaultSoftDeadlineMs
+        val outcome = try {
+            scheduler.withSlot(fileName, priority) {
+                guard.withPermit(dueAt - System.currentTimeMillis(), priority.ordinal, dueAt) {
+                    pipeline.execute(
+                        tag = fileName,
+                        upload = { uploadBody(body, fileName, onProgress) },
+                        run = { uploadId ->
+                            callPhishingApiWithFile(uploadId, onProgress, onProvisional).takeIf { it.first != null }
+                        },
+                        onState = { state ->
+                            if (state == UploadRunPipeline.State.RUNNING) onProgress?.invoke("File uploaded. Testing for phishing...")
+                        }
+                    )
+                }
+            }
+        } catch (e: RejectedExecutionException) {
+            Log.w(TAG, "Skipped $fileName: ${e.message}")
+            onProgress?.invoke("Skipped $fileName: detection queue is behind")
+            return@withContext null
+        }
+        val uploadTime = outcome.uploadMs / 1000.0
 
-        if (uploadId == null) {
+        if (outcome.uploadId == null) {
             Log.e(TAG, "Upload failed for $fileName")
             onProgress?.invoke("Failed to upload $fileName")
             return@withContext null
         }
 
-        Log.d(TAG, "File uploaded successfully. ID: $uploadId")
-        onProgress?.invoke("File uploaded. Testing for phishing...")
-
-        // Step 2: Test the uploaded file
-        val testStartTime = System.currentTimeMillis()
-        val (response, testTime) = callPhishingApiWithFile(uploadId, onProgress)
+        Log.d(TAG, "File uploaded successfully. ID: ${outcome.uploadId}, ready after ${outcome.readyWaitMs}ms")
 
+        val (response, testTime) = outcome.result ?: Pair(null, 0.0)
         if (response == null) {
             Log.e(TAG, "API call failed for $fileName")
             onProgress?.invoke("Failed to test $fileName")
@@ -133,47 +219,24 @@ class IntegratedFileUploadManager(
     }
 
     /**
-     * Upload a file to Dify and return the upload ID
+     * Upload a request body to Dify and return the upload ID
+     *
+     * The body streams straight into the multipart request, no temp copy in cacheDir.
      */
-    private suspend fun uploadFile(
-        uri: Uri,
+    private suspend fun uploadBody(
+        body: RequestBody,
         fileName: String,
         onProgress: ((String) -> Unit)? = null
     ): String? = withContext(Dispatchers.IO) {
 
         try {
-            Log.d(TAG, "Copying file from URI to temp file...")
-
-            // Copy file from URI to temp file
-            val tempFile = File(context.cacheDir, fileName)
-            context.contentResolver.openInputStream(uri)?.use { input ->
-                FileOutputStream(tempFile).use { output ->
-                    input.copyTo(output)
-                }
-            }
-
-            Log.d(TAG, "File copied. Size: ${tempFile.length()} bytes")
-
-            // Determine MIME type
-            val mimeType = when (tempFile.extension.lowercase()) {
-                "mp3" -> "audio/mpeg"
-                "wav" -> "audio/wav"
-                "txt" -> "text/plain"
-                "eml" -> "message/rfc822"
-                else -> "application/octet-stream"
-            }
-
-            Log.d(TAG, "MIME type: $mimeType")
+            Log.d(TAG, "Uploading $fileName (${body.contentLength()} bytes, ${body.contentType()})")
 
             // Build multipart request
             val requestBody = MultipartBody.Builder()
                 .setType(MultipartBody.FORM)
                 .addFormDataPart("user", userEmail)
-                .addFormDataPart(
-                    "file",
-                    fileName,
-                    tempFile.asRequestBody(mimeType.toMediaType())
-                )
+                .addFormDataPart("file", fileName, body)
                 .build()
 
             val request = Request.Builder()
@@ -191,7 +254,6 @@ class IntegratedFileUploadManager(
             if (response.isSuccessful) {
                 val responseBody = response.body?.string()
                 response.close()
-                tempFile.delete()
 
                 Log.d(TAG, "Upload response: $responseBody")
 
@@ -210,7 +272,6 @@ class IntegratedFileUploadManager(
                 Log.e(TAG, "Upload failed: HTTP ${response.code} - $errorBody")
                 onProgress?.invoke("  ✗ Upload failed: HTTP ${response.code}")
                 response.close()
-                tempFile.delete()
             }
 
         } catch (e: IOException) {
@@ -226,64 +287,69 @@ class IntegratedFileUploadManager(
 
     /**
      * Call phishing detection API with uploaded file ID
+     *
+     * Runs the workflow in streaming mode; the finished event is returned in the
+     * same shape as a blocking response, so [parsePhishingResponse] is unchanged.
+     * A run still going past the hedge threshold is sent a second time and the first
+     * to finish wins; only the first provisional verdict of either run is reported.
+     *
+     * @throws UploadRunPipeline.FileNotReadyException if Dify has not finished processing the upload yet
      */
     private suspend fun callPhishingApiWithFile(
         uploadId: String,
-        onProgress: ((String) -> Unit)? = null
+        onProgress: ((String) -> Unit)? = null,
+        onProvisional: ((decision: String, confidence: Double) -> Unit)? = null
     ): Pair<JSONObject?, Double> = withContext(Dispatchers.IO) {
 
         try {
-            val payload = JSONObject().apply {
-                put("inputs", JSONObject().apply {
-                    put("InputVoice", JSONObject().apply {
-                        put("transfer_method", "local_file")
-                        put("upload_file_id", uploadId)
-                        put("type", "audio")
-                    })
+            val inputs = JSONObject().apply {
+                put("InputVoice", JSONObject().apply {
+                    put("transfer_method", "local_file")
+                    put("upload_file_id", uploadId)
+                    put("type", "audio")
                 })
-                put("response_mode", "blocking")
-                put("user", userEmail)
             }
 
-            Log.d(TAG, "API payload: $payload")
-
-            val requestBody = RequestBody.create(
-                "application/json".toMediaType(),
-                payload.toString()
-            )
+            Log.d(TAG, "API inputs: $inputs")
 
-            val request = Request.Builder()
-                .url(workflowUrl)
-                .addHeader("Content-Type", "application/json")
-                .addHeader("Authorization", "Bearer $apiKey")
-                .post(requestBody)
-                .build()
+            val request = DifyWorkflowStream.newRequest(workflowUrl, apiKey, inputs, userEmail)
+            val provisionalSent = AtomicBoolean(false)
 
             Log.d(TAG, "Sending API request to: $workflowUrl")
 
             val startTime = System.currentTimeMillis()
-            val response = client.newCall(request).execute()
+            val jsonResponse = workflowHedge.submit(client, request) { response ->
+                Log.d(TAG, "API response code: ${response.code}")
+                if (!response.isSuccessful) {
+                    val errorBody = response.body?.string()
+                    if (UploadRunPipeline.isFileNotReady(response.code, errorBody)) {
+                        throw UploadRunPipeline.FileNotReadyException("HTTP ${response.code}: $errorBody")
+                    }
+                    Log.e(TAG, "API error: HTTP ${response.code} - $errorBody")
+                    throw IOException("HTTP ${response.code}")
+                }
+                // One stream per run: each run parses its own events
+                DifyWorkflowStream { provisional ->
+                    if (provisionalSent.compareAndSet(false, true)) {
+                        val confidence = provisional.confidence ?: 0.0
+                        val decision = decisionOf(provisional.verdict.uppercase(), confidence)
+                        Log.d(TAG, "Provisional decision after ${provisional.elapsedMs}ms: $decision ($confidence)")
+                        onProvisional?.invoke(decision, confidence)
+                    }
+                }.read(response)
+            }.await()
             val processingTime = (System.currentTimeMillis() - startTime) / 1000.0
+            UploadRunPipeline.checkWorkflowReady(jsonResponse)
 
-            Log.d(TAG, "API response code: ${response.code}")
-
-            if (response.isSuccessful) {
-                val responseBody = response.body?.string()
-                response.close()
-
-                Log.d(TAG, "API response: ${responseBody?.take(500)}")
-
-                if (!responseBody.isNullOrEmpty()) {
-                    val jsonResponse = JSONObject(responseBody)
-                    return@withContext Pair(jsonResponse, processingTime)
-                }
-            } else {
-                val errorBody = response.body?.string()
-                Log.e(TAG, "API error: HTTP ${response.code} - $errorBody")
-                onProgress?.invoke("  ✗ API error: HTTP ${response.code}")
-                response.close()
-            }
+            Log.d(TAG, "API response: ${jsonResponse.toString().take(500)}")
+            return@withContext Pair(jsonResponse, processingTime)
+        } catch (e: UploadRunPipeline.FileNotReadyException) {
+            throw e
         } catch (e: IOException) {
+            // Not-ready errors can also arrive as an error event in the stream
+            if (UploadRunPipeline.isFileNotReady(e.message)) {
+                throw UploadRunPipeline.FileNotReadyException(e.message ?: "file not ready")
+            }
             val processingTime = 0.0
             Log.e(TAG, "API IO error", e)
             onProgress?.invoke("  ✗ Network error: ${e.message}")
@@ -294,8 +360,24 @@ class IntegratedFileUploadManager(
             onProgress?.invoke("  ✗ Unexpected error: ${e.message}")
             return@withContext Pair(null, processingTime)
         }
+    }
+
+    private fun decisionOf(verdict: String, confidence: Double): String = when (verdict) {
+        "PHISHING", "MALICIOUS", "SUSPICIOUS" -> "phishing"
+        "SAFE", "LEGITIMATE", "BENIGN" -> "safe"
+        else -> {
+            // Use confidence as fallback
+            if (confidence >= 0.5) "phishing" else "safe"
+        }
+    }
 
-        return@withContext Pair(null, 0.0)
+    private fun mimeTypeOf(fileName: String): String = when (fileName.substringAfterLast('.', "").lowercase()) {
+        "mp3" -> "audio/mpeg"
+        "wav" -> "audio/wav"
+        "flac" -> "audio/flac"
+        "txt" -> "text/plain"
+        "eml" -> "message/rfc822"
+        else -> "application/octet-stream"
     }
 
     /**
@@ -366,14 +448,7 @@ class IntegratedFileUploadManager(
             val confidence = resultJson.optDouble("confidence", 0.0)
 
             // Determine decision
-            val decision = when (verdict) {
-                "PHISHING", "MALICIOUS", "SUSPICIOUS" -> "phishing"
-                "SAFE", "LEGITIMATE", "BENIGN" -> "safe"
-                else -> {
-                    // Use confidence as fallback
-                    if (confidence >= 0.5) "phishing" else "safe"
-                }
-            }
+            val decision = decisionOf(verdict, confidence)
 
             // Build explanation
             val reasons = resultJson.optJSONArray("reasons")
@@ -444,7 +519,10 @@ class CallRecordService : Service() {
         private const val AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT
         private const val BYTES_PER_SAMPLE = 2
         private const val CHANNELS = 1
-        private const val CHUNK_SECONDS = 20
+
+        // Dify gets plain 16-bit PCM WAV. IMA ADPCM (~1/4 of PCM) is lossy and not yet confirmed
+        // to decode in the workflow's transcription step, so it stays opt-in per detector
+        private val UPLOAD_CODEC = AudioCodec.WAV
 
         // API key - 从 BuildConfig 读取（不能用 const，因为不是编译时常量）
         private val DIFY_API_KEY = BuildConfig.DIFY_API_KEY
@@ -458,7 +536,16 @@ class CallRecordService : Service() {
     private val recording = AtomicBoolean(false)
 
     private lateinit var fileUploadManager: IntegratedFileUploadManager
-    private var recordingCount = 0
+    private var resultCache: DetectionResultCache? = null
+    private var sessionStartMillis = 0L
+
+    // Overlapping windows over the live audio (8s/4s for the first minute, widening later)
+    // and verdicts shared between overlapping windows
+    private val windowScheduler = SlidingWindowScheduler(SAMPLE_RATE)
+    private val windowResults = OverlapResultCache<FileTestResult>()
+
+    // Local VAD gate: chunks without speech are never uploaded
+    private val speechGate = SpeechGate("CallRecord")
 
     // Statistics
     private var totalChunksProcessed = 0
@@ -469,8 +556,16 @@ class CallRecordService : Service() {
         super.onCreate()
         Log.d(TAG, "Service created")
 
-        // Initialize FileUploadManager with API key
-        fileUploadManager = IntegratedFileUploadManager(applicationContext, DIFY_API_KEY)
+        // Initialize FileUploadManager with API key; repeated audio (IVR prompts, hold messages)
+        // reuses the verdict cached under its content hash
+        val cache = try {
+            DetectionResultCache(DetectionCacheStore(applicationContext))
+        } catch (e: Exception) {
+            Log.w(TAG, "Detection cache database unavailable, using memory: ${e.message}")
+            DetectionResultCache(DetectionResultCache.MemoryStore())
+        }
+        resultCache = cache
+        fileUploadManager = IntegratedFileUploadManager(applicationContext, DIFY_API_KEY, cache)
 
         startInForeground()
         startRecording()
@@ -581,6 +676,7 @@ class CallRecordService : Service() {
 
             recorder?.startRecording()
             recording.set(true)
+            sessionStartMillis = System.currentTimeMillis()
 
             Log.d(TAG, "Recording started with buffer size: $bufferSize")
 
@@ -595,14 +691,14 @@ class CallRecordService : Service() {
     }
 
     /**
-     * Main recording loop - reads audio data and splits into chunks
+     * Main recording loop - reads audio data and feeds the sliding window scheduler
+     *
+     * Windows are cut from an in-memory buffer; no audio is written to disk.
      */
     private suspend fun recordLoop(bufferSize: Int) {
         val buffer = ByteArray(bufferSize)
-        var chunkStartTime = System.currentTimeMillis()
-        var currentOutputStream: FileOutputStream? = null
-        var currentRawFile: File? = null
-        var bytesWritten = 0L
+        windowScheduler.reset()
+        windowResults.clear()
 
         try {
             while (recording.get()) {
@@ -610,37 +706,8 @@ class CallRecordService : Service() {
 
                 when {
                     bytesRead > 0 -> {
-                        val now = System.currentTimeMillis()
-
-                        // Create new file if needed
-                        if (currentOutputStream == null) {
-                            val file = createNewPcmFile()
-                            currentRawFile = file
-                            currentOutputStream = FileOutputStream(file)
-                            chunkStartTime = now
-                            bytesWritten = 0
-                            Log.d(TAG, "Started new chunk: ${file.name}")
-                        }
-
-                        // Write audio data
-                        currentOutputStream!!.write(buffer, 0, bytesRead)
-                        bytesWritten += bytesRead
-
-                        // Check if chunk duration reached
-                        val elapsed = now - chunkStartTime
-                        if (elapsed >= CHUNK_SECONDS * 1000L) {
-                            Log.d(TAG, "Chunk complete: ${bytesWritten} bytes, ${elapsed}ms")
-
-                            // Close current file
-                            currentOutputStream?.flush()
-                            currentOutputStream?.close()
-                            currentOutputStream = null
-
-                            // Process the completed chunk
-                            currentRawFile?.let { file ->
-                                processAndUploadChunk(file)
-                            }
-                            currentRawFile = null
+                        windowScheduler.appendPcm16(buffer, 0, bytesRead) { window ->
+                            processAndUploadWindow(window)
                         }
                     }
                     bytesRead == AudioRecord.ERROR_INVALID_OPERATION -> {
@@ -659,19 +726,9 @@ class CallRecordService : Service() {
         } catch (e: Exception) {
             Log.e(TAG, "Error in record loop", e)
         } finally {
-            // Clean up current recording
-            try {
-                currentOutputStream?.flush()
-                currentOutputStream?.close()
-            } catch (e: Exception) {
-                Log.e(TAG, "Error closing stream", e)
-            }
-
-            // Process final chunk if exists
-            currentRawFile?.let { file ->
-                if (file.exists() && file.length() > 0) {
-                    processAndUploadChunk(file)
-                }
+            // Process the tail that no window has covered yet
+            windowScheduler.flush()?.let { window ->
+                processAndUploadWindow(window)
             }
 
             Log.d(TAG, "Record loop ended")
@@ -700,138 +757,115 @@ class CallRecordService : Service() {
     }
 
     /**
-     * Get directory for storing audio slices
-     */
-    private fun getSlicesDirectory(): File {
-        return File(filesDir, "call_slices").apply {
-            if (!exists()) {
-                mkdirs()
-            }
-        }
-    }
-
-    /**
-     * Create new PCM file for recording
-     */
-    private fun createNewPcmFile(): File {
-        recordingCount++
-        val timestamp = System.currentTimeMillis()
-        return File(getSlicesDirectory(), "call_${timestamp}_${recordingCount}.pcm")
-    }
-
-    /**
-     * Process PCM chunk: convert to WAV and upload
+     * Process an analysis window: gate on new speech, then encode and upload it
+     *
+     * Only the part the previous window did not cover decides whether to upload; if it
+     * has no speech the window is audio that was already analyzed, so the verdict of a
+     * window covering the same samples is reused instead of uploading again. Otherwise
+     * the window is trimmed to its speech span before encoding.
      */
-    private fun processAndUploadChunk(pcmFile: File) {
+    private fun processAndUploadWindow(window: SlidingWindowScheduler.Window) {
         scope.launch {
             try {
-                Log.d(TAG, "Processing chunk: ${pcmFile.name}, size: ${pcmFile.length()}")
-
-                // Convert PCM to WAV
-                val wavFile = File(pcmFile.parentFile, pcmFile.nameWithoutExtension + ".wav")
-                convertPcmToWav(pcmFile, wavFile)
-
-                // Delete PCM file after conversion
-                pcmFile.delete()
-
-                // Wait briefly to ensure file is written
-                delay(200)
+                Log.d(
+                    TAG,
+                    "Processing window #${window.index}: ${window.samples.size / SAMPLE_RATE}s, " +
+                        "${window.overlapSamples / SAMPLE_RATE}s overlap"
+                )
 
-                // Verify WAV file
-                val fileSize = wavFile.length()
-                if (fileSize <= 44) { // WAV header is 44 bytes
-                    Log.w(TAG, "WAV file too small or empty: ${wavFile.name}, size: $fileSize")
-                    wavFile.delete()
+                val decision = speechGate.evaluateWindow(window.samples, window.newOffset)
+                if (!decision.upload) {
+                    val previous = windowResults.reuseFor(window)
+                    if (previous != null) {
+                        val verdict = previous.result?.llmDecision ?: "pending"
+                        Log.i(TAG, "No new speech in window #${window.index}, reusing window #${previous.index} ($verdict)")
+                    } else {
+                        Log.i(TAG, "No speech in window #${window.index}, skipping upload")
+                    }
                     return@launch
                 }
 
-                Log.d(TAG, "WAV file created: ${wavFile.name}, size: $fileSize bytes")
+                // Only the speech span survives; leading/trailing silence is not uploaded
+                val entry = windowResults.submit(window)
+                val count = decision.end - decision.start
+                val body = AudioRequestBodies.fromSamples(
+                    UPLOAD_CODEC, window.samples, decision.start, count, SAMPLE_RATE, CHANNELS
+                )
+                val hash = AudioFingerprint.ofSamples(window.samples, decision.start, count, SAMPLE_RATE, CHANNELS)
 
-                // Upload and test the WAV file
-                uploadAndAnalyzeChunk(wavFile)
+                // Upload and test the window
+                uploadAndAnalyzeWindow(window, entry, body, hash)
 
             } catch (e: Exception) {
-                Log.e(TAG, "Error processing chunk", e)
-            }
-        }
-    }
-
-    /**
-     * Convert PCM to WAV format
-     */
-    private fun convertPcmToWav(pcmFile: File, wavFile: File) {
-        val pcmSize = pcmFile.length().toInt()
-        val totalDataSize = pcmSize + 36
-        val byteRate = SAMPLE_RATE * CHANNELS * BYTES_PER_SAMPLE
-
-        DataOutputStream(BufferedOutputStream(FileOutputStream(wavFile))).use { out ->
-            // RIFF header
-            out.writeBytes("RIFF")
-            out.writeIntLE(totalDataSize)
-            out.writeBytes("WAVE")
-
-            // fmt subchunk
-            out.writeBytes("fmt ")
-            out.writeIntLE(16) // Subchunk size
-            out.writeShortLE(1) // Audio format (PCM)
-            out.writeShortLE(CHANNELS.toShort())
-            out.writeIntLE(SAMPLE_RATE)
-            out.writeIntLE(byteRate)
-            out.writeShortLE((CHANNELS * BYTES_PER_SAMPLE).toShort()) // Block align
-            out.writeShortLE(16) // Bits per sample
-
-            // data subchunk
-            out.writeBytes("data")
-            out.writeIntLE(pcmSize)
-
-            // Copy PCM data
-            FileInputStream(pcmFile).use { input ->
-                input.copyTo(out)
+                Log.e(TAG, "Error processing window", e)
             }
-
-            out.flush()
         }
     }
 
     /**
-     * Upload WAV file and analyze for phishing
+     * Upload an encoded window and analyze for phishing
      */
-    private suspend fun uploadAndAnalyzeChunk(wavFile: File) {
+    private suspend fun uploadAndAnalyzeWindow(
+        window: SlidingWindowScheduler.Window,
+        entry: OverlapResultCache.Entry<FileTestResult>,
+        body: RequestBody,
+        contentHash: Long
+    ) {
+        val fileName = "call_${sessionStartMillis}_w${window.index}.${UPLOAD_CODEC.extension}"
         try {
-            Log.d(TAG, "Uploading and analyzing: ${wavFile.name}")
-            updateNotification("Analyzing chunk ${totalChunksProcessed + 1}...")
+            Log.d(TAG, "Uploading and analyzing: $fileName")
+            updateNotification("Analyzing window ${window.index + 1}...")
 
-            // Create URI from file
-            val uri = Uri.fromFile(wavFile)
+            // Alert raised from the provisional verdict, refreshed with the explanation later
+            var alertId: Int? = null
 
             // Upload and test using FileUploadManager
-            val result = fileUploadManager.uploadAndTestFile(
-                uri = uri,
-                fileName = wavFile.name,
+            val result = fileUploadManager.uploadAndTestBody(
+                body = body,
+                fileName = fileName,
                 groundTruth = "Unknown",
+                contentHash = contentHash,
                 onProgress = { message ->
                     Log.d(TAG, "Upload progress: $message")
+                },
+                onProvisional = { decision, confidence ->
+                    if (decision == "phishing" &&
+                        confidence > PHISHING_CONFIDENCE_THRESHOLD &&
+                        windowResults.markAlert(entry)) {
+                        phishingDetected++
+                        alertId = NOTIFICATION_ID + phishingDetected
+                        showPhishingAlert(
+                            alertId!!, confidence,
+                            "Analyzing the conversation, details will follow.", fileName
+                        )
+                    }
                 }
             )
 
             if (result != null) {
                 totalChunksProcessed++
                 detectionResults.add(result)
+                windowResults.complete(entry, result)
 
-                Log.i(TAG, "Analysis complete for ${wavFile.name}")
+                Log.i(TAG, "Analysis complete for $fileName")
                 Log.i(TAG, "Decision: ${result.llmDecision}")
                 Log.i(TAG, "Confidence: ${String.format("%.2f", result.confidence)}")
                 Log.i(TAG, "Explanation: ${result.llmExplanation}")
 
                 // Update notification with current status
-                val statusText = "Analyzed: $totalChunksProcessed chunks | Phishing: $phishingDetected"
+                val statusText = "Analyzed: $totalChunksProcessed windows | Phishing: $phishingDetected"
                 updateNotification(statusText)
 
-                // Show alert if phishing detected with high confidence
-                if (result.llmDecision.uppercase() == "PHISHING" &&
-                    result.confidence > PHISHING_CONFIDENCE_THRESHOLD) {
+                // Show alert if phishing detected with high confidence,
+                // once per run of overlapping windows; an early alert gets the full explanation
+                val earlyAlert = alertId
+                if (earlyAlert != null) {
+                    showPhishingAlert(earlyAlert, result.confidence, result.llmExplanation, result.fileName)
+                } else if (result.llmDecision.uppercase() == "PHISHING" &&
+                    result.confidence > PHISHING_CONFIDENCE_THRESHOLD &&
+                    windowResults.markAlert(entry)) {
                     phishingDetected++
-                    showPhishingAlert(result)
+                    showPhishingAlert(NOTIFICATION_ID + phishingDetected, result.confidence, result.llmExplanation, result.fileName)
                 }
 
                 // Save results periodically
@@ -839,39 +873,37 @@ class CallRecordService : Service() {
                     saveDetectionResults()
                 }
 
-                // Delete WAV file after successful processing
-                wavFile.delete()
-                Log.d(TAG, "Deleted processed file: ${wavFile.name}")
-
             } else {
-                Log.e(TAG, "Failed to analyze ${wavFile.name}")
-                // Keep file for retry or manual inspection
+                Log.e(TAG, "Failed to analyze $fileName")
             }
 
         } catch (e: Exception) {
-            Log.e(TAG, "Error uploading/analyzing chunk", e)
+            Log.e(TAG, "Error uploading/analyzing window", e)
         }
     }
 
     /**
      * Show alert notification when phishing is detected
+     *
+     * Posting again with the same [notificationId] updates the alert in place.
      */
-    private fun showPhishingAlert(result: FileTestResult) {
+    private fun showPhishingAlert(notificationId: Int, confidence: Double, explanation: String, fileName: String) {
         val notificationManager = getSystemService(NOTIFICATION_SERVICE) as NotificationManager
 
         val alertNotification = NotificationCompat.Builder(this, CHANNEL_ID)
             .setSmallIcon(R.drawable.ic_dialog_alert)
             .setContentTitle("⚠️ Phishing Call Detected!")
-            .setContentText("Confidence: ${String.format("%.0f%%", result.confidence * 100)}")
+            .setContentText("Confidence: ${String.format("%.0f%%", confidence * 100)}")
             .setStyle(NotificationCompat.BigTextStyle()
-                .bigText("${result.llmExplanation}\n\nBe cautious and do not share personal information."))
+                .bigText("$explanation\n\nBe cautious and do not share personal information."))
             .setPriority(NotificationCompat.PRIORITY_HIGH)
+            .setOnlyAlertOnce(true)
             .setAutoCancel(true)
             .build()
 
-        notificationManager.notify(NOTIFICATION_ID + phishingDetected, alertNotification)
+        notificationManager.notify(notificationId, alertNotification)
 
-        Log.w(TAG, "PHISHING ALERT #$phishingDetected: ${result.fileName} - Confidence: ${result.confidence}")
+        Log.w(TAG, "PHISHING ALERT #${notificationId - NOTIFICATION_ID}: $fileName - Confidence: $confidence")
     }
 
     /**
@@ -921,8 +953,14 @@ class CallRecordService : Service() {
         Log.i(TAG, "========================================")
         Log.i(TAG, "CALL RECORDING SESSION STATISTICS")
         Log.i(TAG, "========================================")
-        Log.i(TAG, "Total chunks processed: $totalChunksProcessed")
+        Log.i(TAG, "Total windows processed: $totalChunksProcessed")
+        Log.i(TAG, "Windows reusing an overlapping verdict: ${windowResults.reusedWindows}")
         Log.i(TAG, "Phishing detected: $phishingDetected")
+        Log.i(TAG, "VAD: ${speechGate.summary()}")
+        Log.i(TAG, "Upload/run latency: ${IntegratedFileUploadManager.pipeline.summary()}")
+        HedgedCall.allStats().forEach { Log.i(TAG, "Hedging: $it") }
+        BackendGuard.allStats().forEach { Log.i(TAG, "Backend: $it") }
+        resultCache?.let { Log.i(TAG, "Detection cache: ${it.stats()}") }
 
         if (detectionResults.isNotEmpty()) {
             val avgConfidence = detectionResults.map { it.confidence }.average()
@@ -939,25 +977,6 @@ class CallRecordService : Service() {
 
         Log.i(TAG, "========================================")
     }
-
-    /**
-     * Helper extension functions for writing little-endian values
-     */
-    private fun DataOutputStream.writeIntLE(value: Int) {
-        write(byteArrayOf(
-            (value and 0xFF).toByte(),
-            (value shr 8 and 0xFF).toByte(),
-            (value shr 16 and 0xFF).toByte(),
-            (value shr 24 and 0xFF).toByte()
-        ))
-    }
-
-    private fun DataOutputStream.writeShortLE(value: Short) {
-        write(byteArrayOf(
-            (value.toInt() and 0xFF).toByte(),
-            (value.toInt() shr 8 and 0xFF).toByte()
-        ))
-    }
 }
 
 // ==================== Phishing Analyzer ====================
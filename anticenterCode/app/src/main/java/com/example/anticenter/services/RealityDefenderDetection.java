@@ -5,9 +5,18 @@ import android.util.Log;
 import ai.realitydefender.RealityDefender;
 import ai.realitydefender.exceptions.RealityDefenderException;
 import ai.realitydefender.models.DetectionResult;
+import ai.realitydefender.models.UploadResponse;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.example.anticenter.BuildConfig;
+import com.example.anticenter.audio.AudioFingerprint;
+import com.example.anticenter.network.BackendGuard;
+import com.example.anticenter.network.HttpClients;
+import com.example.anticenter.utils.TimerWheel;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -20,15 +29,12 @@ import okhttp3.Response;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
@@ -37,20 +43,51 @@ import android.content.pm.PackageManager;
 public class RealityDefenderDetection implements Closeable {
 
     // ===== 可调参数 =====
-    private static final int CORE = 2;
-    private static final int MAX = 3;
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int BACKEND_MAX_CONCURRENCY = 6; // 所有 RD 检测器共享的自适应并发上限的最大值
     private static final int QUEUE_CAP = 200;
     private static final int MAX_RETRY = 3;
     private static final long BASE_BACKOFF_MS = 1200;
-    private static final long TASK_TIMEOUT_MS = 4 * 60 * 1000;
+    private static final long TASK_TIMEOUT_MS = 4 * 60 * 1000; // 覆盖所有重试
+    private static final String CACHE_NAME = "rd";
+    private static final String JOURNAL_BACKEND = "rd";
+    private static final long REQUEST_TTL_MS = 60 * 60 * 1000; // 上传后 requestId 在这段时间内可以直接取结果
 
     // ===== 回调你的后端（按需改）=====
     private static final String BACKEND_URL = "https://your.backend.example.com/rd/result";
 
-    // 有界队列 + 最新优先（满了丢最旧）
-    private final LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<>(QUEUE_CAP);
+    // 所有 RD 检测器共享的优先级队列：类别优先、同类截止时间早的先走，超过软截止时间的丢弃
+    private final DetectionScheduler scheduler;
+
+    // 截止时间、重试和后端保护由执行器负责
+    private final DetectionExecutor executor;
+
+    // SDK 不走 Context.execute，看不到状态码：429/5xx 和网络错误才算过载，其它（404、参数错误）不算
+    private final BackendGuard guard = BackendGuard.forBackend("rd", BACKEND_MAX_CONCURRENCY, e -> {
+        if (e instanceof RealityDefenderException) {
+            int status = ((RealityDefenderException) e).getStatusCode();
+            return status == 429 || status >= 500 || e.getCause() instanceof java.io.IOException;
+        }
+        return BackendGuard.DEFAULT_OVERLOAD.test(e);
+    });
+
+    // 只有 SDK 异常值得重试，其它异常（文件读不了之类）直接失败
+    private final DetectionExecutor.RetryPolicy retryPolicy = new DetectionExecutor.RetryPolicy(
+            MAX_RETRY + 1, BASE_BACKOFF_MS, e -> e instanceof RealityDefenderException);
 
     public RealityDefenderDetection(String apiKey) {
+        this(apiKey, DEFAULT_CONCURRENCY);
+    }
+
+    /** @param concurrency 所有 RD 检测器合计同时进行的检测数；只有第一个创建的检测器决定 */
+    public RealityDefenderDetection(String apiKey, int concurrency) {
+        this(apiKey, concurrency, null);
+    }
+
+    /**
+     * @param baseUrl RD API 地址，null 用 SDK 默认的线上地址（压测时指向本地假服务）
+     */
+    public RealityDefenderDetection(String apiKey, int concurrency, String baseUrl) {
         if (apiKey == null || apiKey.isEmpty()) {
             throw new IllegalArgumentException("API key is required");
         }
@@ -61,120 +98,184 @@ public class RealityDefenderDetection implements Closeable {
             android.util.Log.i("RD", "Using API key: " + masked);
         } catch (Exception ignore) {}
 
-        this.rd = ai.realitydefender.RealityDefender.builder()
-                .apiKey(apiKey)
-                .build();
+        RealityDefender.Builder builder = RealityDefender.builder().apiKey(apiKey);
+        if (baseUrl != null) builder.baseUrl(baseUrl);
+        this.rd = builder.build();
+        this.scheduler = DetectionScheduler.forBackend("rd", concurrency);
+        this.executor = new DetectionExecutor("RD", scheduler.getSlots(), QUEUE_CAP, TimerWheel.getShared(),
+                guard, scheduler);
     }
 
-    private final ThreadPoolExecutor exec = new ThreadPoolExecutor(
-            CORE, MAX, 60, TimeUnit.SECONDS, queue,
-            r -> {
-                Thread t = new Thread(r, "RD-Detector");
-                t.setDaemon(true);
-                return t;
-            },
-            (r, e) -> { queue.pollFirst(); e.execute(r); } // 丢最旧再塞新任务
-    );
-
-    private final ScheduledExecutorService scheduler =
-            Executors.newSingleThreadScheduledExecutor(r -> {
-                Thread t = new Thread(r, "RD-Retry");
-                t.setDaemon(true);
-                return t;
-            });
-
     // RD 客户端（照官方样例）
     private final RealityDefender rd;
 
-    // 回调 HTTP 客户端
-    private final OkHttpClient http = new OkHttpClient.Builder()
-            .connectTimeout(20, TimeUnit.SECONDS)
-            .readTimeout(30, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
-            .build();
+    // 回调 HTTP 客户端（共享连接池和调度器）
+    private final OkHttpClient http = HttpClients.client(HttpClients.Profile.CALLBACK);
 
     private final ObjectMapper mapper = new ObjectMapper();
 
+    // 缓存用的序列化器：DetectionResult 里有 LocalDateTime，且 getStatus() 等派生字段反序列化时要忽略
+    private final ObjectMapper cacheMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    // 按内容哈希的结果缓存（可选，null 表示不缓存）
+    private volatile DetectionResultCache resultCache;
+
+    // 断点记录：上传成功后记下 requestId，重试只重新取结果；默认只在内存里
+    private volatile DetectionJournal journal = DetectionJournal.IN_MEMORY;
+
+    // 实际上传的字节数（含失败的上传），用来衡量重试的代价
+    private final AtomicLong bytesUploaded = new AtomicLong();
+
     public RealityDefenderDetection() {
         // 在 Gradle 里注入 BuildConfig.RD_API_KEY（见下）
         String apiKey = BuildConfig.RD_API_KEY;
         this.rd = RealityDefender.builder()
                 .apiKey(apiKey)
                 .build();
+        this.scheduler = DetectionScheduler.forBackend("rd", DEFAULT_CONCURRENCY);
+        this.executor = new DetectionExecutor("RD", scheduler.getSlots(), QUEUE_CAP, TimerWheel.getShared(),
+                guard, scheduler);
+    }
+
+    /** 开启结果缓存：同样内容的文件在 TTL 内直接返回上次的结果，不再上传 */
+    public void setResultCache(DetectionResultCache cache) {
+        this.resultCache = cache;
     }
 
-    /** 非阻塞投递；立即返回 Future */
+    /** 断点落盘：服务重启后可以用 {@link #resumePending()} 继续上次没完成的检测 */
+    public void setJournal(DetectionJournal journal) {
+        this.journal = journal != null ? journal : DetectionJournal.IN_MEMORY;
+    }
+
+    /**
+     * 恢复上次运行没完成的检测；已经拿到 requestId 且没过期的直接取结果，不重新上传
+     *
+     * @return 源文件 → 结果 Future
+     */
+    public Map<File, CompletableFuture<DetectionResult>> resumePending() {
+        Map<File, CompletableFuture<DetectionResult>> resumed = new LinkedHashMap<>();
+        for (DetectionJournal.Checkpoint checkpoint : journal.pending(JOURNAL_BACKEND)) {
+            File file = checkpoint.getSource();
+            Log.i("RD", "Resuming " + file.getName()
+                    + (checkpoint.remoteId() != null ? " from requestId " + checkpoint.remoteId() : " from upload"));
+            resumed.put(file, enqueue(file, DetectionScheduler.Priority.BATCH, checkpoint));
+        }
+        return resumed;
+    }
+
+    /** 非阻塞投递，按 BATCH 类别排队；立即返回 Future */
     public CompletableFuture<DetectionResult> submit(File file) {
+        return submit(file, DetectionScheduler.Priority.BATCH);
+    }
+
+    /** 非阻塞投递；立即返回 Future。priority 决定在共享队列里的类别和软截止时间 */
+    public CompletableFuture<DetectionResult> submit(File file, DetectionScheduler.Priority priority) {
         Objects.requireNonNull(file, "file == null");
-        final CompletableFuture<DetectionResult> f = new CompletableFuture<>();
 
         if (!file.exists() || file.length() == 0L) {
+            final CompletableFuture<DetectionResult> f = new CompletableFuture<>();
             f.completeExceptionally(new IllegalArgumentException("File not found or empty: " + file));
             return f;
         }
 
-        Runnable task = () -> runWithRetry(file, 1, f);
-        exec.execute(wrapWithTimeout(task, f, file.getName()));
-        return f;
+        DetectionResultCache cache = resultCache;
+        if (cache == null) return enqueue(file, priority, journal.begin(JOURNAL_BACKEND, file));
+        long hash;
+        try {
+            hash = AudioFingerprint.ofFile(file);
+        } catch (IOException e) {
+            Log.w("RD", "Fingerprint failed, bypassing cache: " + file.getName(), e);
+            return enqueue(file, priority, journal.begin(JOURNAL_BACKEND, file));
+        }
+        return cache.getOrCompute(CACHE_NAME, hash, file.length(),
+                this::encodeResult, this::decodeResult, () -> enqueue(file, priority, journal.begin(JOURNAL_BACKEND, file)));
+    }
+
+    private CompletableFuture<DetectionResult> enqueue(File file, DetectionScheduler.Priority priority,
+                                                       DetectionJournal.Checkpoint checkpoint) {
+        CompletableFuture<DetectionResult> future = executor.submit(
+                file.getName(), priority, TASK_TIMEOUT_MS, retryPolicy, ctx -> detect(file, checkpoint));
+        // 被取消（服务停止）的保留断点，下次启动继续；其它结局都删掉
+        future.whenComplete((result, error) -> {
+            if (!(error instanceof CancellationException)) checkpoint.complete();
+        });
+        return future;
+    }
+
+    /** 累计上传字节数 */
+    public long bytesUploaded() {
+        return bytesUploaded.get();
+    }
+
+    /** 执行器指标（排队、执行中、重试、超时、丢弃） */
+    public DetectionExecutor.Stats executorStats() {
+        return executor.stats();
+    }
+
+    /** RD 队列各类别的排队数、丢弃数和等待时间直方图（所有实例共享） */
+    public DetectionScheduler.Stats schedulerStats() {
+        return scheduler.stats();
+    }
+
+    /** RD 后端的自适应并发上限和熔断状态（所有实例共享） */
+    public BackendGuard.Stats backendStats() {
+        return guard.stats();
     }
 
-    /** 指数退避重试 */
-    private void runWithRetry(File file, int attempt, CompletableFuture<DetectionResult> f) {
-        if (Thread.currentThread().isInterrupted()) {
-            f.completeExceptionally(new InterruptedException("Interrupted"));
-            return;
+    private String encodeResult(DetectionResult result) {
+        try {
+            return cacheMapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize result", e);
         }
+    }
+
+    private DetectionResult decodeResult(String json) {
         try {
-            // 官方样例的同步调用放后台线程执行
-            DetectionResult result = rd.detectFile(file);
-
-            System.out.println("[RD] ✅ Result received for " + file.getName()
-                    + " | status=" + result.getStatus()
-                    + " | requestId=" + result.getRequestId());
-            android.util.Log.i("RD", "Result received: " + file.getName()
-                    + " status=" + result.getStatus() + " requestId=" + result.getRequestId());
-
-            f.complete(result);
-            // notifyBackend(file.getName(), result);  // Disabled: using internal data pipeline instead
-        } catch (RealityDefenderException ex) {
-            if (attempt <= MAX_RETRY) {
-                long backoff = (long) (BASE_BACKOFF_MS * Math.pow(2, attempt - 1));
-                scheduler.schedule(
-                        () -> runWithRetry(file, attempt + 1, f),
-                        backoff, TimeUnit.MILLISECONDS);
-            } else {
-                f.completeExceptionally(ex);
-                Log.e("RD", "Detect failed after retry: " + file.getName(), ex);
-            }
-        } catch (Exception ex) {
-            f.completeExceptionally(ex);
-            Log.e("RD", "Detect failed: " + file.getName(), ex);
+            return cacheMapper.readValue(json, DetectionResult.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid cached result", e);
         }
     }
 
-    /** 超时包装（避免单个任务卡死） */
-    private Runnable wrapWithTimeout(Runnable task, CompletableFuture<DetectionResult> f, String tag) {
-        return () -> {
-            var single = Executors.newSingleThreadExecutor(r -> {
-                Thread t = new Thread(r, "RD-Single");
-                t.setDaemon(true);
-                return t;
-            });
-            try {
-                Future<?> future = single.submit(task);
-                try {
-                    future.get(TASK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                } catch (TimeoutException te) {
-                    future.cancel(true);
-                    f.completeExceptionally(te);
-                    Log.e("RD", "Task timeout: " + tag, te);
-                }
-            } catch (Exception e) {
-                f.completeExceptionally(e);
-            } finally {
-                single.shutdownNow();
-            }
-        };
+    /**
+     * 单次检测；失败后由执行器指数退避重试，超时时中断 SDK 的阻塞调用
+     *
+     * 分两步调用 SDK（detectFile 就是 upload + getResult）：上传拿到的 requestId 记到断点里，
+     * 重试时只要 requestId 还有效就跳过上传，直接取结果。
+     */
+    private DetectionResult detect(File file, DetectionJournal.Checkpoint checkpoint)
+            throws RealityDefenderException, JsonProcessingException {
+        String requestId = checkpoint.remoteId();
+        if (requestId == null) {
+            bytesUploaded.addAndGet(file.length());
+            UploadResponse upload = rd.upload(file);
+            requestId = upload.getRequestId();
+            checkpoint.save(requestId, REQUEST_TTL_MS);
+        } else {
+            android.util.Log.i("RD", "Reusing requestId " + requestId + " for " + file.getName());
+        }
+
+        DetectionResult result;
+        try {
+            result = rd.getResult(requestId);
+        } catch (RealityDefenderException e) {
+            // 服务端找不到这个 requestId：下次重试重新上传
+            if (e.getStatusCode() == 404) checkpoint.invalidate();
+            throw e;
+        }
+
+        System.out.println("[RD] ✅ Result received for " + file.getName()
+                + " | status=" + result.getStatus()
+                + " | requestId=" + result.getRequestId());
+        android.util.Log.i("RD", "Result received: " + file.getName()
+                + " status=" + result.getStatus() + " requestId=" + result.getRequestId());
+
+        // notifyBackend(file.getName(), result);  // Disabled: using internal data pipeline instead
+        return result;
     }
 
     /** 结果推送到你的后端（OkHttp 异步，不阻塞检测线程） */
@@ -224,8 +325,7 @@ public class RealityDefenderDetection implements Closeable {
     }
 
     @Override public void close() {
-        exec.shutdownNow();
-        scheduler.shutdownNow();
+        executor.close();
         try { rd.close(); } catch (Exception ignored) {}
     }
 }
@@ -21,9 +21,24 @@ import androidx.core.app.NotificationCompat
 import java.io.*
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
 import kotlin.math.max
 import com.example.anticenter.collectors.ZoomCollector
 import com.example.anticenter.BuildConfig
+import com.example.anticenter.audio.AudioCodec
+import com.example.anticenter.audio.SpeechGate
+import com.example.anticenter.audio.WavWriter
+import com.example.anticenter.database.DetectionCacheStore
+import com.example.anticenter.network.BackendGuard
+import com.example.anticenter.network.HttpClients
+import com.example.anticenter.utils.BoundedWorkerPool
+import com.example.anticenter.utils.InotifyWatcher
+import com.example.anticenter.utils.LatencyHistogram
+import com.example.anticenter.utils.RootShell
+import com.example.anticenter.video.FrameSamplingPolicy
+import com.example.anticenter.video.SegmentFrameSampler
 
 /**
  * ✅ ZoomCapService - 录屏、截图、Zoom 音频捕获 (Root)、多重检测集成。
@@ -43,8 +58,30 @@ class ZoomCapService : Service() {
     private val FILENAME_REGEX =
         Regex("zoom_(mic|tap)_(\\d{8})_(\\d{6})_(\\d+)\\.pcm", RegexOption.IGNORE_CASE)
 
+    // 音频按后端能接受的格式提交：RD 支持无损 FLAC；Dify 用 PCM WAV（有损的 IMA ADPCM 需要按检测器显式开启）
+    private val RD_AUDIO_CODEC = AudioCodec.FLAC
+    private val DIFY_AUDIO_CODEC = AudioCodec.WAV
+
+    // 各检测器的采样率：null 表示保留 Zoom 原始采样率。RD 的深度伪造检测依赖高频细节，不降采样；
+    // Dify 只做语音转写，16kHz 足够
+    private val RD_AUDIO_SAMPLE_RATE: Int? = null
+    private val DIFY_AUDIO_SAMPLE_RATE: Int? = WavWriter.TARGET_SAMPLE_RATE
+
+    // 视频片段按后端的取帧策略派生成几张人脸 JPEG 再提交，不整段上传 MP4（FrameSamplingPolicy.FULL 恢复整段）
+    private val RD_VIDEO_SAMPLING = FrameSamplingPolicy.RD_VIDEO
+
+    private val ZOOM_AUDIO_DIR = "/sdcard/Android/data/us.zoom.videomeetings/files/ZoomAudio"
+
+    // 音频接入：inotify 正常时每 30 秒兜底扫一次本地目录，退回轮询时每 10 秒扫一次 Zoom 目录
+    private val POLL_INTERVAL_MS = 10_000L
+    private val SAFETY_SCAN_MS = 30_000L
+    private val BACKLOG_RETRY_MS = 1_000L
+    private val SWEEP = ""
+
     private val VIDEO_DIR = "ZoomVideos"
     private val IMAGE_DIR = "ZoomImages"
+    // 提交给 RD 的视频帧只是中间产物，放在 cacheDir，检测结束就删
+    private val FRAME_CACHE_DIR = "zoom_frames"
     private val AUDIO_DIR = "ZoomAudio"
 
     private lateinit var mediaProjection: MediaProjection
@@ -60,6 +97,7 @@ class ZoomCapService : Service() {
 
     private lateinit var videoFolder: File
     private lateinit var imageFolder: File
+    private lateinit var frameFolder: File
     private lateinit var audioFolder: File
 
     private var segIndex = 0
@@ -67,13 +105,27 @@ class ZoomCapService : Service() {
     private var isRunning = false
     private var audioWatcherRunning = false
 
+    // 音频转码/检测和视频交接都在有界工作池里执行，不再每个文件起一个线程
+    private val audioPool = BoundedWorkerPool("ZoomAudio", threads = 2, queueCapacity = 16)
+    private val videoPool = BoundedWorkerPool("ZoomVideo", threads = 1, queueCapacity = 2)
+    private val audioIntake = LinkedBlockingQueue<String>()
+    private var inotifyWatcher: InotifyWatcher? = null
+
     // 检测器实例
     private lateinit var rdDetector: RealityDefenderDetection
     private lateinit var difyDetector: DifyVoiceDetector
+    private var resultCache: DetectionResultCache? = null
     
     // ZoomCollector 引用，确保单例已初始化
     private var zoomCollector: ZoomCollector? = null
 
+    // 本地 VAD：没有人声的 tap 音频不提交给 RD/Dify
+    private val speechGate = SpeechGate("Zoom")
+
+    private val rdFrameSampler = SegmentFrameSampler("Zoom", RD_VIDEO_SAMPLING)
+    // 视频片段从提交到拿到整段结论的耗时
+    private val videoLatency = LatencyHistogram()
+
     private fun L(msg: String) = Log.i(TAG, msg)
 
     // -------------------- 启动 --------------------
@@ -117,6 +169,8 @@ class ZoomCapService : Service() {
             sessionBase = "session_${SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(Date())}"
             videoFolder = File(filesDir, VIDEO_DIR).apply { mkdirs() }
             imageFolder = File(filesDir, IMAGE_DIR).apply { mkdirs() }
+            // 上次会话异常退出时留下的帧一并清掉
+            frameFolder = File(cacheDir, FRAME_CACHE_DIR).apply { deleteRecursively(); mkdirs() }
             audioFolder = File(filesDir, AUDIO_DIR).apply { mkdirs() }
 
             val rotateHt = HandlerThread("VideoRotate").apply { start() }
@@ -137,6 +191,26 @@ class ZoomCapService : Service() {
             difyDetector = DifyVoiceDetector(difyApiKey)
             Log.i(TAG, "✅ DifyVoiceDetector initialized successfully")
 
+            // 相同内容（重复的提示音、等待音乐、重试）直接复用上次的检测结果
+            resultCache = try {
+                DetectionResultCache(DetectionCacheStore(applicationContext))
+            } catch (e: Exception) {
+                Log.w(TAG, "Detection cache database unavailable, using memory: ${e.message}")
+                DetectionResultCache(DetectionResultCache.MemoryStore())
+            }
+            rdDetector.setResultCache(resultCache)
+            difyDetector.setResultCache(resultCache)
+
+            // 上传成功后记下远端 ID：重试只重做失败的阶段，服务重启后继续没完成的检测
+            val journal = DetectionJournal(File(filesDir, "detection-journal"))
+            rdDetector.setJournal(journal)
+            difyDetector.setJournal(journal)
+
+            // streaming 模式下判定先于理由到达；最终结果仍走 ZoomCollector，避免重复入库
+            difyDetector.setProvisionalListener { fileName, verdict, confidence, elapsedMs ->
+                Log.i(TAG, "⏱ Dify 临时结论 [$fileName]: $verdict (confidence=$confidence, ${elapsedMs}ms)")
+            }
+
             // 确保 ZoomCollector 单例已初始化
             zoomCollector = ZoomCollector.getInstance()
             if (zoomCollector == null) {
@@ -148,6 +222,8 @@ class ZoomCapService : Service() {
                 Log.i(TAG, "✅ ZoomCollector instance found from MainActivity")
             }
 
+            resumePendingDetections()
+
             // 启动音频监控（恢复功能）
             if (!audioWatcherRunning) {
                 audioWatcherRunning = true
@@ -164,6 +240,23 @@ class ZoomCapService : Service() {
     override fun onDestroy() {
         isRunning = false
         audioWatcherRunning = false
+        inotifyWatcher?.close()
+        audioIntake.offer(SWEEP)
+        audioPool.shutdown()
+        videoPool.shutdown()
+        L("📊 VAD: ${speechGate.summary()}")
+        L("📊 Video frames: ${rdFrameSampler.summary()}, detection latency ${videoLatency.snapshot()}")
+        L("📊 Audio pool: ${audioPool.stats()}")
+        L("📊 Video pool: ${videoPool.stats()}")
+        resultCache?.let { L("📊 Detection cache: ${it.stats()}") }
+        if (::rdDetector.isInitialized) L("📊 RD executor: ${rdDetector.executorStats()}")
+        if (::difyDetector.isInitialized) L("📊 Dify executor: ${difyDetector.executorStats()}")
+        if (::rdDetector.isInitialized && ::difyDetector.isInitialized) {
+            L("📊 Uploaded bytes: RD ${rdDetector.bytesUploaded()}, Dify ${difyDetector.bytesUploaded()}")
+        }
+        HttpClients.metrics.snapshot().forEach { L("📊 HTTP $it") }
+        BackendGuard.allStats().forEach { L("📊 Backend $it") }
+        DetectionScheduler.allStats().forEach { L("📊 Queue $it") }
         
         // 停止定时任务
         try { rotateHandler.removeCallbacksAndMessages(null) } catch (_: Exception) {}
@@ -285,10 +378,15 @@ class ZoomCapService : Service() {
             segIndex += 1
             updateNotification("Recording segment #${segIndex-1}")
 
-            Thread {
+            val accepted = videoPool.submit(finishedFile.absolutePath) {
                 stopAndReleaseRecorder(prevRecorder, prevSurface)  // 传递 Surface 引用
                 onVideoSegmentReady(finishedFile)
-            }.start()
+            }
+            if (!accepted) {
+                // 上一段还没交接完：就地释放录制器，本段跳过检测
+                Log.w(TAG, "⚠️ Video hand-off queue full, skipping detection for ${finishedFile.name}")
+                stopAndReleaseRecorder(prevRecorder, prevSurface)
+            }
         } catch (e: Exception) {
             Log.e(TAG, "rotateVideoOnce error: ${e.message}", e)
         } finally {
@@ -326,58 +424,95 @@ class ZoomCapService : Service() {
     }
 
     // -------------------- 音频捕获 --------------------
+    /**
+     * Zoom 音频接入：hook 写完一个 PCM 片段（inotifyd close_write）就立刻移入本应用目录，
+     * 交给有界工作池转码和检测。inotifyd 不可用时退回每 10 秒整体扫描一次。
+     *
+     * 工作池队列满时文件留在 mic/tap 目录，下一轮（1 秒后）再提交，不会无限创建线程。
+     */
     private fun startAudioWatcher() {
-        Thread {
+        Thread({
             val sampleRate = 48000
             val channels = 1
-            val zoomDir = "/sdcard/Android/data/us.zoom.videomeetings/files/ZoomAudio"
             val micDir = File(audioFolder, "mic").apply { mkdirs() }
             val tapDir = File(audioFolder, "tap").apply { mkdirs() }
 
             try {
-                val cleanCmd = "rm -f $zoomDir/zoom_mic_*.pcm $zoomDir/zoom_tap_*.pcm"
-                Runtime.getRuntime().exec(arrayOf("su", "-c", cleanCmd)).waitFor()
+                val cleanCmd = "rm -f $ZOOM_AUDIO_DIR/zoom_mic_*.pcm $ZOOM_AUDIO_DIR/zoom_tap_*.pcm"
+                RootShell.su.exec(cleanCmd)
                 L("🧹 Cleaned old PCM files from Zoom hook directory.")
             } catch (e: Exception) {
                 Log.e(TAG, "Cleanup error: ${e.message}", e)
             }
 
-            L("🎧 AudioWatcher started, checking every 10s")
+            val watcher = InotifyWatcher(
+                ZOOM_AUDIO_DIR,
+                onFileClosed = { name -> if (FILENAME_REGEX.matches(name)) audioIntake.offer(name) },
+                onStopped = {
+                    if (audioWatcherRunning) Log.w(TAG, "⚠️ inotifyd stopped, falling back to polling every 10s")
+                    audioIntake.offer(SWEEP)
+                }
+            )
+            inotifyWatcher = watcher
+            val eventDriven = watcher.start()
+            L("🎧 AudioWatcher started (${if (eventDriven) "inotify" else "polling every 10s"})")
 
+            var backlog = false
+            val closed = ArrayList<String>()
             while (audioWatcherRunning) {
                 try {
-                    val moveCmd = """
-                        mv $zoomDir/zoom_mic_*.pcm ${micDir.absolutePath}/ 2>/dev/null;
-                        mv $zoomDir/zoom_tap_*.pcm ${tapDir.absolutePath}/ 2>/dev/null;
-                        chmod 666 ${micDir.absolutePath}/*.pcm ${tapDir.absolutePath}/*.pcm 2>/dev/null;
-                    """.trimIndent()
-                    Runtime.getRuntime().exec(arrayOf("su", "-c", moveCmd)).waitFor()
+                    val timeoutMs = when {
+                        backlog -> BACKLOG_RETRY_MS
+                        watcher.isActive -> SAFETY_SCAN_MS
+                        else -> POLL_INTERVAL_MS
+                    }
+                    closed.clear()
+                    audioIntake.poll(timeoutMs, TimeUnit.MILLISECONDS)?.let { closed.add(it) }
+                    audioIntake.drainTo(closed)
+                    if (!audioWatcherRunning) break
+
+                    val commands = if (watcher.isActive) {
+                        // 只移动已经写完的文件，正在写的片段留在原处
+                        closed.filter { it != SWEEP }.map { name ->
+                            val dir = if (name.startsWith("zoom_mic_", ignoreCase = true)) micDir else tapDir
+                            "mv '$ZOOM_AUDIO_DIR/$name' ${dir.absolutePath}/ 2>/dev/null"
+                        }
+                    } else {
+                        listOf(
+                            "mv $ZOOM_AUDIO_DIR/zoom_mic_*.pcm ${micDir.absolutePath}/ 2>/dev/null",
+                            "mv $ZOOM_AUDIO_DIR/zoom_tap_*.pcm ${tapDir.absolutePath}/ 2>/dev/null"
+                        )
+                    }
+                    if (commands.isNotEmpty()) {
+                        // 复用常驻 su 会话，一次往返完成移动和改权限
+                        RootShell.su.execBatch(commands +
+                            "chmod 666 ${micDir.absolutePath}/*.pcm ${tapDir.absolutePath}/*.pcm 2>/dev/null")
+                    }
 
+                    val rejectedBefore = audioPool.stats().rejected
                     listOf(micDir, tapDir).forEach { dir ->
                         dir.listFiles { f -> f.name.endsWith(".pcm") }?.forEach { pcmFile ->
-                            Thread {
-                                try {
-                                    val newWavName = generateWavName(pcmFile.name)
-                                    val wavFile = File(dir, newWavName)
-                                    convertPcmToWav(pcmFile, wavFile, sampleRate, channels)
-                                    //// MARK: 音频检测已禁用
-                                    onAudioSegmentReady(wavFile)
-                                    pcmFile.delete()
-                                    L("✅ Converted & deleted ${pcmFile.name}")
-                                } catch (e: Exception) {
-                                    Log.e(TAG, "Convert thread error: ${e.message}", e)
-                                }
-                            }.start()
+                            val accepted = audioPool.submit(pcmFile.absolutePath) {
+                                val wavFile = File(dir, generateWavName(pcmFile.name))
+                                convertPcmToWav(pcmFile, wavFile, sampleRate, channels)
+                                //// MARK: 音频检测已禁用
+                                onAudioSegmentReady(wavFile, pcmFile, sampleRate, channels)
+                                pcmFile.delete()
+                                L("✅ Converted & deleted ${pcmFile.name}")
+                            }
+                            if (!accepted) Log.d(TAG, "${pcmFile.name} is queued or in progress")
                         }
                     }
-
-                    Thread.sleep(10_000)
+                    // 队列满被拒绝的文件留在磁盘上，稍后重试
+                    backlog = audioPool.stats().rejected > rejectedBefore
+                    if (backlog) L("⏳ Audio pool backlog: ${audioPool.stats()}")
                 } catch (e: Exception) {
                     Log.e(TAG, "AudioWatcher error: ${e.message}", e)
                 }
             }
+            watcher.close()
             L("🛑 AudioWatcher stopped.")
-        }.start()
+        }, "ZoomAudioIntake").start()
     }
 
     private fun generateWavName(pcmFileName: String): String {
@@ -394,36 +529,90 @@ class ZoomCapService : Service() {
     }
 
     // -------------------- Reality Defender (RD) 集成 --------------------
+    /**
+     * 上次服务停止时还没出结果的检测：从断点继续，结果照常交给 ZoomCollector
+     */
+    private fun resumePendingDetections() {
+        rdDetector.resumePending().forEach { (file, future) ->
+            val type = when (file.extension.lowercase()) {
+                "mp4" -> "VIDEO"
+                "jpg", "jpeg", "png" -> "IMAGE"
+                else -> "AUDIO"
+            }
+            L("♻️ Resuming RD $type detection: ${file.name}")
+            future.whenComplete { result, ex ->
+                if (ex != null) {
+                    Log.e(TAG, "❌ Resumed RD detect failed: ${file.name}", ex)
+                } else {
+                    zoomCollector?.processDetectionResult(file, result?.status ?: "UNKNOWN", type)
+                }
+            }
+        }
+        difyDetector.resumePending().forEach { (file, future) ->
+            L("♻️ Resuming Dify detection: ${file.name}")
+            future.whenComplete { result, ex ->
+                if (ex != null) {
+                    Log.e(TAG, "❌ Resumed Dify detect failed: ${file.name}", ex)
+                } else {
+                    zoomCollector?.processDetectionResult(file, result?.verdict ?: "UNKNOWN", "AUDIO_PHISHING")
+                }
+            }
+        }
+    }
+
     private fun onVideoSegmentReady(file: File) {
         L("onVideoSegmentReady -> ${file.name}")
+        var frames = emptyList<File>()
         try {
             if (::rdDetector.isInitialized && file.exists() && file.length() > 0L) {
-                val future = rdDetector.submit(file)
-                Log.i(TAG, "📤 Submitted VIDEO to RD: ${file.name}")
-                future.whenComplete { result, ex ->
-                    if (ex != null) {
-                        Log.e(TAG, "❌ RD video detect failed: ${file.name}", ex)
+                // 取帧失败时返回原片段，照常整段提交
+                val artifacts = rdFrameSampler.derive(file, frameFolder)
+                frames = artifacts.filter { it != file }
+                val submittedAt = System.currentTimeMillis()
+                val statuses = artifacts.map { artifact ->
+                    rdDetector.submit(artifact, DetectionScheduler.Priority.MEETING_VIDEO).handle { result, ex ->
+                        if (ex != null) {
+                            Log.e(TAG, "❌ RD video detect failed: ${artifact.name}", ex)
+                            null
+                        } else result?.status ?: "UNKNOWN"
+                    }
+                }
+                Log.i(TAG, "📤 Submitted VIDEO to RD: ${file.name} as ${artifacts.joinToString { it.name }}")
+
+                // 一段的结论取各帧最严重的状态；只有全部失败才算失败
+                val submittedFrames = frames
+                frames = emptyList() // 之后由检测结束的回调删除
+                CompletableFuture.allOf(*statuses.toTypedArray()).whenComplete { _, _ ->
+                    // 各帧的结果都已返回（handle 不会异常完成），帧文件不再需要
+                    submittedFrames.forEach { it.delete() }
+                }.thenRun {
+                    val frameStatuses = statuses.map { it.join() }
+                    if (frameStatuses.all { it == null }) return@thenRun
+                    videoLatency.record(System.currentTimeMillis() - submittedAt)
+                    val status = SegmentFrameSampler.segmentStatus(frameStatuses)
+                    Log.i(TAG, "✅ RD video result(${file.name}): status=$status frames=$frameStatuses")
+                    Log.i(TAG, "📨 Passing result.status='$status' to ZoomCollector for ${file.name}")
+
+                    // 调用 ZoomCollector 处理检测结果
+                    if (zoomCollector != null) {
+                        zoomCollector?.processDetectionResult(file, status, "VIDEO")
+                        Log.i(TAG, "✅ result.status has been passed to ZoomCollector.processDetectionResult()")
                     } else {
-                        val status = result?.status ?: "UNKNOWN"
-                        Log.i(TAG, "✅ RD video result(${file.name}): status=$status")
-                        Log.i(TAG, "📨 Passing result.status='$status' to ZoomCollector for ${file.name}")
-                        
-                        // 调用 ZoomCollector 处理检测结果
-                        if (zoomCollector != null) {
-                            zoomCollector?.processDetectionResult(file, status, "VIDEO")
-                            Log.i(TAG, "✅ result.status has been passed to ZoomCollector.processDetectionResult()")
-                        } else {
-                            Log.e(TAG, "❌ ZoomCollector is NULL! Cannot process VIDEO detection result for ${file.name}")
-                        }
+                        Log.e(TAG, "❌ ZoomCollector is NULL! Cannot process VIDEO detection result for ${file.name}")
                     }
                 }
             }
         } catch (e: Exception) {
             Log.e(TAG, "submit video to RD failed: ${e.message}", e)
+            frames.forEach { it.delete() }
         }
     }
 
-    private fun onAudioSegmentReady(file: File) {
+    /**
+     * @param file 16kHz 单声道 WAV，用于 VAD
+     * @param pcmFile 原始 PCM，检测器要求的采样率不是 16kHz 时从这里重新转换
+     */
+    private fun onAudioSegmentReady(file: File, pcmFile: File, sampleRate: Int, channels: Int) {
         L("onAudioSegmentReady -> ${file.name}")
 
         // 检查文件所属文件夹类型
@@ -442,25 +631,46 @@ class ZoomCapService : Service() {
 
         Log.i(TAG, "✅ Processing TAP folder file (received audio): ${file.name}")
 
+        // 静音/等待音乐不提交检测，有人声时裁掉首尾静音
+        val decision = try {
+            speechGate.gateWavFileDecision(file)
+        } catch (e: Exception) {
+            Log.w(TAG, "VAD failed for ${file.name}, submitting anyway: ${e.message}")
+            null
+        }
+        if (decision != null && !decision.upload) {
+            Log.i(TAG, "🔇 No speech in ${file.name}, skipping detection")
+            file.delete()
+            return
+        }
+
+        val rdWav = wavForDetector(file, pcmFile, sampleRate, channels, RD_AUDIO_SAMPLE_RATE, decision)
+        val difyWav = wavForDetector(file, pcmFile, sampleRate, channels, DIFY_AUDIO_SAMPLE_RATE, decision)
+        val rdFile = encodeForDetector(rdWav, RD_AUDIO_CODEC)
+        val difyFile = encodeForDetector(difyWav, DIFY_AUDIO_CODEC)
+        listOf(file, rdWav, difyWav).distinct()
+            .filter { it != rdFile && it != difyFile }
+            .forEach { it.delete() }
+
         // 把完成的音频文件投递给 RD（非阻塞）- 深度伪造检测
         try {
-            if (::rdDetector.isInitialized && file.exists() && file.length() > 0L) {
-                val future = rdDetector.submit(file)
-                Log.i(TAG, "📤 Submitted AUDIO to RD (deepfake detection): ${file.name}")
+            if (::rdDetector.isInitialized && rdFile.exists() && rdFile.length() > 0L) {
+                val future = rdDetector.submit(rdFile, DetectionScheduler.Priority.MEETING_AUDIO)
+                Log.i(TAG, "📤 Submitted AUDIO to RD (deepfake detection): ${rdFile.name}")
 
                 future.whenComplete { result, ex ->
                     if (ex != null) {
-                        Log.e(TAG, "❌ RD audio detect failed: ${file.name}", ex)
+                        Log.e(TAG, "❌ RD audio detect failed: ${rdFile.name}", ex)
                     } else {
                         val status = result?.status ?: "UNKNOWN"
-                        Log.i(TAG, "✅ RD audio result(${file.name}): status=$status")
+                        Log.i(TAG, "✅ RD audio result(${rdFile.name}): status=$status")
 
                         // 传递结果给 ZoomCollector
                         if (zoomCollector != null) {
-                            zoomCollector?.processDetectionResult(file, status, "AUDIO")
+                            zoomCollector?.processDetectionResult(rdFile, status, "AUDIO")
                             Log.i(TAG, "✅ RD audio result passed to ZoomCollector")
                         } else {
-                            Log.e(TAG, "❌ ZoomCollector is NULL! Cannot process AUDIO detection result for ${file.name}")
+                            Log.e(TAG, "❌ ZoomCollector is NULL! Cannot process AUDIO detection result for ${rdFile.name}")
                         }
                     }
                 }
@@ -471,26 +681,26 @@ class ZoomCapService : Service() {
 
         // 把完成的音频文件投递给 Dify（非阻塞）- 语音钓鱼检测
         try {
-            if (::difyDetector.isInitialized && file.exists() && file.length() > 0L) {
-                val future = difyDetector.submit(file)
-                Log.i(TAG, "📤 Submitted AUDIO to Dify (voice phishing detection): ${file.name}")
+            if (::difyDetector.isInitialized && difyFile.exists() && difyFile.length() > 0L) {
+                val future = difyDetector.submit(difyFile, DetectionScheduler.Priority.MEETING_AUDIO)
+                Log.i(TAG, "📤 Submitted AUDIO to Dify (voice phishing detection): ${difyFile.name}")
 
                 future.whenComplete { result, ex ->
                     if (ex != null) {
-                        Log.e(TAG, "❌ Dify voice phishing detect failed: ${file.name}", ex)
+                        Log.e(TAG, "❌ Dify voice phishing detect failed: ${difyFile.name}", ex)
                     } else {
                         val verdict = result?.verdict ?: "UNKNOWN"
                         val confidence = result?.confidence ?: 0.0
-                        Log.i(TAG, "✅ Dify voice phishing result(${file.name}): verdict=$verdict, confidence=$confidence")
+                        Log.i(TAG, "✅ Dify voice phishing result(${difyFile.name}): verdict=$verdict, confidence=$confidence")
                         Log.i(TAG, "   Reasons: ${result?.reasons?.joinToString(", ") ?: "none"}")
                         Log.i(TAG, "   Evidence: ${result?.evidence?.joinToString(", ") ?: "none"}")
 
                         // 传递结果给 ZoomCollector（使用 verdict 作为 status）
                         if (zoomCollector != null) {
-                            zoomCollector?.processDetectionResult(file, verdict, "AUDIO_PHISHING")
+                            zoomCollector?.processDetectionResult(difyFile, verdict, "AUDIO_PHISHING")
                             Log.i(TAG, "✅ Dify voice phishing result passed to ZoomCollector")
                         } else {
-                            Log.e(TAG, "❌ ZoomCollector is NULL! Cannot process voice phishing result for ${file.name}")
+                            Log.e(TAG, "❌ ZoomCollector is NULL! Cannot process voice phishing result for ${difyFile.name}")
                         }
                     }
                 }
@@ -500,6 +710,59 @@ class ZoomCapService : Service() {
         }
     }
 
+    /**
+     * 检测器要求的采样率下的 WAV：和 VAD 用的 16kHz 相同时直接复用（已裁掉首尾静音），
+     * 否则从原始 PCM 按 [decision] 的保留区间重新转换（不从 16kHz 升采样，保留原始频带）；
+     * 转换失败时退回 16kHz 文件
+     *
+     * @param decision VAD 的判定，null 表示没有判定、转换整个片段
+     */
+    private fun wavForDetector(
+        gatedWav: File,
+        pcmFile: File,
+        sampleRate: Int,
+        channels: Int,
+        targetRate: Int?,
+        decision: SpeechGate.Decision?
+    ): File {
+        val rate = targetRate ?: sampleRate
+        if (rate == WavWriter.TARGET_SAMPLE_RATE) return gatedWav
+        val target = File(gatedWav.parentFile, "${gatedWav.nameWithoutExtension}_${rate / 1000}k.wav")
+        return try {
+            if (decision != null) {
+                // 区间是 VAD 采样率下的样本下标，换算成原始 PCM 的帧
+                val scale = sampleRate.toDouble() / speechGate.sampleRate
+                val startFrame = (decision.start * scale).toLong()
+                val endFrame = (decision.end * scale).toLong()
+                WavWriter.convertPcmFile(pcmFile, target, sampleRate, channels, rate, startFrame, endFrame - startFrame)
+            } else {
+                WavWriter.convertPcmFile(pcmFile, target, sampleRate, channels, rate)
+            }
+            target
+        } catch (e: Exception) {
+            Log.w(TAG, "${rate}Hz WAV failed for ${gatedWav.name}, using 16kHz: ${e.message}")
+            target.delete()
+            gatedWav
+        }
+    }
+
+    /**
+     * 把单声道 WAV 转成检测器需要的编码；WAV 或转码失败时返回原文件
+     */
+    private fun encodeForDetector(wavFile: File, codec: AudioCodec): File {
+        if (codec == AudioCodec.WAV) return wavFile
+        val target = File(wavFile.parentFile, "${wavFile.nameWithoutExtension}_${codec.name.lowercase()}.${codec.extension}")
+        return try {
+            if (codec.transcodeWav(wavFile, target)) {
+                L("🗜️ ${codec.name}: ${wavFile.name} ${wavFile.length() / 1024} KB → ${target.name} ${target.length() / 1024} KB")
+                target
+            } else wavFile
+        } catch (e: Exception) {
+            Log.w(TAG, "${codec.name} encode failed for ${wavFile.name}, using WAV: ${e.message}")
+            wavFile
+        }
+    }
+
     private fun saveBitmapToFile(bmp: Bitmap, file: File) {
         try {
             FileOutputStream(file).use { out ->
@@ -510,7 +773,7 @@ class ZoomCapService : Service() {
             // 把抓到的图片投递给 RD（非阻塞）
             try {
                 if (::rdDetector.isInitialized && file.exists() && file.length() > 0L) {
-                    val future = rdDetector.submit(file)
+                    val future = rdDetector.submit(file, DetectionScheduler.Priority.MEETING_VIDEO)
                     Log.i(TAG, "📤 Submitted IMAGE to RD: ${file.name}")
 
                     future.whenComplete { result, ex ->
@@ -540,50 +803,12 @@ class ZoomCapService : Service() {
     }
 
     // -------------------- 通用工具 --------------------
+    /**
+     * Zoom hook 输出 48kHz PCM，VAD 和 Dify 只需要 16kHz 单声道：
+     * 经多相重采样器流式转换，体积约为原来的 1/3（RD 另见 [wavForDetector]）
+     */
     private fun convertPcmToWav(pcmFile: File, wavFile: File, sr: Int, ch: Int) {
-        val byteRate = sr * ch * 2
-        val totalAudioLen = pcmFile.length()
-        val totalDataLen = totalAudioLen + 36
-        val header = ByteArray(44)
-
-        fun putLEInt(off: Int, v: Int) {
-            header[off] = (v and 0xff).toByte()
-            header[off + 1] = ((v shr 8) and 0xff).toByte()
-            header[off + 2] = ((v shr 16) and 0xff).toByte()
-            header[off + 3] = ((v shr 24) and 0xff).toByte()
-        }
-
-        fun putLEShort(off: Int, v: Short) {
-            header[off] = (v.toInt() and 0xff).toByte()
-            header[off + 1] = ((v.toInt() shr 8) and 0xff).toByte()
-        }
-
-        System.arraycopy("RIFF".toByteArray(), 0, header, 0, 4)
-        putLEInt(4, totalDataLen.toInt())
-        System.arraycopy("WAVE".toByteArray(), 0, header, 8, 4)
-        System.arraycopy("fmt ".toByteArray(), 0, header, 12, 4)
-        putLEInt(16, 16)
-        putLEShort(20, 1)
-        putLEShort(22, ch.toShort())
-        putLEInt(24, sr)
-        putLEInt(28, byteRate)
-        putLEShort(32, (ch * 2).toShort())
-        putLEShort(34, 16.toShort())
-        System.arraycopy("data".toByteArray(), 0, header, 36, 4)
-        putLEInt(40, totalAudioLen.toInt())
-
-        FileInputStream(pcmFile).use { input ->
-            FileOutputStream(wavFile).use { out ->
-                out.write(header)
-                val buffer = ByteArray(1024 * 1024)
-                var bytesRead: Int
-                while (true) {
-                    bytesRead = input.read(buffer)
-                    if (bytesRead == -1) break
-                    out.write(buffer, 0, bytesRead)
-                }
-            }
-        }
+        WavWriter.convertPcmFile(pcmFile, wavFile, sr, ch)
         L("✅ WAV saved: ${wavFile.name} (${wavFile.length() / 1024} KB)")
     }
 
@@ -0,0 +1,155 @@
+package com.example.anticenter.utils
+
+import android.util.Log
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 固定线程数 + 有界队列的工作池
+ *
+ * 替代"每个文件 new 一个 Thread"：线程数和排队任务数都有上限，队列满时 [submit] 直接返回 false，
+ * 由调用方决定怎么退让（例如文件留在磁盘上等下一轮扫描再提交）。
+ *
+ * - 按 key 去重：同一个 key 还在排队或执行中时再次提交会被忽略（事件触发和兜底扫描可能发现同一个文件）
+ * - 记录背压指标：排队深度峰值、排队等待时间、执行时间、拒绝/失败次数，见 [stats]
+ *
+ * @param name 线程名前缀和日志标签
+ * @param threads 工作线程数
+ * @param queueCapacity 最多排队的任务数（不含正在执行的）
+ */
+class BoundedWorkerPool(
+    val name: String,
+    threads: Int,
+    queueCapacity: Int
+) {
+
+    companion object {
+        private const val TAG = "BoundedWorkerPool"
+    }
+
+    /**
+     * 工作池指标快照
+     */
+    data class Stats(
+        val submitted: Long,
+        val completed: Long,
+        val failed: Long,
+        val rejected: Long,
+        val deduplicated: Long,
+        val queued: Int,
+        val active: Int,
+        val maxQueued: Int,
+        val avgWaitMs: Double,
+        val maxWaitMs: Long,
+        val avgRunMs: Double
+    ) {
+        override fun toString(): String =
+            "submitted=$submitted, completed=$completed, failed=$failed, rejected=$rejected, " +
+                "dedup=$deduplicated, queued=$queued (max $maxQueued), active=$active, " +
+                "wait avg=${"%.1f".format(avgWaitMs)}ms max=${maxWaitMs}ms, run avg=${"%.1f".format(avgRunMs)}ms"
+    }
+
+    private val threadIndex = AtomicInteger()
+    private val inFlight = ConcurrentHashMap.newKeySet<String>()
+
+    private val submitted = AtomicLong()
+    private val completed = AtomicLong()
+    private val failed = AtomicLong()
+    private val rejected = AtomicLong()
+    private val deduplicated = AtomicLong()
+    private val maxQueued = AtomicInteger()
+    private val totalWaitNanos = AtomicLong()
+    private val maxWaitNanos = AtomicLong()
+    private val totalRunNanos = AtomicLong()
+
+    private val executor = ThreadPoolExecutor(
+        threads, threads, 0L, TimeUnit.MILLISECONDS,
+        ArrayBlockingQueue(queueCapacity),
+        { runnable ->
+            Thread(runnable, "$name-${threadIndex.incrementAndGet()}").apply { isDaemon = true }
+        },
+        ThreadPoolExecutor.AbortPolicy()
+    )
+
+    /**
+     * 提交任务
+     *
+     * @param key 去重键（通常是文件路径），null 表示不去重
+     * @return false 表示队列已满、池已关闭或同 key 任务还没完成，任务没有被接受
+     */
+    fun submit(key: String? = null, task: () -> Unit): Boolean {
+        if (key != null && !inFlight.add(key)) {
+            deduplicated.incrementAndGet()
+            return false
+        }
+
+        val enqueuedAt = System.nanoTime()
+        val runnable = Runnable {
+            val startedAt = System.nanoTime()
+            val wait = startedAt - enqueuedAt
+            totalWaitNanos.addAndGet(wait)
+            maxWaitNanos.accumulateAndGet(wait, ::maxOf)
+            try {
+                task()
+                completed.incrementAndGet()
+            } catch (e: Throwable) {
+                failed.incrementAndGet()
+                Log.e(TAG, "[$name] task ${key ?: ""} failed: ${e.message}", e)
+            } finally {
+                totalRunNanos.addAndGet(System.nanoTime() - startedAt)
+                if (key != null) inFlight.remove(key)
+            }
+        }
+
+        return try {
+            executor.execute(runnable)
+            submitted.incrementAndGet()
+            maxQueued.accumulateAndGet(executor.queue.size, ::maxOf)
+            true
+        } catch (e: RejectedExecutionException) {
+            rejected.incrementAndGet()
+            if (key != null) inFlight.remove(key)
+            Log.w(TAG, "[$name] queue full (${executor.queue.size}), rejected ${key ?: "task"}")
+            false
+        }
+    }
+
+    /** 当前排队的任务数 */
+    val queued: Int
+        get() = executor.queue.size
+
+    fun stats(): Stats {
+        val started = completed.get() + failed.get()
+        return Stats(
+            submitted = submitted.get(),
+            completed = completed.get(),
+            failed = failed.get(),
+            rejected = rejected.get(),
+            deduplicated = deduplicated.get(),
+            queued = executor.queue.size,
+            active = executor.activeCount,
+            maxQueued = maxQueued.get(),
+            avgWaitMs = if (started > 0) totalWaitNanos.get() / 1e6 / started else 0.0,
+            maxWaitMs = TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()),
+            avgRunMs = if (started > 0) totalRunNanos.get() / 1e6 / started else 0.0
+        )
+    }
+
+    /**
+     * 不再接受新任务，已排队的任务继续执行
+     */
+    fun shutdown() {
+        executor.shutdown()
+    }
+
+    /**
+     * 等待已提交的任务执行完（测试和退出时使用）
+     */
+    fun awaitTermination(timeoutMs: Long): Boolean =
+        executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)
+}
@@ -0,0 +1,104 @@
+package com.example.anticenter.utils
+
+import android.util.Log
+import java.io.BufferedReader
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStreamReader
+
+/**
+ * 用 root 端的 toybox/busybox `inotifyd` 监听目录，文件写完（close_write）或移入时回调
+ *
+ * Zoom hook 的输出目录在 /sdcard/Android/data 下，本应用没有权限对它用 FileObserver，
+ * 所以通过 `su -c "exec inotifyd - <dir>:wy"` 让 inotifyd 把事件打印到 stdout：
+ *
+ * ```
+ * w\t/sdcard/.../ZoomAudio\tzoom_tap_20250101_120000_3.pcm
+ * ```
+ *
+ * 进程退出（inotifyd 不存在、su 被拒绝、目录被删除）后 [isActive] 变为 false 并回调 onStopped，
+ * 调用方应回退到轮询。
+ *
+ * @param directory 要监听的目录
+ * @param onFileClosed 文件名（不含目录）
+ * @param onStopped inotifyd 进程结束
+ * @param shellCommand 执行命令的 shell，单元测试中可以用 `arrayOf("/bin/sh", "-c")`
+ */
+class InotifyWatcher(
+    private val directory: String,
+    private val onFileClosed: (String) -> Unit,
+    private val onStopped: () -> Unit = {},
+    private val shellCommand: Array<String> = arrayOf("su", "-c")
+) : Closeable {
+
+    companion object {
+        private const val TAG = "InotifyWatcher"
+
+        /** w = IN_CLOSE_WRITE，y = IN_MOVED_TO */
+        const val EVENTS = "wy"
+
+        /**
+         * 解析一行 inotifyd 输出，返回文件名；目录自身的事件或无法识别的行返回 null
+         */
+        fun parseEvent(line: String): String? {
+            val fields = line.split('\t')
+            if (fields.size < 3) return null
+            if (fields[0].none { it in EVENTS }) return null
+            return fields.last().takeIf { it.isNotBlank() }
+        }
+    }
+
+    @Volatile
+    private var process: Process? = null
+
+    @Volatile
+    var isActive = false
+        private set
+
+    /**
+     * 启动 inotifyd；启动失败时返回 false
+     */
+    fun start(): Boolean {
+        if (isActive) return true
+        val proc = try {
+            ProcessBuilder(*shellCommand, "exec inotifyd - '$directory:$EVENTS'")
+                .redirectErrorStream(true)
+                .start()
+        } catch (e: IOException) {
+            Log.w(TAG, "Unable to start inotifyd for $directory: ${e.message}")
+            return false
+        }
+        process = proc
+        isActive = true
+
+        Thread({
+            try {
+                BufferedReader(InputStreamReader(proc.inputStream, Charsets.UTF_8)).use { reader ->
+                    while (true) {
+                        val line = reader.readLine() ?: break
+                        val name = parseEvent(line)
+                        if (name != null) {
+                            onFileClosed(name)
+                        } else {
+                            Log.d(TAG, "inotifyd: $line")
+                        }
+                    }
+                }
+            } catch (_: IOException) {
+                // close() 销毁进程时流会被关闭
+            } finally {
+                isActive = false
+                Log.i(TAG, "👁️ inotifyd for $directory exited")
+                onStopped()
+            }
+        }, "Inotify-${directory.substringAfterLast('/')}").apply { isDaemon = true }.start()
+
+        Log.i(TAG, "👁️ Watching $directory via inotifyd")
+        return true
+    }
+
+    override fun close() {
+        process?.destroy()
+        process = null
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.anticenter.utils
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * 无锁的耗时直方图（毫秒）
+ *
+ * 桶按 2 的幂划分：[0,1)、[1,2)、[2,4)……[2^(n-2), 2^(n-1))，最后一个桶收超出部分。
+ * 分位数取所在桶的上界，误差不超过一倍，足够看出 p50 / p99 在哪个量级；最大值和平均值是精确的。
+ *
+ * @param buckets 桶数，默认覆盖到约 9 分钟
+ */
+class LatencyHistogram(private val buckets: Int = 20) {
+
+    /**
+     * 直方图快照，耗时单位毫秒
+     */
+    data class Snapshot(
+        val count: Long,
+        val meanMs: Double,
+        val p50Ms: Long,
+        val p90Ms: Long,
+        val p99Ms: Long,
+        val maxMs: Long
+    ) {
+        override fun toString() =
+            "n=$count mean=${"%.1f".format(meanMs)}ms p50≤${p50Ms}ms p90≤${p90Ms}ms p99≤${p99Ms}ms max=${maxMs}ms"
+    }
+
+    private val counts = AtomicLongArray(buckets)
+    private val total = AtomicLong()
+    private val sum = AtomicLong()
+    private val max = AtomicLong()
+
+    init {
+        require(buckets in 2..62) { "buckets must be in 2..62" }
+    }
+
+    fun record(millis: Long) {
+        val ms = millis.coerceAtLeast(0)
+        counts.incrementAndGet(bucketOf(ms))
+        total.incrementAndGet()
+        sum.addAndGet(ms)
+        max.accumulateAndGet(ms, ::maxOf)
+    }
+
+    fun snapshot(): Snapshot {
+        val copy = LongArray(buckets) { counts.get(it) }
+        val n = copy.sum()
+        return Snapshot(
+            count = n,
+            meanMs = if (n == 0L) 0.0 else sum.get().toDouble() / total.get(),
+            p50Ms = percentile(copy, n, 0.50),
+            p90Ms = percentile(copy, n, 0.90),
+            p99Ms = percentile(copy, n, 0.99),
+            maxMs = max.get()
+        )
+    }
+
+    fun reset() {
+        for (i in 0 until buckets) counts.set(i, 0)
+        total.set(0)
+        sum.set(0)
+        max.set(0)
+    }
+
+    private fun bucketOf(ms: Long): Int =
+        if (ms == 0L) 0 else minOf(buckets - 1, 64 - java.lang.Long.numberOfLeadingZeros(ms))
+
+    /** 第 i 个桶的上界（不含） */
+    private fun upperBound(bucket: Int): Long = if (bucket == buckets - 1) max.get() else 1L shl bucket
+
+    private fun percentile(copy: LongArray, n: Long, q: Double): Long {
+        if (n == 0L) return 0
+        val rank = Math.ceil(q * n).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in copy.indices) {
+            seen += copy[i]
+            if (seen >= rank) return minOf(upperBound(i), max.get())
+        }
+        return max.get()
+    }
+}
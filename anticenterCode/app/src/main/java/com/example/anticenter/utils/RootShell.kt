@@ -0,0 +1,228 @@
+package com.example.anticenter.utils
+
+import android.util.Log
+import java.io.BufferedReader
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.io.Writer
+import java.util.UUID
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * 常驻 Root Shell 会话
+ *
+ * 以前每条 test/find/stat/cp/mv/chmod 都要 fork 一次 su，每次几十毫秒并且会唤醒 Magisk 守护进程。
+ * 这里只启动一个 su 进程，通过 stdin 发送命令、用带随机 token 的哨兵行分隔每条命令的输出：
+ *
+ * ```
+ * { <command>
+ * } </dev/null; __rs=$?; echo "<marker>:$__rs"; echo "<marker>" >&2
+ * ```
+ *
+ * - 多条命令可以一次写入（[execBatch]），只需一个往返
+ * - 超时后无法确定 shell 状态，直接杀掉进程，下次调用时自动重启
+ * - 进程意外退出（su 被拒绝、命令里 exit 等）同样在下次调用时重启
+ *
+ * 只适合文本输出，二进制数据请重定向到文件。
+ * 单元测试中可以用 `RootShell(arrayOf("/bin/sh"))` 代替 su。
+ */
+class RootShell(
+    private val shellCommand: Array<String> = arrayOf("su"),
+    private val defaultTimeoutMs: Long = DEFAULT_TIMEOUT_MS
+) : Closeable {
+
+    companion object {
+        private const val TAG = "RootShell"
+        const val DEFAULT_TIMEOUT_MS = 15_000L
+
+        /** 进程内共享的 su 会话 */
+        val su: RootShell by lazy { RootShell() }
+
+        // 读线程遇到 EOF 时放入队列的标记（按引用比较）
+        private val EOF = String(charArrayOf('\u0000'))
+    }
+
+    /**
+     * 单条命令的执行结果
+     */
+    data class Result(
+        val exitCode: Int,
+        val stdout: String,
+        val stderr: String
+    ) {
+        val isSuccess: Boolean
+            get() = exitCode == 0
+    }
+
+    /**
+     * 命令在超时时间内没有返回（shell 已被重启）
+     */
+    class ShellTimeoutException(message: String) : IOException(message)
+
+    private class Session(
+        val process: Process,
+        val stdin: Writer,
+        val stdout: LinkedBlockingQueue<String>,
+        val stderr: LinkedBlockingQueue<String>,
+        val token: String
+    )
+
+    private val lock = Any()
+    private var session: Session? = null
+    private var sequence = 0L
+
+    /** shell 被（重新）启动的次数 */
+    @Volatile
+    var startCount = 0
+        private set
+
+    /**
+     * 执行一条命令
+     *
+     * @throws ShellTimeoutException 超时
+     * @throws IOException shell 无法启动或中途退出
+     */
+    fun exec(command: String, timeoutMs: Long = defaultTimeoutMs): Result =
+        execBatch(listOf(command), timeoutMs).first()
+
+    /**
+     * 一次往返执行多条命令，按顺序返回每条命令的结果
+     *
+     * 命令之间互不影响：前一条失败不会阻止后一条执行。
+     *
+     * @param timeoutMs 整批命令的超时时间
+     */
+    fun execBatch(commands: List<String>, timeoutMs: Long = defaultTimeoutMs): List<Result> {
+        if (commands.isEmpty()) return emptyList()
+
+        synchronized(lock) {
+            val current = ensureSession()
+            val markers = commands.map { "__RS_${current.token}_${++sequence}__" }
+
+            try {
+                val script = StringBuilder()
+                commands.forEachIndexed { i, command ->
+                    script.append("{ ").append(command).append('\n')
+                        .append("} </dev/null; __rs=$?; echo \"").append(markers[i]).append(":\$__rs\"; ")
+                        .append("echo \"").append(markers[i]).append("\" >&2\n")
+                }
+                current.stdin.write(script.toString())
+                current.stdin.flush()
+            } catch (e: IOException) {
+                destroy(current)
+                throw IOException("Shell died before commands were sent", e)
+            }
+
+            val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+            return markers.mapIndexed { i, marker ->
+                val stdout = StringBuilder()
+                val exitLine = readUntil(current, current.stdout, marker, deadline, stdout, commands[i])
+                val stderr = StringBuilder()
+                readUntil(current, current.stderr, marker, deadline, stderr, commands[i])
+                val exitCode = exitLine.substringAfter("$marker:", "").trim().toIntOrNull() ?: -1
+                Result(exitCode, stdout.toString().trimEnd('\n'), stderr.toString().trimEnd('\n'))
+            }
+        }
+    }
+
+    /**
+     * 关闭当前会话（之后再调用 exec 会自动重新启动）
+     */
+    override fun close() {
+        synchronized(lock) {
+            session?.let { destroy(it) }
+        }
+    }
+
+    private fun ensureSession(): Session {
+        session?.let { if (it.process.isAlive) return it else destroy(it) }
+
+        val process = try {
+            ProcessBuilder(*shellCommand).start()
+        } catch (e: IOException) {
+            throw IOException("Unable to start shell: ${shellCommand.joinToString(" ")}", e)
+        }
+        val stdout = LinkedBlockingQueue<String>()
+        val stderr = LinkedBlockingQueue<String>()
+        startReader(process.inputStream, stdout, "stdout")
+        startReader(process.errorStream, stderr, "stderr")
+
+        startCount++
+        Log.i(TAG, "🐚 Shell started (${shellCommand.joinToString(" ")}), start #$startCount")
+
+        return Session(
+            process = process,
+            stdin = OutputStreamWriter(process.outputStream, Charsets.UTF_8),
+            stdout = stdout,
+            stderr = stderr,
+            token = UUID.randomUUID().toString().replace("-", "").take(12)
+        ).also { session = it }
+    }
+
+    private fun startReader(stream: InputStream, queue: LinkedBlockingQueue<String>, name: String) {
+        Thread({
+            try {
+                BufferedReader(InputStreamReader(stream, Charsets.UTF_8)).use { reader ->
+                    while (true) {
+                        val line = reader.readLine() ?: break
+                        queue.put(line)
+                    }
+                }
+            } catch (_: IOException) {
+                // 进程被销毁时流会被关闭
+            } finally {
+                queue.put(EOF)
+            }
+        }, "RootShell-$name").apply { isDaemon = true }.start()
+    }
+
+    /**
+     * 从队列读取到包含 marker 的那一行为止，之前的行追加到 output
+     *
+     * 命令输出没有以换行结尾时，marker 会接在最后一段输出后面，所以按 contains 匹配。
+     *
+     * @return 包含 marker 的部分（从 marker 开始）
+     */
+    private fun readUntil(
+        current: Session,
+        queue: LinkedBlockingQueue<String>,
+        marker: String,
+        deadlineNanos: Long,
+        output: StringBuilder,
+        command: String
+    ): String {
+        while (true) {
+            val remaining = deadlineNanos - System.nanoTime()
+            val line = if (remaining > 0) queue.poll(remaining, TimeUnit.NANOSECONDS) else null
+            if (line == null) {
+                Log.w(TAG, "⏱️ Command timed out, restarting shell: ${command.take(80)}")
+                destroy(current)
+                throw ShellTimeoutException("Command timed out: ${command.take(80)}")
+            }
+            if (line === EOF) {
+                Log.w(TAG, "💀 Shell exited while running: ${command.take(80)}")
+                destroy(current)
+                throw IOException("Shell exited while running: ${command.take(80)}")
+            }
+            val index = line.indexOf(marker)
+            if (index >= 0) {
+                if (index > 0) output.append(line, 0, index).append('\n')
+                return line.substring(index)
+            }
+            output.append(line).append('\n')
+        }
+    }
+
+    private fun destroy(target: Session) {
+        try {
+            target.stdin.close()
+        } catch (_: IOException) {
+        }
+        target.process.destroy()
+        if (session === target) session = null
+    }
+}
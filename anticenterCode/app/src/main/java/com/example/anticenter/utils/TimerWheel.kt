@@ -0,0 +1,158 @@
+package com.example.anticenter.utils
+
+import android.util.Log
+import java.io.Closeable
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * 单线程哈希时间轮，用于大量"到点触发、多数会被提前取消"的定时任务（任务截止时间、重试退避）
+ *
+ * 所有定时任务共用一个线程，按 [tickMs] 的粒度触发：登记和取消都是 O(1)，
+ * 不像每个任务一个线程/一个 ScheduledExecutor 那样占用线程。
+ * 到期的任务在时间轮线程上执行，必须很快返回（取消请求、把任务放回队列之类）。
+ *
+ * @param name 线程名
+ * @param tickMs 时间精度（毫秒）
+ * @param wheelSize 槽数，必须是 2 的幂；超过一圈的任务会在槽里多停留几圈
+ */
+class TimerWheel(
+    name: String,
+    val tickMs: Long = DEFAULT_TICK_MS,
+    wheelSize: Int = DEFAULT_WHEEL_SIZE
+) : Closeable {
+
+    companion object {
+        private const val TAG = "TimerWheel"
+        const val DEFAULT_TICK_MS = 50L
+        const val DEFAULT_WHEEL_SIZE = 512
+
+        /** 进程内共享的时间轮（守护线程，不需要关闭） */
+        @JvmStatic
+        val shared: TimerWheel by lazy { TimerWheel("Detection-Timer") }
+    }
+
+    /**
+     * 已登记的定时任务句柄
+     */
+    class Timeout internal constructor(internal val deadlineTick: Long, internal val task: Runnable) {
+        @Volatile
+        internal var state = PENDING
+            private set
+
+        internal fun expire(): Boolean = transition(PENDING, EXPIRED)
+
+        /** 取消任务；已触发或已取消时返回 false */
+        fun cancel(): Boolean = transition(PENDING, CANCELLED)
+
+        val isCancelled: Boolean
+            get() = state == CANCELLED
+
+        val isExpired: Boolean
+            get() = state == EXPIRED
+
+        @Synchronized
+        private fun transition(from: Int, to: Int): Boolean {
+            if (state != from) return false
+            state = to
+            return true
+        }
+    }
+
+    private val mask = wheelSize - 1
+    private val buckets = Array(wheelSize) { ArrayList<Timeout>() }
+    private val incoming = ConcurrentLinkedQueue<Timeout>()
+    private val startNanos = System.nanoTime()
+
+    // 槽里的任务数，只在时间轮线程上读写
+    private var scheduled = 0
+
+    @Volatile
+    private var running = true
+
+    init {
+        require(wheelSize > 0 && wheelSize and mask == 0) { "wheelSize must be a power of two: $wheelSize" }
+        require(tickMs > 0) { "tickMs must be positive" }
+    }
+
+    private val worker = Thread({ loop() }, name).apply {
+        isDaemon = true
+        start()
+    }
+
+    /**
+     * 在 [delayMs] 毫秒后执行 [task]（向上取整到 tick）
+     */
+    fun schedule(delayMs: Long, task: Runnable): Timeout {
+        check(running) { "TimerWheel closed" }
+        // 按纳秒向上取整：按毫秒截断会让任务最多提前 1ms 触发
+        val tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs)
+        val delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMs.coerceAtLeast(0))
+        val deadlineTick = (System.nanoTime() - startNanos + delayNanos + tickNanos - 1) / tickNanos
+        val timeout = Timeout(deadlineTick, task)
+        incoming.add(timeout)
+        LockSupport.unpark(worker)
+        return timeout
+    }
+
+    override fun close() {
+        running = false
+        LockSupport.unpark(worker)
+    }
+
+    private fun elapsedMs() = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+
+    private fun loop() {
+        var tick = 0L
+        while (running) {
+            if (scheduled == 0 && incoming.isEmpty()) {
+                // 没有任务时不空转，等 schedule 唤醒
+                LockSupport.park(this)
+                tick = maxOf(tick, elapsedMs() / tickMs)
+                continue
+            }
+
+            val tickStart = startNanos + TimeUnit.MILLISECONDS.toNanos(tick * tickMs)
+            val wait = tickStart - System.nanoTime()
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait)
+                continue
+            }
+
+            while (true) {
+                val timeout = incoming.poll() ?: break
+                if (timeout.isCancelled) continue
+                // 登记时已经过了的 tick 放到当前槽，本轮就触发
+                buckets[(maxOf(timeout.deadlineTick, tick) and mask.toLong()).toInt()].add(timeout)
+                scheduled++
+            }
+
+            val bucket = buckets[(tick and mask.toLong()).toInt()]
+            var due: ArrayList<Timeout>? = null
+            val iterator = bucket.iterator()
+            while (iterator.hasNext()) {
+                val timeout = iterator.next()
+                if (timeout.isCancelled || timeout.deadlineTick <= tick) {
+                    iterator.remove()
+                    scheduled--
+                    if (!timeout.isCancelled) (due ?: ArrayList<Timeout>().also { due = it }).add(timeout)
+                }
+            }
+            due?.forEach { timeout ->
+                if (timeout.expire()) {
+                    try {
+                        timeout.task.run()
+                    } catch (t: Throwable) {
+                        Log.e(TAG, "Timer task failed", t)
+                    }
+                }
+            }
+            tick++
+        }
+    }
+}
+
+private const val PENDING = 0
+private const val EXPIRED = 1
+private const val CANCELLED = 2
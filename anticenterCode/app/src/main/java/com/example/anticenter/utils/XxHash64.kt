@@ -0,0 +1,138 @@
+package com.example.anticenter.utils
+
+import java.io.File
+import java.io.FileInputStream
+import java.io.InputStream
+
+/**
+ * xxHash64（非加密哈希，约 GB/s 级别），用于给音频内容做去重键
+ *
+ * 支持流式输入：多次 [update] 后 [digest]，结果与一次性 [hash] 相同。
+ * 输出与参考实现（XXH64）一致。
+ */
+class XxHash64(private val seed: Long = 0L) {
+
+    companion object {
+        private const val P1 = -7046029288634856825L // 0x9E3779B185EBCA87
+        private const val P2 = -4417276706812531889L // 0xC2B2AE3D27D4EB4F
+        private const val P3 = 1609587929392839161L  // 0x165667B19E3779F9
+        private const val P4 = -8796714831421723037L // 0x85EBCA77C2B2AE63
+        private const val P5 = 2870177450012600261L  // 0x27D4EB2F165667C5
+
+        fun hash(data: ByteArray, offset: Int = 0, length: Int = data.size, seed: Long = 0L): Long =
+            XxHash64(seed).apply { update(data, offset, length) }.digest()
+
+        fun hash(input: InputStream, seed: Long = 0L): Long {
+            val hasher = XxHash64(seed)
+            val buffer = ByteArray(64 * 1024)
+            while (true) {
+                val n = input.read(buffer)
+                if (n < 0) break
+                hasher.update(buffer, 0, n)
+            }
+            return hasher.digest()
+        }
+
+        fun hash(file: File, seed: Long = 0L): Long = FileInputStream(file).use { hash(it, seed) }
+
+        fun toHex(hash: Long): String = java.lang.Long.toHexString(hash).padStart(16, '0')
+
+        private fun round(acc: Long, lane: Long): Long =
+            java.lang.Long.rotateLeft(acc + lane * P2, 31) * P1
+
+        private fun merge(acc: Long, v: Long): Long = (acc xor round(0, v)) * P1 + P4
+
+        private fun readLong(b: ByteArray, i: Int): Long =
+            (b[i].toLong() and 0xFF) or
+                ((b[i + 1].toLong() and 0xFF) shl 8) or
+                ((b[i + 2].toLong() and 0xFF) shl 16) or
+                ((b[i + 3].toLong() and 0xFF) shl 24) or
+                ((b[i + 4].toLong() and 0xFF) shl 32) or
+                ((b[i + 5].toLong() and 0xFF) shl 40) or
+                ((b[i + 6].toLong() and 0xFF) shl 48) or
+                ((b[i + 7].toLong() and 0xFF) shl 56)
+
+        private fun readInt(b: ByteArray, i: Int): Long =
+            (b[i].toLong() and 0xFF) or
+                ((b[i + 1].toLong() and 0xFF) shl 8) or
+                ((b[i + 2].toLong() and 0xFF) shl 16) or
+                ((b[i + 3].toLong() and 0xFF) shl 24)
+    }
+
+    private var v1 = seed + P1 + P2
+    private var v2 = seed + P2
+    private var v3 = seed
+    private var v4 = seed - P1
+
+    // 不足 32 字节的尾部暂存
+    private val pending = ByteArray(32)
+    private var pendingSize = 0
+    private var totalLength = 0L
+
+    fun update(data: ByteArray, offset: Int = 0, length: Int = data.size) {
+        var pos = offset
+        val end = offset + length
+        totalLength += length
+
+        if (pendingSize + length < 32) {
+            System.arraycopy(data, pos, pending, pendingSize, length)
+            pendingSize += length
+            return
+        }
+
+        if (pendingSize > 0) {
+            val fill = 32 - pendingSize
+            System.arraycopy(data, pos, pending, pendingSize, fill)
+            consumeStripe(pending, 0)
+            pos += fill
+            pendingSize = 0
+        }
+
+        while (pos + 32 <= end) {
+            consumeStripe(data, pos)
+            pos += 32
+        }
+
+        pendingSize = end - pos
+        System.arraycopy(data, pos, pending, 0, pendingSize)
+    }
+
+    fun digest(): Long {
+        var h = if (totalLength >= 32) {
+            var acc = java.lang.Long.rotateLeft(v1, 1) + java.lang.Long.rotateLeft(v2, 7) +
+                java.lang.Long.rotateLeft(v3, 12) + java.lang.Long.rotateLeft(v4, 18)
+            acc = merge(acc, v1)
+            acc = merge(acc, v2)
+            acc = merge(acc, v3)
+            merge(acc, v4)
+        } else {
+            seed + P5
+        }
+        h += totalLength
+
+        var i = 0
+        while (i + 8 <= pendingSize) {
+            h = java.lang.Long.rotateLeft(h xor round(0, readLong(pending, i)), 27) * P1 + P4
+            i += 8
+        }
+        if (i + 4 <= pendingSize) {
+            h = java.lang.Long.rotateLeft(h xor (readInt(pending, i) * P1), 23) * P2 + P3
+            i += 4
+        }
+        while (i < pendingSize) {
+            h = java.lang.Long.rotateLeft(h xor ((pending[i].toLong() and 0xFF) * P5), 11) * P1
+            i++
+        }
+
+        h = (h xor (h ushr 33)) * P2
+        h = (h xor (h ushr 29)) * P3
+        return h xor (h ushr 32)
+    }
+
+    private fun consumeStripe(b: ByteArray, i: Int) {
+        v1 = round(v1, readLong(b, i))
+        v2 = round(v2, readLong(b, i + 8))
+        v3 = round(v3, readLong(b, i + 16))
+        v4 = round(v4, readLong(b, i + 24))
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.anticenter.video
+
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * 视频片段提交给检测后端之前的取帧策略
+ *
+ * 屏幕录制每 10 秒一段 H.264（30fps、3 Mbit/s，约 3.75 MB）。深度伪造检测看的是人脸，整段上传时
+ * 绝大部分字节花在几乎相同的相邻帧上，按后端选择只传几帧：
+ * - [Mode.FULL_SEGMENT]：原样上传 MP4
+ * - [Mode.KEYFRAMES]：取离采样时刻最近的关键帧，不用解码中间的帧，最省 CPU
+ * - [Mode.SAMPLED_FRAMES]：解码到精确的采样时刻
+ *
+ * 取出的帧在 [faceCrop] 时裁到人脸区域（找不到人脸用整帧），再缩到长边不超过 [maxEdgePx]，
+ * 按 [jpegQuality] 存成 JPEG。
+ *
+ * @param frames 每段取几帧，在片段内均匀分布
+ * @param faceMargin 人脸框向外扩的比例（相对人脸框宽高），留出发际线和下巴
+ * @param minCropPx 裁剪区域的最小边长，太小的人脸检测模型看不清
+ */
+data class FrameSamplingPolicy(
+    val mode: Mode = Mode.KEYFRAMES,
+    val frames: Int = 2,
+    val maxEdgePx: Int = 640,
+    val jpegQuality: Int = 85,
+    val faceCrop: Boolean = true,
+    val faceMargin: Float = 0.5f,
+    val minCropPx: Int = 224
+) {
+
+    enum class Mode { FULL_SEGMENT, KEYFRAMES, SAMPLED_FRAMES }
+
+    /** 人脸位置：两眼中点和两眼间距，坐标单位为像素 */
+    data class Face(val centerX: Float, val centerY: Float, val eyesDistance: Float)
+
+    /** 裁剪区域，right / bottom 不含 */
+    data class Crop(val left: Int, val top: Int, val right: Int, val bottom: Int) {
+        val width: Int
+            get() = right - left
+        val height: Int
+            get() = bottom - top
+    }
+
+    companion object {
+        /** 整段上传 */
+        @JvmField
+        val FULL = FrameSamplingPolicy(mode = Mode.FULL_SEGMENT)
+
+        /** Reality Defender 视频：每段两张关键帧，裁到人脸，长边 640 */
+        @JvmField
+        val RD_VIDEO = FrameSamplingPolicy()
+
+        // 人脸框相对两眼间距的宽高（两眼中点略高于人脸中心）
+        private const val FACE_WIDTH = 2.2f
+        private const val FACE_HEIGHT = 2.8f
+        private const val FACE_CENTER_OFFSET = 0.3f
+    }
+
+    init {
+        require(frames > 0) { "frames must be positive" }
+        require(maxEdgePx > 0 && minCropPx > 0) { "sizes must be positive" }
+        require(jpegQuality in 1..100) { "jpegQuality must be in 1..100" }
+        require(faceMargin >= 0f) { "faceMargin must be non-negative" }
+    }
+
+    /**
+     * 采样时刻（微秒）：把片段等分成 [frames] 份，取每份的中点，避开片段首尾的切换帧
+     */
+    fun sampleTimesUs(durationUs: Long): LongArray =
+        LongArray(frames) { (2 * it + 1) * durationUs.coerceAtLeast(0) / (2L * frames) }
+
+    /**
+     * 覆盖所有人脸的裁剪区域（加上 [faceMargin]），限制在画面内、边长不小于 [minCropPx]
+     *
+     * @return 没有人脸时返回 null，调用方使用整帧
+     */
+    fun faceCrop(frameWidth: Int, frameHeight: Int, faces: List<Face>): Crop? {
+        if (faces.isEmpty()) return null
+        var left = Float.MAX_VALUE
+        var top = Float.MAX_VALUE
+        var right = -Float.MAX_VALUE
+        var bottom = -Float.MAX_VALUE
+        for (face in faces) {
+            val halfW = face.eyesDistance * FACE_WIDTH * (1 + faceMargin) / 2
+            val halfH = face.eyesDistance * FACE_HEIGHT * (1 + faceMargin) / 2
+            val cy = face.centerY + face.eyesDistance * FACE_CENTER_OFFSET
+            left = min(left, face.centerX - halfW)
+            right = max(right, face.centerX + halfW)
+            top = min(top, cy - halfH)
+            bottom = max(bottom, cy + halfH)
+        }
+        val (l, r) = fit(left, right, frameWidth)
+        val (t, b) = fit(top, bottom, frameHeight)
+        return Crop(l, t, r, b)
+    }
+
+    /**
+     * 缩放后的尺寸：长边不超过 [maxEdgePx]，只缩不放
+     */
+    fun scaledSize(width: Int, height: Int): Pair<Int, Int> {
+        val longEdge = max(width, height)
+        if (longEdge <= maxEdgePx) return width to height
+        val scale = maxEdgePx.toFloat() / longEdge
+        return max(1, (width * scale).roundToInt()) to max(1, (height * scale).roundToInt())
+    }
+
+    /** 把 [from, to) 扩到至少 [minCropPx]（不超过画面），再整体平移进 [0, size) */
+    private fun fit(from: Float, to: Float, size: Int): Pair<Int, Int> {
+        val length = min(size, max(minCropPx, (to - from).roundToInt()))
+        val center = (from + to) / 2
+        val start = (center - length / 2f).roundToInt().coerceIn(0, size - length)
+        return start to start + length
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.anticenter.video
+
+import android.graphics.Bitmap
+import android.graphics.PointF
+import android.media.FaceDetector
+import android.media.MediaMetadataRetriever
+import android.os.Build
+import android.util.Log
+import java.io.File
+import java.io.FileOutputStream
+import kotlin.math.min
+
+/**
+ * 把录好的视频片段按 [FrameSamplingPolicy] 派生成几张 JPEG，代替整段 MP4 提交检测
+ *
+ * 每个采集会话持有一个实例，累计输入/输出字节和片段时长，用于对比每分钟会议上传了多少字节。
+ * 用 [MediaMetadataRetriever] 取帧、[FaceDetector] 找人脸，都在调用线程上完成（视频工作池）。
+ */
+class SegmentFrameSampler(
+    private val sessionName: String,
+    val policy: FrameSamplingPolicy
+) {
+
+    companion object {
+        private const val TAG = "SegmentFrameSampler"
+        private const val MAX_FACES = 4
+
+        // 人脸检测在缩小的画面上做，FaceDetector 耗时和像素数成正比
+        private const val DETECT_WIDTH = 480
+
+        // 多帧结论合并时的严重程度，越靠前越严重
+        private val STATUS_SEVERITY = listOf("MANIPULATED", "SUSPICIOUS", "AUTHENTIC")
+
+        /**
+         * 一段视频的结论：取各帧里最严重的状态（任一帧被判为伪造，整段就是伪造）
+         *
+         * 都不在已知状态里时返回第一个非空状态；全部为空返回 "UNKNOWN"。
+         */
+        @JvmStatic
+        fun segmentStatus(frameStatuses: Collection<String?>): String {
+            val statuses = frameStatuses.filterNotNull().map { it.uppercase() }
+            return STATUS_SEVERITY.firstOrNull { it in statuses } ?: statuses.firstOrNull() ?: "UNKNOWN"
+        }
+    }
+
+    /**
+     * 会话累计统计
+     *
+     * @param inputBytes 原始片段的字节数
+     * @param outputBytes 实际提交的字节数（派生失败时按原片段计）
+     * @param mediaSeconds 片段总时长
+     * @param fallbacks 派生失败、改为整段提交的片段数
+     */
+    data class Stats(
+        val segments: Int = 0,
+        val frames: Int = 0,
+        val fallbacks: Int = 0,
+        val inputBytes: Long = 0,
+        val outputBytes: Long = 0,
+        val mediaSeconds: Double = 0.0
+    ) {
+        /** 每分钟会议原本要上传的字节 */
+        val inputBytesPerMinute: Double
+            get() = if (mediaSeconds == 0.0) 0.0 else inputBytes * 60 / mediaSeconds
+
+        /** 每分钟会议实际上传的字节 */
+        val outputBytesPerMinute: Double
+            get() = if (mediaSeconds == 0.0) 0.0 else outputBytes * 60 / mediaSeconds
+
+        val savedRatio: Double
+            get() = if (inputBytes == 0L) 0.0 else 1 - outputBytes.toDouble() / inputBytes
+    }
+
+    private val lock = Any()
+
+    @Volatile
+    var stats = Stats()
+        private set
+
+    /**
+     * 从 [segment] 取帧写到 [outDir]，返回要提交的文件（按时间顺序）
+     *
+     * [FrameSamplingPolicy.Mode.FULL_SEGMENT]、读不出时长或一帧都没取到时返回 `listOf(segment)`，
+     * 调用方照常提交原片段。
+     */
+    fun derive(segment: File, outDir: File): List<File> {
+        val retriever = MediaMetadataRetriever()
+        var durationMs = 0L
+        val frames = ArrayList<File>()
+        try {
+            retriever.setDataSource(segment.absolutePath)
+            durationMs = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)?.toLongOrNull() ?: 0L
+            if (policy.mode != FrameSamplingPolicy.Mode.FULL_SEGMENT && durationMs > 0) {
+                val option = if (policy.mode == FrameSamplingPolicy.Mode.KEYFRAMES) {
+                    MediaMetadataRetriever.OPTION_CLOSEST_SYNC
+                } else {
+                    MediaMetadataRetriever.OPTION_CLOSEST
+                }
+                policy.sampleTimesUs(durationMs * 1000).forEachIndexed { index, timeUs ->
+                    val frame = grab(retriever, timeUs, option) ?: return@forEachIndexed
+                    val out = File(outDir, "${segment.nameWithoutExtension}_f$index.jpg")
+                    try {
+                        writeFrame(frame, out)
+                        frames += out
+                    } finally {
+                        frame.recycle()
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "[$sessionName] Frame sampling failed for ${segment.name}, submitting segment: ${e.message}")
+            frames.forEach { it.delete() }
+            frames.clear()
+        } finally {
+            try { retriever.release() } catch (_: Exception) {}
+        }
+
+        val derived = frames.isNotEmpty()
+        record(segment.length(), if (derived) frames.sumOf { it.length() } else segment.length(), durationMs, frames.size,
+            fallback = !derived && policy.mode != FrameSamplingPolicy.Mode.FULL_SEGMENT)
+        if (derived) {
+            Log.i(TAG, "[$sessionName] 🎞️ ${segment.name} ${segment.length() / 1024} KB → ${frames.size} frames " +
+                "${frames.sumOf { it.length() } / 1024} KB")
+        }
+        return if (derived) frames else listOf(segment)
+    }
+
+    fun summary(): String {
+        val s = stats
+        return "[$sessionName] ${policy.mode}: ${s.segments} segments (${"%.0f".format(s.mediaSeconds)}s) → ${s.frames} frames, " +
+            "${"%.0f".format(s.inputBytesPerMinute / 1024)} KB/min → ${"%.0f".format(s.outputBytesPerMinute / 1024)} KB/min, " +
+            "saved ${"%.0f".format(s.savedRatio * 100)}%, fallbacks ${s.fallbacks}"
+    }
+
+    /**
+     * 清零统计（新会话开始时调用）
+     */
+    fun reset() {
+        stats = Stats()
+    }
+
+    private fun grab(retriever: MediaMetadataRetriever, timeUs: Long, option: Int): Bitmap? =
+        if (!policy.faceCrop && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            // 不裁人脸时直接解码成目标尺寸，省掉一次全尺寸位图
+            retriever.getScaledFrameAtTime(timeUs, option, policy.maxEdgePx, policy.maxEdgePx)
+        } else {
+            retriever.getFrameAtTime(timeUs, option)
+        }
+
+    private fun writeFrame(frame: Bitmap, out: File) {
+        val crop = if (policy.faceCrop) policy.faceCrop(frame.width, frame.height, detectFaces(frame)) else null
+        val region = crop?.let { Bitmap.createBitmap(frame, it.left, it.top, it.width, it.height) } ?: frame
+        val (w, h) = policy.scaledSize(region.width, region.height)
+        val scaled = if (w == region.width && h == region.height) region else Bitmap.createScaledBitmap(region, w, h, true)
+        try {
+            FileOutputStream(out).use { scaled.compress(Bitmap.CompressFormat.JPEG, policy.jpegQuality, it) }
+        } finally {
+            if (scaled !== frame) scaled.recycle()
+            if (region !== frame && region !== scaled) region.recycle()
+        }
+    }
+
+    private fun detectFaces(frame: Bitmap): List<FrameSamplingPolicy.Face> {
+        val scale = min(1f, DETECT_WIDTH.toFloat() / frame.width)
+        // FaceDetector 要求 RGB_565、宽度为偶数
+        val w = (frame.width * scale).toInt() and 1.inv()
+        val h = (frame.height * scale).toInt()
+        if (w < 2 || h < 2) return emptyList()
+        val small = Bitmap.createScaledBitmap(frame, w, h, true)
+        val rgb565 = small.copy(Bitmap.Config.RGB_565, false)
+        if (small !== frame) small.recycle()
+        return try {
+            val found = arrayOfNulls<FaceDetector.Face>(MAX_FACES)
+            val count = FaceDetector(w, h, MAX_FACES).findFaces(rgb565, found)
+            val mid = PointF()
+            (0 until count).mapNotNull { found[it] }
+                .filter { it.confidence() >= FaceDetector.Face.CONFIDENCE_THRESHOLD }
+                .map {
+                    it.getMidPoint(mid)
+                    FrameSamplingPolicy.Face(mid.x / scale, mid.y / scale, it.eyesDistance() / scale)
+                }
+        } finally {
+            rgb565.recycle()
+        }
+    }
+
+    private fun record(inputBytes: Long, outputBytes: Long, durationMs: Long, frames: Int, fallback: Boolean) {
+        synchronized(lock) {
+            val s = stats
+            stats = s.copy(
+                segments = s.segments + 1,
+                frames = s.frames + frames,
+                fallbacks = s.fallbacks + if (fallback) 1 else 0,
+                inputBytes = s.inputBytes + inputBytes,
+                outputBytes = s.outputBytes + outputBytes,
+                mediaSeconds = s.mediaSeconds + durationMs / 1000.0
+            )
+        }
+    }
+}
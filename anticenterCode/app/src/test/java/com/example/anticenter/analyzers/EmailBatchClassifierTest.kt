@@ -0,0 +1,175 @@
+package com.example.anticenter.analyzers
+
+import com.example.anticenter.data.PhishingData
+import com.example.anticenter.loadtest.Benchmarks
+import com.example.anticenter.network.AdaptiveLimiter
+import com.example.anticenter.network.BackendGuard
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.test.runTest
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 用本地 Dify 桩服务验证批量分类的结果映射、并发上限，并比较逐封调用和并发调用的吞吐
+ */
+@ExperimentalCoroutinesApi
+class EmailBatchClassifierTest {
+
+    private val server = MockWebServer()
+    private val inFlight = AtomicInteger()
+    private val maxInFlight = AtomicInteger()
+    private val requests = AtomicInteger()
+
+    /** 桩服务处理一封邮件的耗时 */
+    private var latencyMs = 100L
+
+    @Before
+    fun setUp() {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                requests.incrementAndGet()
+                val running = inFlight.incrementAndGet()
+                maxInFlight.accumulateAndGet(running) { a, b -> maxOf(a, b) }
+                try {
+                    Thread.sleep(latencyMs)
+                } finally {
+                    inFlight.decrementAndGet()
+                }
+                val text = JSONObject(request.body.readUtf8()).getJSONObject("inputs").getString("InputText")
+                val llm = if ("verify your account" in text) "TRUE: credential harvesting" else "FALSE: newsletter"
+                val chunk = JSONObject()
+                    .put("event", "text_chunk")
+                    .put("workflow_run_id", "run-1")
+                    .put("data", JSONObject().put("text", llm))
+                val finished = JSONObject()
+                    .put("event", "workflow_finished")
+                    .put("task_id", "task-1")
+                    .put("workflow_run_id", "run-1")
+                    .put("data", JSONObject()
+                        .put("status", "succeeded")
+                        .put("total_tokens", 750)
+                        .put("outputs", JSONObject().put("LLM", llm)))
+                return MockResponse()
+                    .setHeader("Content-Type", "text/event-stream")
+                    .setBody("data: $chunk\n\ndata: $finished\n\n")
+            }
+        }
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    // 独立的 guard，不受同一进程里其它测试留在共享 "dify" 实例上的状态影响
+    private fun detector() = EmailDetector(
+        "key",
+        server.url("/v1/workflows/run").toString(),
+        BackendGuard("dify-test", AdaptiveLimiter(maxLimit = 6))
+    )
+
+    private fun email(id: String, phishing: Boolean = false) = PhishingData(
+        dataType = "Email",
+        content = if (phishing) "Please verify your account at http://bank.example/login ($id)" else "Weekly digest $id",
+        metadata = mapOf("messageId" to id, "subject" to "Subject $id")
+    )
+
+    @Test
+    fun classifyAll_mapsResultsByMessageIdAndSkipsDuplicates() = runTest {
+        val classifier = EmailBatchClassifier(detector(), concurrency = 3)
+        val batch = listOf(email("m1"), email("m2", phishing = true), email("m3"), email("m2", phishing = true))
+        val provisional = ArrayList<String>()
+
+        val results = classifier.classifyAll(batch, onProvisional = { email, decision ->
+            synchronized(provisional) { provisional.add("${email.metadata["messageId"]}=$decision") }
+        })
+
+        assertEquals(setOf("m1", "m2", "m3"), results.keys)
+        assertTrue(results.getValue("m2").first)
+        assertEquals("credential harvesting", results.getValue("m2").second)
+        assertFalse(results.getValue("m1").first)
+        assertEquals(3, requests.get())
+        assertTrue("m2=phishing" in provisional)
+        assertEquals(EmailBatchClassifier.Stats(4, 3, classifier.stats().busyMs), classifier.stats())
+    }
+
+    @Test
+    fun classifyAll_boundsCallsInFlight() = runTest {
+        val classifier = EmailBatchClassifier(detector(), concurrency = 2)
+
+        val results = classifier.classifyAll(List(8) { email("m$it") })
+
+        assertEquals(8, results.size)
+        assertTrue("max in flight ${maxInFlight.get()}", maxInFlight.get() <= 2)
+    }
+
+    @Test
+    fun classifyAll_skipsWorkflowForCachedEmails() = runTest {
+        val cache = EmailVerdictCache(EmailVerdictCache.MemoryStore())
+        val classifier = EmailBatchClassifier(detector(), concurrency = 2, cache = cache)
+
+        classifier.classifyAll(listOf(email("m1", phishing = true), email("m2")))
+        // 下一次轮询：m1 被重复拉取，m3 是 m2 的转发
+        val results = classifier.classifyAll(
+            listOf(email("m1", phishing = true), email("m3").copy(content = "> " + email("m2").content))
+        )
+
+        assertEquals(2, requests.get())
+        assertTrue(results.getValue("m1").first)
+        assertEquals("newsletter", results.getValue("m3").second)
+        assertEquals(1_500L, cache.stats().avoidedTokens)
+    }
+
+    @Test
+    fun keyOf_fallsBackToContentWithoutMessageId() {
+        val a = PhishingData(dataType = "Email", content = "hello", metadata = mapOf("messageId" to "N/A"))
+        val b = a.copy(metadata = emptyMap())
+        assertEquals(EmailBatchClassifier.keyOf(a), EmailBatchClassifier.keyOf(b))
+        assertEquals("m1", EmailBatchClassifier.keyOf(email("m1")))
+    }
+
+    @Test
+    fun classifyAll_matchesSequentialResultsForBurst() = runTest {
+        latencyMs = 0
+        val burst = List(24) { email("m$it", phishing = it % 5 == 0) }
+        val detector = detector()
+
+        val sequential = burst.map { detector.analyzeEmailForPhishing(it) }
+        val batched = EmailBatchClassifier(detector, concurrency = 6).classifyAll(burst)
+
+        assertEquals(sequential, burst.map { batched.getValue(EmailBatchClassifier.keyOf(it)) })
+        assertEquals(2 * burst.size, requests.get())
+    }
+
+    // ==================== Benchmark ====================
+
+    @Test
+    fun benchmark_emailsPerMinuteForBurst() = runTest {
+        Benchmarks.assumeEnabled()
+        latencyMs = 200
+        val burst = List(24) { email("m$it", phishing = it % 5 == 0) }
+        val detector = detector()
+
+        // 原实现：一封一封地等
+        val sequentialStart = System.nanoTime()
+        burst.forEach { detector.analyzeEmailForPhishing(it) }
+        val sequentialMs = (System.nanoTime() - sequentialStart) / 1_000_000
+
+        val batchedStart = System.nanoTime()
+        EmailBatchClassifier(detector, concurrency = 6).classifyAll(burst)
+        val batchedMs = (System.nanoTime() - batchedStart) / 1_000_000
+
+        assertTrue("sequential $sequentialMs vs pooled $batchedMs", batchedMs * 3 < sequentialMs)
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.anticenter.analyzers
+
+import com.example.anticenter.data.PhishingData
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * 用 MemoryStore 和可控时钟测试按 messageId / 正文哈希命中、TTL、LRU 淘汰和节省的 token 统计
+ */
+class EmailVerdictCacheTest {
+
+    private var now = 1_000_000L
+    private val store = EmailVerdictCache.MemoryStore()
+
+    private fun cache(ttlMs: Long = 60_000, maxEntries: Int = 100) =
+        EmailVerdictCache(store, ttlMs, maxEntries) { now }
+
+    private fun email(id: String?, body: String) = PhishingData(
+        dataType = "Email",
+        content = body,
+        metadata = if (id != null) mapOf("messageId" to id) else emptyMap()
+    )
+
+    private fun verdict(phishing: Boolean, tokens: Int = 800) =
+        EmailDetector.Verdict(phishing, if (phishing) "credential harvesting" else "newsletter", tokens, succeeded = true)
+
+    @Test
+    fun get_hitsByMessageIdAndByForwardedContent() {
+        val cache = cache()
+        val original = email("m1", "Your account is locked.\nVerify your account at http://bank.example/login")
+        cache.put(original, verdict(true, tokens = 900))
+
+        val forwarded = email(
+            "m2",
+            """
+            ---------- Forwarded message ---------
+            From: Bank <alerts@bank.example>
+            Date: Mon, 6 Oct 2025 at 09:12
+            Subject: Account locked
+            To: me@example.com
+
+            >  Your account is locked.
+            > Verify your account at   http://bank.example/login
+            """.trimIndent()
+        )
+
+        assertTrue(cache.get(original)!!.isPhishing)
+        assertEquals("m1", cache.get(forwarded)!!.messageId)
+        assertNull(cache.get(email("m3", "Weekly digest")))
+
+        val stats = cache.stats()
+        assertEquals(3L, stats.lookups)
+        assertEquals(1L, stats.messageIdHits)
+        assertEquals(1L, stats.contentHits)
+        assertEquals(1_800L, stats.avoidedTokens)
+    }
+
+    @Test
+    fun normalize_ignoresWhitespaceAndQuotingButKeepsCase() {
+        assertEquals(
+            EmailVerdictCache.contentHash("Click  here\nnow"),
+            EmailVerdictCache.contentHash("> Click here\n>   now ")
+        )
+        assertNotEquals(EmailVerdictCache.contentHash("click here now"), EmailVerdictCache.contentHash("click there now"))
+        // 短链接区分大小写，大小写不同就是不同的链接
+        assertNotEquals(
+            EmailVerdictCache.contentHash("Open https://bit.ly/3xYzAb"),
+            EmailVerdictCache.contentHash("Open https://bit.ly/3xyzab")
+        )
+    }
+
+    @Test
+    fun normalize_keepsHeaderLikeLinesOutsideForwardBlock() {
+        // 正文里的 "To:" 行不是转发头，收款方不同就是不同的邮件
+        val toAccounts = "Please wire the invoice amount today.\nTo: Acme Ltd, IBAN GB33BUKB20201555555555\nThanks"
+        val toAttacker = "Please wire the invoice amount today.\nTo: Acme Holdings, IBAN GB94BARC10201530093459\nThanks"
+
+        assertNotEquals(EmailVerdictCache.contentHash(toAccounts), EmailVerdictCache.contentHash(toAttacker))
+
+        // 转发标记之后紧跟的头部仍然去掉
+        assertEquals(
+            EmailVerdictCache.contentHash(toAccounts),
+            EmailVerdictCache.contentHash("-----Original Message-----\nFrom: Finance\nSent: Monday\nTo: me\n$toAccounts")
+        )
+    }
+
+    @Test
+    fun put_ignoresFailedClassifications() {
+        val cache = cache()
+        val mail = email("m1", "hello")
+        cache.put(mail, EmailDetector.Verdict(false, "API response was null", 0, succeeded = false))
+        assertNull(cache.get(mail))
+        assertEquals(0, store.size)
+    }
+
+    @Test
+    fun get_expiresAfterTtl() {
+        val cache = cache(ttlMs = 1_000)
+        val mail = email(null, "hello")
+        cache.put(mail, verdict(false))
+
+        now += 1_000
+        assertNotNull(cache.get(mail))
+        now += 1
+        assertNull(cache.get(mail))
+        assertEquals(0, store.size)
+    }
+
+    @Test
+    fun put_evictsLeastRecentlyUsedBeyondMaxEntries() {
+        val cache = cache(maxEntries = 10)
+        val first = email("m0", "body 0")
+        cache.put(first, verdict(false))
+        repeat(40) {
+            now++
+            cache.get(first) // 一直在用，不应被淘汰
+            cache.put(email("m${it + 1}", "body ${it + 1}"), verdict(false))
+        }
+
+        // 第 32 次写入时淘汰到 10 条，之后又写了 9 条
+        assertEquals(19, store.size)
+        assertNotNull(cache.get(first))
+        assertNull(cache.get(email("m1", "body 1")))
+    }
+
+    // ==================== Benchmark ====================
+
+    @Test
+    fun cache_hitRateAndAvoidedTokensForRepolledMailbox() {
+        val cache = cache(ttlMs = Long.MAX_VALUE / 2, maxEntries = 10_000)
+        val random = Random(3)
+        val seen = ArrayList<PhishingData>()
+        var llmCalls = 0
+
+        // 20 次轮询，每次 10 封：新邮件为主，夹杂重复拉取（时间戳被重置）和转发
+        repeat(20) { poll ->
+            repeat(10) { i ->
+                val mail = when {
+                    seen.isNotEmpty() && random.nextDouble() < 0.25 -> seen.random(random)
+                    seen.isNotEmpty() && random.nextDouble() < 0.1 ->
+                        seen.random(random).let { email("fwd-$poll-$i", "---------- Forwarded message ---------\nFrom: a@b.c\n\n> " + it.content) }
+                    else -> email("m$poll-$i", "Message $poll/$i: " + "lorem ipsum ".repeat(random.nextInt(5, 50)))
+                }
+                if (cache.get(mail) == null) {
+                    val tokens = 600 + mail.content.length / 4
+                    llmCalls++
+                    cache.put(mail, verdict(random.nextDouble() < 0.1, tokens))
+                }
+                seen.add(mail)
+            }
+        }
+
+        val stats = cache.stats()
+        assertEquals(200L, stats.lookups)
+        assertEquals(200, llmCalls + (stats.messageIdHits + stats.contentHits).toInt())
+        assertTrue(stats.contentHits > 0)
+        assertTrue(stats.hitRatio > 0.2)
+        assertTrue(stats.avoidedTokens > 0)
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.anticenter.analyzers
+
+import android.content.ContextWrapper
+import com.example.anticenter.audio.AudioCodec
+import com.example.anticenter.audio.AudioFingerprint
+import com.example.anticenter.loadtest.FakeDifyServer
+import com.example.anticenter.network.AudioRequestBodies
+import com.example.anticenter.services.DetectionResultCache
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Test
+
+/**
+ * 通话录音上传路径的内容缓存：同样的音频只上传一次，命中时结果换成当前文件名
+ */
+class FileUploadManagerTest {
+
+    private val dify = FakeDifyServer().apply { start() }
+
+    @After
+    fun tearDown() {
+        dify.close()
+    }
+
+    private val samples = ShortArray(8_000) { (it * 37 % 4000 - 2000).toShort() }
+
+    private fun body() = AudioRequestBodies.fromSamples(AudioCodec.WAV, samples, 0, samples.size, 16000, 1)
+
+    @Test
+    fun uploadAndTestBody_cachedAudioIsNotUploadedAgain() = runBlocking {
+        val cache = DetectionResultCache(DetectionResultCache.MemoryStore())
+        val manager = FileUploadManager(ContextWrapper(null), "app-test", dify.apiUrl, cache)
+        val hash = AudioFingerprint.ofSamples(samples, 0, samples.size, 16000, 1)
+
+        val first = manager.uploadAndTestBody(body(), "call_w0.wav", "Unknown", contentHash = hash)
+        val second = manager.uploadAndTestBody(body(), "call_w7.wav", "Unknown", contentHash = hash)
+
+        assertNotNull(first)
+        assertNotNull(second)
+        assertEquals("call_w0.wav", first!!.fileName)
+        // 缓存里记的是第一次的文件名，返回时换成本次上传的文件
+        assertEquals("call_w7.wav", second!!.fileName)
+        assertEquals(first.llmDecision, second.llmDecision)
+        assertEquals(1, dify.uploads.get())
+        assertEquals(1L, cache.stats().hits)
+    }
+
+    @Test
+    fun uploadAndTestBody_withoutHashAlwaysUploads() = runBlocking {
+        val cache = DetectionResultCache(DetectionResultCache.MemoryStore())
+        val manager = FileUploadManager(ContextWrapper(null), "app-test", dify.apiUrl, cache)
+
+        manager.uploadAndTestBody(body(), "a.wav", "Unknown")
+        manager.uploadAndTestBody(body(), "b.wav", "Unknown")
+
+        assertEquals(2, dify.uploads.get())
+        assertEquals(0L, cache.stats().lookups)
+    }
+
+    @Test
+    fun fileTestResult_jsonRoundTrip() {
+        val result = FileTestResult("a.wav", "Unknown", "PHISHING", 0.9, "Reasons: urgency", 1.5, 120, 4, false, 0.3)
+
+        assertEquals(result, FileTestResult.fromJson(result.toJson()))
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.anticenter.audio
+
+import com.example.anticenter.loadtest.Benchmarks
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.security.MessageDigest
+import java.util.Random
+import kotlin.math.PI
+import kotlin.math.log10
+import kotlin.math.sin
+
+class AudioCodecTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val random = Random(7)
+
+    /**
+     * 近似语音：变化的基频 + 谐波、音节包络、清音噪声段和词间停顿
+     */
+    private fun speechLike(seconds: Double, sampleRate: Int = 16000): ShortArray {
+        val n = (sampleRate * seconds).toInt()
+        var phase = 0.0
+        return ShortArray(n) { i ->
+            val t = i.toDouble() / sampleRate
+            val syllable = (t * 4).toInt()
+            val pause = syllable % 7 == 6
+            val unvoiced = syllable % 5 == 2
+            val f0 = 120 + 40 * sin(2 * PI * 0.7 * t)
+            phase += 2 * PI * f0 / sampleRate
+            val envelope = if (pause) 0.0 else 0.5 + 0.5 * sin(PI * ((t * 4) % 1.0))
+            val v = if (unvoiced) {
+                random.nextGaussian() * 0.3
+            } else {
+                var sum = 0.0
+                for (h in 1..10) sum += sin(phase * h) / h
+                sum
+            }
+            (v * envelope * 6000 + random.nextGaussian() * 40).toInt().coerceIn(-32768, 32767).toShort()
+        }
+    }
+
+    private fun pcmBytes(samples: ShortArray): ByteArray =
+        ByteBuffer.allocate(samples.size * 2).order(ByteOrder.LITTLE_ENDIAN).apply {
+            asShortBuffer().put(samples)
+        }.array()
+
+    // ==================== FLAC ====================
+
+    @Test
+    fun flac_roundTripsLosslessly() {
+        val samples = speechLike(10.3)
+        val flac = FlacEncoder.encode(samples, 0, samples.size, 16000)
+
+        val decoded = FlacTestDecoder(flac)
+        assertEquals(16000, decoded.sampleRate)
+        assertEquals(1, decoded.channels)
+        assertEquals(samples.size.toLong(), decoded.totalFrames)
+        assertArrayEquals(samples, decoded.samples)
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(pcmBytes(samples)), decoded.md5)
+        assertTrue("ratio ${flac.size.toDouble() / (samples.size * 2)}", flac.size < samples.size * 2 * 0.8)
+    }
+
+    @Test
+    fun flac_handlesSilenceNoiseAndStereo() {
+        val silence = ShortArray(5000)
+        val noise = ShortArray(9000) { (random.nextGaussian() * 20000).toInt().coerceIn(-32768, 32767).toShort() }
+        val extremes = ShortArray(3000) { if (it % 2 == 0) Short.MAX_VALUE else Short.MIN_VALUE }
+        val mono = silence + noise + extremes
+        assertArrayEquals(mono, FlacTestDecoder(FlacEncoder.encode(mono, 0, mono.size, 44100)).samples)
+
+        val stereo = ShortArray(20_000) { if (it % 2 == 0) (it * 3).toShort() else (-it).toShort() }
+        val decoded = FlacTestDecoder(FlacEncoder.encode(stereo, 0, stereo.size, 22050, channels = 2))
+        assertEquals(2, decoded.channels)
+        assertArrayEquals(stereo, decoded.samples)
+    }
+
+    @Test
+    fun flac_encodeToFileBackfillsStreamInfo() {
+        val samples = speechLike(3.0)
+        val file = tempFolder.newFile("clip.flac")
+        AudioCodec.FLAC.encodeToFile(file, samples, 100, 40_000, 16000, 1)
+
+        val bytes = file.readBytes()
+        assertArrayEquals(FlacEncoder.encode(samples, 100, 40_000, 16000), bytes)
+        assertArrayEquals(samples.copyOfRange(100, 40_100), FlacTestDecoder(bytes).samples)
+    }
+
+    // ==================== IMA ADPCM ====================
+
+    @Test
+    fun adpcm_headerAndSize() {
+        val samples = speechLike(2.0)
+        val encoder = ImaAdpcmEncoder(16000)
+        val bytes = AudioCodec.IMA_ADPCM.encodeToBytes(samples, 0, samples.size, 16000, 1)
+
+        assertEquals(256, encoder.blockAlign)
+        assertEquals(505, encoder.samplesPerBlock)
+        assertEquals(encoder.encodedSize(samples.size), bytes.size.toLong())
+
+        val header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+        assertEquals("RIFF", String(bytes, 0, 4, Charsets.US_ASCII))
+        assertEquals(bytes.size - 8, header.getInt(4))
+        assertEquals(ImaAdpcmEncoder.FORMAT_IMA_ADPCM, header.getShort(20).toInt())
+        assertEquals("fact", String(bytes, 40, 4, Charsets.US_ASCII))
+        assertEquals(samples.size, header.getInt(48))
+        assertEquals("data", String(bytes, 52, 4, Charsets.US_ASCII))
+        assertEquals(bytes.size - ImaAdpcmEncoder.HEADER_SIZE, header.getInt(56))
+
+        // 约为 16-bit PCM 的 1/4
+        assertTrue(bytes.size < samples.size * 2 * 0.27)
+    }
+
+    @Test
+    fun adpcm_decodesCloseToOriginal() {
+        val samples = speechLike(5.0)
+        val bytes = AudioCodec.IMA_ADPCM.encodeToBytes(samples, 0, samples.size, 16000, 1)
+        val decoded = decodeImaAdpcm(bytes, samples.size)
+
+        var signal = 0.0
+        var noise = 0.0
+        for (i in samples.indices) {
+            signal += samples[i].toDouble() * samples[i]
+            val e = samples[i] - decoded[i].toDouble()
+            noise += e * e
+        }
+        val snr = 10 * log10(signal / noise)
+        assertTrue("SNR $snr dB", snr > 20)
+    }
+
+    @Test
+    fun encode_compressesThirtySecondSpeechClips() {
+        for (rate in listOf(16000, 48000)) {
+            val speech = speechLike(30.0, rate)
+            val pcmBytes = speech.size * 2
+            val flac = AudioCodec.FLAC.encodeToBytes(speech, 0, speech.size, rate, 1)
+            val adpcm = AudioCodec.IMA_ADPCM.encodeToBytes(speech, 0, speech.size, rate, 1)
+
+            assertTrue("FLAC ${rate}Hz ratio ${flac.size.toDouble() / pcmBytes}", flac.size < pcmBytes * 0.8)
+            // 4 bit/样本，加上每块的头
+            assertTrue("ADPCM ${rate}Hz ratio ${adpcm.size.toDouble() / pcmBytes}", adpcm.size < pcmBytes * 0.3)
+        }
+    }
+
+    // ==================== Benchmark ====================
+
+    @Test
+    fun benchmark_encodesFarFasterThanRealTime() {
+        Benchmarks.assumeEnabled()
+        for (rate in listOf(16000, 48000)) {
+            val samples = speechLike(30.0, rate)
+            for (codec in AudioCodec.values()) {
+                repeat(2) { codec.encodeToBytes(samples, 0, samples.size, rate, 1) }
+                val rounds = 5
+                val start = System.nanoTime()
+                repeat(rounds) { codec.encodeToBytes(samples, 0, samples.size, rate, 1) }
+                val realtime = samples.size.toDouble() / rate * rounds / ((System.nanoTime() - start) / 1e9)
+
+                // 上传前编码，至少要比实时快一个数量级才不会拖慢检测
+                assertTrue("$codec ${rate}Hz ${"%.0f".format(realtime)}x realtime", realtime > 10)
+            }
+        }
+    }
+
+    // ==================== 测试用解码器 ====================
+
+    private fun decodeImaAdpcm(bytes: ByteArray, frames: Int): ShortArray {
+        val steps = intArrayOf(
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+            253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+            1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+            3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+            12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+        )
+        val indexTable = intArrayOf(-1, -1, -1, -1, 2, 4, 6, 8)
+        val header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+        val blockAlign = header.getShort(32).toInt()
+        val samplesPerBlock = header.getShort(38).toInt()
+
+        val out = ShortArray(frames)
+        var pos = ImaAdpcmEncoder.HEADER_SIZE
+        var frame = 0
+        while (frame < frames) {
+            var predictor = header.getShort(pos).toInt()
+            var index = bytes[pos + 2].toInt()
+            out[frame] = predictor.toShort()
+            for (i in 1 until samplesPerBlock) {
+                val byte = bytes[pos + 4 + (i - 1) / 2].toInt()
+                val nibble = if ((i - 1) % 2 == 0) byte and 0x0F else (byte shr 4) and 0x0F
+                val step = steps[index]
+                var delta = step shr 3
+                if (nibble and 4 != 0) delta += step
+                if (nibble and 2 != 0) delta += step shr 1
+                if (nibble and 1 != 0) delta += step shr 2
+                predictor = (if (nibble and 8 != 0) predictor - delta else predictor + delta).coerceIn(-32768, 32767)
+                index = (index + indexTable[nibble and 7]).coerceIn(0, 88)
+                if (frame + i < frames) out[frame + i] = predictor.toShort()
+            }
+            pos += blockAlign
+            frame += samplesPerBlock
+        }
+        return out
+    }
+
+    /**
+     * 只支持编码器会产生的子帧类型（CONSTANT / VERBATIM / FIXED + 4-bit Rice），并校验两个 CRC
+     */
+    private class FlacTestDecoder(private val data: ByteArray) {
+        var sampleRate = 0
+        var channels = 0
+        var totalFrames = 0L
+        lateinit var md5: ByteArray
+        lateinit var samples: ShortArray
+
+        private var bitPos = 0L
+
+        init {
+            assertEquals("fLaC", String(data, 0, 4, Charsets.US_ASCII))
+            bitPos = 32
+            assertEquals(1, readBits(1)) // last metadata block
+            assertEquals(0, readBits(7))
+            assertEquals(34, readBits(24))
+            readBits(16)
+            readBits(16)
+            readBits(24)
+            readBits(24)
+            sampleRate = readBits(20)
+            channels = readBits(3) + 1
+            assertEquals(15, readBits(5))
+            totalFrames = (readBits(4).toLong() shl 32) or (readBits(32).toLong() and 0xFFFFFFFFL)
+            md5 = ByteArray(16) { readBits(8).toByte() }
+
+            val out = ArrayList<Short>()
+            while (bitPos / 8 < data.size) decodeFrame(out)
+            samples = ShortArray(out.size) { out[it] }
+        }
+
+        private fun decodeFrame(out: MutableList<Short>) {
+            val frameStart = (bitPos / 8).toInt()
+            assertEquals(0xFFF8, readBits(16))
+            val bsCode = readBits(4)
+            readBits(4)
+            assertEquals(channels - 1, readBits(4))
+            assertEquals(0b100, readBits(3))
+            readBits(1)
+            // UTF-8 帧号
+            val lead = readBits(8)
+            var extra = 0
+            while (lead and (0x80 ushr extra) != 0) extra++
+            repeat(maxOf(0, extra - 1)) { readBits(8) }
+            val blockSize = when (bsCode) {
+                1 -> 192
+                in 2..5 -> 576 shl (bsCode - 2)
+                6 -> readBits(8) + 1
+                7 -> readBits(16) + 1
+                else -> 256 shl (bsCode - 8)
+            }
+            val headerEnd = (bitPos / 8).toInt()
+            assertEquals(crc8(frameStart, headerEnd), readBits(8))
+
+            val decoded = Array(channels) { decodeSubframe(blockSize) }
+            if (bitPos % 8 != 0L) bitPos += 8 - bitPos % 8
+            val footerStart = (bitPos / 8).toInt()
+            assertEquals(crc16(frameStart, footerStart), readBits(16))
+
+            for (i in 0 until blockSize) for (c in 0 until channels) out.add(decoded[c][i].toShort())
+        }
+
+        private fun decodeSubframe(n: Int): IntArray {
+            assertEquals(0, readBits(1))
+            val type = readBits(6)
+            assertEquals(0, readBits(1))
+            val x = IntArray(n)
+            when {
+                type == 0 -> x.fill(readSigned(16))
+                type == 1 -> for (i in 0 until n) x[i] = readSigned(16)
+                type in 8..12 -> {
+                    val order = type - 8
+                    for (i in 0 until order) x[i] = readSigned(16)
+                    assertEquals(0, readBits(2))
+                    val partitionOrder = readBits(4)
+                    val partitionSize = n shr partitionOrder
+                    var i = order
+                    for (p in 0 until (1 shl partitionOrder)) {
+                        val k = readBits(4)
+                        val count = if (p == 0) partitionSize - order else partitionSize
+                        repeat(count) {
+                            var q = 0
+                            while (readBits(1) == 0) q++
+                            val u = (q shl k) or (if (k > 0) readBits(k) else 0)
+                            val r = (u ushr 1) xor -(u and 1)
+                            x[i] = r + when (order) {
+                                0 -> 0
+                                1 -> x[i - 1]
+                                2 -> 2 * x[i - 1] - x[i - 2]
+                                3 -> 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3]
+                                else -> 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4]
+                            }
+                            i++
+                        }
+                    }
+                }
+                else -> throw AssertionError("Unexpected subframe type $type")
+            }
+            return x
+        }
+
+        private fun readBits(n: Int): Int {
+            var v = 0L
+            repeat(n) {
+                val byte = data[(bitPos / 8).toInt()].toInt()
+                val bit = (byte shr (7 - (bitPos % 8).toInt())) and 1
+                v = (v shl 1) or bit.toLong()
+                bitPos++
+            }
+            return v.toInt()
+        }
+
+        private fun readSigned(n: Int): Int = (readBits(n) shl (32 - n)) shr (32 - n)
+
+        private fun crc8(from: Int, to: Int): Int {
+            var crc = 0
+            for (i in from until to) {
+                crc = crc xor (data[i].toInt() and 0xFF)
+                repeat(8) { crc = if (crc and 0x80 != 0) ((crc shl 1) xor 0x07) and 0xFF else (crc shl 1) and 0xFF }
+            }
+            return crc
+        }
+
+        private fun crc16(from: Int, to: Int): Int {
+            var crc = 0
+            for (i in from until to) {
+                crc = crc xor ((data[i].toInt() and 0xFF) shl 8)
+                repeat(8) { crc = if (crc and 0x8000 != 0) ((crc shl 1) xor 0x8005) and 0xFFFF else (crc shl 1) and 0xFFFF }
+            }
+            return crc
+        }
+    }
+}
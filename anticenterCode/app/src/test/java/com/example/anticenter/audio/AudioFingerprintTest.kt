@@ -0,0 +1,77 @@
+package com.example.anticenter.audio
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class AudioFingerprintTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val samples = ShortArray(16000) { (3000 * kotlin.math.sin(it * 0.05)).toInt().toShort() }
+
+    @Test
+    fun ofFile_sameAudioDifferentFileNamesMatch() {
+        val a = tempFolder.newFile("Zoom_tap_1.wav")
+        val b = tempFolder.newFile("Zoom_tap_2.wav")
+        WavWriter.write(a, samples, 0, samples.size, 16000, 1)
+        WavWriter.write(b, samples, 0, samples.size, 16000, 1)
+
+        assertEquals(AudioFingerprint.ofFile(a), AudioFingerprint.ofFile(b))
+    }
+
+    @Test
+    fun ofFile_differentSamplesOrFormatDiffer() {
+        val base = tempFolder.newFile("base.wav")
+        val changed = tempFolder.newFile("changed.wav")
+        val otherRate = tempFolder.newFile("rate.wav")
+        WavWriter.write(base, samples, 0, samples.size, 16000, 1)
+        val copy = samples.copyOf().also { it[8000] = (it[8000] + 1).toShort() }
+        WavWriter.write(changed, copy, 0, copy.size, 16000, 1)
+        WavWriter.write(otherRate, samples, 0, samples.size, 8000, 1)
+
+        val fingerprint = AudioFingerprint.ofFile(base)
+        assertNotEquals(fingerprint, AudioFingerprint.ofFile(changed))
+        assertNotEquals(fingerprint, AudioFingerprint.ofFile(otherRate))
+    }
+
+    @Test
+    fun ofPcmFile_matchesWavOfSameSamples() {
+        val wav = tempFolder.newFile("a.wav")
+        val pcm = tempFolder.newFile("a.pcm")
+        WavWriter.write(wav, samples, 0, samples.size, 16000, 1)
+        pcm.writeBytes(ByteBuffer.allocate(samples.size * 2).order(ByteOrder.LITTLE_ENDIAN)
+            .apply { asShortBuffer().put(samples) }.array())
+
+        assertEquals(AudioFingerprint.ofFile(wav), AudioFingerprint.ofPcmFile(pcm, 16000, 1))
+    }
+
+    @Test
+    fun ofSamples_matchesWavOfSameSamples() {
+        val wav = tempFolder.newFile("a.wav")
+        WavWriter.write(wav, samples, 100, samples.size - 200, 16000, 1)
+
+        assertEquals(AudioFingerprint.ofFile(wav), AudioFingerprint.ofSamples(samples, 100, samples.size - 200, 16000, 1))
+        assertNotEquals(AudioFingerprint.ofFile(wav), AudioFingerprint.ofSamples(samples, 0, samples.size - 200, 16000, 1))
+    }
+
+    @Test
+    fun ofFile_flacUsesStreamInfoSoBlockSizeDoesNotMatter() {
+        val a = tempFolder.newFile("a.flac")
+        val b = tempFolder.newFile("b.flac")
+        a.writeBytes(FlacEncoder.encode(samples, 0, samples.size, 16000))
+        val out = ByteArrayOutputStream()
+        val encoder = FlacEncoder(out, 16000, blockSize = 1152, totalFrames = samples.size.toLong())
+        encoder.write(samples, 0, samples.size)
+        val info = encoder.finish()
+        b.writeBytes(out.toByteArray().also { encoder.streamInfo(info).copyInto(it, 8) })
+
+        assertEquals(AudioFingerprint.ofFile(a), AudioFingerprint.ofFile(b))
+    }
+}
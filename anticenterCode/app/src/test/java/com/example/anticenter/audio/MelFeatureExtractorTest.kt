@@ -0,0 +1,186 @@
+package com.example.anticenter.audio
+
+import com.example.anticenter.loadtest.Benchmarks
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.Random
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.sin
+
+class MelFeatureExtractorTest {
+
+    private val random = Random(11)
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    private fun tone(freq: Double, seconds: Double, amplitude: Double = 8000.0, sampleRate: Int = 16000) =
+        ShortArray((sampleRate * seconds).toInt()) { (amplitude * sin(2 * PI * freq * it / sampleRate)).toInt().toShort() }
+
+    private fun speechLike(seconds: Double, sampleRate: Int = 16000): ShortArray {
+        var phase = 0.0
+        return ShortArray((sampleRate * seconds).toInt()) { i ->
+            val t = i.toDouble() / sampleRate
+            phase += 2 * PI * (130 + 30 * sin(2 * PI * 0.5 * t)) / sampleRate
+            var v = 0.0
+            for (h in 1..12) v += sin(phase * h) / h
+            val envelope = 0.5 + 0.5 * sin(2 * PI * 4 * t)
+            (v * envelope * 5000 + random.nextGaussian() * 100).toInt().coerceIn(-32768, 32767).toShort()
+        }
+    }
+
+    // ==================== FFT ====================
+
+    @Test
+    fun fft_powerSpectrumMatchesNaiveDft() {
+        for (size in listOf(2, 4, 8, 64, 512)) {
+            val fft = Fft(size)
+            val length = size - size / 4
+            val input = FloatArray(size) { if (it < length) random.nextFloat() * 2 - 1 else 0f }
+            val power = FloatArray(size / 2 + 1)
+            fft.powerSpectrum(input, length, power)
+
+            for (k in 0..size / 2) {
+                var re = 0.0
+                var im = 0.0
+                for (n in 0 until length) {
+                    re += input[n] * cos(2 * PI * k * n / size)
+                    im -= input[n] * sin(2 * PI * k * n / size)
+                }
+                val expected = re * re + im * im
+                assertEquals("size $size bin $k", expected, power[k].toDouble(), 1e-3 * maxOf(1.0, expected))
+            }
+        }
+    }
+
+    // ==================== 特征 ====================
+
+    @Test
+    fun process_chunkedStreamMatchesOneShot() {
+        val samples = speechLike(2.0)
+        val expected = MelFeatureExtractor().extract(samples)
+
+        val extractor = MelFeatureExtractor()
+        val actual = ArrayList<FloatArray>()
+        val sink = MelFeatureExtractor.FrameSink { actual.add(it.mfcc + it.delta) }
+        var pos = 0
+        while (pos < samples.size) {
+            val n = minOf(samples.size - pos, 1 + random.nextInt(700))
+            extractor.process(samples, pos, n, sink)
+            pos += n
+        }
+        extractor.flush(sink)
+
+        assertEquals(expected.size, actual.size)
+        for (i in expected.indices) assertArrayEquals("frame $i", expected[i], actual[i], 1e-5f)
+    }
+
+    @Test
+    fun process_emitsOneFramePerHopWithDeltaLatency() {
+        val extractor = MelFeatureExtractor()
+        val samples = tone(440.0, 1.0)
+        val indices = ArrayList<Long>()
+
+        extractor.process(samples, 0, samples.size, { indices.add(it.index) })
+        val computed = 1 + (samples.size - extractor.frameSize) / extractor.hopSize
+        // 最后 deltaWindow 帧要等后续帧或 flush
+        assertEquals(computed - extractor.config.deltaWindow, indices.size)
+
+        extractor.flush { indices.add(it.index) }
+        assertEquals(computed, indices.size)
+        assertEquals((0 until computed).map { it.toLong() }, indices)
+    }
+
+    @Test
+    fun logMel_peaksInBandContainingToneFrequency() {
+        val extractor = MelFeatureExtractor()
+        val peaks = ArrayList<Int>()
+        val samples = tone(1000.0, 0.5)
+        extractor.process(samples, 0, samples.size) { frame ->
+            peaks.add(frame.logMel.indices.maxByOrNull { frame.logMel[it] }!!)
+        }
+
+        // 40 个带覆盖 20~8000Hz，1000Hz 的中心带
+        val minMel = MelFeatureExtractor.hzToMel(20.0)
+        val step = (MelFeatureExtractor.hzToMel(8000.0) - minMel) / 41
+        val expectedBand = ((MelFeatureExtractor.hzToMel(1000.0) - minMel) / step).toInt() - 1
+        assertTrue(peaks.isNotEmpty())
+        peaks.forEach { assertTrue("band $it vs $expectedBand", abs(it - expectedBand) <= 1) }
+    }
+
+    @Test
+    fun delta_zeroForStationarySignalAndPositiveForRisingLevel() {
+        val stationary = MelFeatureExtractor().extract(tone(500.0, 1.0))
+        val mfccCount = MelFeatureExtractor().config.mfccCount
+        for (frame in stationary.drop(5).dropLast(5)) {
+            for (k in 0 until mfccCount) assertEquals(0f, frame[mfccCount + k], 0.05f)
+        }
+
+        val rising = ShortArray(16000) { (it / 16000.0 * 20000 * sin(2 * PI * 500 * it / 16000)).toInt().toShort() }
+        val features = MelFeatureExtractor().extract(rising)
+        // c0 与整体对数能量成正比，音量上升时 delta c0 为正
+        for (frame in features.drop(10).dropLast(5)) assertTrue(frame[mfccCount] > 0f)
+    }
+
+    @Test
+    fun silence_producesFiniteFeatures() {
+        val features = MelFeatureExtractor().extract(ShortArray(8000))
+        assertTrue(features.isNotEmpty())
+        features.forEach { frame -> frame.forEach { assertTrue(it.isFinite()) } }
+    }
+
+    /** 按 100ms 一块喂完一段样本再 flush，模拟实时处理 */
+    private fun streamThrough(extractor: MelFeatureExtractor, samples: ShortArray, sink: MelFeatureExtractor.FrameSink) {
+        var pos = 0
+        while (pos < samples.size) {
+            val n = minOf(1600, samples.size - pos)
+            extractor.process(samples, pos, n, sink)
+            pos += n
+        }
+        extractor.flush(sink)
+    }
+
+    @Test
+    fun process_allocatesNothingPerPassOnceWarm() {
+        val bean = threadBean
+        assumeTrue(bean?.isThreadAllocatedMemorySupported == true)
+        bean!!.isThreadAllocatedMemoryEnabled = true
+        val samples = speechLike(30.0)
+        val extractor = MelFeatureExtractor()
+        var frames = 0
+        val sink = MelFeatureExtractor.FrameSink { frames++ }
+
+        repeat(3) { streamThrough(extractor, samples, sink) }
+        val threadId = Thread.currentThread().id
+        val allocatedBefore = bean.getThreadAllocatedBytes(threadId)
+        val rounds = 5
+        repeat(rounds) { streamThrough(extractor, samples, sink) }
+        val allocated = (bean.getThreadAllocatedBytes(threadId) - allocatedBefore) / rounds
+
+        assertTrue(frames > 0)
+        assertTrue("allocated $allocated", allocated < 4 * 1024)
+    }
+
+    // ==================== Benchmark ====================
+
+    @Test
+    fun benchmark_realtimeFactor() {
+        Benchmarks.assumeEnabled()
+        val samples = speechLike(30.0)
+        val extractor = MelFeatureExtractor()
+        val sink = MelFeatureExtractor.FrameSink { }
+
+        repeat(3) { streamThrough(extractor, samples, sink) }
+        val rounds = 5
+        val start = System.nanoTime()
+        repeat(rounds) { streamThrough(extractor, samples, sink) }
+        val realtime = 30.0 * rounds / ((System.nanoTime() - start) / 1e9)
+
+        assertTrue("realtime factor $realtime", realtime >= 50)
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.anticenter.audio
+
+import com.example.anticenter.loadtest.Benchmarks
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * 解码输出累积路径的基准测试
+ *
+ * 用 direct ByteBuffer 模拟 MediaCodec 的输出块（48kHz 立体声，每块 4096 字节），
+ * 分别走旧的 List<Byte> 累积方式和 PcmBuffer，统计吞吐（bytes/sec）和每解码 1 秒音频的分配字节数。
+ * 分配字节数随单元测试检查；吞吐对比是计时断言，见 [Benchmarks]。
+ */
+class PcmDecodeBenchmarkTest {
+
+    private companion object {
+        const val SAMPLE_RATE = 48_000
+        const val CHANNELS = 2
+        const val SNAPSHOT_SECONDS = 10
+        const val CODEC_CHUNK_BYTES = 4096
+        const val BYTES_PER_SECOND = SAMPLE_RATE * CHANNELS * 2
+        const val WARMUP_ROUNDS = 3
+        const val MEASURED_ROUNDS = 5
+    }
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    private val codecOutput: ByteBuffer = ByteBuffer.allocateDirect(CODEC_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN).apply {
+        var phase = 0
+        while (hasRemaining()) {
+            putShort((Math.sin(phase++ * 0.05) * 8000).toInt().toShort())
+        }
+        flip()
+    }
+
+    private val totalBytes = BYTES_PER_SECOND * SNAPSHOT_SECONDS
+
+    private data class Measurement(val bytesPerSecond: Double, val allocatedPerDecodedSecond: Long)
+
+    /** 旧实现：chunk.toList() + addAll + toByteArray() */
+    private fun legacyDecode(): ByteArray {
+        val pcmBuffer = mutableListOf<Byte>()
+        var remaining = totalBytes
+        while (remaining > 0) {
+            val size = minOf(CODEC_CHUNK_BYTES, remaining)
+            val chunk = ByteArray(size)
+            codecOutput.position(0)
+            codecOutput.get(chunk, 0, size)
+            pcmBuffer.addAll(chunk.toList())
+            remaining -= size
+        }
+        return pcmBuffer.toByteArray()
+    }
+
+    private fun streamingDecode(sink: PcmBuffer): Int {
+        sink.clear()
+        var remaining = totalBytes
+        while (remaining > 0) {
+            val size = minOf(CODEC_CHUNK_BYTES, remaining)
+            codecOutput.position(0)
+            sink.append(codecOutput, size)
+            remaining -= size
+        }
+        return sink.size
+    }
+
+    private fun measure(block: () -> Int): Measurement {
+        repeat(WARMUP_ROUNDS) { block() }
+
+        val bean = threadBean!!
+        val threadId = Thread.currentThread().id
+        val allocatedBefore = bean.getThreadAllocatedBytes(threadId)
+        val start = System.nanoTime()
+        var decoded = 0L
+        repeat(MEASURED_ROUNDS) { decoded += block() }
+        val elapsedNs = System.nanoTime() - start
+        val allocated = bean.getThreadAllocatedBytes(threadId) - allocatedBefore
+
+        val decodedSeconds = decoded.toDouble() / BYTES_PER_SECOND
+        return Measurement(
+            bytesPerSecond = decoded / (elapsedNs / 1e9),
+            allocatedPerDecodedSecond = (allocated / decodedSeconds).toLong()
+        )
+    }
+
+    @Test
+    fun streamingDecode_producesSameBytesAsLegacy() {
+        val legacy = legacyDecode()
+        val buffer = PcmBuffer(1024)
+        streamingDecode(buffer)
+
+        assertEquals(legacy.size, buffer.size)
+        assertTrue(legacy.contentEquals(buffer.array.copyOf(buffer.size)))
+    }
+
+    @Test
+    fun streamingDecode_allocatesNothingPerSnapshotOnceWarm() {
+        assumeTrue(threadBean?.isThreadAllocatedMemorySupported == true)
+        threadBean!!.isThreadAllocatedMemoryEnabled = true
+
+        val legacy = measure { legacyDecode().size }
+        val buffer = PcmBuffer()
+        val streaming = measure { streamingDecode(buffer) }
+
+        // 预热后复用的缓冲区不应再分配（留一点余量给 JIT/计时本身）
+        assertTrue("${streaming.allocatedPerDecodedSecond} B", streaming.allocatedPerDecodedSecond < 4 * 1024)
+        assertTrue("${legacy.allocatedPerDecodedSecond} B", legacy.allocatedPerDecodedSecond > BYTES_PER_SECOND)
+    }
+
+    @Test
+    fun benchmark_streamingThroughputAgainstLegacy() {
+        Benchmarks.assumeEnabled()
+        assumeTrue(threadBean?.isThreadAllocatedMemorySupported == true)
+        threadBean!!.isThreadAllocatedMemoryEnabled = true
+
+        val legacy = measure { legacyDecode().size }
+        val buffer = PcmBuffer()
+        val streaming = measure { streamingDecode(buffer) }
+
+        assertTrue(
+            "legacy ${"%.1f".format(legacy.bytesPerSecond / 1e6)} MB/s, " +
+                "streaming ${"%.1f".format(streaming.bytesPerSecond / 1e6)} MB/s",
+            streaming.bytesPerSecond > legacy.bytesPerSecond
+        )
+    }
+}
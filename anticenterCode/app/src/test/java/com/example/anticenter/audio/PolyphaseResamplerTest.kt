@@ -0,0 +1,277 @@
+package com.example.anticenter.audio
+
+import com.example.anticenter.loadtest.Benchmarks
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.lang.management.ManagementFactory
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.log10
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+class PolyphaseResamplerTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    private fun tone(frequency: Double, sampleRate: Int, seconds: Double, channels: Int = 1, amplitude: Double = 10000.0): ShortArray {
+        val frames = (sampleRate * seconds).toInt()
+        return ShortArray(frames * channels) { i ->
+            (amplitude * sin(2 * PI * frequency * (i / channels) / sampleRate)).toInt().toShort()
+        }
+    }
+
+    private fun resampleAll(resampler: PolyphaseResampler, input: ShortArray): ShortArray {
+        val output = ShortArray(resampler.maxOutputSamples(input.size / resampler.inputChannels) + resampler.tapsPerPhase)
+        val n = resampler.process(input, 0, input.size, output, 0)
+        return output.copyOf(n + resampler.flush(output, n))
+    }
+
+    private fun rms(samples: ShortArray, skip: Int): Double {
+        var sum = 0.0
+        for (i in skip until samples.size - skip) sum += samples[i].toDouble() * samples[i]
+        return sqrt(sum / (samples.size - 2 * skip))
+    }
+
+    /** 旧实现（BCRMonitorCollector.resamplePcm 的拷贝），作为基准对比 */
+    private fun legacyResample(pcmData: ByteArray, sourceSampleRate: Int, targetSampleRate: Int, sourceChannels: Int): ByteArray {
+        val targetChannels = 1
+        val sourceSamples = pcmData.size / 2 / sourceChannels
+        val sourcePcm16 = ShortArray(sourceSamples * sourceChannels)
+        for (i in sourcePcm16.indices) {
+            val byteIndex = i * 2
+            sourcePcm16[i] = ((pcmData[byteIndex].toInt() and 0xFF) or (pcmData[byteIndex + 1].toInt() shl 8)).toShort()
+        }
+        val monoSourcePcm = if (sourceChannels > 1) {
+            ShortArray(sourceSamples) { i ->
+                var sum = 0
+                for (ch in 0 until sourceChannels) sum += sourcePcm16[i * sourceChannels + ch]
+                (sum / sourceChannels).toShort()
+            }
+        } else {
+            sourcePcm16
+        }
+        val resampleRatio = targetSampleRate.toDouble() / sourceSampleRate
+        val targetSamples = (sourceSamples * resampleRatio).toInt()
+        val targetPcm16 = ShortArray(targetSamples * targetChannels)
+        for (i in 0 until targetSamples) {
+            val sourcePos = i / resampleRatio
+            val sourceIndex = sourcePos.toInt()
+            val fraction = sourcePos - sourceIndex
+            for (ch in 0 until targetChannels) {
+                val sample = if (sourceIndex + 1 < sourceSamples) {
+                    val s1 = monoSourcePcm[sourceIndex * targetChannels + ch % sourceChannels].toDouble()
+                    val s2 = monoSourcePcm[(sourceIndex + 1) * targetChannels + ch % sourceChannels].toDouble()
+                    (s1 + (s2 - s1) * fraction).toInt().toShort()
+                } else {
+                    monoSourcePcm[sourceIndex * targetChannels + ch % sourceChannels]
+                }
+                targetPcm16[i * targetChannels + ch] = sample
+            }
+        }
+        val output = ByteArray(targetPcm16.size * 2)
+        for (i in targetPcm16.indices) {
+            val sample = targetPcm16[i].toInt()
+            output[i * 2] = (sample and 0xFF).toByte()
+            output[i * 2 + 1] = (sample shr 8).toByte()
+        }
+        return output
+    }
+
+    private fun toPcm16(samples: ShortArray): ByteArray {
+        val bytes = ByteArray(samples.size * 2)
+        for (i in samples.indices) {
+            bytes[i * 2] = (samples[i].toInt() and 0xFF).toByte()
+            bytes[i * 2 + 1] = (samples[i].toInt() shr 8).toByte()
+        }
+        return bytes
+    }
+
+    @Test
+    fun downsample48kTo16k_keepsSpeechBandAndRejectsAliases() {
+        val resampler = PolyphaseResampler(48000, 16000)
+        assertEquals(1, resampler.upFactor)
+        assertEquals(3, resampler.downFactor)
+
+        val passband = resampleAll(PolyphaseResampler(48000, 16000), tone(1000.0, 48000, 1.0))
+        val alias = resampleAll(PolyphaseResampler(48000, 16000), tone(11000.0, 48000, 1.0))
+
+        assertEquals(16000.0, passband.size.toDouble(), 32.0)
+        val passRms = rms(passband, 200)
+        val aliasRms = rms(alias, 200)
+        // 1kHz 基本无损，11kHz（会折叠到 5kHz）至少衰减 60dB
+        assertEquals(10000 / sqrt(2.0), passRms, 150.0)
+        assertTrue("alias attenuation ${20 * log10(passRms / aliasRms)} dB", 20 * log10(passRms / aliasRms) > 60)
+    }
+
+    @Test
+    fun rationalRatio_producesExpectedLengthAndGain() {
+        val resampler = PolyphaseResampler(44100, 16000)
+        assertEquals(160, resampler.upFactor)
+        assertEquals(441, resampler.downFactor)
+
+        val output = resampleAll(resampler, tone(440.0, 44100, 1.0))
+
+        assertEquals(16000.0, output.size.toDouble(), 32.0)
+        assertEquals(10000 / sqrt(2.0), rms(output, 200), 150.0)
+    }
+
+    @Test
+    fun groupDelay_isCompensated() {
+        // 100ms 处的单位脉冲，输出的峰值也应在 100ms 处，总长度不多出滤波器尾巴
+        for (inputRate in listOf(48000, 44100)) {
+            val input = ShortArray(inputRate / 5)
+            input[inputRate / 10] = 20000
+            val resampler = PolyphaseResampler(inputRate, 16000)
+            val output = resampleAll(resampler, input)
+
+            val peak = output.indices.maxByOrNull { output[it].toInt() }!!
+            assertEquals("$inputRate Hz peak", 1600.0, peak.toDouble(), 1.0)
+            assertEquals("$inputRate Hz length", 3200.0, output.size.toDouble(), 2.0)
+        }
+    }
+
+    @Test
+    fun chunkedProcessing_matchesSingleShot() {
+        val input = tone(700.0, 48000, 0.5, channels = 2)
+        val whole = resampleAll(PolyphaseResampler(48000, 16000, inputChannels = 2), input)
+
+        val chunked = PolyphaseResampler(48000, 16000, inputChannels = 2)
+        val output = ShortArray(whole.size + 64)
+        var written = 0
+        var offset = 0
+        val chunkSizes = intArrayOf(2, 998, 4096, 30, 7002)
+        var c = 0
+        while (offset < input.size) {
+            val length = minOf(chunkSizes[c++ % chunkSizes.size], input.size - offset)
+            written += chunked.process(input, offset, length, output, written)
+            offset += length
+        }
+        written += chunked.flush(output, written)
+
+        assertArrayEquals(whole, output.copyOf(written))
+    }
+
+    @Test
+    fun stereoDownmix_isFusedIntoResampling() {
+        val frames = 4800
+        val stereo = ShortArray(frames * 2) { i -> if (i % 2 == 0) 4000 else 2000 }
+        val output = resampleAll(PolyphaseResampler(48000, 16000, inputChannels = 2), stereo)
+
+        // 去掉起止的滤波器瞬态后应为 (4000 + 2000) / 2
+        for (i in 100 until output.size - 100) {
+            assertTrue(abs(output[i] - 3000) <= 2)
+        }
+    }
+
+    @Test
+    fun passThrough_copiesSamples() {
+        val input = tone(500.0, 16000, 0.1)
+        val resampler = PolyphaseResampler(16000, 16000)
+
+        assertTrue(resampler.isPassThrough)
+        assertArrayEquals(input, resampleAll(resampler, input))
+    }
+
+    @Test
+    fun convertPcmFile_writesValidHeaderAtTargetRate() {
+        val pcm = tempFolder.newFile("in.pcm")
+        pcm.writeBytes(toPcm16(tone(1000.0, 48000, 1.0)))
+        val wav = tempFolder.newFile("out.wav")
+
+        val dataSize = WavWriter.convertPcmFile(pcm, wav, 48000, 1)
+
+        val bytes = wav.readBytes()
+        fun le32(off: Int) = (bytes[off].toInt() and 0xFF) or ((bytes[off + 1].toInt() and 0xFF) shl 8) or
+            ((bytes[off + 2].toInt() and 0xFF) shl 16) or ((bytes[off + 3].toInt() and 0xFF) shl 24)
+        assertEquals(16000, le32(24))
+        assertEquals(dataSize.toInt(), le32(40))
+        assertEquals(bytes.size - 8, le32(4))
+        assertEquals(32000.0, dataSize.toDouble(), 64.0)
+    }
+
+    @Test
+    fun convertPcmFile_convertsOnlyRequestedSpan() {
+        // 前 0.5s 静音、后 0.5s 1kHz：只转换后半段，原始采样率和 16kHz 两条路径长度一致
+        val input = ShortArray(48000)
+        tone(1000.0, 48000, 0.5).copyInto(input, 24000)
+        val pcm = tempFolder.newFile("span.pcm")
+        pcm.writeBytes(toPcm16(input))
+
+        val native = tempFolder.newFile("native.wav")
+        assertEquals(48000L, WavWriter.convertPcmFile(pcm, native, 48000, 1, 48000, startFrame = 24000, frameCount = 24000))
+        val down = tempFolder.newFile("down.wav")
+        val downSize = WavWriter.convertPcmFile(pcm, down, 48000, 1, startFrame = 24000, frameCount = 24000)
+        assertEquals(16000.0, downSize.toDouble(), 4.0)
+
+        val (rate, samples) = WavWriter.readMono(down)!!
+        assertEquals(16000, rate)
+        assertEquals(10000 / sqrt(2.0), rms(samples, 200), 150.0)
+    }
+
+    @Test
+    fun processPcm16_allocatesNothingOnceWarmUnlikeLegacy() {
+        assumeTrue(threadBean?.isThreadAllocatedMemorySupported == true)
+        val bean = threadBean!!
+        bean.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+
+        // 10 秒 48kHz 立体声快照，与 BCR 的典型输入一致
+        val pcm = toPcm16(tone(1000.0, 48000, 10.0, channels = 2))
+        val inputSamples = pcm.size / 2
+        val rounds = 5
+
+        repeat(2) { legacyResample(pcm, 48000, 16000, 2) }
+        var allocated = bean.getThreadAllocatedBytes(threadId)
+        repeat(rounds) { legacyResample(pcm, 48000, 16000, 2) }
+        val legacyAllocated = (bean.getThreadAllocatedBytes(threadId) - allocated) / rounds
+
+        val resampler = PolyphaseResampler(48000, 16000, inputChannels = 2)
+        val output = ShortArray(resampler.maxOutputSamples(inputSamples / 2) + resampler.tapsPerPhase)
+        repeat(2) {
+            resampler.reset()
+            resampler.processPcm16(pcm, 0, pcm.size, output, 0)
+        }
+        allocated = bean.getThreadAllocatedBytes(threadId)
+        repeat(rounds) {
+            resampler.reset()
+            resampler.processPcm16(pcm, 0, pcm.size, output, 0)
+        }
+        val polyphaseAllocated = (bean.getThreadAllocatedBytes(threadId) - allocated) / rounds
+
+        // 预热后不再分配（工作缓冲区已扩容到位）
+        assertTrue("$polyphaseAllocated B", polyphaseAllocated < 4 * 1024)
+        assertTrue("$legacyAllocated B", legacyAllocated > pcm.size)
+    }
+
+    @Test
+    fun benchmark_resamplesFarFasterThanRealTime() {
+        Benchmarks.assumeEnabled()
+        val pcm = toPcm16(tone(1000.0, 48000, 10.0, channels = 2))
+        val resampler = PolyphaseResampler(48000, 16000, inputChannels = 2)
+        val output = ShortArray(resampler.maxOutputSamples(pcm.size / 4) + resampler.tapsPerPhase)
+        val rounds = 5
+
+        repeat(2) {
+            resampler.reset()
+            resampler.processPcm16(pcm, 0, pcm.size, output, 0)
+        }
+        val start = System.nanoTime()
+        repeat(rounds) {
+            resampler.reset()
+            resampler.processPcm16(pcm, 0, pcm.size, output, 0)
+        }
+        val secondsPerSnapshot = (System.nanoTime() - start) / 1e9 / rounds
+
+        // 10 秒的快照要在 1 秒内转完，才不会拖慢 BCR 的轮询
+        assertTrue("${"%.3f".format(secondsPerSnapshot)}s per 10s snapshot", secondsPerSnapshot < 1.0)
+    }
+}
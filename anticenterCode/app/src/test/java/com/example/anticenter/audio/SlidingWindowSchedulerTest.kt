@@ -0,0 +1,164 @@
+package com.example.anticenter.audio
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class SlidingWindowSchedulerTest {
+
+    private val rate = 1000
+
+    /** 样本值等于它在流中的位置（取模），方便核对窗口内容 */
+    private fun feed(
+        scheduler: SlidingWindowScheduler,
+        seconds: Double,
+        blockSize: Int = 137
+    ): List<SlidingWindowScheduler.Window> {
+        val windows = mutableListOf<SlidingWindowScheduler.Window>()
+        val total = (seconds * rate).toInt()
+        var position = scheduler.receivedSamples.toInt()
+        val end = position + total
+        while (position < end) {
+            val n = minOf(blockSize, end - position)
+            val block = ShortArray(n) { ((position + it) % 30000).toShort() }
+            scheduler.append(block, 0, n) { windows += it }
+            position += n
+        }
+        return windows
+    }
+
+    private fun assertContent(window: SlidingWindowScheduler.Window) {
+        window.samples.forEachIndexed { i, sample ->
+            assertEquals(((window.startSample + i) % 30000).toShort(), sample)
+        }
+    }
+
+    @Test
+    fun firstWindow_emittedAfterFirstStageWindow() {
+        val scheduler = SlidingWindowScheduler(rate)
+
+        assertTrue(feed(scheduler, 7.9).isEmpty())
+        val windows = feed(scheduler, 0.1)
+
+        assertEquals(1, windows.size)
+        assertEquals(0L, windows[0].startSample)
+        assertEquals(8 * rate, windows[0].samples.size)
+        assertEquals(8 * rate, windows[0].newSamples)
+    }
+
+    @Test
+    fun windows_overlapAndCarryExactSamples() {
+        val scheduler = SlidingWindowScheduler(rate)
+        val windows = feed(scheduler, 20.0)
+
+        // 8s 窗口、4s 步长：在 8、12、16、20 秒处各出一个
+        assertEquals(listOf(8000L, 12000L, 16000L, 20000L), windows.map { it.endSample })
+        for (w in windows.drop(1)) {
+            assertEquals(8 * rate, w.samples.size)
+            assertEquals(4 * rate, w.newSamples)
+            assertEquals(4 * rate, w.overlapSamples)
+        }
+        windows.forEach(::assertContent)
+    }
+
+    @Test
+    fun stages_widenWindowAndHopOverTime() {
+        val scheduler = SlidingWindowScheduler(rate)
+        val windows = feed(scheduler, 240.0, blockSize = 4096)
+
+        val late = windows.last()
+        assertEquals(20 * rate, late.samples.size)
+        assertEquals(16 * rate, late.newSamples)
+        assertTrue(windows.any { it.samples.size == 12 * rate && it.newSamples == 8 * rate })
+        windows.forEach(::assertContent)
+
+        // 窗口首尾相接，没有遗漏的音频
+        windows.zipWithNext().forEach { (a, b) -> assertEquals(a.endSample, b.endSample - b.newSamples) }
+
+        // 上传量：总窗口长度 / 通话时长，远低于第一阶段的 2 倍
+        val uploaded = windows.sumOf { it.samples.size }.toDouble() / (240 * rate)
+        assertTrue("upload ratio $uploaded", uploaded < 1.5)
+    }
+
+    @Test
+    fun flush_emitsUncoveredTail() {
+        val scheduler = SlidingWindowScheduler(rate)
+        feed(scheduler, 10.5)
+
+        val tail = scheduler.flush()
+        assertNotNull(tail)
+        assertEquals(10_500L, tail!!.endSample)
+        assertEquals(2_500, tail.newSamples)
+        assertEquals(8 * rate, tail.samples.size)
+        assertContent(tail)
+
+        // 尾部不足 1 秒就不单独成窗
+        feed(scheduler, 0.5)
+        assertNull(scheduler.flush())
+    }
+
+    @Test
+    fun appendPcm16_handlesOddByteBlocks() {
+        val scheduler = SlidingWindowScheduler(rate)
+        val samples = ShortArray(9 * rate) { (it % 30000 - 15000).toShort() }
+        val bytes = ByteBuffer.allocate(samples.size * 2).order(ByteOrder.LITTLE_ENDIAN)
+            .apply { asShortBuffer().put(samples) }.array()
+
+        val windows = mutableListOf<SlidingWindowScheduler.Window>()
+        var offset = 0
+        while (offset < bytes.size) {
+            val n = minOf(333, bytes.size - offset)
+            scheduler.appendPcm16(bytes, offset, n) { windows += it }
+            offset += n
+        }
+
+        assertEquals(1, windows.size)
+        assertEquals(samples.copyOfRange(0, 8 * rate).toList(), windows[0].samples.toList())
+        assertEquals(9L * rate, scheduler.receivedSamples)
+    }
+
+    @Test
+    fun overlapCache_reusesAndDeduplicatesAlerts() {
+        val scheduler = SlidingWindowScheduler(rate)
+        val windows = feed(scheduler, 40.0)
+        val cache = OverlapResultCache<String>()
+
+        assertNull(cache.reuseFor(windows[0]))
+
+        val first = cache.submit(windows[0])
+        cache.complete(first, "PHISHING")
+        assertSame(first, cache.reuseFor(windows[1]))
+        assertEquals(1, cache.reusedWindows)
+
+        // 8s 窗口、4s 步长：隔一个的窗口不再重叠
+        assertNull(cache.reuseFor(windows[2]))
+
+        val second = cache.submit(windows[1])
+        assertTrue(cache.markAlert(first))
+        assertFalse(cache.markAlert(second))
+
+        val far = cache.submit(windows[5])
+        assertTrue(cache.markAlert(far))
+    }
+
+    @Test
+    fun overlapCache_doesNotReusePartiallyOverlappingWindow() {
+        val cache = OverlapResultCache<String>()
+        cache.submit(SlidingWindowScheduler.Window(0, 0L, ShortArray(8 * rate), 8 * rate))
+
+        // 已分析过的部分是 6s~12s，0s~8s 的窗口只覆盖了其中一段
+        val shifted = SlidingWindowScheduler.Window(1, 6L * rate, ShortArray(8 * rate), 2 * rate)
+        assertNull(cache.reuseFor(shifted))
+
+        // 没有重叠样本的窗口什么都不复用
+        val fresh = SlidingWindowScheduler.Window(2, 8L * rate, ShortArray(4 * rate), 4 * rate)
+        assertNull(cache.reuseFor(fresh))
+        assertEquals(0, cache.reusedWindows)
+    }
+}
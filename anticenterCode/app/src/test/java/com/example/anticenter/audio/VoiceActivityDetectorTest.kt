@@ -0,0 +1,182 @@
+package com.example.anticenter.audio
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.Random
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.sin
+
+class VoiceActivityDetectorTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private val sampleRate = 16000
+    private val random = Random(42)
+
+    /** 150Hz 基频 + 谐波，按 4Hz 音节节奏调幅，近似浊音 */
+    private fun voiced(seconds: Double): ShortArray {
+        val n = (sampleRate * seconds).toInt()
+        return ShortArray(n) { i ->
+            val t = i.toDouble() / sampleRate
+            var v = 0.0
+            for (h in 1..12) v += sin(2 * PI * 150 * h * t) / h
+            val envelope = 0.55 + 0.45 * sin(2 * PI * 4 * t)
+            (v * envelope * 5000 + random.nextGaussian() * 30).toInt().toShort()
+        }
+    }
+
+    private fun silence(seconds: Double, level: Double = 20.0): ShortArray =
+        ShortArray((sampleRate * seconds).toInt()) { (random.nextGaussian() * level).toInt().toShort() }
+
+    /** 等待音乐：C-Am-F-G 和弦每秒换一次，每个音带 4 个谐波，音量基本平稳，比人声低约 10dB */
+    private fun holdMusic(seconds: Double): ShortArray {
+        val chords = listOf(
+            doubleArrayOf(261.6, 329.6, 392.0),
+            doubleArrayOf(220.0, 261.6, 329.6),
+            doubleArrayOf(174.6, 220.0, 261.6),
+            doubleArrayOf(196.0, 246.9, 293.7)
+        )
+        val n = (sampleRate * seconds).toInt()
+        return ShortArray(n) { i ->
+            val t = i.toDouble() / sampleRate
+            var v = 0.0
+            for (f in chords[t.toInt() % chords.size]) {
+                for (h in 1..4) v += sin(2 * PI * f * h * t) / (h * h)
+            }
+            val tremolo = 0.9 + 0.1 * sin(2 * PI * 0.5 * t)
+            (v * tremolo * 800 + random.nextGaussian() * 30).toInt().toShort()
+        }
+    }
+
+    private fun whiteNoise(seconds: Double): ShortArray =
+        ShortArray((sampleRate * seconds).toInt()) { (random.nextGaussian() * 6000).toInt().coerceIn(-32768, 32767).toShort() }
+
+    @Test
+    fun silence_isNotSpeech() {
+        val vad = VoiceActivityDetector()
+        val analysis = vad.analyze(silence(5.0))
+
+        assertFalse(vad.isSpeech(analysis))
+        assertEquals(0, analysis.speechFrames)
+    }
+
+    @Test
+    fun broadbandNoise_isRejectedBySpectralFlatness() {
+        val vad = VoiceActivityDetector()
+        val analysis = vad.analyze(silence(1.0) + whiteNoise(3.0) + silence(1.0))
+
+        assertFalse(vad.isSpeech(analysis))
+    }
+
+    @Test
+    fun holdMusic_passesSpectralFlatnessButIsNotSpeech() {
+        val samples = silence(1.0) + holdMusic(8.0) + silence(1.0)
+
+        val vad = VoiceActivityDetector()
+        val analysis = vad.analyze(samples)
+
+        assertFalse(vad.isSpeech(analysis))
+        assertTrue("ratio ${analysis.speechRatio}", analysis.speechRatio < vad.config.minSpeechRatio)
+
+        // 和弦是音调信号，谱平坦度远低于 0.45；不看能量起伏时整段都会被当成语音
+        val flatnessOnly = VoiceActivityDetector(config = VoiceActivityDetector.Config(minLowEnergyFraction = 0.0))
+        assertTrue(flatnessOnly.isSpeech(flatnessOnly.analyze(samples)))
+        val noTonal = VoiceActivityDetector(
+            config = VoiceActivityDetector.Config(maxFlatness = 0.0, minLowEnergyFraction = 0.0)
+        )
+        assertEquals(0, noTonal.analyze(samples).speechFrames)
+    }
+
+    @Test
+    fun holdMusicWithShortAnnouncement_isGatedBySpeechRatio() {
+        // 20 秒的片段里大部分是等待音乐，中间插一句 1 秒的提示音
+        val samples = holdMusic(9.5) + voiced(1.0) + holdMusic(9.5)
+
+        val vad = VoiceActivityDetector()
+        val analysis = vad.analyze(samples)
+
+        assertTrue("frames ${analysis.speechFrames}", analysis.speechFrames > 0)
+        assertTrue("ratio ${analysis.speechRatio}", analysis.speechRatio < 0.15)
+        assertFalse(vad.isSpeech(analysis))
+
+        val lenient = VoiceActivityDetector(config = VoiceActivityDetector.Config(minSpeechRatio = 0.02))
+        assertTrue(lenient.isSpeech(lenient.analyze(samples)))
+    }
+
+    @Test
+    fun voicedAudio_isSpeechAndSilenceIsTrimmed() {
+        val vad = VoiceActivityDetector()
+        val samples = silence(3.0) + voiced(4.0) + silence(3.0)
+
+        val analysis = vad.analyze(samples)
+
+        assertTrue(vad.isSpeech(analysis))
+        // 保留区间应覆盖语音段（3s~7s）并去掉大部分首尾静音
+        val startSec = analysis.speechStart.toDouble() / sampleRate
+        val endSec = analysis.speechEnd.toDouble() / sampleRate
+        assertTrue("start $startSec", abs(startSec - 3.0) < 0.5)
+        assertTrue("end $endSec", abs(endSec - 7.0) < 0.8)
+        assertTrue(analysis.keptSeconds < 6.0)
+    }
+
+    @Test
+    fun speechGate_countsSkippedAndUploadedSeconds() {
+        val gate = SpeechGate("test")
+
+        assertFalse(gate.evaluate(silence(10.0)).upload)
+        assertTrue(gate.evaluate(silence(2.0) + voiced(6.0) + silence(2.0)).upload)
+
+        val stats = gate.stats
+        assertEquals(1, stats.skippedChunks)
+        assertEquals(1, stats.uploadedChunks)
+        assertEquals(10.0, stats.skippedSeconds, 0.01)
+        assertEquals(10.0, stats.uploadedSeconds + stats.trimmedSeconds, 0.01)
+        assertTrue(stats.savedRatio > 0.5)
+    }
+
+    @Test
+    fun evaluateWindow_gatesOnNewTailAndTrimsWholeWindow() {
+        val gate = SpeechGate("test")
+        val newOffset = 4 * sampleRate
+
+        // 语音从 2s 持续到 6s，新增的 4s~8s 里有语音：上传整窗去掉首尾静音后的部分
+        val speaking = gate.evaluateWindow(silence(2.0) + voiced(4.0) + silence(2.0), newOffset)
+        assertTrue(speaking.upload)
+        assertTrue("start ${speaking.start}", abs(speaking.start.toDouble() / sampleRate - 2.0) < 0.5)
+        assertTrue("end ${speaking.end}", abs(speaking.end.toDouble() / sampleRate - 6.0) < 0.8)
+
+        // 语音只在重叠部分：不上传
+        assertFalse(gate.evaluateWindow(silence(1.0) + voiced(3.0) + silence(4.0), newOffset).upload)
+        assertEquals(1, gate.stats.skippedChunks)
+        assertEquals(4.0, gate.stats.skippedSeconds, 0.01)
+    }
+
+    @Test
+    fun gateWavFile_trimsUploadInPlace() {
+        val samples = silence(3.0) + voiced(3.0) + silence(3.0)
+        val wav = tempFolder.newFile("chunk.wav")
+        WavWriter.write(wav, samples, 0, samples.size, sampleRate, 1)
+        val originalLength = wav.length()
+
+        val upload = SpeechGate("test").gateWavFile(wav)
+
+        assertTrue(upload)
+        assertTrue(wav.length() < originalLength * 2 / 3)
+        assertEquals((wav.length() - WavWriter.HEADER_SIZE) % 2, 0L)
+    }
+
+    @Test
+    fun gateWavFile_skipsSilentFile() {
+        val samples = silence(5.0)
+        val wav = tempFolder.newFile("silent.wav")
+        WavWriter.write(wav, samples, 0, samples.size, sampleRate, 1)
+
+        assertFalse(SpeechGate("test").gateWavFile(wav))
+    }
+}
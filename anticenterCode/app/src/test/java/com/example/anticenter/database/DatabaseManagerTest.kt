@@ -5,6 +5,10 @@ import com.example.anticenter.SelectFeatures
 import com.example.anticenter.data.AllowlistItem
 import com.example.anticenter.data.AlertLogItem
 import com.example.anticenter.data.ContentLogItem
+import com.example.anticenter.analyzers.EmailVerdictCache
+import com.example.anticenter.services.CybertraceRiskCache
+import com.example.anticenter.services.CybertraceRiskClient
+import com.example.anticenter.services.DetectionResultCache
 import com.google.common.truth.Truth.assertThat
 import org.junit.After
 import org.junit.Before
@@ -307,6 +311,117 @@ class DatabaseManagerTest {
         assertThat(allLogs).hasSize(3)
     }
 
+    // ==================== DetectionCache测试 ====================
+
+    @Test
+    fun `test put and get detection cache entry`() {
+        // Given: 一条缓存的检测结果
+        val entry = DetectionResultCache.Entry("dify", "00000000000000ff", "{\"verdict\":\"SAFE\"}", 2048, 100L, 100L)
+        databaseManager.putDetectionCacheEntry(entry)
+
+        // When: 按检测器和哈希读取、更新访问时间
+        databaseManager.touchDetectionCacheEntry("dify", "00000000000000ff", 200L)
+        val loaded = databaseManager.getDetectionCacheEntry("dify", "00000000000000ff")
+
+        // Then: 内容一致，访问时间已更新；其它检测器读不到
+        assertThat(loaded).isEqualTo(entry.copy(lastAccess = 200L))
+        assertThat(databaseManager.getDetectionCacheEntry("rd", "00000000000000ff")).isNull()
+    }
+
+    @Test
+    fun `test evict detection cache by ttl and lru`() {
+        // Given: 5条缓存，第1条已过期，第2条最近访问过
+        for (i in 1..5) {
+            databaseManager.putDetectionCacheEntry(
+                DetectionResultCache.Entry("rd", "hash$i", "{}", 100, i * 10L, i * 10L)
+            )
+        }
+        databaseManager.touchDetectionCacheEntry("rd", "hash2", 1000L)
+
+        // When: 删除 createdAt < 15 的条目，并只保留2条
+        val evicted = databaseManager.evictDetectionCache(expiredBefore = 15L, maxEntries = 2)
+
+        // Then: 剩下最近访问的 hash2 和 hash5
+        assertThat(evicted).isEqualTo(3)
+        assertThat(databaseManager.getDetectionCacheCount()).isEqualTo(2)
+        assertThat(databaseManager.getDetectionCacheEntry("rd", "hash2")).isNotNull()
+        assertThat(databaseManager.getDetectionCacheEntry("rd", "hash5")).isNotNull()
+    }
+
+    // ==================== EmailVerdictCache测试 ====================
+
+    @Test
+    fun `test put and get email verdict by message id and content hash`() {
+        // Given: 一条缓存的邮件判定
+        val entry = EmailVerdictCache.Entry("00000000000000aa", "msg-1", true, "credential harvesting", 812, 100L, 100L)
+        databaseManager.putEmailVerdict(entry)
+
+        // When: 更新访问时间后分别按 messageId 和正文哈希读取
+        databaseManager.touchEmailVerdict("00000000000000aa", 200L)
+        val byId = databaseManager.getEmailVerdictByMessageId("msg-1")
+        val byHash = databaseManager.getEmailVerdictByContentHash("00000000000000aa")
+
+        // Then: 两种方式读到同一条，访问时间已更新
+        assertThat(byId).isEqualTo(entry.copy(lastAccess = 200L))
+        assertThat(byHash).isEqualTo(byId)
+        assertThat(databaseManager.getEmailVerdictByMessageId("msg-2")).isNull()
+    }
+
+    @Test
+    fun `test evict email verdicts by ttl and lru`() {
+        // Given: 4条判定（没有 messageId 和解释），第1条已过期，第2条最近访问过
+        for (i in 1..4) {
+            databaseManager.putEmailVerdict(EmailVerdictCache.Entry("hash$i", null, false, null, 500, i * 10L, i * 10L))
+        }
+        databaseManager.touchEmailVerdict("hash2", 1000L)
+
+        // When: 删除 createdAt < 15 的条目，并只保留2条
+        val evicted = databaseManager.evictEmailVerdicts(expiredBefore = 15L, maxEntries = 2)
+
+        // Then: 剩下 hash2 和 hash4，空字段读回为 null
+        assertThat(evicted).isEqualTo(2)
+        assertThat(databaseManager.getEmailVerdictCount()).isEqualTo(2)
+        assertThat(databaseManager.getEmailVerdictByContentHash("hash2")?.explanation).isNull()
+        assertThat(databaseManager.getEmailVerdictByContentHash("hash4")).isNotNull()
+    }
+
+    // ==================== CybertraceRiskCache测试 ====================
+
+    @Test
+    fun `test put and get cybertrace risk including negative result`() {
+        // Given: 一个有风险数据的号码和一个查不到数据的号码
+        val risky = CybertraceRiskCache.Entry(
+            "61400000001", CybertraceRiskClient.Result(82, "high risk", 128, 12, "Risk Score : 82%"), 100L, 100L
+        )
+        databaseManager.putCybertraceRisk(risky)
+        databaseManager.putCybertraceRisk(CybertraceRiskCache.Entry("61400000002", null, 150L, 150L))
+
+        // When: 更新第一个号码的访问时间后读取
+        databaseManager.touchCybertraceRisk("61400000001", 300L)
+
+        // Then: 结果字段完整读回，负结果读回为 null，最近列表按访问时间排序
+        assertThat(databaseManager.getCybertraceRisk("61400000001")).isEqualTo(risky.copy(lastAccess = 300L))
+        assertThat(databaseManager.getCybertraceRisk("61400000002")?.result).isNull()
+        assertThat(databaseManager.getRecentCybertraceRisks(1).map { it.number }).containsExactly("61400000001")
+        assertThat(databaseManager.getCybertraceRisk("61400000003")).isNull()
+    }
+
+    @Test
+    fun `test evict cybertrace risks by ttl and lru`() {
+        // Given: 4个号码，第1个已过期，第2个最近访问过
+        for (i in 1..4) {
+            databaseManager.putCybertraceRisk(CybertraceRiskCache.Entry("number$i", null, i * 10L, i * 10L))
+        }
+        databaseManager.touchCybertraceRisk("number2", 1000L)
+
+        // When: 删除 fetchedAt < 15 的条目，并只保留2条
+        val evicted = databaseManager.evictCybertraceRisks(expiredBefore = 15L, maxEntries = 2)
+
+        // Then: 剩下 number2 和 number4
+        assertThat(evicted).isEqualTo(2)
+        assertThat(databaseManager.getRecentCybertraceRisks(10).map { it.number }).containsExactly("number2", "number4").inOrder()
+    }
+
     // ==================== 边界情况测试 ====================
 
     @Test
@@ -0,0 +1,22 @@
+package com.example.anticenter.loadtest
+
+import org.junit.Assume.assumeTrue
+
+/**
+ * 计时类基准测试的开关
+ *
+ * 比较墙钟耗时、吞吐的断言在 CI 或负载高的机器上会随机失败，默认跳过；需要对比数字时打开：
+ * `./gradlew testDebugUnitTest --tests '*PolyphaseResamplerTest' -Dbenchmark=true`
+ *
+ * 数量、顺序这类确定性的断言不受影响，照常随单元测试运行。
+ */
+object Benchmarks {
+
+    val enabled: Boolean
+        get() = java.lang.Boolean.getBoolean("benchmark")
+
+    /** 放在计时测试开头，没打开开关时跳过 */
+    fun assumeEnabled() {
+        assumeTrue("timing benchmark, run with -Dbenchmark=true", enabled)
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.anticenter.loadtest
+
+import okhttp3.HttpUrl
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import java.io.Closeable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 本地假后端的公共部分：一个 MockWebServer，检测器构造时把 API 地址换成 [baseUrl] 下的路径
+ *
+ * 没有网络也能跑。按请求计数，记录注入了多少错误、发出了哪些判定。
+ */
+abstract class FakeBackend : Dispatcher(), Closeable {
+
+    private val server = MockWebServer()
+
+    val requests = AtomicInteger()
+    val injectedErrors = AtomicInteger()
+    val requestBytes = AtomicLong()
+    val verdicts = ConcurrentHashMap<String, AtomicInteger>()
+
+    /** 模拟上行带宽（字节/秒），限制所有请求体的读取速度；0 表示不限 */
+    @Volatile
+    var uplinkBytesPerSecond = 0L
+
+    /** 本地地址，以 "/" 结尾 */
+    val baseUrl: HttpUrl
+        get() = server.url("/")
+
+    fun start(): FakeBackend {
+        server.dispatcher = this
+        server.start()
+        return this
+    }
+
+    override fun close() {
+        server.shutdown()
+    }
+
+    final override fun dispatch(request: RecordedRequest): MockResponse {
+        requests.incrementAndGet()
+        requestBytes.addAndGet(request.bodySize)
+        return handle(request, request.requestUrl?.encodedPath ?: "")
+    }
+
+    // MockWebServer 按 peek() 的节流设置读取请求体
+    final override fun peek(): MockResponse {
+        val rate = uplinkBytesPerSecond
+        return if (rate <= 0) super.peek() else super.peek().throttleBody(rate / 20, 50, TimeUnit.MILLISECONDS)
+    }
+
+    protected abstract fun handle(request: RecordedRequest, path: String): MockResponse
+
+    /** 按 [outcome] 睡够延迟；需要注入错误时返回错误响应，否则返回 null */
+    protected fun delayOrError(outcome: LoadProfile.Outcome, errorBody: String): MockResponse? {
+        Thread.sleep(outcome.latencyMs)
+        val code = outcome.errorCode ?: return null
+        injectedErrors.incrementAndGet()
+        return json(errorBody).setResponseCode(code)
+    }
+
+    protected fun countVerdict(verdict: String) {
+        verdicts.computeIfAbsent(verdict) { AtomicInteger() }.incrementAndGet()
+    }
+
+    protected fun json(body: String): MockResponse =
+        MockResponse().setHeader("Content-Type", "application/json").setBody(body)
+
+    protected fun notFound(): MockResponse = json("""{"code":"not_found","message":"Not found"}""").setResponseCode(404)
+}
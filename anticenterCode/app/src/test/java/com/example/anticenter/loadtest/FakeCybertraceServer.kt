@@ -0,0 +1,44 @@
+package com.example.anticenter.loadtest
+
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.RecordedRequest
+
+/**
+ * 假 Cybertrace 号码查询页：`GET /scam-phone-number-lookup/?search=<digits>`，查询客户端的 baseUrl 换成 [lookupUrl]
+ *
+ * 按 [lookup] 抽延迟、错误和判定（"HIGH" / "MEDIUM" / "LOW"），返回带风险块的 HTML，
+ * 风险块后面跟一段填充内容，和真实页面一样需要扫描器提前停下。
+ */
+class FakeCybertraceServer(
+    private val lookup: LoadProfile = LoadProfile(verdicts = mapOf("LOW" to 1.0))
+) : FakeBackend() {
+
+    companion object {
+        private const val PATH = "/scam-phone-number-lookup/"
+        private val SCORES = mapOf("HIGH" to 82, "MEDIUM" to 45, "LOW" to 12)
+        private val FILLER = "<p>" + "Cybertrace investigators assist with scam recovery. ".repeat(40) + "</p>\n"
+    }
+
+    val lookupUrl: String
+        get() = baseUrl.resolve(PATH).toString()
+
+    override fun handle(request: RecordedRequest, path: String): MockResponse {
+        if (request.method != "GET" || path != PATH) return notFound()
+        val outcome = lookup.sample()
+        delayOrError(outcome, "<html><body>Service unavailable</body></html>")?.let {
+            return it.setHeader("Content-Type", "text/html")
+        }
+        countVerdict(outcome.verdict)
+        val score = SCORES[outcome.verdict] ?: 0
+        val page = buildString {
+            append("<!DOCTYPE html><html><head><title>Scam Phone Number Lookup</title></head><body>\n")
+            append("<h1>Results for ${request.requestUrl?.queryParameter("search")}</h1>\n")
+            append("<div class=\"risk\"><h2>Risk Score : $score%</h2>")
+            append("<p>This phone number is considered ${outcome.verdict.lowercase()} risk.</p>")
+            append("<p>Searched 128 times</p><p>Reported 12 times</p></div>\n")
+            repeat(20) { append(FILLER) }
+            append("</body></html>")
+        }
+        return MockResponse().setHeader("Content-Type", "text/html; charset=UTF-8").setBody(page)
+    }
+}
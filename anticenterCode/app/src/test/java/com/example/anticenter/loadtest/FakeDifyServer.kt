@@ -0,0 +1,122 @@
+package com.example.anticenter.loadtest
+
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.RecordedRequest
+import org.json.JSONObject
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 假 Dify：`POST /v1/files/upload`、`POST /v1/workflows/run`（blocking 和 streaming）
+ *
+ * 检测器的 Dify 地址换成 [apiUrl]（邮件检测器用 [workflowUrl]）。
+ *
+ * - 上传按 [upload] 抽延迟和错误，返回新的文件 id
+ * - 工作流按 [workflow] 抽延迟、错误和判定（"phishing" / "safe"）。LLM 输出同时带 verdict/confidence
+ *   （语音检测器、上传管理器）和 decision/likelihood（邮件检测器）
+ * - streaming 模式先等 30% 的延迟再发响应头，剩下的时间里分几段发 text_chunk，最后发 workflow_finished
+ * - 引用了没上传过的文件时返回 400 upload_file_not_found，和真实服务一样
+ */
+class FakeDifyServer(
+    private val upload: LoadProfile = LoadProfile(),
+    private val workflow: LoadProfile = LoadProfile()
+) : FakeBackend() {
+
+    companion object {
+        private const val CHUNKS = 4
+    }
+
+    /** 相当于 `https://api.dify.ai/v1`，不带结尾的 `/` */
+    val apiUrl: String
+        get() = baseUrl.resolve("v1").toString()
+
+    val workflowUrl: String
+        get() = "$apiUrl/workflows/run"
+
+    val uploads = AtomicInteger()
+    val runs = AtomicInteger()
+    private val files = ConcurrentHashMap.newKeySet<String>()
+
+    override fun handle(request: RecordedRequest, path: String): MockResponse = when {
+        request.method != "POST" -> notFound()
+        path == "/v1/files/upload" -> upload(request)
+        path == "/v1/workflows/run" -> run(request)
+        else -> notFound()
+    }
+
+    private fun upload(request: RecordedRequest): MockResponse {
+        uploads.incrementAndGet()
+        delayOrError(upload.sample(), """{"code":"internal_error","message":"Injected upload failure"}""")?.let { return it }
+        val id = UUID.randomUUID().toString()
+        files += id
+        return json(
+            JSONObject()
+                .put("id", id)
+                .put("name", "upload.wav")
+                .put("size", request.bodySize)
+                .put("extension", "wav")
+                .put("mime_type", "audio/wav")
+                .put("created_at", System.currentTimeMillis() / 1000)
+                .toString()
+        )
+    }
+
+    private fun run(request: RecordedRequest): MockResponse {
+        runs.incrementAndGet()
+        val payload = JSONObject(request.body.readUtf8())
+        val fileId = payload.optJSONObject("inputs")?.optJSONObject("InputVoice")?.optString("upload_file_id")
+        if (fileId != null && fileId !in files) {
+            return json("""{"code":"invalid_param","message":"upload_file_not_found: file $fileId does not exist"}""")
+                .setResponseCode(400)
+        }
+
+        val outcome = workflow.sample()
+        val streaming = payload.optString("response_mode") == "streaming"
+        val headerDelay = if (streaming) outcome.latencyMs * 3 / 10 else outcome.latencyMs
+        delayOrError(outcome.copy(latencyMs = headerDelay), """{"code":"internal_error","message":"Injected workflow failure"}""")
+            ?.let { return it }
+        countVerdict(outcome.verdict)
+
+        val runId = UUID.randomUUID().toString()
+        val llm = llmOutput(outcome.verdict)
+        val data = JSONObject()
+            .put("id", runId)
+            .put("status", "succeeded")
+            .put("outputs", JSONObject().put("LLM", llm))
+            .put("elapsed_time", outcome.latencyMs / 1000.0)
+            .put("total_tokens", 300 + llm.length)
+            .put("total_steps", 3)
+        if (!streaming) {
+            return json(JSONObject().put("task_id", runId).put("workflow_run_id", runId).put("data", data).toString())
+        }
+
+        val events = StringBuilder()
+        fun event(json: JSONObject) = events.append("data: ").append(json).append("\n\n")
+        event(JSONObject().put("event", "workflow_started").put("task_id", runId).put("workflow_run_id", runId))
+        llm.chunked((llm.length + CHUNKS - 1) / CHUNKS).forEach { chunk ->
+            event(JSONObject().put("event", "text_chunk").put("data", JSONObject().put("text", chunk)))
+        }
+        event(JSONObject().put("event", "workflow_finished").put("task_id", runId).put("workflow_run_id", runId).put("data", data))
+
+        val bytes = events.toString().toByteArray().size.toLong()
+        val bodyMs = outcome.latencyMs - headerDelay
+        return MockResponse()
+            .setHeader("Content-Type", "text/event-stream")
+            .setBody(events.toString())
+            .throttleBody((bytes + CHUNKS - 1) / CHUNKS, bodyMs / CHUNKS, TimeUnit.MILLISECONDS)
+    }
+
+    private fun llmOutput(verdict: String): String {
+        val phishing = verdict == "phishing"
+        return JSONObject()
+            .put("verdict", if (phishing) "PHISHING" else "SAFE")
+            .put("decision", if (phishing) "phishing" else "benign")
+            .put("confidence", if (phishing) 0.92 else 0.08)
+            .put("likelihood", if (phishing) 9 else 1)
+            .put("reasons", listOf("Fake Dify verdict"))
+            .put("notes", "Generated by FakeDifyServer.")
+            .toString()
+    }
+}
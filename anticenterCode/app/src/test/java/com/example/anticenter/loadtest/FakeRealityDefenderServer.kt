@@ -0,0 +1,95 @@
+package com.example.anticenter.loadtest
+
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.RecordedRequest
+import org.json.JSONArray
+import org.json.JSONObject
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 假 Reality Defender：预签名、PUT 上传、查询结果三步
+ *
+ * 用 `RealityDefenderDetection(key, concurrency, fake.apiUrl)` 指过来。
+ *
+ * - 预签名和 PUT 按 [upload] 抽延迟和错误
+ * - 查询结果按 [analysis] 抽延迟、错误和判定（"MANIPULATED" / "AUTHENTIC"），一次就返回最终状态，
+ *   不让 SDK 进入 2 秒一次的轮询
+ * - 没上传过的 requestId 返回 404
+ */
+class FakeRealityDefenderServer(
+    private val upload: LoadProfile = LoadProfile(),
+    private val analysis: LoadProfile = LoadProfile(verdicts = mapOf("AUTHENTIC" to 1.0))
+) : FakeBackend() {
+
+    val uploads = AtomicInteger()
+    val lookups = AtomicInteger()
+    private val uploaded = ConcurrentHashMap.newKeySet<String>()
+    private val names = ConcurrentHashMap<String, String>()
+
+    /** SDK 的 baseUrl：不带结尾的 `/`，SDK 自己拼 `/api/...` */
+    val apiUrl: String
+        get() = baseUrl.toString().removeSuffix("/")
+
+    override fun handle(request: RecordedRequest, path: String): MockResponse = when {
+        request.method == "POST" && path == "/api/files/aws-presigned" -> presign(request)
+        request.method == "PUT" && path.startsWith("/upload/") -> put(path.removePrefix("/upload/"))
+        request.method == "GET" && path.startsWith("/api/media/users/") -> result(path.removePrefix("/api/media/users/"))
+        else -> notFound()
+    }
+
+    private fun presign(request: RecordedRequest): MockResponse {
+        delayOrError(upload.sample(), """{"code":"error","response":"Injected presign failure","errno":1}""")?.let { return it }
+        val id = UUID.randomUUID().toString()
+        names[id] = JSONObject(request.body.readUtf8()).optString("fileName", "upload.wav")
+        return json(
+            JSONObject()
+                .put("code", "ok")
+                .put("response", JSONObject().put("signedUrl", baseUrl.resolve("upload/$id").toString()))
+                .put("errno", 0)
+                .put("mediaId", id)
+                .put("requestId", id)
+                .toString()
+        )
+    }
+
+    private fun put(id: String): MockResponse {
+        uploads.incrementAndGet()
+        if (!names.containsKey(id)) return notFound()
+        uploaded += id
+        return MockResponse()
+    }
+
+    private fun result(id: String): MockResponse {
+        lookups.incrementAndGet()
+        if (id !in uploaded) return notFound()
+        val outcome = analysis.sample()
+        delayOrError(outcome, """{"code":"error","response":"Injected analysis failure","errno":1}""")?.let { return it }
+        countVerdict(outcome.verdict)
+        val score = if (outcome.verdict == "MANIPULATED") 0.93 else 0.07
+        return json(
+            JSONObject()
+                .put("requestId", id)
+                .put("name", names[id])
+                .put("filename", names[id])
+                .put("mediaType", "AUDIO")
+                .put(
+                    "resultsSummary", JSONObject()
+                        .put("status", outcome.verdict)
+                        .put("metadata", JSONObject().put("finalScore", score * 100))
+                )
+                .put(
+                    "models", JSONArray().put(
+                        JSONObject()
+                            .put("name", "rd-fake-audio")
+                            .put("status", outcome.verdict)
+                            .put("predictionNumber", score)
+                            .put("finalScore", score * 100)
+                    )
+                )
+                .put("score", score)
+                .toString()
+        )
+    }
+}
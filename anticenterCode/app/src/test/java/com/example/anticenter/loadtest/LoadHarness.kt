@@ -0,0 +1,125 @@
+package com.example.anticenter.loadtest
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.ceil
+
+/**
+ * 端到端压测驱动：[concurrency] 个并发 worker 一共跑 [operations] 次操作，统计吞吐量、延迟分位和错误率
+ *
+ * 每个 worker 跑完一次马上取下一次（闭环负载），延迟是单次操作从开始到拿到结果的时间。
+ * 规模可以用系统属性覆盖，见 [fromSystemProperties]。
+ */
+class LoadHarness(val concurrency: Int, val operations: Int) {
+
+    init {
+        require(concurrency > 0 && operations > 0) { "concurrency and operations must be positive" }
+    }
+
+    companion object {
+        /**
+         * 读取 `-Dloadtest.concurrency=` / `-Dloadtest.operations=`，没设置时用默认值
+         */
+        fun fromSystemProperties(defaultConcurrency: Int, defaultOperations: Int) = LoadHarness(
+            Integer.getInteger("loadtest.concurrency", defaultConcurrency),
+            Integer.getInteger("loadtest.operations", defaultOperations)
+        )
+    }
+
+    /** 一次操作的结果 */
+    sealed class Result {
+        data class Ok(val verdict: String) : Result()
+        data class Failed(val reason: String) : Result()
+    }
+
+    /**
+     * 压测报告
+     *
+     * @param errors 失败原因 -> 次数
+     * @param verdicts 成功操作的判定 -> 次数
+     */
+    data class Report(
+        val name: String,
+        val concurrency: Int,
+        val operations: Int,
+        val elapsedMs: Long,
+        val p50Ms: Long,
+        val p95Ms: Long,
+        val p99Ms: Long,
+        val maxMs: Long,
+        val errors: Map<String, Int>,
+        val verdicts: Map<String, Int>
+    ) {
+        val failed: Int
+            get() = errors.values.sum()
+
+        val errorRate: Double
+            get() = failed.toDouble() / operations
+
+        val throughput: Double
+            get() = if (elapsedMs == 0L) 0.0 else operations * 1000.0 / elapsedMs
+
+        /** [verdict] 在成功操作里的占比 */
+        fun verdictShare(verdict: String): Double {
+            val ok = operations - failed
+            return if (ok == 0) 0.0 else (verdicts[verdict] ?: 0).toDouble() / ok
+        }
+
+        override fun toString(): String =
+            "$name: $operations ops @ concurrency $concurrency in ${elapsedMs}ms, " +
+                "${"%.1f".format(throughput)} ops/s, p50=${p50Ms}ms p95=${p95Ms}ms p99=${p99Ms}ms max=${maxMs}ms, " +
+                "errors=${"%.1f".format(errorRate * 100)}% $errors, verdicts=$verdicts"
+    }
+
+    /**
+     * 跑 [operations] 次 [op]，参数是操作序号（从 0 开始）
+     *
+     * [op] 抛出的异常按异常类名记为失败，不会中断压测。
+     */
+    fun run(name: String, op: suspend (Int) -> Result): Report {
+        val next = AtomicInteger()
+        val latencies = ConcurrentLinkedQueue<Long>()
+        val errors = ConcurrentHashMap<String, AtomicInteger>()
+        val verdicts = ConcurrentHashMap<String, AtomicInteger>()
+        val elapsed = AtomicLong()
+
+        runBlocking(Dispatchers.IO) {
+            val start = System.nanoTime()
+            val workers = (0 until concurrency).map {
+                launch {
+                    while (true) {
+                        val index = next.getAndIncrement()
+                        if (index >= operations) break
+                        val opStart = System.nanoTime()
+                        val result = try {
+                            op(index)
+                        } catch (e: Exception) {
+                            Result.Failed(e.javaClass.simpleName)
+                        }
+                        latencies += (System.nanoTime() - opStart) / 1_000_000
+                        when (result) {
+                            is Result.Ok -> verdicts.computeIfAbsent(result.verdict) { AtomicInteger() }.incrementAndGet()
+                            is Result.Failed -> errors.computeIfAbsent(result.reason) { AtomicInteger() }.incrementAndGet()
+                        }
+                    }
+                }
+            }
+            workers.forEach { it.join() }
+            elapsed.set((System.nanoTime() - start) / 1_000_000)
+        }
+
+        val sorted = latencies.sorted()
+        fun p(q: Double) = sorted[(ceil(q * sorted.size).toInt() - 1).coerceIn(0, sorted.size - 1)]
+        return Report(
+            name, concurrency, operations, elapsed.get(),
+            p(0.50), p(0.95), p(0.99), sorted.last(),
+            errors.mapValues { it.value.get() }.toSortedMap(),
+            verdicts.mapValues { it.value.get() }.toSortedMap()
+        )
+    }
+}
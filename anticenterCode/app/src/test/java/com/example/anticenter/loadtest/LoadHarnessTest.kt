@@ -0,0 +1,174 @@
+package com.example.anticenter.loadtest
+
+import android.content.ContextWrapper
+import com.example.anticenter.analyzers.EmailDetector
+import com.example.anticenter.analyzers.FileUploadManager
+import com.example.anticenter.data.PhishingData
+import com.example.anticenter.services.CybertraceRiskClient
+import com.example.anticenter.services.DetectionScheduler
+import com.example.anticenter.services.DifyVoiceDetector
+import com.example.anticenter.services.RealityDefenderDetection
+import kotlinx.coroutines.future.await
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody.Companion.toRequestBody
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * 各检测器对本地假后端的端到端压测
+ *
+ * 默认规模很小，随单元测试一起跑；加大规模：
+ * `./gradlew testDebugUnitTest --tests '*LoadHarnessTest' -Dloadtest.concurrency=32 -Dloadtest.operations=2000`
+ *
+ * 断言只检查压测本身跑通了：所有操作都有结果、错误率不超过注入的比例太多、判定比例大致符合脚本。
+ */
+class LoadHarnessTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val harness = LoadHarness.fromSystemProperties(defaultConcurrency = 8, defaultOperations = 48)
+    private val backends = ArrayList<FakeBackend>()
+
+    @After
+    fun tearDown() {
+        backends.forEach { it.close() }
+    }
+
+    private fun <B : FakeBackend> start(backend: B): B = backend.also { it.start(); backends += it }
+
+    /** 20..80ms，默认 5% 出错 */
+    private fun profile(vararg verdicts: Pair<String, Double>, errorRate: Double = 0.05, seed: Int = 42) =
+        LoadProfile(LoadProfile.Latency.uniform(20, 80), errorRate, verdicts = mapOf(*verdicts), seed = seed)
+
+    /** 每次操作内容不同的 WAV，避免命中任何按内容的缓存 */
+    private fun wav(index: Int): File = tmp.newFile("load-$index.wav").apply {
+        writeBytes(wavBytes(index))
+    }
+
+    private fun wavBytes(index: Int): ByteArray {
+        val pcm = ByteArray(4_000) { (it * 31 + index).toByte() }
+        val header = java.nio.ByteBuffer.allocate(44).order(java.nio.ByteOrder.LITTLE_ENDIAN).apply {
+            put("RIFF".toByteArray()); putInt(36 + pcm.size); put("WAVE".toByteArray())
+            put("fmt ".toByteArray()); putInt(16); putShort(1); putShort(1); putInt(16_000); putInt(32_000)
+            putShort(2); putShort(16)
+            put("data".toByteArray()); putInt(pcm.size)
+        }
+        return header.array() + pcm
+    }
+
+    private fun assertSane(report: LoadHarness.Report, maxErrorRate: Double) {
+        assertEquals(report.toString(), harness.operations, report.verdicts.values.sum() + report.failed)
+        assertTrue(report.toString(), report.errorRate <= maxErrorRate)
+        assertTrue(report.toString(), report.throughput > 0)
+        assertTrue(report.toString(), report.p50Ms <= report.p95Ms && report.p95Ms <= report.p99Ms && report.p99Ms <= report.maxMs)
+    }
+
+    // ==================== Dify ====================
+
+    @Test
+    fun fileUploadManager_blockingWorkflow() {
+        val dify = start(FakeDifyServer(upload = profile("safe" to 1.0), workflow = profile("phishing" to 0.3, "safe" to 0.7)))
+        val manager = FileUploadManager(ContextWrapper(null), "app-load-test", dify.apiUrl)
+
+        val report = harness.run("FileUploadManager") { i ->
+            val result = manager.uploadAndTestBody(
+                wavBytes(i).toRequestBody("audio/wav".toMediaType()), "load-$i.wav", "unknown",
+                DetectionScheduler.Priority.BATCH
+            )
+            result?.let { LoadHarness.Result.Ok(it.llmDecision) } ?: LoadHarness.Result.Failed("null")
+        }
+
+        // 上传或工作流任一失败，整次就失败：最多约 2 × 5%，留余量
+        assertSane(report, maxErrorRate = 0.35)
+        assertTrue(report.verdictShare("PHISHING") in 0.05..0.6)
+        assertTrue(dify.uploads.get() >= harness.operations)
+    }
+
+    @Test
+    fun difyVoiceDetector_streamingWorkflow() {
+        val dify = start(FakeDifyServer(upload = profile("safe" to 1.0), workflow = profile("phishing" to 0.3, "safe" to 0.7)))
+        val detector = DifyVoiceDetector("app-load-test", harness.concurrency, dify.apiUrl)
+
+        val report = try {
+            harness.run("DifyVoiceDetector") { i ->
+                LoadHarness.Result.Ok(detector.submit(wav(i), DetectionScheduler.Priority.BATCH).await().verdict)
+            }
+        } finally {
+            detector.close()
+        }
+
+        // 检测器自己会重试，客户端看到的错误率低于注入的比例
+        assertSane(report, maxErrorRate = 0.2)
+        assertTrue(report.verdictShare("PHISHING") in 0.05..0.6)
+        assertTrue(dify.runs.get() >= harness.operations - report.failed)
+    }
+
+    @Test
+    fun emailDetector_blockingClassify() {
+        val dify = start(FakeDifyServer(workflow = profile("phishing" to 0.5, "safe" to 0.5)))
+        val detector = EmailDetector("app-load-test", dify.workflowUrl)
+
+        val report = harness.run("EmailDetector") { i ->
+            val verdict = detector.classify(
+                PhishingData("Email", "Subject: Invoice #$i\nPlease verify your account at http://example.test/$i", mapOf("messageId" to "load-$i"))
+            )
+            when {
+                !verdict.succeeded -> LoadHarness.Result.Failed("no decision")
+                verdict.isPhishing -> LoadHarness.Result.Ok("phishing")
+                else -> LoadHarness.Result.Ok("safe")
+            }
+        }
+
+        assertSane(report, maxErrorRate = 0.2)
+        assertTrue(report.verdictShare("phishing") in 0.2..0.8)
+        assertTrue(dify.runs.get() >= harness.operations)
+    }
+
+    // ==================== Reality Defender ====================
+
+    @Test
+    fun realityDefender_uploadAndResult() {
+        val rd = start(
+            FakeRealityDefenderServer(
+                upload = profile("ok" to 1.0),
+                analysis = profile("MANIPULATED" to 0.2, "AUTHENTIC" to 0.8, seed = 7)
+            )
+        )
+        val detection = RealityDefenderDetection("rd-load-test", harness.concurrency, rd.apiUrl)
+
+        val report = try {
+            harness.run("RealityDefenderDetection") { i ->
+                LoadHarness.Result.Ok(detection.submit(wav(i), DetectionScheduler.Priority.BATCH).await().status)
+            }
+        } finally {
+            detection.close()
+        }
+
+        assertSane(report, maxErrorRate = 0.2)
+        assertTrue(report.verdictShare("MANIPULATED") in 0.02..0.5)
+        assertTrue(rd.lookups.get() > 0)
+    }
+
+    // ==================== Cybertrace ====================
+
+    @Test
+    fun cybertrace_lookup() {
+        val cybertrace = start(FakeCybertraceServer(profile("HIGH" to 0.2, "MEDIUM" to 0.3, "LOW" to 0.5)))
+        val client = CybertraceRiskClient(baseUrl = cybertrace.lookupUrl)
+
+        val report = harness.run("CybertraceRiskClient") { i ->
+            val result = client.lookup("+61 4%08d".format(i))
+            result?.let { LoadHarness.Result.Ok(it.riskLevel.name) } ?: LoadHarness.Result.Failed("null")
+        }
+
+        assertSane(report, maxErrorRate = 0.2)
+        assertEquals(0, report.verdicts["UNKNOWN"] ?: 0)
+        assertEquals(harness.operations, cybertrace.requests.get())
+    }
+}
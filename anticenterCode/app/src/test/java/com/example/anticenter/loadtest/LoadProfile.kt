@@ -0,0 +1,71 @@
+package com.example.anticenter.loadtest
+
+import kotlin.math.cos
+import kotlin.math.exp
+import kotlin.math.ln
+import kotlin.math.pow
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+/**
+ * 假服务的行为脚本：每个请求抽一次延迟、是否出错、判定结果
+ *
+ * 同一个种子在同样的请求顺序下抽到同样的序列；并发时请求到达顺序不固定，只保证分布一致。
+ *
+ * @param latency 整个请求的耗时（流式响应从收到请求到最后一个事件）
+ * @param errorRate 出错概率，出错时返回 [errorCode]
+ * @param verdicts 判定结果及权重，例如 `mapOf("phishing" to 0.3, "safe" to 0.7)`
+ */
+class LoadProfile(
+    val latency: Latency = Latency.fixed(0),
+    val errorRate: Double = 0.0,
+    val errorCode: Int = 503,
+    val verdicts: Map<String, Double> = mapOf("safe" to 1.0),
+    seed: Int = 42
+) {
+
+    init {
+        require(errorRate in 0.0..1.0) { "errorRate must be in 0..1" }
+        require(verdicts.isNotEmpty() && verdicts.values.all { it >= 0 }) { "verdicts must have non-negative weights" }
+    }
+
+    /** 一次抽样的结果；[errorCode] 为 null 表示正常响应 */
+    data class Outcome(val latencyMs: Long, val errorCode: Int?, val verdict: String)
+
+    /** 延迟分布 */
+    fun interface Latency {
+        fun sampleMs(random: Random): Long
+
+        companion object {
+            fun fixed(ms: Long) = Latency { ms }
+
+            fun uniform(minMs: Long, maxMs: Long) = Latency { it.nextLong(minMs, maxMs + 1) }
+
+            /** 重尾：中位数约 xm·2^(1/α)，α 越小尾巴越长 */
+            fun pareto(xmMs: Double, alpha: Double, capMs: Long) = Latency {
+                (xmMs / (1.0 - it.nextDouble()).pow(1 / alpha)).toLong().coerceAtMost(capMs)
+            }
+
+            /** 对数正态：中位数 [medianMs]，[sigma] 越大尾巴越长 */
+            fun logNormal(medianMs: Double, sigma: Double, capMs: Long) = Latency {
+                (medianMs * exp(sigma * gaussian(it))).toLong().coerceAtMost(capMs)
+            }
+
+            // Box-Muller
+            private fun gaussian(random: Random): Double =
+                sqrt(-2.0 * ln(1.0 - random.nextDouble())) * cos(2 * Math.PI * random.nextDouble())
+        }
+    }
+
+    private val random = Random(seed)
+    private val totalWeight = verdicts.values.sum()
+
+    fun sample(): Outcome = synchronized(random) {
+        val latencyMs = latency.sampleMs(random)
+        val error = if (random.nextDouble() < errorRate) errorCode else null
+        var pick = random.nextDouble() * totalWeight
+        val verdict = verdicts.entries.firstOrNull { (_, weight) -> (pick - weight).also { pick = it } < 0 }?.key
+            ?: verdicts.keys.last()
+        Outcome(latencyMs, error, verdict)
+    }
+}
@@ -0,0 +1,411 @@
+package com.example.anticenter.network
+
+import com.example.anticenter.loadtest.Benchmarks
+import com.example.anticenter.services.DetectionExecutor
+import com.example.anticenter.utils.TimerWheel
+import kotlinx.coroutines.runBlocking
+import okhttp3.ConnectionPool
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * AIMD 上限、熔断器状态转换、共享名额的等待，以及本地桩服务注入延迟和错误突发时的有效吞吐对比
+ */
+class BackendGuardTest {
+
+    private var now = 0L
+    private val clock = { now }
+    private val timer = TimerWheel("guard-timer", tickMs = 10)
+
+    @After
+    fun tearDown() {
+        timer.close()
+    }
+
+    // ==================== AdaptiveLimiter ====================
+
+    @Test
+    fun limiter_additiveIncreaseMultiplicativeDecreaseWithCooldown() {
+        val limiter = AdaptiveLimiter(maxLimit = 10, initialLimit = 4, clock = clock)
+
+        // 4 → 4.25 → 4.49 → 4.71 → 4.92 → 5.12
+        repeat(5) { limiter.onSuccess(10) }
+        assertEquals(5, limiter.currentLimit)
+
+        limiter.onDrop()
+        assertEquals(3, limiter.currentLimit)
+        // 同一波突发里的第二个失败不再下调
+        limiter.onDrop()
+        assertEquals(3, limiter.currentLimit)
+
+        now += 1_000
+        limiter.onDrop()
+        assertEquals(2, limiter.currentLimit)
+        now += 1_000
+        repeat(3) { limiter.onDrop(); now += 1_000 }
+        assertEquals(1, limiter.currentLimit)
+    }
+
+    @Test
+    fun limiter_latencyFarAboveBaselineCountsAsDrop() {
+        val limiter = AdaptiveLimiter(maxLimit = 8, clock = clock)
+
+        limiter.onSuccess(20)
+        assertEquals(20, limiter.baselineRttMs)
+        assertEquals(8, limiter.currentLimit)
+
+        limiter.onSuccess(45)
+        assertEquals(8, limiter.currentLimit)
+        limiter.onSuccess(100)
+        assertEquals(5, limiter.currentLimit)
+    }
+
+    @Test
+    fun limiter_tryAcquireRespectsCurrentLimit() {
+        val limiter = AdaptiveLimiter(maxLimit = 2, clock = clock)
+
+        assertTrue(limiter.tryAcquire())
+        assertTrue(limiter.tryAcquire())
+        assertFalse(limiter.tryAcquire())
+        limiter.release()
+        assertTrue(limiter.tryAcquire())
+        assertEquals(2, limiter.inFlightCount)
+    }
+
+    // ==================== CircuitBreaker ====================
+
+    private fun breaker(openMs: Long = 100, maxOpenMs: Long = 350, probes: Int = 2) = CircuitBreaker(
+        windowSize = 10, minCalls = 4, failureRatio = 0.5,
+        openMs = openMs, maxOpenMs = maxOpenMs, halfOpenProbes = probes, clock = clock
+    )
+
+    @Test
+    fun breaker_opensAtFailureRatioAndClosesAfterProbes() {
+        val breaker = breaker()
+
+        breaker.onSuccess()
+        breaker.onFailure()
+        breaker.onSuccess()
+        // 还没到 minCalls
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.currentState)
+        breaker.onFailure()
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.currentState)
+        assertFalse(breaker.tryAcquire())
+        assertEquals(100, breaker.retryAfterMs())
+        assertEquals(1, breaker.trips)
+
+        now += 100
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.currentState)
+        assertTrue(breaker.tryAcquire())
+        assertTrue(breaker.tryAcquire())
+        assertFalse(breaker.tryAcquire())
+
+        breaker.onSuccess()
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.currentState)
+        breaker.onSuccess()
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.currentState)
+        // 关闭后重新统计，一次失败不会马上打开
+        breaker.onFailure()
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.currentState)
+    }
+
+    @Test
+    fun breaker_failedProbeReopensWithDoubledWait() {
+        val breaker = breaker()
+        repeat(4) { breaker.onFailure() }
+        assertEquals(100, breaker.retryAfterMs())
+
+        now += 100
+        assertTrue(breaker.tryAcquire())
+        breaker.onFailure()
+        assertEquals(CircuitBreaker.State.OPEN, breaker.currentState)
+        assertEquals(200, breaker.retryAfterMs())
+
+        now += 200
+        assertTrue(breaker.tryAcquire())
+        breaker.onFailure()
+        // 封顶 maxOpenMs
+        assertEquals(350, breaker.retryAfterMs())
+        assertEquals(3, breaker.trips)
+    }
+
+    @Test
+    fun breaker_releaseReturnsProbeSlot() {
+        val breaker = breaker(probes = 1)
+        repeat(4) { breaker.onFailure() }
+        now += 100
+
+        assertTrue(breaker.tryAcquire())
+        assertFalse(breaker.tryAcquire())
+        breaker.release()
+        assertTrue(breaker.tryAcquire())
+    }
+
+    // ==================== BackendGuard ====================
+
+    @Test
+    fun guard_acquireWaitsForReleasedPermitAndTimesOut() {
+        val guard = BackendGuard("test", AdaptiveLimiter(maxLimit = 1))
+        val held = guard.acquire(0)!!
+
+        val start = System.currentTimeMillis()
+        assertNull(guard.acquire(50))
+        assertTrue(System.currentTimeMillis() - start >= 50)
+
+        timer.schedule(50) { guard.release(held) }
+        assertNotNull(guard.acquire(2_000))
+        assertEquals(2L, guard.stats().rejected)
+    }
+
+    @Test
+    fun guard_openCircuitHoldsCallersUntilProbeAllowed() {
+        val breaker = CircuitBreaker(windowSize = 4, minCalls = 4, openMs = 100, halfOpenProbes = 1)
+        val guard = BackendGuard("test", AdaptiveLimiter(maxLimit = 4), breaker)
+        repeat(4) { guard.onOverload() }
+        assertEquals(CircuitBreaker.State.OPEN, guard.stats().state)
+
+        val start = System.currentTimeMillis()
+        val probe = guard.acquire(2_000)!!
+        assertTrue(System.currentTimeMillis() - start >= 80)
+        // 只有一个探测名额
+        assertNull(guard.acquire(20))
+
+        guard.onSuccess(10)
+        guard.release(probe)
+        assertEquals(CircuitBreaker.State.CLOSED, guard.stats().state)
+        assertNotNull(guard.acquire(0))
+        assertNotNull(guard.acquire(0))
+    }
+
+    @Test
+    fun guard_acquireAsyncQueuesInOrderWithoutBlocking() {
+        val guard = BackendGuard("test", AdaptiveLimiter(maxLimit = 1), timer = timer)
+        val held = guard.acquireAsync(0).getNow(null)!!
+
+        val first = guard.acquireAsync(2_000)
+        val second = guard.acquireAsync(2_000)
+        val impatient = guard.acquireAsync(50)
+        assertFalse(first.isDone)
+        assertNull(impatient.get(1, TimeUnit.SECONDS))
+
+        // 放弃等待的不占位置，名额按排队顺序交出
+        guard.release(held)
+        val granted = first.get(1, TimeUnit.SECONDS)!!
+        assertFalse(second.isDone)
+        guard.release(granted)
+        assertNotNull(second.get(1, TimeUnit.SECONDS))
+        assertEquals(1, guard.stats().inFlight)
+    }
+
+    @Test
+    fun guard_acquireAsyncGrantsByRankThenDueAt() {
+        val guard = BackendGuard("test", AdaptiveLimiter(maxLimit = 1), timer = timer)
+        var held = guard.acquireAsync(0).getNow(null)!!
+
+        val late = guard.acquireAsync(2_000, rank = 1, dueAt = 200)
+        val early = guard.acquireAsync(2_000, rank = 1, dueAt = 100)
+        val urgent = guard.acquireAsync(2_000, rank = 0, dueAt = 300)
+
+        val order = ArrayList<String>()
+        repeat(3) {
+            guard.release(held)
+            held = listOf("urgent" to urgent, "early" to early, "late" to late)
+                .first { (tag, future) -> future.isDone && tag !in order }
+                .let { (tag, future) -> order += tag; future.get()!! }
+        }
+        assertEquals(listOf("urgent", "early", "late"), order)
+    }
+
+    @Test
+    fun guard_acquireAsyncWakesWhenOpenCircuitAllowsProbe() {
+        val breaker = CircuitBreaker(windowSize = 4, minCalls = 4, openMs = 100, halfOpenProbes = 1)
+        val guard = BackendGuard("test", AdaptiveLimiter(maxLimit = 4), breaker, timer = timer)
+        repeat(4) { guard.onOverload() }
+
+        val start = System.currentTimeMillis()
+        val probe = guard.acquireAsync(2_000)
+        val cancelled = guard.acquireAsync(2_000)
+        cancelled.cancel(false)
+
+        // 没有人释放名额，靠计时器在熔断到点后唤醒
+        assertNotNull(probe.get(1, TimeUnit.SECONDS))
+        assertTrue(System.currentTimeMillis() - start >= 80)
+        assertEquals(CircuitBreaker.State.HALF_OPEN, guard.stats().state)
+        assertEquals(1, guard.stats().inFlight)
+    }
+
+    @Test
+    fun guard_throttlingShrinksLimitWithoutOpeningCircuit() {
+        val guard = BackendGuard("test", AdaptiveLimiter(maxLimit = 8, decreaseCooldownMs = 0))
+
+        repeat(20) { guard.onResponse(429, 5) }
+
+        val stats = guard.stats()
+        assertEquals(CircuitBreaker.State.CLOSED, stats.state)
+        assertEquals(1, stats.limit)
+        assertEquals(20L, stats.overloads)
+
+        repeat(10) { guard.onResponse(503, 5) }
+        assertEquals(CircuitBreaker.State.OPEN, guard.stats().state)
+    }
+
+    @Test
+    fun guard_withPermitReleasesAfterBlockAndRejectsWhenOpen() = runBlocking {
+        val breaker = CircuitBreaker(windowSize = 4, minCalls = 4, openMs = 10_000, halfOpenProbes = 1)
+        val guard = BackendGuard("test", AdaptiveLimiter(maxLimit = 2), breaker, timer = timer)
+
+        assertEquals(42, guard.withPermit(0) { 42 })
+        try {
+            guard.withPermit<Unit>(0) { throw IOException("boom") }
+            fail()
+        } catch (e: IOException) {
+            // 异常也要还名额
+        }
+        assertEquals(0, guard.stats().inFlight)
+
+        repeat(4) { guard.onOverload() }
+        try {
+            guard.withPermit(50) { 1 }
+            fail()
+        } catch (e: RejectedExecutionException) {
+            assertTrue(e.message!!.contains("test"))
+        }
+    }
+
+    @Test
+    fun guard_interceptorReportsStatusCodes() {
+        val guard = BackendGuard("test", AdaptiveLimiter(maxLimit = 8, decreaseCooldownMs = 0))
+        val server = MockWebServer().apply { start() }
+        val client = OkHttpClient.Builder().addInterceptor(guard.interceptor).build()
+        try {
+            server.enqueue(MockResponse().setResponseCode(200))
+            server.enqueue(MockResponse().setResponseCode(429))
+            repeat(2) { client.newCall(Request.Builder().url(server.url("/")).build()).execute().close() }
+
+            val stats = guard.stats()
+            assertEquals(1L, stats.overloads)
+            assertEquals(CircuitBreaker.State.CLOSED, stats.state)
+        } finally {
+            server.shutdown()
+        }
+    }
+
+    // ==================== Benchmark ====================
+
+    /**
+     * 模拟检测后端：同时最多处理 [CAPACITY] 个请求，超出返回 429；
+     * 运行中按时间注入一段全部 503 的故障和一段延迟变高的慢速期
+     */
+    private class FlakyBackend : Dispatcher() {
+        companion object {
+            const val CAPACITY = 4
+            const val BASE_LATENCY_MS = 30L
+            const val SLOW_LATENCY_MS = 150L
+            val OUTAGE_MS = 600L..1_400L
+            val SLOW_MS = 1_400L..2_000L
+        }
+
+        val startedAt = System.currentTimeMillis()
+        val requests = AtomicInteger()
+        val wasted = AtomicInteger()
+        private val inFlight = AtomicInteger()
+
+        override fun dispatch(request: RecordedRequest): MockResponse {
+            requests.incrementAndGet()
+            val elapsed = System.currentTimeMillis() - startedAt
+            if (elapsed in OUTAGE_MS) {
+                wasted.incrementAndGet()
+                Thread.sleep(5)
+                return MockResponse().setResponseCode(503)
+            }
+            if (inFlight.incrementAndGet() > CAPACITY) {
+                inFlight.decrementAndGet()
+                wasted.incrementAndGet()
+                Thread.sleep(5)
+                return MockResponse().setResponseCode(429)
+            }
+            try {
+                Thread.sleep(if (elapsed in SLOW_MS) SLOW_LATENCY_MS else BASE_LATENCY_MS)
+            } finally {
+                inFlight.decrementAndGet()
+            }
+            return MockResponse().setBody("SAFE")
+        }
+    }
+
+    private companion object {
+        const val TASKS = 300
+    }
+
+    private data class LoadResult(val ok: Int, val total: Int, val requests: Int, val wasted: Int, val elapsedMs: Long) {
+        val goodput: Double
+            get() = ok * 1000.0 / elapsedMs
+    }
+
+    /** 每 10ms 提交一个检测任务，共 [TASKS] 个，等全部结束 */
+    private fun runLoad(guard: BackendGuard?): LoadResult {
+        val backend = FlakyBackend()
+        val server = MockWebServer().apply { dispatcher = backend; start() }
+        val client = OkHttpClient.Builder().connectionPool(ConnectionPool(16, 1, TimeUnit.MINUTES)).build()
+        val executor = DetectionExecutor("load", 8, 400, timer, guard)
+        val policy = DetectionExecutor.RetryPolicy(3, 100)
+        try {
+            val futures = ArrayList<CompletableFuture<String>>()
+            repeat(TASKS) {
+                futures += executor.submit("file${futures.size}", 4_000, policy) { ctx ->
+                    ctx.execute(client.newCall(Request.Builder().url(server.url("/detect")).build())).use {
+                        if (!it.isSuccessful) throw IOException("HTTP ${it.code}")
+                        it.body!!.string()
+                    }
+                }
+                Thread.sleep(10)
+            }
+            val ok = futures.count { runCatching { it.get(10, TimeUnit.SECONDS) }.isSuccess }
+            val elapsed = System.currentTimeMillis() - backend.startedAt
+            return LoadResult(ok, futures.size, backend.requests.get(), backend.wasted.get(), elapsed)
+        } finally {
+            executor.close()
+            server.shutdown()
+        }
+    }
+
+    @Test
+    fun benchmark_goodputUnderLatencyAndErrorBursts() {
+        // 故障窗口按墙钟划分，结果随机器负载变化
+        Benchmarks.assumeEnabled()
+        val unguarded = runLoad(null)
+        val guard = BackendGuard(
+            "stub",
+            // 桩服务往返约 30ms，冷却时间相应缩短
+            AdaptiveLimiter(maxLimit = 8, decreaseCooldownMs = 100),
+            CircuitBreaker(windowSize = 10, minCalls = 5, openMs = 200, maxOpenMs = 1_000)
+        )
+        val guarded = runLoad(guard)
+        val stats = guard.stats()
+
+        assertTrue("ok ${guarded.ok} vs ${unguarded.ok}", guarded.ok > unguarded.ok)
+        assertTrue("wasted ${guarded.wasted} vs ${unguarded.wasted}", guarded.wasted < unguarded.wasted)
+        // 故障结束后无需干预自动恢复
+        assertTrue(stats.trips >= 1)
+        assertEquals(CircuitBreaker.State.CLOSED, stats.state)
+        assertEquals(0, stats.inFlight)
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.anticenter.network
+
+import com.example.anticenter.loadtest.Benchmarks
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * 用本地 SSE 桩服务验证 streaming 模式的解析，并和 blocking 模式比较出结论的时间
+ */
+class DifyWorkflowStreamTest {
+
+    private lateinit var server: MockWebServer
+    private val client = OkHttpClient.Builder().readTimeout(10, TimeUnit.SECONDS).build()
+
+    /** 判定和置信度在最前面，后面是长长的理由、证据和解释 */
+    private val llmOutput = "```json\n" + JSONObject()
+        .put("verdict", "PHISHING")
+        .put("confidence", 0.92)
+        .put("reasons", List(12) { "Caller claims to be from the bank and asks for the one-time code, step $it" })
+        .put("evidence", List(12) { JSONObject().put("quote", "read me the six digits $it").put("tactic", "urgency") })
+        .put("explanation", "The caller impersonates a bank officer. ".repeat(20))
+        .toString() + "\n```"
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun event(json: JSONObject) = "data: $json\n\n"
+
+    private fun finishedData(llm: String) = JSONObject()
+        .put("id", "run-1")
+        .put("status", "succeeded")
+        .put("outputs", JSONObject().put("LLM", llm))
+        .put("total_tokens", 812)
+        .put("total_steps", 3)
+
+    /** 按 Dify 的事件格式把 LLM 输出切成 [chunkChars] 字一个的 text_chunk */
+    private fun sseBody(llm: String, chunkChars: Int = 8): String = buildString {
+        append(event(JSONObject().put("event", "workflow_started").put("workflow_run_id", "run-1")))
+        append("event: ping\n\n")
+        for (start in llm.indices step chunkChars) {
+            val text = llm.substring(start, minOf(llm.length, start + chunkChars))
+            append(event(JSONObject()
+                .put("event", "text_chunk")
+                .put("workflow_run_id", "run-1")
+                .put("data", JSONObject().put("text", text).put("from_variable_selector", listOf("llm", "text")))))
+        }
+        append(event(JSONObject()
+            .put("event", "workflow_finished")
+            .put("task_id", "task-1")
+            .put("workflow_run_id", "run-1")
+            .put("data", finishedData(llm))))
+    }
+
+    private fun request() = DifyWorkflowStream.newRequest(
+        server.url("/v1/workflows/run").toString(), "key", JSONObject().put("InputText", "hi"), "user@test"
+    )
+
+    private fun readStream(stream: DifyWorkflowStream): JSONObject =
+        client.newCall(request()).execute().use { stream.read(it) }
+
+    @Test
+    fun read_returnsBlockingShapedResultAndProvisionalVerdict() {
+        server.enqueue(MockResponse().setHeader("Content-Type", "text/event-stream").setBody(sseBody(llmOutput)))
+        val seen = ArrayList<DifyWorkflowStream.ProvisionalVerdict>()
+        val stream = DifyWorkflowStream { seen.add(it) }
+
+        val result = readStream(stream)
+
+        assertEquals("run-1", result.getString("workflow_run_id"))
+        assertEquals("succeeded", result.getJSONObject("data").getString("status"))
+        assertEquals(llmOutput, result.getJSONObject("data").getJSONObject("outputs").getString("LLM"))
+        assertEquals(llmOutput, stream.llmText)
+
+        val provisional = seen.single()
+        assertEquals("PHISHING", provisional.verdict)
+        assertEquals(0.92, provisional.confidence!!, 1e-9)
+
+        val sent = JSONObject(server.takeRequest().body.readUtf8())
+        assertEquals("streaming", sent.getString("response_mode"))
+    }
+
+    @Test
+    fun read_handlesTruePrefixAndLikelihood() {
+        server.enqueue(MockResponse().setBody(sseBody("TRUE: asks for gift cards and a wire transfer")))
+        server.enqueue(MockResponse().setBody(sseBody("{\"decision\": \"benign\", \"likelihood\": 3, \"notes_200char_max\": \"ok\"}")))
+
+        val prefix = DifyWorkflowStream().also { readStream(it) }.provisional!!
+        assertEquals("TRUE", prefix.verdict)
+        assertNull(prefix.confidence)
+
+        val json = DifyWorkflowStream().also { readStream(it) }.provisional!!
+        assertEquals("benign", json.verdict)
+        assertEquals(0.3, json.confidence!!, 1e-9)
+    }
+
+    @Test
+    fun read_errorEventAndTruncatedStreamThrow() {
+        server.enqueue(MockResponse().setBody(
+            event(JSONObject().put("event", "error").put("message", "quota exceeded"))
+        ))
+        server.enqueue(MockResponse().setBody(sseBody(llmOutput).substringBeforeLast("data: ")))
+
+        try {
+            readStream(DifyWorkflowStream())
+            fail("expected error event to throw")
+        } catch (e: IOException) {
+            assertTrue(e.message!!.contains("quota exceeded"))
+        }
+        try {
+            readStream(DifyWorkflowStream())
+            fail("expected truncated stream to throw")
+        } catch (e: IOException) {
+            assertTrue(e.message!!.contains("before workflow_finished"))
+        }
+    }
+
+    @Test
+    fun sseEventReader_parsesMultiLineDataAndComments() {
+        val source = Buffer().writeUtf8(": keep-alive\r\nevent: ping\r\n\r\nid: 7\ndata: a\ndata: b\n\ndata: tail")
+        val reader = SseEventReader(source)
+
+        assertEquals(SseEventReader.Event(null, "ping", ""), reader.next())
+        assertEquals(SseEventReader.Event("7", null, "a\nb"), reader.next())
+        assertEquals(SseEventReader.Event(null, null, "tail"), reader.next())
+        assertNull(reader.next())
+    }
+
+    @Test
+    fun read_emitsProvisionalVerdictAfterTheHeadOfTheOutput() {
+        server.enqueue(MockResponse().setHeader("Content-Type", "text/event-stream").setBody(sseBody(llmOutput)))
+        var charsAtProvisional = -1
+        lateinit var stream: DifyWorkflowStream
+        stream = DifyWorkflowStream { charsAtProvisional = stream.llmText.length }
+
+        readStream(stream)
+
+        // 判定和置信度在输出最前面，不必等理由和解释生成完
+        assertTrue("provisional after $charsAtProvisional of ${llmOutput.length} chars", charsAtProvisional in 1 until llmOutput.length / 10)
+    }
+
+    // ==================== Benchmark ====================
+
+    @Test
+    fun benchmark_timeToVerdictStreamingVsBlocking() {
+        Benchmarks.assumeEnabled()
+        // 模拟 LLM 逐字生成：事件流按固定速率吐出
+        val sse = sseBody(llmOutput)
+        server.enqueue(
+            MockResponse().setHeader("Content-Type", "text/event-stream").setBody(sse)
+                .throttleBody(512, 15, TimeUnit.MILLISECONDS)
+        )
+        var provisionalMs = 0L
+        val start = System.nanoTime()
+        val stream = DifyWorkflowStream { provisionalMs = (System.nanoTime() - start) / 1_000_000 }
+        readStream(stream)
+        val streamTotalMs = (System.nanoTime() - start) / 1_000_000
+        assertNotNull(stream.provisional)
+
+        // blocking 模式：生成完才返回整个 JSON，用同样的生成时间作为响应延迟
+        val blockingBody = JSONObject().put("workflow_run_id", "run-1").put("data", finishedData(llmOutput))
+        server.enqueue(MockResponse().setBody(blockingBody.toString()).setHeadersDelay(streamTotalMs, TimeUnit.MILLISECONDS))
+        val blockingStart = System.nanoTime()
+        val blocking = client.newCall(Request.Builder().url(server.url("/v1/workflows/run")).build()).execute().use {
+            JSONObject(it.body!!.string())
+        }
+        val blockingMs = (System.nanoTime() - blockingStart) / 1_000_000
+        assertEquals(llmOutput, blocking.getJSONObject("data").getJSONObject("outputs").getString("LLM"))
+
+        assertTrue("provisional ${provisionalMs}ms vs blocking ${blockingMs}ms", provisionalMs * 4 < blockingMs)
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.anticenter.network
+
+import com.example.anticenter.loadtest.Benchmarks
+import com.example.anticenter.utils.TimerWheel
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.pow
+import kotlin.random.Random
+
+/**
+ * 对冲的触发和取舍、额度限制，以及本地桩服务按重尾分布注入延迟时有无对冲的尾延迟对比
+ */
+class HedgedCallTest {
+
+    private val timer = TimerWheel("hedge-timer", tickMs = 10)
+    private val servers = ArrayList<MockWebServer>()
+    private val client = OkHttpClient.Builder().build().apply {
+        dispatcher.maxRequests = 256
+        dispatcher.maxRequestsPerHost = 256
+    }
+
+    @After
+    fun tearDown() {
+        servers.forEach { it.shutdown() }
+        timer.close()
+    }
+
+    /** 第 n 个请求（从 1 开始）睡 delays(n) 毫秒后按 code 返回 */
+    private fun server(code: (Int) -> Int = { 200 }, delays: (Int) -> Long): MockWebServer {
+        val count = AtomicInteger()
+        return MockWebServer().apply {
+            dispatcher = object : Dispatcher() {
+                override fun dispatch(request: RecordedRequest): MockResponse {
+                    val n = count.incrementAndGet()
+                    Thread.sleep(delays(n))
+                    return MockResponse().setResponseCode(code(n)).setBody("run-$n")
+                }
+            }
+            start()
+            servers += this
+        }
+    }
+
+    private fun hedger(budget: HedgeBudget = HedgeBudget(ratio = 1.0), delayMs: Long = 100) =
+        HedgedCall("test", budget, initialDelayMs = delayMs, minDelayMs = 0, timer = timer)
+
+    private val bodyOrThrow = HedgedCall.Handler { response ->
+        if (!response.isSuccessful) throw IOException("HTTP ${response.code}")
+        response.body!!.string()
+    }
+
+    private fun request(server: MockWebServer) = Request.Builder().url(server.url("/workflows/run")).build()
+
+    // ==================== 对冲 ====================
+
+    @Test
+    fun slowPrimary_hedgeFiresAtThresholdAndWins() {
+        val server = server { n -> if (n == 1) 2_000 else 20 }
+        val hedger = hedger()
+
+        val start = System.currentTimeMillis()
+        val body = hedger.submit(client, request(server), bodyOrThrow).get(5, TimeUnit.SECONDS)
+        val elapsed = System.currentTimeMillis() - start
+
+        assertEquals("run-2", body)
+        assertTrue(elapsed in 100..1_000)
+        val stats = hedger.stats()
+        assertEquals(1L, stats.hedged)
+        assertEquals(1L, stats.hedgeWins)
+        assertEquals(1.0, stats.winRate, 0.0)
+    }
+
+    @Test
+    fun fastPrimary_noHedge() {
+        val server = server { 10 }
+        val hedger = hedger(delayMs = 300)
+
+        repeat(3) { assertEquals("run-${it + 1}", hedger.submit(client, request(server), bodyOrThrow).get(5, TimeUnit.SECONDS)) }
+        Thread.sleep(400)
+
+        assertEquals(3, server.requestCount)
+        assertEquals(0L, hedger.stats().hedged)
+    }
+
+    @Test
+    fun earlyFailure_failsWithoutHedge() {
+        val server = server(code = { 500 }) { 10 }
+        val hedger = hedger(delayMs = 200)
+
+        val future = hedger.submit(client, request(server), bodyOrThrow)
+        try {
+            future.get(5, TimeUnit.SECONDS)
+            throw AssertionError("expected failure")
+        } catch (e: ExecutionException) {
+            assertTrue(e.cause is IOException)
+        }
+        Thread.sleep(300)
+
+        assertEquals(1, server.requestCount)
+        assertEquals(1L, hedger.stats().failed)
+    }
+
+    @Test
+    fun primaryFailsAfterHedge_hedgeResultUsed() {
+        // 主请求 300ms 后 500，对冲请求 100ms 时发出、400ms 后成功
+        val server = server(code = { n -> if (n == 1) 500 else 200 }) { n -> if (n == 1) 300 else 400 }
+        val hedger = hedger()
+
+        assertEquals("run-2", hedger.submit(client, request(server), bodyOrThrow).get(5, TimeUnit.SECONDS))
+        assertEquals(0L, hedger.stats().failed)
+    }
+
+    @Test
+    fun cancel_stopsPendingHedge() {
+        val server = server { 1_000 }
+        val hedger = hedger(delayMs = 200)
+
+        val future = hedger.submit(client, request(server), bodyOrThrow)
+        Thread.sleep(50)
+        future.cancel(true)
+        Thread.sleep(300)
+
+        assertEquals(0L, hedger.stats().hedged)
+        assertEquals(1, server.requestCount)
+    }
+
+    // ==================== 额度 ====================
+
+    @Test
+    fun budget_allowsRatioOfRequestsAndCapsBurst() {
+        val budget = HedgeBudget(ratio = 0.1, maxTokens = 2)
+
+        assertFalse(budget.tryWithdraw())
+        repeat(10) { budget.onRequest() }
+        assertTrue(budget.tryWithdraw())
+        assertFalse(budget.tryWithdraw())
+
+        // 空闲很久也只攒 maxTokens 次
+        repeat(100) { budget.onRequest() }
+        assertEquals(2, budget.available)
+        assertEquals(2L, budget.deniedCount)
+    }
+
+    @Test
+    fun exhaustedBudget_primaryJustWaits() {
+        val server = server { n -> if (n == 1) 400 else 10 }
+        val hedger = hedger(budget = HedgeBudget(ratio = 0.1))
+
+        assertEquals("run-1", hedger.submit(client, request(server), bodyOrThrow).get(5, TimeUnit.SECONDS))
+
+        val stats = hedger.stats()
+        assertEquals(0L, stats.hedged)
+        assertEquals(1L, stats.denied)
+    }
+
+    // ==================== Benchmark ====================
+
+    private companion object {
+        const val CALLS = 500
+    }
+
+    private data class LoadResult(val latencies: List<Long>, val serverRequests: Int) {
+        private val sorted = latencies.sorted()
+        fun p(q: Double): Long = sorted[((sorted.size * q).toInt()).coerceAtMost(sorted.size - 1)]
+        override fun toString(): String = "p50=${p(0.5)}ms p90=${p(0.9)}ms p99=${p(0.99)}ms max=${sorted.last()}ms"
+    }
+
+    private fun runLoad(hedger: HedgedCall, seed: Int): LoadResult {
+        val random = Random(seed)
+        val server = server { _ ->
+            val u = synchronized(random) { random.nextDouble() }
+            (30.0 / (1.0 - u).pow(1 / 1.2)).toLong().coerceAtMost(3_000)
+        }
+        val futures = (0 until CALLS).map {
+            val start = System.currentTimeMillis()
+            hedger.submit(client, request(server), bodyOrThrow)
+                .thenApply { System.currentTimeMillis() - start }
+                .also { Thread.sleep(5) }
+        }
+        val latencies = futures.map { it.get(10, TimeUnit.SECONDS) }
+        return LoadResult(latencies, server.requestCount)
+    }
+
+    /**
+     * 桩服务的延迟服从 Pareto 分布（xm=30ms, α=1.2，封顶 3s）：中位数约 53ms、p90 约 200ms、p99 约 1.4s，
+     * 和工作流 3 秒中位数、40 秒以上 p99 的形状相近（时间缩小约 50 倍）。
+     * 每 5ms 发起一次逻辑请求，共 [CALLS] 次，对比不对冲和 p90 阈值 + 10% 额度对冲的客户端延迟
+     */
+    @Test
+    fun benchmark_tailLatencyWithHeavyTailedBackend() {
+        Benchmarks.assumeEnabled()
+        val plain = HedgedCall("plain", HedgeBudget(ratio = 0.0), timer = timer)
+        val hedged = HedgedCall("hedged", HedgeBudget(ratio = 0.1), initialDelayMs = 200, minDelayMs = 0, timer = timer)
+
+        val without = runLoad(plain, seed = 7)
+        val with = runLoad(hedged, seed = 7)
+        val stats = hedged.stats()
+
+        assertTrue("hedged $with vs plain $without", with.p(0.99) < without.p(0.99))
+        // 额度从 0 开始，额外请求不会超过 10%
+        assertTrue(stats.hedged <= CALLS / 10)
+        assertTrue(stats.hedged > 0)
+        // 被取消的一方可能还没到服务端
+        assertTrue(with.serverRequests <= CALLS + stats.hedged.toInt())
+        assertEquals(0L, plain.stats().hedged)
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.anticenter.network
+
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.SocketPolicy
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * 用本地 MockWebServer 验证跨服务的连接复用和耗时指标
+ */
+class HttpClientsTest {
+
+    private lateinit var server: MockWebServer
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+        HttpClients.evictIdleConnections()
+    }
+
+    private val endpoint: String
+        get() = "${server.hostName}:${server.port}"
+
+    private fun OkHttpClient.get(path: String): String =
+        newCall(Request.Builder().url(server.url(path)).build()).execute().use { it.body!!.string() }
+
+    @Test
+    fun client_profilesShareConnectionPoolAndDispatcher() {
+        val lookup = HttpClients.client(HttpClients.Profile.LOOKUP)
+        val upload = HttpClients.client(HttpClients.Profile.UPLOAD)
+
+        assertSame(lookup, HttpClients.client(HttpClients.Profile.LOOKUP))
+        assertSame(HttpClients.shared.connectionPool, lookup.connectionPool)
+        assertSame(HttpClients.shared.connectionPool, upload.connectionPool)
+        assertSame(HttpClients.shared.dispatcher, upload.dispatcher)
+        assertEquals(5_000, lookup.connectTimeoutMillis)
+        assertEquals(60_000, upload.readTimeoutMillis)
+    }
+
+    @Test
+    fun client_connectionIsReusedAcrossServices() {
+        repeat(4) { server.enqueue(MockResponse().setBody("ok $it")) }
+
+        // 语音上传、邮件分类、号码查询、文件上传（带拦截器）依次访问同一主机
+        HttpClients.client(HttpClients.Profile.UPLOAD).get("/v1/files/upload")
+        HttpClients.client(HttpClients.Profile.WORKFLOW).get("/v1/workflows/run")
+        HttpClients.client(HttpClients.Profile.LOOKUP).get("/lookup")
+        HttpClients.client(HttpClients.Profile.LARGE_UPLOAD).newBuilder()
+            .addInterceptor { it.proceed(it.request()) }
+            .build()
+            .get("/v1/files/upload")
+
+        // sequenceNumber 是请求在所属连接上的序号，连续递增说明 4 个请求走的是同一条连接
+        val sequence = List(4) { server.takeRequest().sequenceNumber }
+        assertEquals(listOf(0, 1, 2, 3), sequence)
+
+        val stats = HttpClients.metrics.snapshot(endpoint)
+        assertNotNull(stats)
+        assertEquals(4L, stats!!.calls)
+        assertEquals(1L, stats.newConnections)
+        assertEquals(3L, stats.reusedConnections)
+        assertEquals(0.75, stats.reuseRatio, 1e-9)
+        assertEquals(1L, stats.connect.count)
+        assertEquals(mapOf("http/1.1" to 4L), stats.protocols)
+    }
+
+    @Test
+    fun separateClients_openOneConnectionEach() {
+        // 对照：各自 new 的客户端各有连接池，每个服务都要重新建连
+        repeat(2) { server.enqueue(MockResponse().setBody("ok")) }
+        OkHttpClient().get("/a")
+        OkHttpClient().get("/b")
+
+        assertEquals(0, server.takeRequest().sequenceNumber)
+        assertEquals(0, server.takeRequest().sequenceNumber)
+        assertEquals(2, server.requestCount)
+    }
+
+    @Test
+    fun metrics_recordsTtfbAndFailures() {
+        val metrics = HttpMetrics()
+        val client = OkHttpClient.Builder()
+            .eventListenerFactory(metrics)
+            .retryOnConnectionFailure(false)
+            .build()
+
+        server.enqueue(MockResponse().setBody("slow").setHeadersDelay(200, TimeUnit.MILLISECONDS))
+        server.enqueue(MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST))
+
+        assertEquals("slow", client.get("/slow"))
+        try {
+            client.get("/broken")
+            fail("expected IOException")
+        } catch (expected: IOException) {
+        }
+
+        val stats = metrics.snapshot(endpoint)!!
+        assertEquals(2L, stats.calls)
+        assertEquals(1L, stats.failures)
+        assertEquals(1L, stats.ttfb.count)
+        assertTrue("ttfb ${stats.ttfb}", stats.ttfb.maxMs >= 190)
+        assertTrue("total ${stats.total}", stats.total.maxMs >= stats.ttfb.maxMs)
+        assertEquals(2L, stats.total.count)
+        assertEquals(listOf(endpoint), metrics.snapshot().map { it.endpoint })
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.anticenter.network
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class IncrementalJsonFieldsTest {
+
+    private val fields = ArrayList<Pair<String, Any?>>()
+    private var ended = 0
+    private val scanner = IncrementalJsonFields({ key, value -> fields.add(key to value) }, { ended++ })
+
+    @Test
+    fun append_emitsTopLevelScalarsAsSoonAsComplete() {
+        scanner.append("""{"verdict": "PHIS""")
+        assertTrue(fields.isEmpty())
+
+        scanner.append("""HING", "confidence": 0.9""")
+        // 数字要等到分隔符才算完整
+        assertEquals(listOf<Pair<String, Any?>>("verdict" to "PHISHING"), fields)
+
+        scanner.append(""", "ok": true, "x": null}""")
+        assertEquals(
+            listOf("verdict" to "PHISHING", "confidence" to 0.9, "ok" to true, "x" to null),
+            fields
+        )
+        assertTrue(scanner.isClosed)
+        assertEquals(1, ended)
+    }
+
+    @Test
+    fun append_skipsMarkdownFenceAndNestedValues() {
+        val llm = "```json\n{\"reasons\": [\"says \\\"urgent\\\" }\", {\"a\": [1, 2]}], " +
+            "\"evidence\": {\"quote\": \"]\"}, \"decision\": \"safe\", \"likelihood\": 2}\n```"
+
+        // 逐字符喂入，模拟最碎的分块
+        llm.forEach { scanner.append(it.toString()) }
+
+        assertEquals(listOf("decision" to "safe", "likelihood" to 2.0), fields)
+        assertEquals(1, ended)
+    }
+
+    @Test
+    fun append_decodesEscapes() {
+        scanner.append("""{"note": "line1\nline2 \"q\" é\\"}""")
+
+        assertEquals("line1\nline2 \"q\" é\\", fields.single().second)
+    }
+
+    @Test
+    fun append_ignoresContentAfterObjectEnds() {
+        scanner.append("""{"a": 1} {"b": 2}""")
+
+        assertEquals(listOf<Pair<String, Any?>>("a" to 1.0), fields)
+        assertEquals(1, ended)
+    }
+
+    @Test
+    fun append_waitsForOpeningBrace() {
+        scanner.append("Here is the analysis:\n")
+
+        assertTrue(fields.isEmpty())
+        assertFalse(scanner.isClosed)
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.anticenter.network
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.json.JSONObject
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * 用虚拟时间的假 Dify 后端验证状态机，并和原来固定等待 2 秒的做法比较出结论的时间
+ */
+@ExperimentalCoroutinesApi
+class UploadRunPipelineTest {
+
+    private fun TestScope.pipeline(backoff: UploadRunPipeline.Backoff = UploadRunPipeline.Backoff()) =
+        UploadRunPipeline("test", backoff, Random(42)) { testScheduler.currentTime * 1_000_000 }
+
+    /**
+     * 假后端：上传耗时 [uploadMs]，文件在上传完成 [readyAfterMs] 后才能被工作流使用，工作流本身耗时 [runMs]
+     */
+    private class FakeDify(
+        private val scope: TestScope,
+        private val uploadMs: Long = 300,
+        private val readyAfterMs: Long = 0,
+        private val runMs: Long = 1_000
+    ) {
+        private var readyAt = 0L
+        var runCalls = 0
+
+        suspend fun upload(): String {
+            delay(uploadMs)
+            readyAt = scope.currentTime + readyAfterMs
+            return "file-1"
+        }
+
+        suspend fun run(id: String): String {
+            runCalls++
+            if (scope.currentTime < readyAt) {
+                delay(50) // 服务端很快返回 400
+                throw UploadRunPipeline.FileNotReadyException("upload file $id not found")
+            }
+            delay(runMs)
+            return "PHISHING"
+        }
+    }
+
+    @Test
+    fun execute_runsImmediatelyWhenFileIsReady() = runTest {
+        val dify = FakeDify(this)
+        val states = ArrayList<UploadRunPipeline.State>()
+        val pipeline = pipeline()
+
+        val outcome = pipeline.execute("a.wav", { dify.upload() }, { dify.run(it) }) { states.add(it) }
+
+        assertEquals(UploadRunPipeline.State.SUCCEEDED, outcome.state)
+        assertEquals("PHISHING", outcome.result)
+        assertEquals(1_300L, currentTime)
+        assertEquals(0L, outcome.readyWaitMs)
+        assertEquals(1, dify.runCalls)
+        assertEquals(
+            listOf(UploadRunPipeline.State.UPLOADING, UploadRunPipeline.State.RUNNING, UploadRunPipeline.State.SUCCEEDED),
+            states
+        )
+        assertEquals(1L, pipeline.histogram(UploadRunPipeline.Phase.TOTAL).count)
+        assertEquals(1_300L, pipeline.histogram(UploadRunPipeline.Phase.TOTAL).maxMs)
+    }
+
+    @Test
+    fun execute_retriesOnlyRunPhaseWhileFileIsNotReady() = runTest {
+        val dify = FakeDify(this, readyAfterMs = 400)
+        var uploads = 0
+        val states = ArrayList<UploadRunPipeline.State>()
+
+        val outcome = pipeline().execute("a.wav", { uploads++; dify.upload() }, { dify.run(it) }) { states.add(it) }
+
+        assertEquals(UploadRunPipeline.State.SUCCEEDED, outcome.state)
+        assertEquals(1, uploads)
+        assertTrue(outcome.notReadyRetries in 2..4)
+        assertTrue("ready wait ${outcome.readyWaitMs}", outcome.readyWaitMs in 400..700)
+        assertTrue(UploadRunPipeline.State.WAITING_FOR_FILE in states)
+    }
+
+    @Test
+    fun execute_givesUpAfterMaxWait() = runTest {
+        val dify = FakeDify(this, readyAfterMs = 60_000)
+
+        val outcome = pipeline(UploadRunPipeline.Backoff(maxWaitMs = 2_000))
+            .execute("a.wav", { dify.upload() }, { dify.run(it) })
+
+        assertEquals(UploadRunPipeline.State.FAILED, outcome.state)
+        assertNull(outcome.result)
+        assertTrue(currentTime - 300 <= 2_000)
+    }
+
+    @Test
+    fun execute_otherFailuresAreNotRetried() = runTest {
+        var runs = 0
+        val pipeline = pipeline()
+
+        val failedRun = pipeline.execute<String>("a.wav", { "file-1" }, { runs++; null })
+        val failedUpload = pipeline.execute("b.wav", { null }, { "never" })
+
+        assertEquals(UploadRunPipeline.State.FAILED, failedRun.state)
+        assertEquals(1, runs)
+        assertEquals(UploadRunPipeline.State.FAILED, failedUpload.state)
+        assertNull(failedUpload.uploadId)
+        assertEquals(0L, pipeline.histogram(UploadRunPipeline.Phase.RUN).count)
+    }
+
+    @Test
+    fun isFileNotReady_classifiesDifyErrors() {
+        assertTrue(UploadRunPipeline.isFileNotReady(400, """{"code":"invalid_param","message":"Upload file 123 not found"}"""))
+        assertTrue(UploadRunPipeline.isFileNotReady("File is still processing"))
+        assertFalse(UploadRunPipeline.isFileNotReady(401, """{"message":"Access token is invalid, file not found"}"""))
+        assertFalse(UploadRunPipeline.isFileNotReady(400, """{"message":"inputs is required"}"""))
+
+        val failed = JSONObject().put("data", JSONObject().put("status", "failed").put("error", "upload file does not exist"))
+        try {
+            UploadRunPipeline.checkWorkflowReady(failed)
+            throw AssertionError("expected FileNotReadyException")
+        } catch (expected: UploadRunPipeline.FileNotReadyException) {
+        }
+        UploadRunPipeline.checkWorkflowReady(JSONObject().put("data", JSONObject().put("status", "succeeded")))
+    }
+
+    // ==================== Benchmark ====================
+
+    // runTest 的虚拟时间，不受机器负载影响，随单元测试运行
+    @Test
+    fun execute_timeToVerdictBeatsFixedTwoSecondWait() = runTest {
+        val readiness = listOf(0L, 0L, 0L, 150L, 400L, 1_200L)
+        val pipeline = pipeline()
+
+        var legacyTotal = 0L
+        var pipelineTotal = 0L
+        for (readyAfter in readiness) {
+            // 原实现：上传 → 固定等 2 秒 → 运行
+            val legacy = FakeDify(this, readyAfterMs = readyAfter)
+            val legacyStart = currentTime
+            legacy.upload()
+            delay(2_000)
+            legacy.run("file-1")
+            legacyTotal += currentTime - legacyStart
+
+            val dify = FakeDify(this, readyAfterMs = readyAfter)
+            val start = currentTime
+            val outcome = pipeline.execute("f$readyAfter", { dify.upload() }, { dify.run(it) })
+            assertEquals(UploadRunPipeline.State.SUCCEEDED, outcome.state)
+            pipelineTotal += currentTime - start
+        }
+
+        assertTrue("legacy $legacyTotal vs pipeline $pipelineTotal", pipelineTotal + readiness.size * 1_000 < legacyTotal)
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.anticenter.network
+
+import com.example.anticenter.audio.WavWriter
+import okhttp3.MultipartBody
+import okio.Buffer
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class WavRequestBodyTest {
+
+    private fun pcmBytes(samples: ShortArray): ByteArray =
+        ByteBuffer.allocate(samples.size * 2).order(ByteOrder.LITTLE_ENDIAN).apply {
+            asShortBuffer().put(samples)
+        }.array()
+
+    private fun written(body: okhttp3.RequestBody): ByteArray =
+        Buffer().also { body.writeTo(it) }.readByteArray()
+
+    @Test
+    fun fromSamples_writesHeaderAndLittleEndianData() {
+        val samples = ShortArray(50_000) { (it * 7 - 30_000).toShort() }
+        val body = WavRequestBody.fromSamples(samples, 100, 40_000, 16000, 1)
+
+        val bytes = written(body)
+        assertEquals(body.contentLength(), bytes.size.toLong())
+        assertArrayEquals(WavWriter.header(80_000, 16000, 1), bytes.copyOfRange(0, WavWriter.HEADER_SIZE))
+        assertArrayEquals(
+            pcmBytes(samples.copyOfRange(100, 40_100)),
+            bytes.copyOfRange(WavWriter.HEADER_SIZE, bytes.size)
+        )
+    }
+
+    @Test
+    fun fromPcmFile_streamsRequestedRange() {
+        val samples = ShortArray(100_000) { (it % 2000 - 1000).toShort() }
+        val pcm = File.createTempFile("chunk", ".pcm").apply {
+            deleteOnExit()
+            writeBytes(pcmBytes(samples))
+        }
+
+        val body = WavRequestBody.fromPcmFile(pcm, 16000, 1, offsetBytes = 2_000, lengthBytes = 150_001)
+
+        // 长度对齐到整帧
+        assertEquals(150_000L, body.pcmLength)
+        val bytes = written(body)
+        assertEquals(body.contentLength(), bytes.size.toLong())
+        assertArrayEquals(
+            pcmBytes(samples.copyOfRange(1_000, 76_000)),
+            bytes.copyOfRange(WavWriter.HEADER_SIZE, bytes.size)
+        )
+
+        // 重试时可以再写一遍
+        assertArrayEquals(bytes, written(body))
+    }
+
+    @Test
+    fun fromPcmFile_matchesWavWriterOutput() {
+        val samples = ShortArray(16_000) { (Math.sin(it / 10.0) * 8000).toInt().toShort() }
+        val pcm = File.createTempFile("chunk", ".pcm").apply {
+            deleteOnExit()
+            writeBytes(pcmBytes(samples))
+        }
+        val wav = File.createTempFile("chunk", ".wav").apply { deleteOnExit() }
+        WavWriter.convertPcmFile(pcm, wav, 16000, 1)
+
+        assertArrayEquals(wav.readBytes(), written(WavRequestBody.fromPcmFile(pcm, 16000, 1)))
+    }
+
+    @Test
+    fun multipart_hasKnownContentLength() {
+        val body = WavRequestBody.fromPcmBytes(ByteArray(3_201), 0, 3_201, 16000, 1)
+        val multipart = MultipartBody.Builder()
+            .setType(MultipartBody.FORM)
+            .addFormDataPart("user", "test@example.com")
+            .addFormDataPart("file", "chunk.wav", body)
+            .build()
+
+        assertEquals(WavWriter.HEADER_SIZE + 3_200L, body.contentLength())
+        assertEquals(multipart.contentLength(), written(multipart).size.toLong())
+    }
+}
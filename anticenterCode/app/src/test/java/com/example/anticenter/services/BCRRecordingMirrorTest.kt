@@ -0,0 +1,171 @@
+package com.example.anticenter.services
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+
+class BCRRecordingMirrorTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private var copiedBytes = 0L
+
+    /** 本地版本的 RangeCopier，同时统计实际读取的字节数 */
+    private val localCopier = BCRRecordingMirror.RangeCopier { sourcePath, offset, length, dest ->
+        RandomAccessFile(sourcePath, "r").use { input ->
+            input.seek(offset)
+            val buffer = ByteArray(length.toInt())
+            val read = input.read(buffer)
+            FileOutputStream(dest, true).use { it.write(buffer, 0, maxOf(read, 0)) }
+            copiedBytes += maxOf(read, 0)
+        }
+        true
+    }
+
+    private fun oggPage(bodySize: Int, fill: Int): ByteArray {
+        val out = ByteArrayOutputStream()
+        val lacing = mutableListOf<Int>()
+        var remaining = bodySize
+        while (remaining >= 255) {
+            lacing += 255
+            remaining -= 255
+        }
+        lacing += remaining
+        out.write("OggS".toByteArray())
+        out.write(ByteArray(22))
+        out.write(lacing.size)
+        lacing.forEach { out.write(it) }
+        out.write(ByteArray(bodySize) { fill.toByte() })
+        return out.toByteArray()
+    }
+
+    private fun append(file: File, bytes: ByteArray) {
+        FileOutputStream(file, true).use { it.write(bytes) }
+    }
+
+    @Test
+    fun sync_copiesOnlyAppendedBytes() {
+        val source = tempFolder.newFile("call.oga")
+        val mirror = BCRRecordingMirror(tempFolder.newFolder("mirror"), localCopier)
+        val pages = (1..20).map { oggPage(bodySize = 600, fill = it) }
+
+        pages.forEach { page ->
+            append(source, page)
+            assertNotNull(mirror.sync(source.absolutePath, source.length()))
+        }
+
+        // 每次只复制新增部分，总复制量等于文件大小，而不是 1 + 2 + ... + 20 页
+        assertEquals(source.length(), copiedBytes)
+        assertEquals(source.length(), mirror.totalCopiedBytes)
+    }
+
+    @Test
+    fun sync_stopsAtLastCompleteOggPage() {
+        val source = tempFolder.newFile("call.oga")
+        val mirror = BCRRecordingMirror(tempFolder.newFolder("mirror"), localCopier)
+        val first = oggPage(bodySize = 300, fill = 1)
+        val second = oggPage(bodySize = 300, fill = 2)
+
+        append(source, first)
+        append(source, second.copyOf(100))
+        val partial = mirror.sync(source.absolutePath, source.length())
+
+        requireNotNull(partial)
+        assertEquals(first.size.toLong(), partial.validLength)
+
+        append(source, second.copyOfRange(100, second.size))
+        val complete = mirror.sync(source.absolutePath, source.length())
+
+        requireNotNull(complete)
+        assertEquals((first.size + second.size).toLong(), complete.validLength)
+        assertArrayEquals(source.readBytes(), complete.file.readBytes())
+    }
+
+    @Test
+    fun sync_resyncsOnNextOggPageAfterGarbage() {
+        val source = tempFolder.newFile("call.oga")
+        val mirror = BCRRecordingMirror(tempFolder.newFolder("mirror"), localCopier)
+        val first = oggPage(bodySize = 300, fill = 1)
+        val garbage = ByteArray(100) { 0x5A }
+        val second = oggPage(bodySize = 300, fill = 2)
+        val third = oggPage(bodySize = 300, fill = 3)
+
+        append(source, first)
+        append(source, garbage)
+        val lost = mirror.sync(source.absolutePath, source.length())
+
+        // 还没有下一页时停在第一页结尾，而不是退化成整个文件
+        requireNotNull(lost)
+        assertEquals(first.size.toLong(), lost.validLength)
+
+        append(source, second)
+        append(source, third.copyOf(50))
+        val resynced = mirror.sync(source.absolutePath, source.length())
+
+        requireNotNull(resynced)
+        assertEquals((first.size + garbage.size + second.size).toLong(), resynced.validLength)
+
+        append(source, third.copyOfRange(50, third.size))
+        val complete = mirror.sync(source.absolutePath, source.length())
+
+        requireNotNull(complete)
+        assertEquals(source.length(), complete.validLength)
+    }
+
+    @Test
+    fun sync_restartsMirrorForNewOrTruncatedRecording() {
+        val mirrorDir = tempFolder.newFolder("mirror")
+        val mirror = BCRRecordingMirror(mirrorDir, localCopier)
+        val first = tempFolder.newFile("first.oga")
+        append(first, oggPage(bodySize = 500, fill = 1))
+        mirror.sync(first.absolutePath, first.length())
+
+        val second = tempFolder.newFile("second.oga")
+        val page = oggPage(bodySize = 200, fill = 2)
+        append(second, page)
+        val snapshot = mirror.sync(second.absolutePath, second.length())
+
+        requireNotNull(snapshot)
+        assertArrayEquals(page, snapshot.file.readBytes())
+        assertEquals(1, mirrorDir.listFiles()!!.size)
+
+        // 文件被重写为更短的内容时重新镜像
+        second.writeBytes(oggPage(bodySize = 50, fill = 3))
+        val rewritten = mirror.sync(second.absolutePath, second.length())
+
+        requireNotNull(rewritten)
+        assertArrayEquals(second.readBytes(), rewritten.file.readBytes())
+    }
+
+    @Test
+    fun sync_waitsForMoovBeforeExposingM4a() {
+        val source = tempFolder.newFile("call.m4a")
+        val mirror = BCRRecordingMirror(tempFolder.newFolder("mirror"), localCopier)
+
+        fun box(type: String, payload: Int): ByteArray {
+            val size = 8 + payload
+            return byteArrayOf(
+                (size ushr 24).toByte(), (size ushr 16).toByte(), (size ushr 8).toByte(), size.toByte()
+            ) + type.toByteArray() + ByteArray(payload)
+        }
+
+        append(source, box("ftyp", 16))
+        append(source, box("mdat", 4000))
+        assertNull(mirror.sync(source.absolutePath, source.length()))
+
+        append(source, box("moov", 64))
+        val snapshot = mirror.sync(source.absolutePath, source.length())
+
+        requireNotNull(snapshot)
+        assertEquals(source.length(), snapshot.validLength)
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.anticenter.services
+
+import com.example.anticenter.loadtest.Benchmarks
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 跨块字段、提前停止和字节上限，以及和"整页读成字符串再跑正则"的读取字节数/解析耗时对比
+ */
+class CybertracePageScannerTest {
+
+    private val server = MockWebServer()
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    // ==================== 页面样本 ====================
+
+    /** 风险块 */
+    private fun riskBlock(percent: Int, statement: String, searched: Int, reported: Int?) = """
+        <div class="phone-number-details">
+            <h3>Phone Number Details</h3>
+            <div class="risk-score"><span>Risk Score : $percent%</span></div>
+            <p>This phone number is considered $statement.</p>
+            <ul>
+                <li>Searched $searched times</li>
+                ${if (reported != null) "<li>Reported $reported times</li>" else ""}
+            </ul>
+        </div>
+    """.trimIndent()
+
+    /**
+     * 按线上查询页的结构拼出的样本：头部内联样式和脚本、导航、风险块、用户评论、页脚脚本
+     */
+    private fun page(
+        block: String?,
+        headKb: Int = 60,
+        tailKb: Int = 140,
+        title: String = "Phone Lookup",
+        nav: String = ""
+    ): String {
+        val head = StringBuilder("<!DOCTYPE html>\n<html lang=\"en-AU\">\n<head>\n<title>$title</title>\n<style id=\"theme-inline-css\">\n")
+        var i = 0
+        while (head.length < headKb * 1024 / 2) {
+            head.append(".elementor-element-${i++} .elementor-widget-container{margin:0 0 ${i % 40}px;padding:${i % 17}px}\n")
+        }
+        head.append("</style>\n<script type=\"application/ld+json\">{\"@graph\":[")
+        while (head.length < headKb * 1024) {
+            head.append("{\"@type\":\"WebPage\",\"@id\":\"https://www.cybertrace.com.au/#p${i++}\",\"inLanguage\":\"en-AU\"},")
+        }
+        head.append("{}]}</script>\n</head>\n<body>\n<nav><ul><li><a href=\"/\">Home</a></li>$nav<li><a href=\"/contact/\">Contact</a></li></ul></nav>\n")
+
+        val tail = StringBuilder("<section class=\"comments\">\n")
+        while (tail.length < tailKb * 1024) {
+            tail.append(
+                "<article class=\"comment\"><header>Anonymous · ${i % 28 + 1} Oct 2025</header>" +
+                    "<p>Got a call from this number about a parcel delivery, hung up when I asked for details. #${i++}</p></article>\n"
+            )
+        }
+        tail.append("</section>\n<footer>© Cybertrace Australia</footer>\n<script src=\"/wp-includes/js/jquery/jquery.min.js\"></script>\n</body>\n</html>\n")
+
+        return head.toString() + (block ?: "<p>No data available for this number yet.</p>") + "\n" + tail
+    }
+
+    // ==================== 行为 ====================
+
+    @Test
+    fun scan_extractsFieldsSplitAcrossChunks() {
+        // 让陈述句跨过 4096 字符的块边界
+        val block = riskBlock(82, "high risk based\non community reports", 128, 12)
+        val statementAt = block.indexOf("This phone number")
+        val html = "x".repeat(4_096 - statementAt - 10) + block
+
+        val scan = CybertracePageScanner().scan(html)
+
+        assertEquals(82, scan.result.riskPercent)
+        assertEquals("high risk based on community reports", scan.result.riskStatement)
+        assertEquals(128, scan.result.searchedCount)
+        assertEquals(12, scan.result.reportedCount)
+        assertTrue(scan.result.rawSnippet.contains("Risk Score : 82%"))
+    }
+
+    @Test
+    fun scan_stopsOnceAllFieldsFound() {
+        val html = page(riskBlock(82, "high risk", 128, 12))
+
+        val scan = CybertracePageScanner().scan(html)
+
+        assertFalse(scan.complete)
+        assertEquals(12, scan.result.reportedCount)
+        assertTrue("read ${scan.bytesRead} of ${html.length}", scan.bytesRead < html.length / 2)
+    }
+
+    @Test
+    fun scan_stopsAfterBlockSpanWhenFieldMissing() {
+        val html = page(riskBlock(45, "medium risk", 5, null))
+
+        val scan = CybertracePageScanner(blockSpanChars = 8 * 1024).scan(html)
+
+        assertFalse(scan.complete)
+        assertEquals(45, scan.result.riskPercent)
+        assertNull(scan.result.reportedCount)
+        assertTrue("read ${scan.bytesRead} of ${html.length}", scan.bytesRead < html.length / 2)
+    }
+
+    @Test
+    fun scan_markerTextInHeaderDoesNotEndScanBeforeRiskBlock() {
+        // 页头标题和导航里就有 "Risk Score" / "Phone Number Details"，真正的风险块在 60KB 之后
+        val html = page(
+            riskBlock(82, "high risk", 128, 12),
+            title = "Phone Number Details &amp; Risk Score Lookup",
+            nav = "<li><a href=\"/risk-score/\">How the Risk Score works</a></li>"
+        )
+
+        val scan = CybertracePageScanner(blockSpanChars = 8 * 1024).scan(html)
+
+        assertEquals(82, scan.result.riskPercent)
+        assertEquals("high risk", scan.result.riskStatement)
+        assertEquals(128, scan.result.searchedCount)
+        assertEquals(12, scan.result.reportedCount)
+        assertFalse(scan.complete)
+    }
+
+    @Test
+    fun scan_capsBytesWithoutRiskBlock() {
+        val html = page(null)
+
+        val capped = CybertracePageScanner(maxBytes = 32 * 1024).scan(html)
+        val full = CybertracePageScanner().scan(html)
+
+        assertEquals(32L * 1024, capped.bytesRead)
+        assertFalse(capped.complete)
+        assertTrue(capped.isEmpty)
+        assertTrue(full.complete)
+        assertEquals(html.toByteArray().size.toLong(), full.bytesRead)
+        assertEquals(html.take(600), full.result.rawSnippet)
+    }
+
+    @Test
+    fun lookup_readsPageUntilRiskBlockOnly() {
+        server.enqueue(MockResponse().setBody(page(riskBlock(70, "high risk", 40, 3))))
+        server.start()
+        val client = CybertraceRiskClient(OkHttpClient(), baseUrl = server.url("/scam-phone-number-lookup/").toString())
+
+        val result = client.lookup("+61 400 000 001")!!
+
+        assertEquals(70, result.riskPercent)
+        assertEquals(CybertraceRiskClient.RiskLevel.HIGH, result.riskLevel)
+        assertEquals("/scam-phone-number-lookup/?search=61400000001", server.takeRequest().path)
+    }
+
+    // ==================== Benchmark ====================
+
+    /** 改动前的解析方式：整页字符串上跑四个正则，再按行切出片段 */
+    private fun legacyParse(html: String): CybertraceRiskClient.Result {
+        val percent = Regex("Risk\\s*Score\\s*:\\s*(\\d{1,3})%", RegexOption.IGNORE_CASE).find(html)?.groupValues?.get(1)?.toIntOrNull()
+        val statement = Regex("This phone number is considered\\s+([^.<]+)", RegexOption.IGNORE_CASE).find(html)
+            ?.groupValues?.get(1)?.trim()?.replace("\n", " ")?.replace("  ", " ")
+        val searched = Regex("Searched\\s+(\\d+)\\s+times", RegexOption.IGNORE_CASE).find(html)?.groupValues?.get(1)?.toIntOrNull()
+        val reported = Regex("Reported\\s+(\\d+)\\s+times", RegexOption.IGNORE_CASE).find(html)?.groupValues?.get(1)?.toIntOrNull()
+        val snippet = html.lines()
+            .filter { line -> listOf("Risk Score", "Phone Number Details", "Searched").any { line.contains(it, ignoreCase = true) } }
+            .joinToString("") { it.trim() + "\n" }
+        return CybertraceRiskClient.Result(percent, statement, searched, reported, snippet.ifBlank { html.take(600) })
+    }
+
+    private val fixtures = linkedMapOf(
+        "high" to page(riskBlock(82, "high risk", 128, 12)),
+        "medium" to page(riskBlock(45, "medium risk based on recent activity", 5, null)),
+        "unknown" to page(null)
+    )
+
+    @Test
+    fun scan_readsLessThanHalfThePageAndMatchesWholePageParse() {
+        // 每个样本两份：先整页读取，再流式扫描
+        fixtures.values.forEach { html -> repeat(2) { server.enqueue(MockResponse().setBody(html)) } }
+        server.start()
+        val http = OkHttpClient()
+        val scanner = CybertracePageScanner()
+
+        for ((name, html) in fixtures) {
+            // 网络上实际读取的字节数
+            val legacyBytes = http.newCall(Request.Builder().url(server.url("/")).build()).execute()
+                .use { it.body!!.string().toByteArray().size }
+            val call = http.newCall(Request.Builder().url(server.url("/")).build())
+            val streamed = call.execute().use { response ->
+                scanner.scan(response.body!!.source()).also { if (!it.complete) call.cancel() }
+            }
+
+            val expected = legacyParse(html)
+            assertEquals(name, expected.riskPercent, streamed.result.riskPercent)
+            assertEquals(name, expected.riskStatement, streamed.result.riskStatement)
+            assertEquals(name, expected.searchedCount, streamed.result.searchedCount)
+            assertEquals(name, expected.reportedCount, streamed.result.reportedCount)
+            if (name != "unknown") assertTrue("$name: ${streamed.bytesRead} of $legacyBytes", streamed.bytesRead * 2 < legacyBytes)
+        }
+    }
+
+    @Test
+    fun benchmark_parseTimeVsWholePage() {
+        Benchmarks.assumeEnabled()
+        val scanner = CybertracePageScanner()
+        val rounds = 30
+
+        for ((name, html) in fixtures) {
+            if (name == "unknown") continue
+            val bytes = html.toByteArray()
+            // 内存中解析，排除网络抖动
+            repeat(5) { legacyParse(Buffer().write(bytes).readUtf8()); scanner.scan(Buffer().write(bytes)) }
+            var start = System.nanoTime()
+            repeat(rounds) { legacyParse(Buffer().write(bytes).readUtf8()) }
+            val legacyUs = (System.nanoTime() - start) / 1_000 / rounds
+            start = System.nanoTime()
+            repeat(rounds) { scanner.scan(Buffer().write(bytes)) }
+            val streamedUs = (System.nanoTime() - start) / 1_000 / rounds
+
+            assertTrue("$name: whole page ${legacyUs}us vs streaming ${streamedUs}us", streamedUs < legacyUs)
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.anticenter.services
+
+import com.example.anticenter.loadtest.Benchmarks
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+
+/**
+ * 用假查询函数和可控时钟测试两级缓存的命中、正/负 TTL、并发合并、预热刷新，以及重复来电的查询延迟
+ */
+class CybertraceRiskCacheTest {
+
+    private var now = 1_000_000L
+    private val store = CybertraceRiskCache.MemoryStore()
+    private val fetches = AtomicInteger()
+    private val pool = Executors.newFixedThreadPool(4)
+
+    /** 在调用线程上直接执行，便于断言 */
+    private val direct = Executor { it.run() }
+
+    @After
+    fun tearDown() {
+        pool.shutdownNow()
+    }
+
+    private fun risky(percent: Int) = CybertraceRiskClient.Result(percent, "high risk", 10, 3, "Risk Score : $percent%")
+
+    private fun cache(
+        executor: Executor = direct,
+        memoryEntries: Int = 16,
+        fetch: (String) -> CybertraceRiskClient.Result? = { fetches.incrementAndGet(); risky(80) }
+    ) = CybertraceRiskCache(
+        store, executor,
+        positiveTtlMs = 10_000, negativeTtlMs = 1_000, memoryEntries = memoryEntries,
+        clock = { now }, fetch = fetch
+    )
+
+    @Test
+    fun lookup_servesRepeatCallerFromMemoryAndStore() {
+        val cache = cache()
+        assertEquals(80, cache.lookup("+61 400 000 001").get()!!.riskPercent)
+        assertEquals(80, cache.lookup("+61-400-000-001").get()!!.riskPercent)
+        assertEquals(1, fetches.get())
+        assertEquals(1, store.size)
+
+        // 新实例（服务重启）从数据库读回
+        val restarted = cache()
+        assertEquals(80, restarted.lookup("61400000001").get()!!.riskPercent)
+        assertEquals(1, fetches.get())
+        assertEquals(1L, restarted.stats().diskHits)
+        assertNull(cache.lookup("private").get())
+    }
+
+    @Test
+    fun lookup_negativeResultsExpireSoonerThanPositive() {
+        val cache = cache(fetch = { number ->
+            fetches.incrementAndGet()
+            if (number.endsWith("1")) risky(70) else CybertraceRiskClient.Result(null, null, null, null, "")
+        })
+        cache.lookup("0400000001").get()
+        cache.lookup("0400000002").get()
+
+        now += 1_001
+        cache.lookup("0400000001").get()
+        cache.lookup("0400000002").get()
+        assertEquals(3, fetches.get())
+
+        now += 9_000
+        cache.lookup("0400000001").get()
+        assertEquals(4, fetches.get())
+    }
+
+    @Test
+    fun lookup_doesNotCacheFailures() {
+        var fail = true
+        val cache = cache(fetch = {
+            fetches.incrementAndGet()
+            if (fail) throw IOException("timeout") else risky(40)
+        })
+
+        assertTrue(runCatching { cache.lookup("0400000001").get() }.isFailure)
+        assertEquals(0, store.size)
+        fail = false
+        assertEquals(40, cache.lookup("0400000001").get()!!.riskPercent)
+        assertEquals(2, fetches.get())
+    }
+
+    @Test
+    fun lookup_coalescesConcurrentCallsAndIsolatesCancellation() {
+        val release = CountDownLatch(1)
+        val cache = cache(executor = pool, fetch = {
+            fetches.incrementAndGet()
+            release.await(5, TimeUnit.SECONDS)
+            risky(90)
+        })
+
+        val futures = List(5) { cache.lookup("0400 000 001") }
+        futures[0].cancel(false) // 第一个调用方超时放弃
+        release.countDown()
+
+        futures.drop(1).forEach { assertEquals(90, it.get(5, TimeUnit.SECONDS)!!.riskPercent) }
+        assertEquals(1, fetches.get())
+        assertEquals(4L, cache.stats().joined)
+        assertEquals(90, cache.lookup("0400000001").get()!!.riskPercent)
+    }
+
+    @Test
+    fun refreshRecent_warmsMemoryAndRefreshesEntriesNearExpiry() {
+        val cache = cache()
+        cache.lookup("0400000001").get()
+        now += 5_000
+        cache.lookup("0400000002").get()
+        now += 3_000 // 第一个号码已用掉 80% 寿命
+
+        val restarted = cache()
+        assertEquals(1, restarted.refreshRecent())
+        assertEquals(3, fetches.get())
+        assertEquals(store.get("0400000001")!!.fetchedAt, now)
+
+        restarted.lookup("0400000002").get()
+        assertEquals(1L, restarted.stats().memoryHits)
+    }
+
+    @Test
+    fun lookup_refreshesAheadOnHitNearExpiry() {
+        val cache = cache()
+        cache.lookup("0400000001").get()
+        now += 7_600
+
+        assertEquals(80, cache.lookup("0400000001").get()!!.riskPercent)
+        assertEquals(2, fetches.get())
+        assertEquals(1L, cache.stats().refreshes)
+        assertEquals(now, store.get("0400000001")!!.fetchedAt)
+    }
+
+    /** 300 通来电，号码按 Zipf 式分布重复出现 */
+    private fun zipfCalls(random: Random): List<String> {
+        val callers = List(40) { "04%08d".format(random.nextInt(100_000_000)) }
+        return List(300) { callers[minOf(callers.size - 1, (callers.size * random.nextDouble() * random.nextDouble()).toInt())] }
+    }
+
+    @Test
+    fun lookup_fetchesEachRepeatCallerOnce() {
+        val calls = zipfCalls(Random(5))
+        val cache = cache(executor = pool, memoryEntries = 128)
+
+        calls.forEach { cache.lookup(it).get(5, TimeUnit.SECONDS) }
+
+        val distinct = calls.toSet().size
+        assertEquals(distinct, fetches.get())
+        val stats = cache.stats()
+        assertEquals(calls.size.toLong(), stats.lookups)
+        assertEquals((calls.size - distinct).toLong(), stats.memoryHits)
+    }
+
+    // ==================== Benchmark ====================
+
+    @Test
+    fun benchmark_enrichmentLatencyForRepeatCallers() {
+        Benchmarks.assumeEnabled()
+        val random = Random(5)
+        val calls = zipfCalls(random)
+        val cache = cache(executor = pool, memoryEntries = 128, fetch = {
+            Thread.sleep(20) // 模拟网络查询
+            risky(random.nextInt(100))
+        })
+
+        val repeatUs = ArrayList<Long>()
+        val seen = HashSet<String>()
+        for (number in calls) {
+            val start = System.nanoTime()
+            cache.lookup(number).get(5, TimeUnit.SECONDS)
+            val us = (System.nanoTime() - start) / 1_000
+            if (!seen.add(number)) repeatUs.add(us)
+        }
+
+        val median = repeatUs.sorted()[repeatUs.size / 2]
+        assertTrue("repeat median ${median}us", median < 1_000)
+    }
+}
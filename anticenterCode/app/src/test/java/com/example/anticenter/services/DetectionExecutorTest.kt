@@ -0,0 +1,305 @@
+package com.example.anticenter.services
+
+import com.example.anticenter.loadtest.Benchmarks
+import com.example.anticenter.utils.TimerWheel
+import okhttp3.ConnectionPool
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingDeque
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * 用本地 MockWebServer 当检测后端，验证重试、截止时间、取消传播和吞吐
+ */
+class DetectionExecutorTest {
+
+    private val timer = TimerWheel("test-timer", tickMs = 10)
+    private val server = MockWebServer()
+    private val executors = ArrayList<DetectionExecutor>()
+
+    private val client = OkHttpClient.Builder()
+        .connectionPool(ConnectionPool(16, 1, TimeUnit.MINUTES))
+        .build()
+
+    @After
+    fun tearDown() {
+        executors.forEach { it.close() }
+        timer.close()
+        server.shutdown()
+    }
+
+    private fun executor(concurrency: Int, queueCapacity: Int = 200) =
+        DetectionExecutor("test", concurrency, queueCapacity, timer).also { executors.add(it) }
+
+    /** 每个请求都延迟 [delayMs] 再返回的桩服务 */
+    private fun startStub(delayMs: Long) {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest) =
+                MockResponse().setBody("SAFE").setHeadersDelay(delayMs, TimeUnit.MILLISECONDS)
+        }
+        server.start()
+    }
+
+    private fun detectRequest() = Request.Builder().url(server.url("/detect")).build()
+
+    private fun cause(future: CompletableFuture<*>): Throwable =
+        try {
+            future.get(5, TimeUnit.SECONDS)
+            throw AssertionError("expected failure")
+        } catch (e: ExecutionException) {
+            e.cause!!
+        } catch (e: CancellationException) {
+            e
+        }
+
+    @Test
+    fun submit_retriesUntilSuccess() {
+        val attempts = AtomicInteger()
+        val future = executor(2).submit("file", 5_000, DetectionExecutor.RetryPolicy(3, 10)) { ctx ->
+            assertEquals(attempts.incrementAndGet(), ctx.attempt)
+            if (ctx.attempt < 3) throw IOException("HTTP 502")
+            "SAFE"
+        }
+
+        assertEquals("SAFE", future.get(5, TimeUnit.SECONDS))
+        assertEquals(3, attempts.get())
+        val stats = executors[0].stats()
+        assertEquals(2L, stats.retries)
+        assertEquals(1L, stats.succeeded)
+    }
+
+    @Test
+    fun submit_nonRetryableErrorFailsImmediately() {
+        val attempts = AtomicInteger()
+        val policy = DetectionExecutor.RetryPolicy(5, 10) { it is IOException }
+        val future = executor(1).submit<String>("file", 5_000, policy) {
+            attempts.incrementAndGet()
+            throw IllegalArgumentException("corrupt file")
+        }
+
+        assertTrue(cause(future) is IllegalArgumentException)
+        assertEquals(1, attempts.get())
+        assertEquals(1L, executors[0].stats().failed)
+    }
+
+    @Test
+    fun deadline_coversAllAttemptsAndCancelsInFlightCall() {
+        startStub(delayMs = 2_000)
+        val attempts = AtomicInteger()
+        val lastError = AtomicReference<Throwable>()
+        val start = System.nanoTime()
+
+        // 第 1 次尝试立即失败，退避 100ms 后第 2 次尝试卡在慢请求上：400ms 的时限从第 1 次尝试算起
+        val future = executor(1).submit("file", 400, DetectionExecutor.RetryPolicy(5, 100)) { ctx ->
+            if (attempts.incrementAndGet() == 1) throw IOException("HTTP 502")
+            try {
+                ctx.execute(client.newCall(detectRequest())).use { it.body!!.string() }
+            } catch (e: IOException) {
+                lastError.set(e)
+                throw e
+            }
+        }
+
+        assertTrue(cause(future) is TimeoutException)
+        val elapsedMs = (System.nanoTime() - start) / 1_000_000
+        assertTrue("elapsed $elapsedMs ms", elapsedMs in 400..1_500)
+
+        // 进行中的请求被取消，而不是等服务端 2 秒后返回；取消后不再重试
+        Thread.sleep(300)
+        assertEquals(2, attempts.get())
+        assertTrue(lastError.get() is IOException)
+        assertEquals(1L, executors[0].stats().timedOut)
+    }
+
+    @Test
+    fun cancel_propagatesToOkHttpCallAndFreesWorker() {
+        startStub(delayMs = 2_000)
+        val executor = executor(1)
+        val started = CountDownLatch(1)
+        val error = AtomicReference<Throwable>()
+
+        val slow = executor.submit("slow", 60_000, DetectionExecutor.RetryPolicy(3, 10)) { ctx ->
+            started.countDown()
+            try {
+                ctx.execute(client.newCall(detectRequest())).use { it.body!!.string() }
+            } catch (e: IOException) {
+                error.set(e)
+                throw e
+            }
+        }
+        val next = executor.submit("next", 60_000, DetectionExecutor.RetryPolicy(1, 10)) { "SAFE" }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+        slow.cancel(true)
+
+        // 唯一的工作线程马上被释放出来执行下一个任务
+        assertEquals("SAFE", next.get(2, TimeUnit.SECONDS))
+        assertTrue(error.get() is IOException)
+        assertEquals(1L, executor.stats().cancelled)
+    }
+
+    @Test
+    fun timeout_interruptsBlockingAttempt() {
+        val interrupted = CountDownLatch(1)
+        val future = executor(1).submit<String>("sdk", 100, DetectionExecutor.RetryPolicy(1, 10)) {
+            try {
+                Thread.sleep(10_000) // 模拟 SDK 内部不可取消的阻塞调用
+                "late"
+            } catch (e: InterruptedException) {
+                interrupted.countDown()
+                throw e
+            }
+        }
+
+        assertTrue(cause(future) is TimeoutException)
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun queueFull_dropsOldestQueuedTask() {
+        val executor = executor(1, queueCapacity = 2)
+        val release = CountDownLatch(1)
+        val policy = DetectionExecutor.RetryPolicy(1, 10)
+
+        val running = executor.submit("running", 10_000, policy) { release.await(); "done" }
+        Thread.sleep(50)
+        val oldest = executor.submit("oldest", 10_000, policy) { "oldest" }
+        val second = executor.submit("second", 10_000, policy) { "second" }
+        val newest = executor.submit("newest", 10_000, policy) { "newest" }
+
+        assertTrue(cause(oldest) is RejectedExecutionException)
+        release.countDown()
+        assertEquals("done", running.get(2, TimeUnit.SECONDS))
+        assertEquals("second", second.get(2, TimeUnit.SECONDS))
+        assertEquals("newest", newest.get(2, TimeUnit.SECONDS))
+        assertEquals(1L, executor.stats().dropped)
+    }
+
+    @Test
+    fun close_failsQueuedAndRunningTasks() {
+        val executor = executor(1)
+        val started = CountDownLatch(1)
+        val policy = DetectionExecutor.RetryPolicy(1, 10)
+        val running = executor.submit<String>("running", 10_000, policy) { started.countDown(); Thread.sleep(10_000); "x" }
+        val queued = executor.submit("queued", 10_000, policy) { "y" }
+        assertTrue(started.await(2, TimeUnit.SECONDS))
+
+        executor.close()
+        assertTrue(running.isCancelled)
+        assertTrue(queued.isCancelled)
+    }
+
+    // ==================== Benchmark ====================
+
+    /**
+     * 原实现：ThreadPoolExecutor(2, 3) 的池线程为每个任务新建一个单线程 Executor，阻塞在 future.get 上计时
+     */
+    private fun legacySubmit(exec: ThreadPoolExecutor, task: () -> String): CompletableFuture<String> {
+        val future = CompletableFuture<String>()
+        exec.execute {
+            val single = Executors.newSingleThreadExecutor { r -> Thread(r, "Legacy-Single").apply { isDaemon = true } }
+            try {
+                val inner = single.submit { future.complete(task()) }
+                try {
+                    inner.get(60_000, TimeUnit.MILLISECONDS)
+                } catch (te: TimeoutException) {
+                    inner.cancel(true)
+                    future.completeExceptionally(te)
+                }
+            } catch (e: Exception) {
+                future.completeExceptionally(e)
+            } finally {
+                single.shutdownNow()
+            }
+        }
+        return future
+    }
+
+    @Test
+    fun submit_completesEveryQueuedFileAgainstStubServer() {
+        startStub(delayMs = 5)
+        val executor = executor(4)
+        val policy = DetectionExecutor.RetryPolicy(3, 100)
+
+        val futures = List(200) { i ->
+            executor.submit("file$i", 60_000, policy) { ctx -> ctx.execute(client.newCall(detectRequest())).use { it.body!!.string() } }
+        }
+
+        futures.forEach { assertEquals("SAFE", it.get(60, TimeUnit.SECONDS)) }
+        val stats = executor.stats()
+        assertEquals(200L, stats.succeeded)
+        assertEquals(0L, stats.dropped + stats.failed + stats.timedOut)
+        assertEquals(200, server.requestCount)
+    }
+
+    @Test
+    fun benchmark_200QueuedFilesAgainstStubServer() {
+        Benchmarks.assumeEnabled()
+        startStub(delayMs = 20)
+        val files = 200
+        val call = { client.newCall(detectRequest()).execute().use { it.body!!.string() } }
+
+        // 预热连接和 JIT
+        repeat(8) { call() }
+
+        fun measure(block: () -> List<CompletableFuture<String>>): Double {
+            val start = System.nanoTime()
+            val futures = block()
+            futures.forEach { assertEquals("SAFE", it.get(60, TimeUnit.SECONDS)) }
+            return (System.nanoTime() - start) / 1e9
+        }
+
+        val queue = LinkedBlockingDeque<Runnable>(files)
+        val legacy = ThreadPoolExecutor(2, 3, 60, TimeUnit.SECONDS, queue) { r ->
+            Thread(r, "Legacy-Detector").apply { isDaemon = true }
+        }
+        val legacySeconds = measure { List(files) { legacySubmit(legacy) { call() } } }
+        legacy.shutdownNow()
+
+        val policy = DetectionExecutor.RetryPolicy(3, 100)
+        fun withExecutor(concurrency: Int): Double {
+            val executor = executor(concurrency)
+            return measure {
+                List(files) { i -> executor.submit("file$i", 60_000, policy) { ctx -> ctx.execute(client.newCall(detectRequest())).use { it.body!!.string() } } }
+            }
+        }
+        // 同样 2 个并发，以及同样 4 个线程（原实现是 2 池线程 + 2 计时线程）
+        val sameConcurrency = withExecutor(2)
+        val sameThreads = withExecutor(4)
+
+        assertTrue("legacy ${legacySeconds}s vs executor(4) ${sameThreads}s", sameThreads * 1.5 < legacySeconds)
+        assertTrue("legacy ${legacySeconds}s vs executor(2) ${sameConcurrency}s", sameConcurrency < legacySeconds * 1.2)
+    }
+
+    @Test
+    fun submit_failsFastWhenBackoffExceedsDeadline() {
+        val attempts = AtomicInteger()
+        val future = executor(1).submit<String>("file", 200, DetectionExecutor.RetryPolicy(5, 1_000)) {
+            attempts.incrementAndGet()
+            throw IOException("HTTP 503")
+        }
+
+        // 退避比剩余时间还长：直接报真实错误，而不是等到超时
+        assertTrue(cause(future) is IOException)
+        assertEquals(1, attempts.get())
+    }
+}
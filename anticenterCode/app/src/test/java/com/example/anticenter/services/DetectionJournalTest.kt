@@ -0,0 +1,180 @@
+package com.example.anticenter.services
+
+import com.example.anticenter.utils.TimerWheel
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+
+/**
+ * 断点落盘、过期和清理，以及注入失败时"从头重试"和"从失败阶段重试"的上传字节数对比
+ */
+class DetectionJournalTest {
+
+    @get:Rule
+    val tempFolder = TemporaryFolder()
+
+    private var now = 1_000_000L
+    private val timer = TimerWheel("journal-timer", tickMs = 10)
+    private val server = MockWebServer()
+
+    @After
+    fun tearDown() {
+        timer.close()
+        server.shutdown()
+    }
+
+    private fun journal(dir: File) = DetectionJournal(dir, maxAgeMs = 60_000) { now }
+
+    private fun source(name: String) = tempFolder.newFile(name).apply { writeBytes(ByteArray(16)) }
+
+    @Test
+    fun checkpoint_survivesNewJournalInstance() {
+        val dir = tempFolder.newFolder("journal")
+        val pcm = source("a.pcm")
+
+        val checkpoint = journal(dir).begin("dify", pcm, mapOf("sampleRate" to "16000", "channels" to "1"))
+        checkpoint.save("upload-1", ttlMs = 5_000)
+
+        // 模拟服务重启：新实例从磁盘读回
+        val resumed = journal(dir).pending("dify").single()
+        assertEquals(pcm.absolutePath, resumed.source.absolutePath)
+        assertEquals("upload-1", resumed.remoteId())
+        assertEquals("16000", resumed.arg("sampleRate"))
+        assertTrue(journal(dir).pending("rd").isEmpty())
+
+        resumed.complete()
+        assertTrue(journal(dir).pending("dify").isEmpty())
+        assertTrue(dir.listFiles()!!.isEmpty())
+    }
+
+    @Test
+    fun remoteId_expiresAndInvalidateIsPersisted() {
+        val dir = tempFolder.newFolder("journal")
+        val checkpoint = journal(dir).begin("rd", source("a.wav"))
+        assertNull(checkpoint.remoteId())
+
+        checkpoint.save("req-1", ttlMs = 5_000)
+        now += 4_999
+        assertEquals("req-1", checkpoint.remoteId())
+        now += 1
+        assertNull(checkpoint.remoteId())
+
+        checkpoint.save("req-2", ttlMs = 5_000)
+        checkpoint.invalidate()
+        assertNull(journal(dir).pending("rd").single().remoteId())
+    }
+
+    @Test
+    fun pending_prunesStaleCorruptAndOrphanedEntries() {
+        val dir = tempFolder.newFolder("journal")
+        val journal = journal(dir)
+        journal.begin("dify", source("old.wav"))
+        now += 30_000
+        val keep = journal.begin("dify", source("keep.wav"))
+        val orphan = source("orphan.wav")
+        journal.begin("dify", orphan)
+        orphan.delete()
+        File(dir, "broken.json").writeText("{not json")
+
+        now += 40_000 // old.wav 的记录已超过 60s
+        val pending = journal.pending("dify")
+
+        assertEquals(listOf(keep.source.name), pending.map { it.source.name })
+        assertEquals(1, dir.listFiles()!!.size)
+    }
+
+    @Test
+    fun inMemoryJournal_keepsCheckpointWithoutFiles() {
+        val checkpoint = DetectionJournal(null).begin("dify", source("a.wav"))
+        checkpoint.save("upload-1", ttlMs = 60_000)
+        assertEquals("upload-1", checkpoint.remoteId())
+        assertTrue(DetectionJournal(null).pending("dify").isEmpty())
+    }
+
+    // ==================== Benchmark ====================
+
+    /**
+     * 假两阶段后端：/upload 收文件返回 ID，/run 用 ID 出结果；两个阶段都按比例随机返回 503
+     */
+    private fun startFlakyBackend(uploadFailRate: Double, runFailRate: Double, seed: Int) {
+        val random = Random(seed)
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val fail = synchronized(random) {
+                    random.nextDouble() < if (request.path == "/upload") uploadFailRate else runFailRate
+                }
+                return when {
+                    fail -> MockResponse().setResponseCode(503)
+                    request.path == "/upload" -> MockResponse().setBody("upload-${request.sequenceNumber}")
+                    else -> MockResponse().setBody("SAFE")
+                }
+            }
+        }
+        server.start()
+    }
+
+    /** 跑 [files] 个检测，返回平均每个结论上传了几倍文件大小 */
+    private fun uploadsPerVerdict(files: Int, size: Int, checkpointed: Boolean): Double {
+        val client = OkHttpClient.Builder().build()
+        val executor = DetectionExecutor("bench", 4, 200, timer)
+        val policy = DetectionExecutor.RetryPolicy(20, 1)
+        val journal = DetectionJournal(tempFolder.newFolder())
+        val payload = ByteArray(size).toRequestBody("audio/wav".toMediaType())
+        val uploaded = AtomicLong()
+
+        fun call(ctx: DetectionExecutor.Context, path: String, body: String?): String {
+            val request = Request.Builder().url(server.url(path))
+                .post(if (body != null) body.toRequestBody() else payload).build()
+            ctx.execute(client.newCall(request)).use {
+                if (!it.isSuccessful) throw IOException("$path HTTP ${it.code}")
+                return it.body!!.string()
+            }
+        }
+
+        val futures = (1..files).map { i ->
+            val checkpoint = journal.begin("bench", source("f$checkpointed$i.wav"))
+            executor.submit("f$i", 30_000, policy) { ctx ->
+                var id = if (checkpointed) checkpoint.remoteId() else null
+                if (id == null) {
+                    uploaded.addAndGet(size.toLong())
+                    id = call(ctx, "/upload", null)
+                    checkpoint.save(id, 60_000)
+                }
+                call(ctx, "/run", id)
+            }.whenComplete { _, _ -> checkpoint.complete() }
+        }
+        CompletableFuture.allOf(*futures.toTypedArray()).get(60, TimeUnit.SECONDS)
+        executor.close()
+        client.dispatcher.executorService.shutdown()
+        return uploaded.get().toDouble() / size / files
+    }
+
+    @Test
+    fun resume_uploadsFewerBytesPerVerdictUnderInjectedFailures() {
+        startFlakyBackend(uploadFailRate = 0.1, runFailRate = 0.3, seed = 7)
+
+        val restart = uploadsPerVerdict(files = 60, size = 64 * 1024, checkpointed = false)
+        val resume = uploadsPerVerdict(files = 60, size = 64 * 1024, checkpointed = true)
+
+        assertTrue("resume $resume", resume < 1.35)
+        assertTrue("restart $restart vs resume $resume", resume < restart)
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.anticenter.services
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 用 MemoryStore 和可控时钟测试命中、并发合并、TTL 与 LRU 淘汰
+ */
+class DetectionResultCacheTest {
+
+    private var now = 1_000_000L
+    private val store = DetectionResultCache.MemoryStore()
+    private val uploads = AtomicInteger()
+
+    private fun cache(ttlMs: Long = 60_000, maxEntries: Int = 100) =
+        DetectionResultCache(store, ttlMs, maxEntries) { now }
+
+    private fun DetectionResultCache.detect(hash: Long, verdict: String = "SAFE"): CompletableFuture<String> =
+        getOrCompute("dify", hash, 1000, { it }, { it }) {
+            uploads.incrementAndGet()
+            CompletableFuture.completedFuture(verdict)
+        }
+
+    @Test
+    fun getOrCompute_secondSubmissionOfSameContentIsServedFromCache() {
+        val cache = cache()
+
+        assertEquals("PHISHING", cache.detect(42L, "PHISHING").get())
+        assertEquals("PHISHING", cache.detect(42L, "SAFE").get())
+        assertEquals("SAFE", cache.detect(43L, "SAFE").get())
+
+        assertEquals(2, uploads.get())
+        val stats = cache.stats()
+        assertEquals(3L, stats.lookups)
+        assertEquals(1L, stats.hits)
+        assertEquals(1000L, stats.savedBytes)
+        assertEquals(1.0 / 3, stats.hitRatio, 1e-9)
+    }
+
+    @Test
+    fun getOrCompute_concurrentSubmissionsJoinInFlightDetection() {
+        val cache = cache()
+        val pending = CompletableFuture<String>()
+
+        val first = cache.getOrCompute("rd", 7L, 500, { it }, { it }) { uploads.incrementAndGet(); pending }
+        val second = cache.getOrCompute("rd", 7L, 500, { it }, { it }) { uploads.incrementAndGet(); pending }
+        assertSame(first, second)
+
+        pending.complete("FAKE")
+        assertEquals("FAKE", second.get())
+        assertEquals(1, uploads.get())
+        assertEquals(1L, cache.stats().joined)
+    }
+
+    @Test
+    fun getOrCompute_failuresAreNotCached() {
+        val cache = cache()
+        val failed = cache.getOrCompute("dify", 9L, 100, { it }, { it }) {
+            uploads.incrementAndGet()
+            CompletableFuture<String>().apply { completeExceptionally(IllegalStateException("HTTP 500")) }
+        }
+        try {
+            failed.get()
+        } catch (e: ExecutionException) {
+            assertTrue(e.cause is IllegalStateException)
+        }
+
+        assertEquals("SAFE", cache.detect(9L).get())
+        assertEquals(2, uploads.get())
+    }
+
+    @Test
+    fun getOrCompute_detectorsAreCachedSeparately() {
+        val cache = cache()
+        cache.detect(1L, "PHISHING").get()
+        val rd = cache.getOrCompute("rd", 1L, 100, { it }, { it }) { CompletableFuture.completedFuture("AUTHENTIC") }
+
+        assertEquals("AUTHENTIC", rd.get())
+        assertEquals(0L, cache.stats().hits)
+    }
+
+    @Test
+    fun getOrCompute_expiredEntriesAreRecomputed() {
+        val cache = cache(ttlMs = 10_000)
+        cache.detect(5L).get()
+        now += 10_001
+
+        cache.detect(5L).get()
+        assertEquals(2, uploads.get())
+    }
+
+    @Test
+    fun getOrCompute_undecodableEntryIsTreatedAsMiss() {
+        val cache = cache()
+        cache.detect(6L).get()
+
+        val decoded = cache.getOrCompute<String>("dify", 6L, 100, { it }, { throw IllegalArgumentException("bad") }) {
+            uploads.incrementAndGet()
+            CompletableFuture.completedFuture("SAFE")
+        }
+        assertEquals("SAFE", decoded.get())
+        assertEquals(2, uploads.get())
+    }
+
+    @Test
+    fun memoryStore_evictsLeastRecentlyUsedBeyondCapacity() {
+        val cache = cache(maxEntries = 4)
+        // 16 次写入触发一次淘汰；先写的条目如果被访问过会保留
+        for (hash in 1L..16L) {
+            cache.detect(hash).get()
+            now += 1
+            if (hash > 1) cache.detect(1L).get()
+        }
+
+        assertEquals(4, store.size)
+        assertTrue(store.get("dify", com.example.anticenter.utils.XxHash64.toHex(1L)) != null)
+    }
+}
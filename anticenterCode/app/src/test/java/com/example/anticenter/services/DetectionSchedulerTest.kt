@@ -0,0 +1,294 @@
+package com.example.anticenter.services
+
+import com.example.anticenter.loadtest.Benchmarks
+import com.example.anticenter.network.AdaptiveLimiter
+import com.example.anticenter.network.BackendGuard
+import com.example.anticenter.services.DetectionScheduler.Priority
+import com.example.anticenter.utils.TimerWheel
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+
+/**
+ * 类别优先 + 同类 EDF 的顺序、软截止时间丢弃、队列满时的取舍、和执行器/协程共享名额，
+ * 以及通话片段夹在大批会议视频里时的排队等待对比
+ */
+class DetectionSchedulerTest {
+
+    private val timer = TimerWheel("test-timer", tickMs = 10)
+    private val executors = ArrayList<DetectionExecutor>()
+
+    @After
+    fun tearDown() {
+        executors.forEach { it.close() }
+        timer.close()
+    }
+
+    private fun scheduler(slots: Int = 1, capacity: Int = 100) = DetectionScheduler("test", slots, capacity, timer)
+
+    private fun cause(future: CompletableFuture<*>): Throwable =
+        try {
+            future.get(2, TimeUnit.SECONDS)
+            throw AssertionError("expected failure")
+        } catch (e: ExecutionException) {
+            e.cause!!
+        }
+
+    // ==================== 顺序 ====================
+
+    @Test
+    fun acquire_grantsByClassThenEarliestDeadline() {
+        val scheduler = scheduler()
+        val holder = scheduler.acquire("holder", Priority.BATCH).get()
+        val order = Collections.synchronizedList(ArrayList<String>())
+
+        fun enqueue(tag: String, priority: Priority, softDeadlineMs: Long) =
+            scheduler.acquire(tag, priority, softDeadlineMs).thenAccept { slot ->
+                order += tag
+                slot.release()
+            }
+
+        val all = listOf(
+            enqueue("batch", Priority.BATCH, 60_000),
+            enqueue("video-late", Priority.MEETING_VIDEO, 30_000),
+            enqueue("email", Priority.EMAIL, 1_000),
+            enqueue("call", Priority.LIVE_CALL, 10_000),
+            enqueue("video-early", Priority.MEETING_VIDEO, 5_000)
+        )
+        holder.release()
+        CompletableFuture.allOf(*all.toTypedArray()).get(2, TimeUnit.SECONDS)
+
+        assertEquals(listOf("call", "video-early", "video-late", "email", "batch"), order)
+        assertEquals(0, scheduler.stats().inUse)
+    }
+
+    @Test
+    fun acquire_grantsImmediatelyWhileSlotsFree() {
+        val scheduler = scheduler(slots = 2)
+
+        val first = scheduler.acquire("a", Priority.BATCH)
+        val second = scheduler.acquire("b", Priority.BATCH)
+        val third = scheduler.acquire("c", Priority.BATCH)
+
+        assertTrue(first.isDone && second.isDone)
+        assertFalse(third.isDone)
+        first.get().release()
+        // 重复释放不会多放出名额
+        first.get().release()
+        assertTrue(third.isDone)
+        assertEquals(2, scheduler.stats().inUse)
+    }
+
+    // ==================== 丢弃 ====================
+
+    @Test
+    fun queuedPastSoftDeadline_isShed() {
+        val scheduler = scheduler()
+        val holder = scheduler.acquire("holder", Priority.BATCH).get()
+
+        val late = scheduler.acquire("late", Priority.LIVE_CALL, 50)
+        val waiting = scheduler.acquire("waiting", Priority.MEETING_AUDIO)
+
+        assertTrue(cause(late) is DetectionScheduler.ShedException)
+        holder.release()
+        waiting.get(2, TimeUnit.SECONDS).release()
+
+        val live = scheduler.stats().classes.first { it.priority == Priority.LIVE_CALL }
+        assertEquals(1L, live.shed)
+        assertEquals(0, live.queued)
+        assertEquals(0L, live.granted)
+    }
+
+    @Test
+    fun queueFull_dropsLowestClassFirstAndRejectsLowerNewcomer() {
+        val scheduler = scheduler(capacity = 2)
+        scheduler.acquire("holder", Priority.BATCH).get()
+
+        val oldBatch = scheduler.acquire("old-batch", Priority.BATCH)
+        val newBatch = scheduler.acquire("new-batch", Priority.BATCH)
+        val call = scheduler.acquire("call", Priority.LIVE_CALL)
+        // 同类里截止时间最早的先丢
+        assertTrue(cause(oldBatch) is RejectedExecutionException)
+        assertFalse(newBatch.isDone)
+
+        val video = scheduler.acquire("video", Priority.MEETING_VIDEO)
+        assertTrue(cause(newBatch) is RejectedExecutionException)
+
+        // 队列里都比它高，丢新来的
+        val email = scheduler.acquire("email", Priority.EMAIL)
+        assertTrue(cause(email) is RejectedExecutionException)
+        assertFalse(call.isDone || video.isDone)
+
+        val stats = scheduler.stats().classes.associateBy { it.priority }
+        assertEquals(2L, stats.getValue(Priority.BATCH).dropped)
+        assertEquals(1L, stats.getValue(Priority.EMAIL).dropped)
+    }
+
+    @Test
+    fun cancelledRequest_leavesQueueAndSlotGoesToNext() {
+        val scheduler = scheduler()
+        val holder = scheduler.acquire("holder", Priority.BATCH).get()
+        val cancelled = scheduler.acquire("cancelled", Priority.LIVE_CALL)
+        val next = scheduler.acquire("next", Priority.BATCH)
+
+        cancelled.cancel(false)
+        holder.release()
+
+        next.get(2, TimeUnit.SECONDS)
+        assertEquals(0, scheduler.stats().classes.sumOf { it.queued })
+    }
+
+    // ==================== 共享 ====================
+
+    @Test
+    fun withSlot_sharesSlotsWithExecutorAndJumpsQueuedVideo() {
+        val scheduler = scheduler()
+        val executor = DetectionExecutor("test", 1, timer = timer, scheduler = scheduler).also { executors.add(it) }
+        val order = Collections.synchronizedList(ArrayList<String>())
+        val policy = DetectionExecutor.RetryPolicy(1, 10)
+
+        // 先加载协程相关的类，免得第一次 runBlocking 慢到视频都跑完了
+        runBlocking { }
+        val running = executor.submit("video-0", Priority.MEETING_VIDEO, 10_000, policy) { Thread.sleep(300); order += "video-0" }
+        val queued = (1..3).map { i ->
+            executor.submit("video-$i", Priority.MEETING_VIDEO, 10_000, policy) { order += "video-$i" }
+        }
+        Thread.sleep(50)
+
+        runBlocking {
+            scheduler.withSlot("call", Priority.LIVE_CALL) { order += "call" }
+        }
+        running.get(2, TimeUnit.SECONDS)
+        queued.forEach { it.get(2, TimeUnit.SECONDS) }
+
+        assertEquals(listOf("video-0", "call", "video-1", "video-2", "video-3"), order)
+        assertEquals(0, scheduler.stats().inUse)
+    }
+
+    @Test
+    fun withSlot_throwsShedExceptionWithoutRunningBlock() {
+        val scheduler = scheduler()
+        val holder = scheduler.acquire("holder", Priority.BATCH).get()
+        var ran = false
+
+        try {
+            runBlocking { scheduler.withSlot("call", Priority.LIVE_CALL, softDeadlineMs = 30) { ran = true } }
+            fail("expected ShedException")
+        } catch (e: DetectionScheduler.ShedException) {
+            assertFalse(ran)
+        }
+        holder.release()
+        assertEquals(0, scheduler.stats().inUse)
+    }
+
+    @Test
+    fun executor_shedRetryAfterSoftDeadline() {
+        val executor = DetectionExecutor("test", 1, timer = timer).also { executors.add(it) }
+        val policy = DetectionExecutor.RetryPolicy(3, 200)
+
+        // 第一次尝试失败，退避 200ms 后重新排队时已经过了 100ms 的软截止时间
+        val future = executor.submit<String>("call", Priority.LIVE_CALL, 100, 10_000, policy) {
+            throw java.io.IOException("boom")
+        }
+
+        assertTrue(cause(future) is DetectionScheduler.ShedException)
+        assertEquals(1L, executor.stats().shed)
+    }
+
+    @Test
+    fun guardWait_grantsPermitsByClassWithoutCountingQueuedTasksInFlight() {
+        val scheduler = scheduler(slots = 3)
+        val guard = BackendGuard("busy", AdaptiveLimiter(maxLimit = 1), timer = timer)
+        val held = guard.acquire(0)!!
+        val executor = DetectionExecutor("guarded", 3, timer = timer, guard = guard, scheduler = scheduler)
+            .also { executors.add(it) }
+        val policy = DetectionExecutor.RetryPolicy(1, 10)
+        val order = Collections.synchronizedList(ArrayList<String>())
+
+        fun submit(tag: String, priority: Priority) = executor.submit(tag, priority, 10_000, policy) { order += tag }
+        val all = listOf(
+            submit("batch", Priority.BATCH),
+            submit("video", Priority.MEETING_VIDEO),
+            submit("call", Priority.LIVE_CALL)
+        )
+        Thread.sleep(50)
+
+        // 三个任务都拿到了执行名额、在等后端；排队的不算在途请求
+        assertEquals(3, scheduler.stats().inUse)
+        assertEquals(3, executor.stats().queued)
+        assertEquals(1, guard.stats().inFlight)
+
+        guard.release(held)
+        CompletableFuture.allOf(*all.toTypedArray()).get(2, TimeUnit.SECONDS)
+        assertEquals(listOf("call", "video", "batch"), order)
+        assertEquals(0, guard.stats().inFlight)
+        assertEquals(0, scheduler.stats().inUse)
+    }
+
+    @Test
+    fun guardWait_pastSoftDeadlineIsShed() {
+        val guard = BackendGuard("busy", AdaptiveLimiter(maxLimit = 1), timer = timer)
+        guard.acquire(0)!!
+        val scheduler = scheduler()
+        val executor = DetectionExecutor("test", 1, timer = timer, guard = guard, scheduler = scheduler)
+            .also { executors.add(it) }
+
+        val future = executor.submit("call", Priority.LIVE_CALL, 100, 10_000, DetectionExecutor.RetryPolicy(1, 10)) { "call" }
+
+        // 丢弃时把执行名额还回去
+        assertTrue(cause(future) is DetectionScheduler.ShedException)
+        assertEquals(1L, executor.stats().shed)
+        assertEquals(0, executor.stats().queued)
+        assertEquals(0, scheduler.stats().inUse)
+    }
+
+    // ==================== Benchmark ====================
+
+    /**
+     * 2 个名额；开始时一次来 30 个会议视频片段（每个 200ms），同时每 100ms 来一个通话片段（每个 50ms）。
+     * 对比全部同一类（等价于原来的 FIFO）和按类别排队时通话片段的排队等待
+     */
+    @Test
+    fun benchmark_liveCallWaitBehindMeetingVideoBurst() {
+        Benchmarks.assumeEnabled()
+        fun run(prioritized: Boolean): Pair<List<Long>, DetectionScheduler> {
+            val scheduler = DetectionScheduler("bench", 2, 200, timer)
+            val executor = DetectionExecutor("bench", 2, timer = timer, scheduler = scheduler).also { executors.add(it) }
+            val policy = DetectionExecutor.RetryPolicy(1, 10)
+            val videoClass = if (prioritized) Priority.MEETING_VIDEO else Priority.BATCH
+            val callClass = if (prioritized) Priority.LIVE_CALL else Priority.BATCH
+
+            val videos = (0 until 30).map { i ->
+                executor.submit("video-$i", videoClass, 60_000, 60_000, policy) { Thread.sleep(200) }
+            }
+            val callWaits = (0 until 10).map { i ->
+                val submittedAt = System.currentTimeMillis()
+                executor.submit("call-$i", callClass, 60_000, 60_000, policy) {
+                    val waited = System.currentTimeMillis() - submittedAt
+                    Thread.sleep(50)
+                    waited
+                }.also { Thread.sleep(100) }
+            }
+            val waits = callWaits.map { it.get(20, TimeUnit.SECONDS) }
+            videos.forEach { it.get(20, TimeUnit.SECONDS) }
+            return waits to scheduler
+        }
+
+        val (fifo, _) = run(prioritized = false)
+        val (prioritized, scheduler) = run(prioritized = true)
+
+        assertTrue("by class $prioritized", prioritized.max() < 400)
+        assertTrue("FIFO $fifo", fifo.sorted()[fifo.size / 2] > 1_000)
+        assertEquals(10L, scheduler.waitHistogram(Priority.LIVE_CALL).count)
+        assertEquals(30L, scheduler.waitHistogram(Priority.MEETING_VIDEO).count)
+    }
+}
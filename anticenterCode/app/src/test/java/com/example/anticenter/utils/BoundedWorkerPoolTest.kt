@@ -0,0 +1,96 @@
+package com.example.anticenter.utils
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class BoundedWorkerPoolTest {
+
+    private val pool = BoundedWorkerPool("test", threads = 2, queueCapacity = 3)
+
+    @After
+    fun tearDown() {
+        pool.shutdown()
+        pool.awaitTermination(5_000)
+    }
+
+    @Test
+    fun submit_neverExceedsThreadLimit() {
+        val running = AtomicInteger()
+        val peak = AtomicInteger()
+        val bigPool = BoundedWorkerPool("big", threads = 3, queueCapacity = 100)
+
+        repeat(50) {
+            assertTrue(bigPool.submit {
+                peak.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+                Thread.sleep(2)
+                running.decrementAndGet()
+            })
+        }
+        bigPool.shutdown()
+        assertTrue(bigPool.awaitTermination(10_000))
+
+        assertEquals(3, peak.get())
+        assertEquals(50L, bigPool.stats().completed)
+    }
+
+    @Test
+    fun submit_rejectsWhenQueueFull() {
+        val release = CountDownLatch(1)
+        val started = CountDownLatch(2)
+        repeat(2) { pool.submit { started.countDown(); release.await() } }
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+
+        // 2 个线程占满，再排 3 个，第 6 个被拒绝
+        repeat(3) { assertTrue(pool.submit { }) }
+        assertFalse(pool.submit { })
+
+        val stats = pool.stats()
+        assertEquals(1L, stats.rejected)
+        assertEquals(3, stats.queued)
+        assertEquals(3, stats.maxQueued)
+        assertEquals(2, stats.active)
+
+        release.countDown()
+        pool.shutdown()
+        assertTrue(pool.awaitTermination(5_000))
+        assertEquals(5L, pool.stats().completed)
+        assertTrue(pool.stats().maxWaitMs >= 0)
+    }
+
+    @Test
+    fun submit_deduplicatesKeysUntilTaskFinishes() {
+        val release = CountDownLatch(1)
+        val runs = Collections.synchronizedList(ArrayList<String>())
+
+        assertTrue(pool.submit("a.pcm") { release.await(); runs.add("a") })
+        assertFalse(pool.submit("a.pcm") { runs.add("a-again") })
+        assertTrue(pool.submit("b.pcm") { runs.add("b") })
+        assertEquals(1L, pool.stats().deduplicated)
+
+        release.countDown()
+        pool.shutdown()
+        assertTrue(pool.awaitTermination(5_000))
+        assertEquals(listOf("a", "b"), runs.sorted())
+    }
+
+    @Test
+    fun submit_releasesKeyAfterFailure() {
+        val done = CountDownLatch(1)
+        assertTrue(pool.submit("x") { throw IllegalStateException("boom") })
+        // 失败后 key 被释放，可以再次提交
+        val deadline = System.currentTimeMillis() + 5_000
+        while (!pool.submit("x") { done.countDown() }) {
+            assertTrue(System.currentTimeMillis() < deadline)
+            Thread.sleep(1)
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(1L, pool.stats().failed)
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.anticenter.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class InotifyWatcherTest {
+
+    @Test
+    fun parseEvent_returnsFileNameForCloseWriteAndMovedTo() {
+        assertEquals(
+            "zoom_tap_20250101_120000_3.pcm",
+            InotifyWatcher.parseEvent("w\t/sdcard/ZoomAudio\tzoom_tap_20250101_120000_3.pcm")
+        )
+        assertEquals("a.pcm", InotifyWatcher.parseEvent("y\t/dir\ta.pcm"))
+        assertNull(InotifyWatcher.parseEvent("D\t/dir"))
+        assertNull(InotifyWatcher.parseEvent("r\t/dir\ta.pcm"))
+        assertNull(InotifyWatcher.parseEvent("inotifyd: not found"))
+    }
+
+    @Test
+    fun start_reportsStoppedWhenInotifydMissing() {
+        val stopped = CountDownLatch(1)
+        val watcher = InotifyWatcher(
+            "/tmp",
+            onFileClosed = { },
+            onStopped = { stopped.countDown() },
+            shellCommand = arrayOf("/bin/sh", "-c", "exec /nonexistent/inotifyd \"\$0\"")
+        )
+
+        assertTrue(watcher.start())
+        assertTrue(stopped.await(5, TimeUnit.SECONDS))
+        assertFalse(watcher.isActive)
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.anticenter.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class LatencyHistogramTest {
+
+    @Test
+    fun snapshot_percentilesAreBucketUpperBounds() {
+        val histogram = LatencyHistogram()
+        // 90 个 10ms，9 个 100ms，1 个 3000ms
+        repeat(90) { histogram.record(10) }
+        repeat(9) { histogram.record(100) }
+        histogram.record(3_000)
+
+        val snapshot = histogram.snapshot()
+        assertEquals(100L, snapshot.count)
+        assertEquals(16L, snapshot.p50Ms)   // 10 落在 [8,16)
+        assertEquals(16L, snapshot.p90Ms)
+        assertEquals(128L, snapshot.p99Ms)  // 100 落在 [64,128)
+        assertEquals(3_000L, snapshot.maxMs)
+        assertEquals((900 + 900 + 3_000) / 100.0, snapshot.meanMs, 1e-9)
+    }
+
+    @Test
+    fun snapshot_overflowBucketAndPercentilesCappedByMax() {
+        val histogram = LatencyHistogram(buckets = 4) // [0,1) [1,2) [2,4) [4,∞)
+        histogram.record(0)
+        histogram.record(1_000)
+
+        val snapshot = histogram.snapshot()
+        assertEquals(1L, snapshot.p50Ms)
+        assertEquals(1_000L, snapshot.p99Ms)
+
+        histogram.reset()
+        assertEquals(LatencyHistogram.Snapshot(0, 0.0, 0, 0, 0, 0), histogram.snapshot())
+    }
+
+    @Test
+    fun record_isThreadSafe() {
+        val histogram = LatencyHistogram()
+        val pool = Executors.newFixedThreadPool(4)
+        repeat(4) { t -> pool.execute { repeat(10_000) { histogram.record((it % 50 + t).toLong()) } } }
+        pool.shutdown()
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS))
+
+        assertEquals(40_000L, histogram.snapshot().count)
+        assertEquals(52L, histogram.snapshot().maxMs)
+    }
+}
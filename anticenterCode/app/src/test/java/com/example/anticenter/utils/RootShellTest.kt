@@ -0,0 +1,97 @@
+package com.example.anticenter.utils
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.IOException
+
+/**
+ * 用 /bin/sh 代替 su 测试会话复用、分帧、批量执行、超时与重启
+ */
+class RootShellTest {
+
+    private val shell = RootShell(arrayOf("/bin/sh"), defaultTimeoutMs = 5_000)
+
+    @After
+    fun tearDown() {
+        shell.close()
+    }
+
+    @Test
+    fun exec_returnsStdoutStderrAndExitCode() {
+        val result = shell.exec("echo hello; echo oops >&2; exit_code() { return 3; }; exit_code")
+
+        assertEquals("hello", result.stdout)
+        assertEquals("oops", result.stderr)
+        assertEquals(3, result.exitCode)
+        assertFalse(result.isSuccess)
+    }
+
+    @Test
+    fun exec_reusesSingleProcessAcrossCommands() {
+        val first = shell.exec("echo \$\$").stdout
+        repeat(20) { shell.exec("true") }
+        val last = shell.exec("echo \$\$").stdout
+
+        assertEquals(first, last)
+        assertEquals(1, shell.startCount)
+    }
+
+    @Test
+    fun exec_handlesOutputWithoutTrailingNewlineAndMultipleLines() {
+        assertEquals("no-newline", shell.exec("printf no-newline").stdout)
+        assertEquals("a\nb\nc", shell.exec("printf 'a\\nb\\nc\\n'").stdout)
+        assertEquals("", shell.exec("true").stdout)
+    }
+
+    @Test
+    fun exec_doesNotLetCommandsConsumeProtocolInput() {
+        // cat 没有参数时读 stdin，必须读到 /dev/null 而不是后续命令
+        val result = shell.exec("cat")
+        val after = shell.exec("echo still-alive")
+
+        assertEquals("", result.stdout)
+        assertEquals("still-alive", after.stdout)
+    }
+
+    @Test
+    fun execBatch_returnsResultsInOrderInOneRoundTrip() {
+        val results = shell.execBatch(listOf("echo one", "false", "echo three >&2"))
+
+        assertEquals(3, results.size)
+        assertEquals("one", results[0].stdout)
+        assertTrue(results[0].isSuccess)
+        assertEquals(1, results[1].exitCode)
+        assertEquals("three", results[2].stderr)
+        assertEquals(1, shell.startCount)
+    }
+
+    @Test
+    fun exec_timesOutAndRestartsShell() {
+        try {
+            shell.exec("sleep 5", timeoutMs = 200)
+            fail("Expected timeout")
+        } catch (e: RootShell.ShellTimeoutException) {
+            // expected
+        }
+
+        assertEquals("back", shell.exec("echo back").stdout)
+        assertEquals(2, shell.startCount)
+    }
+
+    @Test
+    fun exec_restartsAfterShellDies() {
+        try {
+            shell.exec("exit 0")
+            fail("Expected shell death to be reported")
+        } catch (e: IOException) {
+            // expected
+        }
+
+        assertEquals("revived", shell.exec("echo revived").stdout)
+        assertEquals(2, shell.startCount)
+    }
+}
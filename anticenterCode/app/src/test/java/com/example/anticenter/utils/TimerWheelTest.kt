@@ -0,0 +1,77 @@
+package com.example.anticenter.utils
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class TimerWheelTest {
+
+    private val wheel = TimerWheel("test-timer", tickMs = 10, wheelSize = 8)
+
+    @After
+    fun tearDown() {
+        wheel.close()
+    }
+
+    @Test
+    fun schedule_firesInDeadlineOrderIncludingMultipleRounds() {
+        val fired = Collections.synchronizedList(ArrayList<Int>())
+        val done = CountDownLatch(4)
+        // 8 槽 × 10ms = 80ms 一圈，250ms 的任务要转好几圈
+        for (delay in listOf(250, 30, 120, 0)) {
+            wheel.schedule(delay.toLong()) { fired.add(delay); done.countDown() }
+        }
+
+        assertTrue(done.await(2, TimeUnit.SECONDS))
+        assertEquals(listOf(0, 30, 120, 250), fired)
+    }
+
+    @Test
+    fun schedule_doesNotFireEarly() {
+        val start = System.nanoTime()
+        val done = CountDownLatch(1)
+        var elapsedMs = 0L
+        wheel.schedule(100) {
+            elapsedMs = (System.nanoTime() - start) / 1_000_000
+            done.countDown()
+        }
+
+        assertTrue(done.await(2, TimeUnit.SECONDS))
+        assertTrue("fired after $elapsedMs ms", elapsedMs >= 100)
+    }
+
+    @Test
+    fun cancel_preventsExecution() {
+        val cancelled = wheel.schedule(50) { throw AssertionError("cancelled timeout fired") }
+        val done = CountDownLatch(1)
+        val kept = wheel.schedule(80) { done.countDown() }
+
+        assertTrue(cancelled.cancel())
+        assertFalse(cancelled.cancel())
+        assertTrue(done.await(2, TimeUnit.SECONDS))
+        assertTrue(kept.isExpired)
+        assertFalse(kept.cancel())
+    }
+
+    @Test
+    fun schedule_resumesAfterIdle() {
+        // 空闲时线程挂起，之后登记的任务仍然按时触发
+        val first = CountDownLatch(1)
+        wheel.schedule(10) { first.countDown() }
+        assertTrue(first.await(2, TimeUnit.SECONDS))
+        Thread.sleep(200)
+
+        val start = System.nanoTime()
+        val second = CountDownLatch(1)
+        wheel.schedule(40) { second.countDown() }
+        assertTrue(second.await(2, TimeUnit.SECONDS))
+        // 只检查不会提前；多晚触发取决于机器负载，由 await 的上限兜底
+        val elapsedMs = (System.nanoTime() - start) / 1_000_000
+        assertTrue("fired after $elapsedMs ms", elapsedMs >= 40)
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.anticenter.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Test
+import java.util.Random
+
+class XxHash64Test {
+
+    @Test
+    fun hash_matchesReferenceVectors() {
+        assertEquals("ef46db3751d8e999", XxHash64.toHex(XxHash64.hash(ByteArray(0))))
+        assertEquals("d24ec4f1a98c6e5b", XxHash64.toHex(XxHash64.hash("a".toByteArray())))
+        assertEquals("44bc2cf5ad770999", XxHash64.toHex(XxHash64.hash("abc".toByteArray())))
+        // ≥ 32 字节，走 4 路累加
+        assertEquals(
+            "fbcea83c8a378bf1",
+            XxHash64.toHex(XxHash64.hash("Nobody inspects the spammish repetition".toByteArray()))
+        )
+    }
+
+    @Test
+    fun update_streamingMatchesOneShotForAnySplit() {
+        val random = Random(3)
+        val data = ByteArray(1000).also { random.nextBytes(it) }
+
+        for (length in listOf(0, 1, 7, 31, 32, 33, 64, 100, 1000)) {
+            val expected = XxHash64.hash(data, 0, length)
+            repeat(20) {
+                val hasher = XxHash64()
+                var pos = 0
+                while (pos < length) {
+                    val n = minOf(length - pos, 1 + random.nextInt(40))
+                    hasher.update(data, pos, n)
+                    pos += n
+                }
+                assertEquals("length $length", expected, hasher.digest())
+            }
+        }
+    }
+
+    @Test
+    fun hash_seedChangesResult() {
+        val data = "hold music".toByteArray()
+        assertNotEquals(XxHash64.hash(data), XxHash64.hash(data, seed = 1L))
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.anticenter.video
+
+import com.example.anticenter.loadtest.Benchmarks
+import com.example.anticenter.loadtest.FakeRealityDefenderServer
+import com.example.anticenter.loadtest.LoadProfile
+import com.example.anticenter.services.DetectionScheduler
+import com.example.anticenter.services.RealityDefenderDetection
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.awt.Color
+import java.awt.image.BufferedImage
+import java.io.File
+import java.util.Random
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+
+/**
+ * 取帧时刻、人脸裁剪和多帧结论合并，以及整段上传和取帧上传在本地假 RD 上的字节数 / 延迟对比
+ */
+class FrameSamplingPolicyTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val policy = FrameSamplingPolicy.RD_VIDEO
+    private var rd: FakeRealityDefenderServer? = null
+
+    @After
+    fun tearDown() {
+        rd?.close()
+    }
+
+    // ==================== 取帧时刻 ====================
+
+    @Test
+    fun sampleTimes_centeredInEqualSlices() {
+        assertArrayEquals(longArrayOf(2_500_000, 7_500_000), policy.sampleTimesUs(10_000_000))
+        assertArrayEquals(longArrayOf(5_000_000), policy.copy(frames = 1).sampleTimesUs(10_000_000))
+        assertArrayEquals(longArrayOf(0, 0), policy.sampleTimesUs(0))
+    }
+
+    // ==================== 人脸裁剪 ====================
+
+    @Test
+    fun faceCrop_noFace_usesWholeFrame() {
+        assertNull(policy.faceCrop(1280, 720, emptyList()))
+    }
+
+    @Test
+    fun faceCrop_coversFaceWithMargin() {
+        val crop = policy.faceCrop(1280, 720, listOf(FrameSamplingPolicy.Face(640f, 300f, 100f)))!!
+
+        // 2.2 × 100 × 1.5 = 330 宽，2.8 × 100 × 1.5 = 420 高，中心下移 30
+        assertEquals(330, crop.width)
+        assertEquals(420, crop.height)
+        assertEquals(475, crop.left)
+        assertEquals(120, crop.top)
+    }
+
+    @Test
+    fun faceCrop_smallFaceExpandedToMinimum() {
+        val crop = policy.faceCrop(1280, 720, listOf(FrameSamplingPolicy.Face(640f, 300f, 20f)))!!
+
+        assertEquals(policy.minCropPx, crop.width)
+        assertEquals(policy.minCropPx, crop.height)
+        assertTrue(640 in crop.left until crop.right)
+    }
+
+    @Test
+    fun faceCrop_clampedInsideFrame() {
+        val edge = policy.faceCrop(1280, 720, listOf(FrameSamplingPolicy.Face(20f, 700f, 80f)))!!
+        assertEquals(0, edge.left)
+        assertEquals(720, edge.bottom)
+
+        val huge = policy.faceCrop(640, 360, listOf(FrameSamplingPolicy.Face(320f, 180f, 400f)))!!
+        assertEquals(FrameSamplingPolicy.Crop(0, 0, 640, 360), huge)
+    }
+
+    @Test
+    fun faceCrop_multipleFaces_coversAll() {
+        // 画廊视图里的两个参会者
+        val crop = policy.faceCrop(
+            1280, 720,
+            listOf(FrameSamplingPolicy.Face(320f, 360f, 60f), FrameSamplingPolicy.Face(960f, 360f, 60f))
+        )!!
+
+        assertTrue(crop.left < 320 - 60 && crop.right > 960 + 60)
+    }
+
+    @Test
+    fun scaledSize_onlyShrinksLongEdge() {
+        assertEquals(640 to 360, policy.scaledSize(1280, 720))
+        assertEquals(360 to 640, policy.scaledSize(720, 1280))
+        assertEquals(330 to 420, policy.scaledSize(330, 420))
+    }
+
+    // ==================== 结论合并 ====================
+
+    @Test
+    fun segmentStatus_worstFrameWins() {
+        assertEquals("MANIPULATED", SegmentFrameSampler.segmentStatus(listOf("AUTHENTIC", "MANIPULATED")))
+        assertEquals("SUSPICIOUS", SegmentFrameSampler.segmentStatus(listOf("authentic", "suspicious")))
+        assertEquals("AUTHENTIC", SegmentFrameSampler.segmentStatus(listOf(null, "AUTHENTIC")))
+        assertEquals("NOT_APPLICABLE", SegmentFrameSampler.segmentStatus(listOf("NOT_APPLICABLE")))
+        assertEquals("UNKNOWN", SegmentFrameSampler.segmentStatus(listOf(null, null)))
+    }
+
+    // ==================== Benchmark ====================
+
+    private companion object {
+        const val SEGMENTS = 3
+        const val SEGMENT_SECONDS = 10
+
+        // 录制参数：3 Mbit/s（3 × 1024 × 1024 bit/s），10 秒一段
+        const val SEGMENT_BYTES = 3 * 1024 * 1024 / 8 * SEGMENT_SECONDS
+
+        // 16 Mbit/s 上行
+        const val UPLINK_BYTES_PER_SECOND = 2L * 1024 * 1024
+    }
+
+    /** 与录制参数同样大小的片段（RD 只看扩展名和大小，不解码） */
+    private fun segmentFixture(index: Int): File = tmp.newFile("session_fixture_%03d.mp4".format(index)).apply {
+        writeBytes(ByteArray(SEGMENT_BYTES).also { Random(index.toLong()).nextBytes(it) })
+    }
+
+    /**
+     * 取帧结果的替身：1280×720 的画面里画一个人脸（肤色椭圆、眼睛、带噪声的背景），
+     * 按 [policy] 裁剪、缩放后用同样的质量编码成 JPEG
+     */
+    private fun frameFixture(segment: File, index: Int): File {
+        val frame = BufferedImage(1280, 720, BufferedImage.TYPE_INT_RGB)
+        val random = Random(index.toLong() * 31)
+        for (y in 0 until 720) for (x in 0 until 1280) {
+            val n = random.nextInt(24)
+            frame.setRGB(x, y, Color(40 + x / 16 + n, 60 + y / 12 + n, 90 + n).rgb)
+        }
+        frame.createGraphics().apply {
+            color = Color(224, 172, 140)
+            fillOval(560, 180, 160, 220)
+            color = Color(40, 30, 30)
+            fillOval(600, 260, 24, 14)
+            fillOval(656, 260, 24, 14)
+            fillRect(610, 340, 60, 8)
+            dispose()
+        }
+        val crop = policy.faceCrop(1280, 720, listOf(FrameSamplingPolicy.Face(640f, 267f, 56f)))!!
+        val (w, h) = policy.scaledSize(crop.width, crop.height)
+        val region = frame.getSubimage(crop.left, crop.top, crop.width, crop.height)
+        val scaled = BufferedImage(w, h, BufferedImage.TYPE_INT_RGB).apply {
+            createGraphics().apply { drawImage(region, 0, 0, w, h, null); dispose() }
+        }
+
+        val out = File(tmp.root, "${segment.nameWithoutExtension}_f$index.jpg")
+        val writer = ImageIO.getImageWritersByFormatName("jpeg").next()
+        ImageIO.createImageOutputStream(out).use { stream ->
+            writer.output = stream
+            val param = writer.defaultWriteParam.apply {
+                compressionMode = ImageWriteParam.MODE_EXPLICIT
+                compressionQuality = policy.jpegQuality / 100f
+            }
+            writer.write(null, IIOImage(scaled, null, null), param)
+        }
+        writer.dispose()
+        return out
+    }
+
+    private data class Run(val uploadedBytes: Long, val latencies: List<Long>) {
+        val bytesPerMinute: Long
+            get() = uploadedBytes * 60 / (SEGMENTS * SEGMENT_SECONDS)
+
+        fun p(q: Double): Long = latencies.sorted()[((latencies.size * q).toInt()).coerceAtMost(latencies.size - 1)]
+
+        override fun toString(): String =
+            "${bytesPerMinute / 1024} KB per meeting-minute, latency p50=${p(0.5)}ms max=${latencies.max()}ms"
+    }
+
+    /** 按片段顺序提交，每段的所有产物并发提交，等齐后算一段的延迟 */
+    private fun runSegments(segments: List<File>, artifacts: (File) -> List<File>): Run {
+        val server = FakeRealityDefenderServer(
+            analysis = LoadProfile(LoadProfile.Latency.fixed(300), verdicts = mapOf("AUTHENTIC" to 1.0))
+        ).apply { uplinkBytesPerSecond = UPLINK_BYTES_PER_SECOND }
+        rd = server
+        server.start()
+        val detection = RealityDefenderDetection("rd-bench", 2, server.apiUrl)
+        try {
+            val latencies = segments.map { segment ->
+                val files = artifacts(segment)
+                val start = System.currentTimeMillis()
+                val statuses = files.map { detection.submit(it, DetectionScheduler.Priority.MEETING_VIDEO) }
+                CompletableFuture.allOf(*statuses.toTypedArray()).get(60, TimeUnit.SECONDS)
+                assertEquals("AUTHENTIC", SegmentFrameSampler.segmentStatus(statuses.map { it.join().status }))
+                System.currentTimeMillis() - start
+            }
+            return Run(server.requestBytes.get(), latencies)
+        } finally {
+            detection.close()
+            server.close()
+            rd = null
+        }
+    }
+
+    @Test
+    fun sampledFrames_areUnderOneTwentiethOfTheSegment() {
+        val segment = segmentFixture(0)
+        val frames = List(policy.frames) { frameFixture(segment, it) }
+
+        val frameBytes = frames.sumOf { it.length() }
+        assertTrue("$frameBytes B of frames vs ${segment.length()} B segment", frameBytes * 20 < segment.length())
+    }
+
+    /**
+     * 每段 10 秒、3 Mbit/s 的片段：整段上传 vs 按 [FrameSamplingPolicy.RD_VIDEO] 取两帧人脸 JPEG。
+     * 上行限速 16 Mbit/s，假 RD 分析耗时固定 300ms（真实的视频分析比图片慢，这里按相同算，对取帧不利）
+     */
+    @Test
+    fun benchmark_fullSegmentVsSampledFrames() {
+        Benchmarks.assumeEnabled()
+        val segments = List(SEGMENTS) { segmentFixture(it) }
+        val full = runSegments(segments) { listOf(it) }
+        val sampled = runSegments(segments) { segment -> List(policy.frames) { frameFixture(segment, it) } }
+
+        assertTrue("frames $sampled vs full $full", sampled.bytesPerMinute * 20 < full.bytesPerMinute)
+        assertTrue("frames $sampled vs full $full", sampled.p(0.5) < full.p(0.5))
+    }
+}